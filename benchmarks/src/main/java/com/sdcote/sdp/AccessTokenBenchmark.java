@@ -0,0 +1,104 @@
+package com.sdcote.sdp;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures retrieving access tokens from many threads at once.
+ *
+ * <p>Every API call asks the tracker for a token, so this is mostly the cost
+ * of returning a cached token while other threads do the same. The token
+ * endpoint is served locally and issues tokens which expire after the given
+ * number of seconds; short lifetimes mix refreshes into the measurement.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class AccessTokenBenchmark {
+
+    /** The lifetime of issued tokens in seconds (the tracker refreshes 60 seconds early). */
+    @Param({"3600", "61"})
+    public int expiresIn;
+
+    /** The number of distinct clients the threads share. */
+    @Param({"1", "4"})
+    public int clients;
+
+    private HttpServer server;
+    private OAuthAccessTokenTracker tracker;
+    private ClientCredentials[] credentials;
+    private final AtomicLong issued = new AtomicLong();
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/oauth/v2/token", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = String.format("{\"access_token\":\"1000.%d.bench\",\"expires_in\":%d,\"token_type\":\"Bearer\"}", issued.incrementAndGet(), expiresIn).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        // no refresh limit, or short lifetimes would soon measure the cached token again
+        tracker = new OAuthAccessTokenTracker("http://127.0.0.1:" + server.getAddress().getPort() + "/oauth/v2", 60)
+                .setRefreshLimit(Integer.MAX_VALUE, 0);
+        credentials = new ClientCredentials[clients];
+        for (int i = 0; i < clients; i++) {
+            credentials[i] = new ClientCredentials("1000.BENCH" + i, "secret" + i, "1000.refresh" + i);
+            tracker.registerClient(credentials[i]);
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        HttpClientPool.reset();
+    }
+
+
+    @State(Scope.Thread)
+    public static class Caller {
+        private int next = 0;
+
+        ClientCredentials next(ClientCredentials[] credentials) {
+            return credentials[next++ % credentials.length];
+        }
+    }
+
+
+    @Benchmark
+    public String getAccessToken(Caller caller) throws IOException, InterruptedException {
+        return tracker.getAccessToken(caller.next(credentials));
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.sdcote.sdp;
+
+import coyote.commons.DataFrameUtil;
+import coyote.commons.dataframe.DataFrame;
+import coyote.commons.dataframe.marshal.JSONMarshaler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures flattening a single record, which the reader does for every
+ * record when the {@code flatten} option is set, generically and with a
+ * plan compiled from the shape of the record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlattenBenchmark {
+
+    @Param({"assets", "workstations"})
+    public String resultField;
+
+    private DataFrame record;
+    private RecordFlattener flattener;
+
+
+    @Setup
+    public void setup() {
+        record = JSONMarshaler.marshal(RecordedPages.record(resultField, 0)).get(0);
+        flattener = new RecordFlattener();
+        flattener.flatten(record);
+        flattener.setLearning(false);
+    }
+
+
+    @Benchmark
+    public DataFrame flatten() {
+        return DataFrameUtil.flatten(record);
+    }
+
+
+    @Benchmark
+    public DataFrame flattenPlanned() {
+        return flattener.flatten(record);
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.sdcote.sdp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the request URI for a page, which serializes and
+ * encodes the list information including its search criteria.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerateUriBenchmark {
+
+    /** The number of criteria in the search tree. */
+    @Param({"1", "8", "32"})
+    public int criteria;
+
+    private ListInfo listInfo;
+
+
+    @Setup
+    public void setup() {
+        listInfo = new ListInfo()
+                .setRowCount(100)
+                .setStartIndex(101)
+                .setSortField("name")
+                .setSortOrder(ListInfo.ASCENDING)
+                .setFieldsRequired(new String[]{"id", "name", "state", "user", "last_updated_time"})
+                .setSearchCriteria(criteria(criteria));
+    }
+
+
+    /**
+     * Build a tree of criteria resembling the ones used by the automation jobs:
+     * a state filter AND-ed with groups of OR-ed name and tag matches.
+     */
+    private static SearchCriteria criteria(int count) {
+        SearchCriteria root = new SearchCriteria("state.name", SearchCondition.IS.getValue(), "In Use");
+        SearchCriteria group = null;
+        for (int i = 1; i < count; i++) {
+            if (group == null || i % 4 == 1) {
+                group = new SearchCriteria("name", SearchCondition.STARTS_WITH.getValue(), String.format("WS-COL-%03d", i));
+                group.setLogicalOperator("AND");
+                root.addChild(group);
+            } else {
+                SearchCriteria child = new SearchCriteria("asset_tag", SearchCondition.IS.getValue(), String.format("WS-1198940000021%05d", i));
+                child.setLogicalOperator("OR");
+                group.addChild(child);
+            }
+        }
+        return root;
+    }
+
+
+    @Benchmark
+    public URI generateUri() {
+        return SDP.generateUri("/workstations", listInfo);
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+import coyote.commons.dataframe.marshal.JSONMarshaler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning a page of results into DataFrames and extracting the
+ * records, which is done for every page read from the service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarshalBenchmark {
+
+    @Param({"assets", "workstations"})
+    public String resultField;
+
+    @Param({"10", "100"})
+    public int rows;
+
+    private String body;
+
+
+    @Setup
+    public void setup() {
+        body = RecordedPages.page(resultField, rows);
+    }
+
+
+    /**
+     * Marshal the entire body, as the client does before extracting results.
+     */
+    @Benchmark
+    public List<DataFrame> marshal() {
+        return JSONMarshaler.marshal(body);
+    }
+
+
+    /**
+     * Marshal the body and extract the status, list information and records
+     * into an API response, as {@code callApi} does.
+     */
+    @Benchmark
+    public ApiResponse extractResults() {
+        ApiResponse response = new ApiResponse(null);
+        SDP.processBody(response, body, resultField);
+        return response;
+    }
+
+
+    /**
+     * Extract the records with the incremental parser used for streamed calls.
+     */
+    @Benchmark
+    public int streamResults() {
+        StreamingResponseParser parser = new StreamingResponseParser(resultField, record -> {
+        });
+        parser.parse(body);
+        return parser.getRecordCount();
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.sdcote.sdp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds response pages shaped like those returned by the ServiceDesk API.
+ *
+ * <p>The record templates in this package were recorded from the
+ * {@code /assets} and {@code /workstations} endpoints with identifying data
+ * replaced. Each row of a page gets its own identifier, name and addresses so
+ * the marshaler cannot benefit from identical strings.</p>
+ */
+final class RecordedPages {
+
+    /** The first record identifier of a page, in the range the service uses. */
+    private static final long FIRST_ID = 119894000002100001L;
+
+    private RecordedPages() {
+    }
+
+
+    /**
+     * Build a page of results.
+     *
+     * @param resultField the endpoint's result field, "assets" or "workstations"
+     * @param rows        the number of records on the page
+     * @return the body of the response
+     */
+    static String page(String resultField, int rows) {
+        String template = template(resultField);
+        StringBuilder b = new StringBuilder(template.length() * rows + 512);
+        b.append("{\n  \"response_status\": [{\"status_code\": 2000, \"status\": \"success\"}],\n");
+        b.append("  \"list_info\": {\"has_more_rows\": true, \"sort_field\": \"name\", \"start_index\": 1, \"sort_order\": \"asc\", \"row_count\": ");
+        b.append(rows).append(", \"get_total_count\": false},\n");
+        b.append("  \"").append(resultField).append("\": [");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) b.append(',');
+            b.append('\n').append(record(template, resultField, i));
+        }
+        b.append("\n  ]\n}");
+        return b.toString();
+    }
+
+
+    /**
+     * Build a single record.
+     *
+     * @param resultField the endpoint's result field, "assets" or "workstations"
+     * @param row         the position of the record, used to make it unique
+     * @return the JSON text of the record
+     */
+    static String record(String resultField, int row) {
+        return record(template(resultField), resultField, row);
+    }
+
+
+    private static String record(String template, String resultField, int row) {
+        String prefix = "workstations".equals(resultField) ? "WS" : "AP";
+        return template.replace("${id}", Long.toString(FIRST_ID + row))
+                .replace("${name}", String.format("%s-COL-%05d", prefix, row))
+                .replace("${octet}", Integer.toString(row % 256));
+    }
+
+
+    private static String template(String resultField) {
+        String resource = "workstations".equals(resultField) ? "workstation.json" : "asset.json";
+        try (InputStream in = RecordedPages.class.getResourceAsStream(resource)) {
+            if (in == null) throw new IllegalStateException("Missing record template " + resource);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -1,16 +1,19 @@
 package com.sdcote;
 
 import com.sdcote.sdp.ClientCredentials;
+import com.sdcote.sdp.CredentialPool;
+import com.sdcote.sdp.EncryptedFileTokenStore;
 import com.sdcote.sdp.SDP;
 import com.sdcote.sdp.Workstation;
+import com.sdcote.sdp.WorkstationLookup;
 import coyote.commons.StringUtil;
 import coyote.commons.log.Log;
 import coyote.commons.vault.Vault;
-import coyote.commons.vault.VaultEntry;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,6 +24,11 @@ public class UpdateWorkstation {
 
     private static final String DEFAULT_FILE = "workstations.txt";
 
+    /** The system property listing the vault entries of the API clients to use, separated by commas. */
+    private static final String VAULT_ENTRIES_PROPERTY = "vault.entries";
+
+    private static final String DEFAULT_VAULT_ENTRY = "AssetAutomation";
+
     static {
         Log.initDevelopmentLogging();
         Log.stopLogging(Log.DEBUG);
@@ -42,39 +50,41 @@ public class UpdateWorkstation {
             return;
         }
 
-        VaultEntry entry = vault.getEntry("AssetAutomation");
-        if (entry == null) {
-            Log.error("Could not find 'AssetAutomation' entry in vault.");
+        // several API clients may be listed to spread the calls over their rate budgets
+        CredentialPool pool = CredentialPool.fromVault(vault, System.getProperty(VAULT_ENTRIES_PROPERTY, DEFAULT_VAULT_ENTRY).split(","));
+        if (pool.size() == 0) {
+            Log.error("No usable credentials in the vault entries " + pool.getIdentifier());
             return;
         }
+        ClientCredentials credentials = pool.size() == 1 ? pool.getMembers().get(0).getCredentials() : pool;
+        if (System.getProperty(SDP.TOKEN_STORE_PROPERTY) == null) {
+            // reuse the access token of the last run rather than retrieving a new one
+            SDP.setTokenStore(new EncryptedFileTokenStore(Paths.get(EncryptedFileTokenStore.DEFAULT_FILENAME), System.getProperty("vault.password")));
+        }
 
-        String clientId = entry.get("Username");
-        String clientSecret = entry.get("Password");
-        String refreshToken = entry.get("Token");
+        WorkstationLookup lookup = SDP.getWorkstationsByNames(credentials, names);
+        Log.info(String.format("Looked up %d workstation names in %d calls", names.size(), lookup.getCalls()));
 
-        if (StringUtil.isBlank(clientId) || StringUtil.isBlank(clientSecret) || StringUtil.isBlank(refreshToken)) {
-            Log.error("Missing credentials in 'AssetAutomation' vault entry (Username, Password, or Token).");
-            return;
+        for (Workstation workstation : lookup.getFound().values()) {
+            Log.info("Found workstation: " + workstation.getName() + " (ID: " + workstation.getId() + ") - " + workstation.getStateName());
         }
 
-        ClientCredentials credentials = new ClientCredentials(clientId, clientSecret, refreshToken);
-
-        for (String name : names) {
-            Log.debug("Retrieving workstation: " + name);
-            Workstation workstation = SDP.getWorkstationByName(credentials, name);
-            if (workstation != null) {
-                Log.info("Found workstation: " + workstation.getName() + " (ID: " + workstation.getId() + ") - " + workstation.getStateName());
-
-//                Workstation updated = SDP.updateWorkstationState(workstation, "Expired", credentials);
-//                if (updated != null) {
-//                    Log.info("Updated workstation: " + updated.getName() + " to state: " + updated.getStateName());
-//                } else {
-//                    Log.error("Failed to update workstation: " + workstation.getName());
-//                }
-            } else {
-                Log.warn("Workstation not found: " + name);
-            }
+        for (String name : lookup.getNotFound()) {
+            Log.warn("Workstation not found: " + name);
+        }
+
+        for (String name : lookup.getFailed()) {
+            Log.error("Workstation could not be looked up: " + name + " (" + lookup.getFailure(name) + ")");
         }
+
+//        List<StateChange> changes = new ArrayList<>();
+//        for (Workstation workstation : lookup.getFound().values()) {
+//            changes.add(StateChange.byId(workstation.getId(), "Expired"));
+//        }
+//        BulkUpdateReport report = new BulkUpdateEngine(credentials).run(changes);
+//        for (BulkUpdateReport.Result result : report.getResults()) {
+//            if (result.getOutcome() == BulkUpdateReport.Outcome.FAILED) Log.error("Failed to update workstation: " + result);
+//        }
     }
 
     /**
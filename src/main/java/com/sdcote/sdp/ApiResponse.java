@@ -3,10 +3,14 @@ package com.sdcote.sdp;
 
 import coyote.commons.dataframe.DataFrame;
 
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 /**
@@ -29,6 +33,7 @@ import java.util.List;
  */
 public class ApiResponse {
     private static final DecimalFormat DECIMAL_FORMAT = new DecimalFormat("#,###,##0.00");
+    private static final Pattern SERVER_TIMING_DURATION = Pattern.compile("dur=([0-9.]+)");
     private final List<DataFrame> results = new ArrayList<>();
     private HttpRequest request = null;
     private int httpStatusCode = 0;
@@ -43,6 +48,23 @@ public class ApiResponse {
     private long txnStart = 0;
     private long txnEnd = 0;
     private DataFrame responseFrame = null;
+    private int recordCount = 0;
+    private CacheStatus cacheStatus = CacheStatus.BYPASS;
+    private ResponseCache.Statistics cacheStatistics = null;
+    private int retryCount = 0;
+    private long backoffMillis = 0;
+    private boolean circuitOpen = false;
+    private long requestStartNanos = 0;
+    private long requestNanos = 0;
+    private long firstByteNanos = 0;
+    private long parseStartNanos = 0;
+    private long parseNanos = 0;
+    private long txnStartNanos = 0;
+    private long txnNanos = 0;
+    private long throttleNanos = 0;
+    private long tokenNanos = 0;
+    private long responseBytes = 0;
+    private HttpHeaders headers = null;
 
 
 
@@ -102,6 +124,14 @@ public class ApiResponse {
         return request;
     }
 
+
+    /**
+     * @param request the HTTP request of the latest attempt
+     */
+    public void setRequest(final HttpRequest request) {
+        this.request = request;
+    }
+
     public List<DataFrame> getResults() {
         return results;
     }
@@ -115,9 +145,27 @@ public class ApiResponse {
     public void add(final DataFrame frame) {
         if (frame != null) {
             results.add(frame);
+            recordCount++;
         }
     }
 
+
+    /**
+     * Count a record which was passed directly to a consumer as it was
+     * received rather than being added to the result list.
+     */
+    public void recordStreamed() {
+        recordCount++;
+    }
+
+
+    /**
+     * @return how many records were received, including those streamed to a consumer instead of being added to the result list.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
     /**
      * Get a particular frame from the result set.
      *
@@ -249,6 +297,7 @@ public class ApiResponse {
      */
     public void requestStart() {
         requestStart = System.currentTimeMillis();
+        requestStartNanos = System.nanoTime();
     }
 
     /**
@@ -263,6 +312,7 @@ public class ApiResponse {
      */
     public void requestEnd() {
         requestEnd = System.currentTimeMillis();
+        requestNanos = System.nanoTime() - requestStartNanos;
     }
 
     /**
@@ -284,6 +334,7 @@ public class ApiResponse {
      */
     public void parseStart() {
         parseStart = System.currentTimeMillis();
+        parseStartNanos = System.nanoTime();
     }
 
     /**
@@ -298,6 +349,7 @@ public class ApiResponse {
      */
     public void parseEnd() {
         parseEnd = System.currentTimeMillis();
+        parseNanos = System.nanoTime() - parseStartNanos;
     }
 
     /**
@@ -349,7 +401,45 @@ public class ApiResponse {
 
 
     public String getParsingTimePerRecord() {
-        return !results.isEmpty() ? DECIMAL_FORMAT.format((double) getParsingElapsed() / (double) results.size()) : "?";
+        return recordCount > 0 ? DECIMAL_FORMAT.format((double) getParsingElapsed() / (double) recordCount) : "?";
+    }
+
+    /**
+     * Record that the response headers have arrived.
+     *
+     * <p>The server time is taken from the durations in the
+     * {@code Server-Timing} header if the service sent one; otherwise it is
+     * the time from sending the request until the headers arrived, which also
+     * includes one network round trip.</p>
+     *
+     * @param headers the headers of the response
+     */
+    public void responseReceived(HttpHeaders headers) {
+        this.headers = headers;
+        firstByteNanos = System.nanoTime() - requestStartNanos;
+        double reported = 0;
+        boolean found = false;
+        if (headers != null) {
+            for (String value : headers.allValues("Server-Timing")) {
+                Matcher matcher = SERVER_TIMING_DURATION.matcher(value);
+                while (matcher.find()) {
+                    try {
+                        reported += Double.parseDouble(matcher.group(1));
+                        found = true;
+                    } catch (NumberFormatException e) {
+                        // ignore the malformed metric
+                    }
+                }
+            }
+        }
+        serverTime = found ? (int) Math.round(reported) : (int) TimeUnit.NANOSECONDS.toMillis(firstByteNanos);
+    }
+
+    /**
+     * @return the headers of the last response received, null if no response was received
+     */
+    public HttpHeaders getHeaders() {
+        return headers;
     }
 
     /**
@@ -375,6 +465,7 @@ public class ApiResponse {
      */
     public void transactionStart() {
         txnStart = System.currentTimeMillis();
+        txnStartNanos = System.nanoTime();
     }
 
 
@@ -391,6 +482,7 @@ public class ApiResponse {
      */
     public void transactionEnd() {
         txnEnd = System.currentTimeMillis();
+        txnNanos = System.nanoTime() - txnStartNanos;
     }
 
 
@@ -422,8 +514,8 @@ public class ApiResponse {
      * @return formatted number of records per second for the entire transaction
      */
     public String getRecordsPerSecond() {
-        if (!results.isEmpty()) {
-            return DECIMAL_FORMAT.format((double) results.size() / (getTransactionElapsed() / (double) 1000));
+        if (recordCount > 0) {
+            return DECIMAL_FORMAT.format((double) recordCount / (getTransactionElapsed() / (double) 1000));
         } else {
             return "?";
         }
@@ -444,4 +536,160 @@ public class ApiResponse {
     public void setListInfoFrame(DataFrame listInfoFrame) {
         this.listInfoFrame = listInfoFrame;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return how the response cache was involved in this response
+     */
+    public CacheStatus getCacheStatus() {
+        return cacheStatus;
+    }
+
+    /**
+     * @param status how the response cache was involved in this response
+     */
+    public void setCacheStatus(CacheStatus status) {
+        cacheStatus = status;
+    }
+
+    /**
+     * @return true if this response was answered from the cache without sending the full response again.
+     */
+    public boolean isCacheHit() {
+        return cacheStatus == CacheStatus.HIT || cacheStatus == CacheStatus.REVALIDATED;
+    }
+
+    /**
+     * @return the statistics of the response cache at the time of this response, null if the cache was not used.
+     */
+    public ResponseCache.Statistics getCacheStatistics() {
+        return cacheStatistics;
+    }
+
+    /**
+     * @param statistics the statistics of the response cache at the time of this response
+     */
+    public void setCacheStatistics(ResponseCache.Statistics statistics) {
+        cacheStatistics = statistics;
+    }
+
+
+    /**
+     * Record that the call is about to be sent again.
+     *
+     * @param delayMillis how long the call waits before it is sent again
+     */
+    public void recordRetry(long delayMillis) {
+        retryCount++;
+        backoffMillis += delayMillis;
+    }
+
+    /**
+     * @return the number of times the call was sent again after a failure
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * @return the total time in milliseconds spent waiting between attempts
+     */
+    public long getBackoffMillis() {
+        return backoffMillis;
+    }
+
+    /**
+     * @param nanos time spent waiting for the rate limiter before an attempt
+     */
+    public void addThrottleWait(long nanos) {
+        throttleNanos += nanos;
+    }
+
+    /**
+     * @return the total time in nanoseconds spent waiting for the rate limiter
+     */
+    public long getThrottleNanos() {
+        return throttleNanos;
+    }
+
+    public void addTokenWait(long nanos) {
+        tokenNanos += nanos;
+    }
+
+    /**
+     * @return the total time in nanoseconds spent retrieving the access token
+     */
+    public long getTokenNanos() {
+        return tokenNanos;
+    }
+
+    /**
+     * @return the time in nanoseconds between sending the last attempt and receiving its entire response
+     */
+    public long getRequestNanos() {
+        return requestNanos;
+    }
+
+    /**
+     * @return the time in nanoseconds between sending the last attempt and receiving its response headers
+     */
+    public long getTimeToFirstByteNanos() {
+        return firstByteNanos;
+    }
+
+    /**
+     * @return the time in nanoseconds spent parsing the response
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return the time in nanoseconds the whole call took, including waiting and retries
+     */
+    public long getTransactionNanos() {
+        return txnNanos;
+    }
+
+    /**
+     * @param bytes the number of bytes of response body received
+     */
+    public void addResponseBytes(long bytes) {
+        responseBytes += bytes;
+    }
+
+    /**
+     * @return the number of bytes of response body received over all attempts
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * @return true if the call was not sent because the circuit breaker for its endpoint was open
+     */
+    public boolean isCircuitOpen() {
+        return circuitOpen;
+    }
+
+    /**
+     * @param open true if the call was not sent because the circuit breaker for its endpoint was open
+     */
+    public void setCircuitOpen(boolean open) {
+        circuitOpen = open;
+    }
+
+
+    /**
+     * How the response cache was involved in a response.
+     */
+    public enum CacheStatus {
+        /** The cache was not used (disabled or not a GET request). */
+        BYPASS,
+        /** The response was not cached (or was stale) and was retrieved from the service. */
+        MISS,
+        /** The response was answered from the cache without contacting the service. */
+        HIT,
+        /** The cached response was stale but the service confirmed it was still current. */
+        REVALIDATED
+    }
+}
@@ -0,0 +1,156 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+
+/**
+ * Models an Asset in ServiceDesk Plus.
+ */
+public class Asset extends Entity {
+    /** The fields of an asset. */
+    public static final EntitySchema SCHEMA = new EntitySchema("asset");
+    private static final EntitySchema.Field ID = SCHEMA.string("id");
+    private static final EntitySchema.Field NAME = SCHEMA.string("name");
+    private static final EntitySchema.Field ASSET_TAG = SCHEMA.string("asset_tag");
+    private static final EntitySchema.Field BARCODE = SCHEMA.string("barcode");
+    private static final EntitySchema.Field SERIAL_NUMBER = SCHEMA.string("serial_number");
+    private static final EntitySchema.Field LOCATION = SCHEMA.string("location");
+    private static final EntitySchema.Field IP_ADDRESS = SCHEMA.string("ip_address");
+    private static final EntitySchema.Field MAC_ADDRESS = SCHEMA.string("mac_address");
+    private static final EntitySchema.Field IS_LOANED = SCHEMA.bool("is_loaned");
+    private static final EntitySchema.Field STATE = SCHEMA.object("state");
+    private static final EntitySchema.Field STATE_NAME = SCHEMA.string(STATE, "name");
+    private static final EntitySchema.Field PRODUCT = SCHEMA.object("product");
+    private static final EntitySchema.Field PRODUCT_NAME = SCHEMA.string(PRODUCT, "name");
+    private static final EntitySchema.Field PRODUCT_TYPE = SCHEMA.object("product_type");
+    private static final EntitySchema.Field PRODUCT_TYPE_NAME = SCHEMA.string(PRODUCT_TYPE, "name");
+    private static final EntitySchema.Field VENDOR = SCHEMA.object("vendor");
+    private static final EntitySchema.Field VENDOR_NAME = SCHEMA.string(VENDOR, "name");
+    private static final EntitySchema.Field SITE = SCHEMA.entity("site", Site::new);
+    private static final EntitySchema.Field USER = SCHEMA.entity("user", User::new);
+    private static final EntitySchema.Field CREATED_BY = SCHEMA.entity("created_by", User::new);
+    private static final EntitySchema.Field LAST_UPDATED_BY = SCHEMA.entity("last_updated_by", User::new);
+
+    public Asset() {
+        super(SCHEMA, null);
+    }
+
+    public Asset(DataFrame frame) {
+        super(SCHEMA, frame);
+    }
+
+    public Asset(String json) {
+        super(SCHEMA, parse(json));
+    }
+
+    public String getId() {
+        return getString(ID);
+    }
+
+    public void setId(String id) {
+        set(ID, id);
+    }
+
+    public String getName() {
+        return getString(NAME);
+    }
+
+    public void setName(String name) {
+        set(NAME, name);
+    }
+
+    public String getAssetTag() {
+        return getString(ASSET_TAG);
+    }
+
+    public void setAssetTag(String assetTag) {
+        set(ASSET_TAG, assetTag);
+    }
+
+    public String getBarcode() {
+        return getString(BARCODE);
+    }
+
+    public void setBarcode(String barcode) {
+        set(BARCODE, barcode);
+    }
+
+    public String getSerialNumber() {
+        return getString(SERIAL_NUMBER);
+    }
+
+    public void setSerialNumber(String serialNumber) {
+        set(SERIAL_NUMBER, serialNumber);
+    }
+
+    public String getLocation() {
+        return getString(LOCATION);
+    }
+
+    public void setLocation(String location) {
+        set(LOCATION, location);
+    }
+
+    public String getIpAddress() {
+        return getString(IP_ADDRESS);
+    }
+
+    public String getMacAddress() {
+        return getString(MAC_ADDRESS);
+    }
+
+    public boolean isLoaned() {
+        return getBoolean(IS_LOANED);
+    }
+
+    public String getStateName() {
+        return getString(STATE_NAME);
+    }
+
+    public String getProductName() {
+        return getString(PRODUCT_NAME);
+    }
+
+    public String getProductTypeName() {
+        return getString(PRODUCT_TYPE_NAME);
+    }
+
+    public String getVendorName() {
+        return getString(VENDOR_NAME);
+    }
+
+    /**
+     * @return the site the asset belongs to, the same view each time, or null if not set
+     */
+    public Site getSite() {
+        return getEntity(SITE);
+    }
+
+    public void setSite(Site site) {
+        setEntity(SITE, site);
+    }
+
+    /**
+     * @return the user the asset is assigned to, the same view each time, or null if not assigned
+     */
+    public User getUser() {
+        return getEntity(USER);
+    }
+
+    public void setUser(User user) {
+        setEntity(USER, user);
+    }
+
+    /**
+     * @return the user who created the asset, the same view each time, or null if not known
+     */
+    public User getCreatedBy() {
+        return getEntity(CREATED_BY);
+    }
+
+    /**
+     * @return the user who last updated the asset, the same view each time, or null if not known
+     */
+    public User getLastUpdatedBy() {
+        return getEntity(LAST_UPDATED_BY);
+    }
+}
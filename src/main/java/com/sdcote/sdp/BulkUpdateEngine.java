@@ -0,0 +1,274 @@
+package com.sdcote.sdp;
+
+import coyote.commons.log.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Applies many workstation state changes concurrently.
+ *
+ * <p>Changes are read in order. Those identified by name are collected into
+ * batches and looked up with {@link SDP#getWorkstationsByNames}; as soon as
+ * a batch has been found, its updates are handed to a bounded pool of
+ * workers while the next batch is looked up. Changes identified by id go
+ * straight to the workers. Workstations already in the target state are not
+ * updated.</p>
+ *
+ * <p>Every call passes through the client's rate limiters, so the number of
+ * workers only controls how many calls may be waiting on the service at
+ * once, not how fast calls are made. If the workers fall behind, reading
+ * pauses until they catch up.</p>
+ *
+ * <p>An update which fails in a way the {@link RetryPolicy} considers
+ * transient (no response, HTTP 408, 429 or a server error) is retried after
+ * a growing delay, or the delay the service asked for, up to the
+ * configured number of attempts. Other failures are reported without
+ * retrying, as are changes whose workstation could not be looked up.</p>
+ * <pre>
+ * BulkUpdateReport report = new BulkUpdateEngine(credentials)
+ *         .run(names.stream().map(name -&gt; StateChange.byName(name, "Disposed")));
+ * </pre>
+ */
+public class BulkUpdateEngine {
+
+    /** The default number of updates in flight at once. */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /** The default number of times an update is sent before it is reported as failed. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /** The default delay before the first retry, doubled for each retry after that. */
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 2000;
+
+    private final ClientCredentials credentials;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private final RetryPolicy retryPolicy = new RetryPolicy().setRetryWrites(true).setMaxAttempts(DEFAULT_MAX_ATTEMPTS).setBaseDelay(DEFAULT_RETRY_DELAY_MILLIS);
+    private int lookupBatchSize = SDP.MAX_ROWS_PER_PAGE;
+
+
+    /**
+     * @param credentials the client credentials to use for all the calls
+     */
+    public BulkUpdateEngine(ClientCredentials credentials) {
+        this.credentials = credentials;
+    }
+
+
+    /**
+     * @param workers the number of updates which may be in flight at once
+     * @return a reference to this object for call chaining.
+     */
+    public BulkUpdateEngine setConcurrency(int workers) {
+        this.concurrency = Math.max(1, workers);
+        return this;
+    }
+
+
+    /**
+     * @param attempts the number of times an update is sent before it is reported as failed
+     * @return a reference to this object for call chaining.
+     */
+    public BulkUpdateEngine setMaxAttempts(int attempts) {
+        retryPolicy.setMaxAttempts(attempts);
+        return this;
+    }
+
+
+    /**
+     * @param millis the delay before the first retry of an update, doubled for each retry after that
+     * @return a reference to this object for call chaining.
+     */
+    public BulkUpdateEngine setRetryDelay(long millis) {
+        retryPolicy.setBaseDelay(millis);
+        return this;
+    }
+
+
+    /**
+     * @param size the number of names to collect before looking them up
+     * @return a reference to this object for call chaining.
+     */
+    public BulkUpdateEngine setLookupBatchSize(int size) {
+        this.lookupBatchSize = Math.max(1, size);
+        return this;
+    }
+
+
+    /**
+     * Apply the given changes.
+     *
+     * @param changes the changes to apply
+     * @return the result of each change
+     */
+    public BulkUpdateReport run(Collection<StateChange> changes) {
+        return run(changes.stream());
+    }
+
+
+    /**
+     * Apply the changes as they are read from the stream, blocking until all of them have been processed.
+     *
+     * @param changes the changes to apply
+     * @return the result of each change, in the order they were read
+     */
+    public BulkUpdateReport run(Stream<StateChange> changes) {
+        long start = System.currentTimeMillis();
+        List<StateChange> submitted = new ArrayList<>();
+        List<BulkUpdateReport.Result> results = new ArrayList<>();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(concurrency * 4), runnable -> {
+            Thread thread = new Thread(runnable, "SDP-BulkUpdate-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy()); // reading waits when the workers fall behind
+
+        try {
+            List<Integer> batch = new ArrayList<>();
+            Iterator<StateChange> iterator = changes.iterator();
+            while (iterator.hasNext()) {
+                StateChange change = iterator.next();
+                int index;
+                synchronized (results) {
+                    index = submitted.size();
+                    submitted.add(change);
+                    results.add(null);
+                }
+                if (change.isByName()) {
+                    batch.add(index);
+                    if (batch.size() >= lookupBatchSize) {
+                        lookup(batch, submitted, results, workers);
+                        batch = new ArrayList<>();
+                    }
+                } else {
+                    submit(index, change, change.getId(), results, workers);
+                }
+            }
+            if (!batch.isEmpty()) lookup(batch, submitted, results, workers);
+        } finally {
+            workers.shutdown();
+            try {
+                while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                    Log.debug("Waiting for " + workers.getActiveCount() + " workstation updates to complete");
+                }
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (results) {
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == null) {
+                    results.set(i, new BulkUpdateReport.Result(submitted.get(i), BulkUpdateReport.Outcome.FAILED, null, 0, 0, "Not attempted"));
+                }
+            }
+        }
+        BulkUpdateReport retval = new BulkUpdateReport(results, System.currentTimeMillis() - start);
+        Log.info("Bulk update complete: " + retval);
+        return retval;
+    }
+
+
+    /**
+     * Look up a batch of changes by name and hand those which were found to the workers.
+     */
+    private void lookup(List<Integer> batch, List<StateChange> submitted, List<BulkUpdateReport.Result> results, ThreadPoolExecutor workers) {
+        List<String> names = new ArrayList<>();
+        for (int index : batch) names.add(submitted.get(index).getName());
+
+        WorkstationLookup lookup = SDP.getWorkstationsByNames(credentials, names);
+        for (int index : batch) {
+            StateChange change = submitted.get(index);
+            Workstation workstation = lookup.get(change.getName());
+            String failure = lookup.getFailure(change.getName());
+            if (workstation == null && failure != null) {
+                record(results, index, new BulkUpdateReport.Result(change, BulkUpdateReport.Outcome.FAILED, null, 0, 0, "Lookup failed: " + failure));
+            } else if (workstation == null) {
+                record(results, index, new BulkUpdateReport.Result(change, BulkUpdateReport.Outcome.NOT_FOUND, null, 0, 0, "No workstation with this name"));
+            } else if (change.getTargetState().equalsIgnoreCase(workstation.getStateName())) {
+                record(results, index, new BulkUpdateReport.Result(change, BulkUpdateReport.Outcome.UNCHANGED, workstation.getId(), 0, 0, null));
+            } else {
+                submit(index, change, workstation.getId(), results, workers);
+            }
+        }
+    }
+
+
+    private void submit(int index, StateChange change, String id, List<BulkUpdateReport.Result> results, ThreadPoolExecutor workers) {
+        workers.execute(() -> {
+            BulkUpdateReport.Result result;
+            try {
+                result = update(change, id);
+            } catch (RuntimeException e) {
+                Log.error("Workstation update failed: " + change, e);
+                result = new BulkUpdateReport.Result(change, BulkUpdateReport.Outcome.FAILED, id, 0, 0, e.getMessage());
+            }
+            record(results, index, result);
+        });
+    }
+
+
+    private static void record(List<BulkUpdateReport.Result> results, int index, BulkUpdateReport.Result result) {
+        synchronized (results) {
+            results.set(index, result);
+        }
+    }
+
+
+    /**
+     * Send the update, retrying transient failures.
+     */
+    private BulkUpdateReport.Result update(StateChange change, String id) {
+        String message = null;
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            int status = 0;
+            ApiResponse response = null;
+            try {
+                response = SDP.putWorkstationState(id, change.getTargetState(), credentials).join();
+                message = null;
+            } catch (CompletionException | CancellationException e) {
+                message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+            }
+
+            if (response != null) {
+                status = response.getHttpStatusCode();
+                if (response.isSuccessful()) {
+                    return new BulkUpdateReport.Result(change, BulkUpdateReport.Outcome.UPDATED, id, attempt, status, null);
+                }
+                message = "HTTP " + status;
+            } else if (message == null) {
+                message = "No response, the access token could not be retrieved";
+            }
+
+            if (!retryPolicy.shouldRetry("PUT", status, attempt)) {
+                return new BulkUpdateReport.Result(change, BulkUpdateReport.Outcome.FAILED, id, attempt, status, message);
+            }
+
+            long delay = retryPolicy.delayMillis(attempt, response != null ? response.getHeaders() : null);
+            if (delay < 0) {
+                return new BulkUpdateReport.Result(change, BulkUpdateReport.Outcome.FAILED, id, attempt, status, message + ", the service asked to wait longer than the maximum delay");
+            }
+            Log.warn(String.format("Update of %s failed (%s), retrying in %d ms (attempt %d of %d)", change, message, delay, attempt + 1, retryPolicy.getMaxAttempts()));
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new BulkUpdateReport.Result(change, BulkUpdateReport.Outcome.FAILED, id, attempt, status, "Interrupted");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.sdcote.sdp;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of each change made by a {@link BulkUpdateEngine}, in the order
+ * the changes were submitted.
+ */
+public class BulkUpdateReport {
+    private final List<Result> results;
+    private final long elapsedMillis;
+    private final Map<Outcome, Integer> counts = new EnumMap<>(Outcome.class);
+
+
+    BulkUpdateReport(List<Result> results, long elapsedMillis) {
+        this.results = Collections.unmodifiableList(results);
+        this.elapsedMillis = elapsedMillis;
+        for (Outcome outcome : Outcome.values()) counts.put(outcome, 0);
+        for (Result result : results) counts.merge(result.getOutcome(), 1, Integer::sum);
+    }
+
+
+    /**
+     * @return the result of each change, in the order the changes were submitted
+     */
+    public List<Result> getResults() {
+        return results;
+    }
+
+
+    /**
+     * @param outcome the outcome of interest
+     * @return the number of changes with that outcome
+     */
+    public int getCount(Outcome outcome) {
+        return counts.get(outcome);
+    }
+
+
+    /**
+     * @return true if every change either was made or was not needed
+     */
+    public boolean isSuccessful() {
+        return getCount(Outcome.NOT_FOUND) == 0 && getCount(Outcome.FAILED) == 0;
+    }
+
+
+    /**
+     * @return how long the whole run took in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("%d changes in %d ms: %d updated, %d unchanged, %d not found, %d failed", results.size(), elapsedMillis, getCount(Outcome.UPDATED), getCount(Outcome.UNCHANGED), getCount(Outcome.NOT_FOUND), getCount(Outcome.FAILED));
+    }
+
+
+    /**
+     * What happened to a change.
+     */
+    public enum Outcome {
+        /** The workstation was moved to the target state. */
+        UPDATED,
+        /** The workstation was already in the target state, so no update was sent. */
+        UNCHANGED,
+        /** No workstation with the given name exists. */
+        NOT_FOUND,
+        /** The update was refused or could not be sent, even after retrying. */
+        FAILED
+    }
+
+
+    /**
+     * The result of a single change.
+     */
+    public static class Result {
+        private final StateChange change;
+        private final Outcome outcome;
+        private final String workstationId;
+        private final int attempts;
+        private final int httpStatus;
+        private final String message;
+
+        Result(StateChange change, Outcome outcome, String workstationId, int attempts, int httpStatus, String message) {
+            this.change = change;
+            this.outcome = outcome;
+            this.workstationId = workstationId;
+            this.attempts = attempts;
+            this.httpStatus = httpStatus;
+            this.message = message;
+        }
+
+        /**
+         * @return the change which was requested
+         */
+        public StateChange getChange() {
+            return change;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return the identifier of the workstation, null if it was not found
+         */
+        public String getWorkstationId() {
+            return workstationId;
+        }
+
+        /**
+         * @return the number of times the update was sent, 0 if it was not sent at all
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return the HTTP status of the last update attempt, 0 if there was no response
+         */
+        public int getHttpStatus() {
+            return httpStatus;
+        }
+
+        /**
+         * @return a description of why the change failed, null if it did not
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return change + ": " + outcome + (message != null ? " (" + message + ")" : "");
+        }
+    }
+
+}
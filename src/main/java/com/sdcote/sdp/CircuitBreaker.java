@@ -0,0 +1,145 @@
+package com.sdcote.sdp;
+
+import coyote.commons.log.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops calls to an endpoint while it is failing so they fail fast instead
+ * of waiting on, and adding load to, a degraded service.
+ *
+ * <p>The breaker starts closed and lets all calls through. After a number
+ * of consecutive failures (no response, HTTP 408 or a server error) it
+ * opens and refuses calls. Once the open period has passed, a single trial
+ * call is let through; if it succeeds the breaker closes, otherwise it opens
+ * again for another period.</p>
+ *
+ * @see CircuitBreakerRegistry
+ */
+public class CircuitBreaker {
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt = 0;
+    private boolean trialInFlight = false;
+    private long trialStartedAt = 0;
+
+
+    /**
+     * @param name             the name of what is being protected, used in log messages
+     * @param failureThreshold the number of consecutive failures which opens the breaker
+     * @param openMillis       how long the breaker stays open before a trial call is allowed
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, openMillis));
+    }
+
+
+    /**
+     * Ask to make a call.
+     *
+     * <p>A call which is allowed must be followed by {@link #onSuccess()} or
+     * {@link #onFailure()} once its outcome is known.</p>
+     *
+     * @return true if the call may be made, false if it is to fail fast
+     */
+    public synchronized boolean allowRequest() {
+        long now = System.nanoTime();
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openedAt < openNanos) return false;
+                state = State.HALF_OPEN;
+                return startTrial(now);
+            default:
+                // a trial whose outcome was never reported must not block the endpoint forever
+                if (trialInFlight && now - trialStartedAt < openNanos) return false;
+                return startTrial(now);
+        }
+    }
+
+
+    private boolean startTrial(long now) {
+        trialInFlight = true;
+        trialStartedAt = now;
+        return true;
+    }
+
+
+    /**
+     * Record a call which reached a working service.
+     */
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) Log.info(String.format("Circuit for %s closed, calls resumed", name));
+        state = State.CLOSED;
+        failures = 0;
+        trialInFlight = false;
+    }
+
+
+    /**
+     * Record a call which failed because the service is not working.
+     */
+    public synchronized void onFailure() {
+        trialInFlight = false;
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            Log.warn(String.format("Circuit for %s opened after %d consecutive failures, failing calls for %d ms", name, failures, TimeUnit.NANOSECONDS.toMillis(openNanos)));
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+
+    /**
+     * Record the outcome of a call from its HTTP status.
+     *
+     * @param status the HTTP status of the response, 0 if there was no response
+     */
+    public void record(int status) {
+        if (isFailure(status)) onFailure();
+        else onSuccess();
+    }
+
+
+    /**
+     * @param status the HTTP status of the response, 0 if there was no response
+     * @return true if the status shows the service is not working
+     */
+    static boolean isFailure(int status) {
+        return status == 0 || status == 408 || status >= 500;
+    }
+
+
+    /**
+     * @return the current state of the breaker
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * The states of a breaker.
+     */
+    public enum State {
+        /** Calls are made normally. */
+        CLOSED,
+        /** Calls fail fast. */
+        OPEN,
+        /** A trial call is being made to see if the service has recovered. */
+        HALF_OPEN
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.sdcote.sdp;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds a circuit breaker for each endpoint of the ServiceDesk API.
+ *
+ * <p>Endpoints are identified by their path with any numeric identifiers
+ * replaced, so {@code /workstation/1234} and {@code /workstation/5678} share
+ * the breaker for {@code /workstation/{id}}.</p>
+ *
+ * <p>By default a breaker opens after 5 consecutive failures and stays open
+ * for 30 seconds.</p>
+ */
+public class CircuitBreakerRegistry {
+
+    /** The default number of consecutive failures which opens a breaker. */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /** The default time a breaker stays open before a trial call is allowed. */
+    public static final long DEFAULT_OPEN_MILLIS = 30_000;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long openMillis = DEFAULT_OPEN_MILLIS;
+
+
+    /**
+     * Retrieve the breaker for an endpoint, creating it if necessary.
+     *
+     * @param endpoint the endpoint being called
+     * @return the breaker protecting that endpoint
+     */
+    public CircuitBreaker getBreaker(String endpoint) {
+        return breakers.computeIfAbsent(key(endpoint), k -> new CircuitBreaker(k, failureThreshold, openMillis));
+    }
+
+
+    /**
+     * Change the settings of breakers created from now on.
+     *
+     * <p>Existing breakers are not affected; call {@link #clear()} to have them recreated.</p>
+     *
+     * @param threshold the number of consecutive failures which opens a breaker
+     * @param millis    how long a breaker stays open before a trial call is allowed
+     */
+    public void setDefaults(int threshold, long millis) {
+        failureThreshold = Math.max(1, threshold);
+        openMillis = Math.max(0, millis);
+    }
+
+
+    /**
+     * Remove all the breakers so they are recreated, closed, with the current settings.
+     */
+    public void clear() {
+        breakers.clear();
+    }
+
+
+    /**
+     * @param endpoint the endpoint being called
+     * @return the endpoint's path without the query and with numeric path segments replaced by {@code {id}}
+     */
+    static String key(String endpoint) {
+        if (endpoint == null) return "";
+        int query = endpoint.indexOf('?');
+        String path = query >= 0 ? endpoint.substring(0, query) : endpoint;
+        return path.replaceAll("/\\d+(?=/|$)", "/{id}");
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.sdcote.sdp;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.LongConsumer;
+
+/**
+ * Passes a response body through to another subscriber, reporting the
+ * number of bytes in each part as it arrives.
+ *
+ * @param <T> the type of the body produced by the wrapped subscriber
+ */
+class CountingBodySubscriber<T> implements HttpResponse.BodySubscriber<T> {
+    private final HttpResponse.BodySubscriber<T> delegate;
+    private final LongConsumer counter;
+
+
+    /**
+     * @param delegate the subscriber which processes the body
+     * @param counter  called with the size of each part of the body
+     */
+    CountingBodySubscriber(HttpResponse.BodySubscriber<T> delegate, LongConsumer counter) {
+        this.delegate = delegate;
+        this.counter = counter;
+    }
+
+
+    @Override
+    public CompletionStage<T> getBody() {
+        return delegate.getBody();
+    }
+
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        delegate.onSubscribe(subscription);
+    }
+
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+        long bytes = 0;
+        for (ByteBuffer buffer : item) bytes += buffer.remaining();
+        counter.accept(bytes);
+        delegate.onNext(item);
+    }
+
+
+    @Override
+    public void onError(Throwable throwable) {
+        delegate.onError(throwable);
+    }
+
+
+    @Override
+    public void onComplete() {
+        delegate.onComplete();
+    }
+
+}
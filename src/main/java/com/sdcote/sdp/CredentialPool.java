@@ -0,0 +1,256 @@
+package com.sdcote.sdp;
+
+import coyote.commons.StringUtil;
+import coyote.commons.log.Log;
+import coyote.commons.vault.Vault;
+import coyote.commons.vault.VaultEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several API clients used as one, so calls are spread over the rate
+ * budgets of all of them.
+ *
+ * <p>A pool can be passed anywhere client credentials are expected. Each
+ * call is made with the member which has the fewest calls in progress,
+ * taking turns when they are level, and each member keeps its own access
+ * token and rate limiter since both are kept per client identifier.</p>
+ *
+ * <p>A member whose calls are throttled by the service (HTTP 429) is left
+ * out of rotation for {@link #setThrottleCooldown(long)} milliseconds, and
+ * one which cannot get an access token or whose token is refused (HTTP 401)
+ * for {@link #setAuthCooldown(long)} milliseconds. Calls go to the member
+ * which comes back soonest if none are available.</p>
+ */
+public class CredentialPool extends ClientCredentials {
+
+    /** The default time a throttled member is left out of rotation. */
+    public static final long DEFAULT_THROTTLE_COOLDOWN = 60_000;
+
+    /** The default time a member which failed to authenticate is left out of rotation. */
+    public static final long DEFAULT_AUTH_COOLDOWN = 300_000;
+
+    private final List<Member> members = new ArrayList<>();
+    private long throttleCooldown = DEFAULT_THROTTLE_COOLDOWN;
+    private long authCooldown = DEFAULT_AUTH_COOLDOWN;
+    private int next = 0;
+
+
+    /**
+     * @param name the name of the pool, used where an identifier is needed, such as response cache keys
+     */
+    public CredentialPool(String name) {
+        super(name, null, null);
+    }
+
+
+    /**
+     * Create a pool of the clients held in vault entries.
+     *
+     * <p>Each entry holds the client identifier as its {@code Username}, the
+     * secret as its {@code Password} and the refresh token as its
+     * {@code Token}. Entries which are missing or incomplete are logged and
+     * left out.</p>
+     *
+     * @param vault   the vault holding the entries
+     * @param entries the names of the entries
+     * @return a pool of the clients found, which may be empty
+     */
+    public static CredentialPool fromVault(Vault vault, String... entries) {
+        CredentialPool retval = new CredentialPool(String.join(",", entries));
+        for (String name : entries) {
+            VaultEntry entry = vault.getEntry(name.trim());
+            if (entry == null) {
+                Log.error("Could not find '" + name.trim() + "' entry in vault.");
+                continue;
+            }
+            String clientId = entry.get("Username");
+            String clientSecret = entry.get("Password");
+            String refreshToken = entry.get("Token");
+            if (StringUtil.isBlank(clientId) || StringUtil.isBlank(clientSecret) || StringUtil.isBlank(refreshToken)) {
+                Log.error("Missing credentials in '" + name.trim() + "' vault entry (Username, Password, or Token).");
+                continue;
+            }
+            retval.add(new ClientCredentials(clientId, clientSecret, refreshToken));
+        }
+        return retval;
+    }
+
+
+    /**
+     * @param credentials the credentials of another client; pools cannot be nested
+     * @return a reference to this object for call chaining.
+     */
+    public synchronized CredentialPool add(ClientCredentials credentials) {
+        if (credentials instanceof CredentialPool) throw new IllegalArgumentException("Credential pools cannot be nested");
+        members.add(new Member(credentials));
+        return this;
+    }
+
+
+    /**
+     * @param millis how long a member throttled by the service is left out of rotation
+     * @return a reference to this object for call chaining.
+     */
+    public synchronized CredentialPool setThrottleCooldown(long millis) {
+        this.throttleCooldown = Math.max(0, millis);
+        return this;
+    }
+
+
+    /**
+     * @param millis how long a member which failed to authenticate is left out of rotation
+     * @return a reference to this object for call chaining.
+     */
+    public synchronized CredentialPool setAuthCooldown(long millis) {
+        this.authCooldown = Math.max(0, millis);
+        return this;
+    }
+
+
+    /**
+     * @return the number of clients in the pool
+     */
+    public synchronized int size() {
+        return members.size();
+    }
+
+
+    /**
+     * @return the members of the pool, in the order they were added
+     */
+    public synchronized List<Member> getMembers() {
+        return Collections.unmodifiableList(new ArrayList<>(members));
+    }
+
+
+    /**
+     * Choose the client to make a call with, without counting the call.
+     *
+     * @return the available client with the fewest calls in progress
+     * @throws IllegalStateException if the pool is empty
+     */
+    public synchronized ClientCredentials select() {
+        return choose().credentials;
+    }
+
+
+    /**
+     * Choose the client to make a call with and count the call as in progress.
+     *
+     * <p>Every call acquired must be released.</p>
+     *
+     * @return the member to make the call with
+     * @throws IllegalStateException if the pool is empty
+     */
+    synchronized Member acquire() {
+        Member retval = choose();
+        retval.inFlight++;
+        retval.calls++;
+        return retval;
+    }
+
+
+    /**
+     * Record the outcome of a call and take the member out of rotation if it was throttled or failed to authenticate.
+     *
+     * @param member   the member the call was made with
+     * @param response the response, null if no access token could be retrieved
+     * @param error    the exception the call failed with, null if it completed
+     */
+    synchronized void release(Member member, ApiResponse response, Throwable error) {
+        member.inFlight--;
+        if (error != null) return; // not the client's fault
+        if (response == null) {
+            exclude(member, "could not get an access token", authCooldown);
+        } else if (response.getHttpStatusCode() == 401) {
+            exclude(member, "its access token was refused", authCooldown);
+        } else if (response.getHttpStatusCode() == 429) {
+            exclude(member, "it is being throttled", throttleCooldown);
+        } else if (response.isSuccessful()) {
+            member.availableAt = 0;
+        }
+    }
+
+
+    private void exclude(Member member, String reason, long cooldown) {
+        member.failures++;
+        member.availableAt = System.currentTimeMillis() + cooldown;
+        Log.warn(String.format("Client %s is out of rotation for %d ms, %s", member.credentials.getIdentifier(), cooldown, reason));
+    }
+
+
+    private Member choose() {
+        if (members.isEmpty()) throw new IllegalStateException("The credential pool " + getIdentifier() + " is empty");
+        long now = System.currentTimeMillis();
+        Member retval = null;
+        Member soonest = null;
+        int size = members.size();
+        for (int i = 0; i < size; i++) {
+            Member member = members.get((next + i) % size);
+            if (member.availableAt <= now) {
+                if (retval == null || member.inFlight < retval.inFlight) retval = member;
+            } else if (soonest == null || member.availableAt < soonest.availableAt) {
+                soonest = member;
+            }
+        }
+        if (retval == null) retval = soonest;
+        next = (members.indexOf(retval) + 1) % size;
+        return retval;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        return getIdentifier() + members;
+    }
+
+
+    /**
+     * A client in the pool and how it has been used.
+     */
+    public static final class Member {
+        private final ClientCredentials credentials;
+        private volatile int inFlight = 0;
+        private volatile long calls = 0;
+        private volatile long failures = 0;
+        private volatile long availableAt = 0;
+
+        private Member(ClientCredentials credentials) {
+            this.credentials = credentials;
+        }
+
+        public ClientCredentials getCredentials() {
+            return credentials;
+        }
+
+        /**
+         * @return the number of calls made with this client
+         */
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return the number of times this client was taken out of rotation
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return true if this client is in rotation
+         */
+        public boolean isAvailable() {
+            return availableAt <= System.currentTimeMillis();
+        }
+
+        @Override
+        public String toString() {
+            return credentials.getIdentifier() + (isAvailable() ? "" : " (out of rotation)");
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataField;
+import coyote.commons.dataframe.DataFrame;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Turns search criteria into a predicate which selects the same records
+ * locally as the service would, so records already at hand, such as those
+ * in a {@link ReplicaStore}, can be filtered without calling the service.
+ *
+ * <p>Every condition of {@link SearchCondition} is supported. Fields are
+ * named by dotted paths; a date-time field is compared by its
+ * {@code value}, and a condition on a field within an array holds if it
+ * holds for any element, or for a negative condition such as "is not", for
+ * every element. A field is empty if it has no value other than blank
+ * text. An entity given as the value, such as a status with an id and a
+ * name, is matched by its id. Values are compared as {@link ReplicaStore}
+ * indexes compare them: plain decimal numbers by their value and anything
+ * else, including text with leading zeros, as text ignoring case. Each
+ * child is combined with the result so far by its operator, in order,
+ * which is how the service evaluates criteria.</p>
+ *
+ * <p>The criteria are worked out once, when they are compiled, rather than
+ * each time a record is tested.</p>
+ */
+public class CriteriaCompiler {
+
+    private static final String FIELD_TAG = "field";
+    private static final String CONDITION_TAG = "condition";
+    private static final String VALUE_TAG = "value";
+    private static final String VALUES_TAG = "values";
+    private static final String OPERATOR_TAG = "logical_operator";
+    private static final String CHILDREN_TAG = "children";
+
+
+    private CriteriaCompiler() {
+    }
+
+
+    /**
+     * @param criteria the criteria to compile
+     * @return a predicate selecting the records which meet the criteria
+     * @throws IllegalArgumentException if a condition is not known or is missing its values
+     */
+    public static Predicate<DataFrame> compile(SearchCriteria criteria) {
+        return compile(criteria.getDataFrame());
+    }
+
+
+    /**
+     * @param criteria the frame of the criteria, or an array of criteria
+     * @return a predicate selecting the records which meet the criteria
+     * @throws IllegalArgumentException if a condition is not known or is missing its values
+     */
+    public static Predicate<DataFrame> compile(DataFrame criteria) {
+        if (criteria.isArray()) {
+            Predicate<DataFrame> retval = null;
+            for (DataField element : criteria.getFields()) {
+                if (!element.isFrame()) continue;
+                DataFrame child = (DataFrame) element.getObjectValue();
+                retval = retval == null ? compile(child) : combine(retval, compile(child), operatorOf(child));
+            }
+            return retval != null ? retval : record -> true;
+        }
+
+        String field = criteria.getAsString(FIELD_TAG);
+        List<String> values = valuesOf(criteria);
+        Object value = criteria.getObject(VALUE_TAG);
+        if (field != null && value instanceof DataFrame && !((DataFrame) value).isArray()) {
+            // an entity such as {"id": ..., "name": ...} is matched by its id, or its name if it has none
+            String key = ((DataFrame) value).contains("id") ? "id" : "name";
+            field = field + "." + key;
+            values.add(((DataFrame) value).getAsString(key));
+        }
+        Predicate<DataFrame> retval = field != null ? condition(field, criteria.getAsString(CONDITION_TAG), values) : record -> true;
+        Object children = criteria.getObject(CHILDREN_TAG);
+        if (children instanceof DataFrame) {
+            for (DataField element : ((DataFrame) children).getFields()) {
+                if (!element.isFrame()) continue;
+                DataFrame child = (DataFrame) element.getObjectValue();
+                retval = combine(retval, compile(child), operatorOf(child));
+            }
+        }
+        return retval;
+    }
+
+
+    private static Predicate<DataFrame> combine(Predicate<DataFrame> left, Predicate<DataFrame> right, String operator) {
+        return "or".equalsIgnoreCase(operator) ? left.or(right) : left.and(right);
+    }
+
+
+    /**
+     * @param criteria the frame of a criteria
+     * @return how the criteria is combined with those before it, null for "and"
+     */
+    static String operatorOf(DataFrame criteria) {
+        return criteria.getAsString(OPERATOR_TAG);
+    }
+
+
+    /**
+     * @param criteria the frame of a criteria
+     * @return the condition of the criteria in lower case, "is" if it has none
+     */
+    static String conditionOf(DataFrame criteria) {
+        String retval = criteria.getAsString(CONDITION_TAG);
+        return retval != null ? retval.trim().toLowerCase(Locale.ROOT) : SearchCondition.IS.getValue();
+    }
+
+
+    /**
+     * @param criteria the frame of a criteria
+     * @return the values of the criteria, from its values array or its value; empty if its value is an entity
+     */
+    static List<String> valuesOf(DataFrame criteria) {
+        List<String> retval = new ArrayList<>();
+        Object values = criteria.getObject(VALUES_TAG);
+        if (values == null) values = criteria.getObject(VALUE_TAG);
+        if (values instanceof DataFrame) {
+            if (((DataFrame) values).isArray()) {
+                for (DataField element : ((DataFrame) values).getFields()) {
+                    if (!element.isFrame() && element.getObjectValue() != null) retval.add(element.getStringValue());
+                }
+            }
+        } else if (values != null) {
+            retval.add(values.toString());
+        }
+        return retval;
+    }
+
+
+    private static Predicate<DataFrame> condition(String field, String condition, List<String> values) {
+        final String[] path = field.split("\\.");
+        String name = condition != null ? condition.trim().toLowerCase(Locale.ROOT) : SearchCondition.IS.getValue();
+        SearchCondition known = null;
+        for (SearchCondition candidate : SearchCondition.values()) {
+            if (candidate.getValue().equals(name)) known = candidate;
+        }
+        if (known == null) throw new IllegalArgumentException("Unknown search condition '" + condition + "' on " + field);
+        int needed = known == SearchCondition.BETWEEN || known == SearchCondition.NOT_BETWEEN ? 2 : known == SearchCondition.IS_EMPTY ? 0 : 1;
+        if (values.size() < needed) throw new IllegalArgumentException("The '" + name + "' condition on " + field + " needs " + needed + " value(s)");
+
+        switch (known) {
+            case IS:
+                return any(path, equalTo(values));
+            case IS_NOT:
+                return any(path, equalTo(values)).negate();
+            case CONTAINS:
+                return any(path, text(values, String::contains));
+            case NOT_CONTAINS:
+                return any(path, text(values, String::contains)).negate();
+            case STARTS_WITH:
+                return any(path, text(values, String::startsWith));
+            case ENDS_WITH:
+                return any(path, text(values, String::endsWith));
+            case GREATER_THAN:
+                return any(path, compared(values.get(0), c -> c > 0));
+            case GREATER_OR_EQUAL:
+                return any(path, compared(values.get(0), c -> c >= 0));
+            case LESSER_THAN:
+                return any(path, compared(values.get(0), c -> c < 0));
+            case LESSER_OR_EQUAL:
+                return any(path, compared(values.get(0), c -> c <= 0));
+            case IS_EMPTY:
+                return any(path, value -> !value.trim().isEmpty()).negate();
+            case BETWEEN:
+                return any(path, compared(values.get(0), c -> c >= 0).and(compared(values.get(1), c -> c <= 0)));
+            default: // NOT_BETWEEN
+                return any(path, compared(values.get(0), c -> c >= 0).and(compared(values.get(1), c -> c <= 0))).negate();
+        }
+    }
+
+
+    /**
+     * @return a predicate which holds if the test holds for any value of the field in the record
+     */
+    private static Predicate<DataFrame> any(String[] path, Predicate<String> test) {
+        return record -> {
+            for (String value : ReplicaIndex.valuesOf(record, path)) {
+                if (test.test(value)) return true;
+            }
+            return false;
+        };
+    }
+
+
+    private static Predicate<String> equalTo(List<String> values) {
+        if (values.size() == 1) {
+            ReplicaIndex.Key wanted = new ReplicaIndex.Key(values.get(0));
+            return value -> wanted.equals(new ReplicaIndex.Key(value));
+        }
+        Set<ReplicaIndex.Key> wanted = new HashSet<>();
+        for (String value : values) wanted.add(new ReplicaIndex.Key(value));
+        return value -> wanted.contains(new ReplicaIndex.Key(value));
+    }
+
+
+    private interface TextTest {
+        boolean test(String value, String wanted);
+    }
+
+
+    private static Predicate<String> text(List<String> values, TextTest test) {
+        String[] wanted = new String[values.size()];
+        for (int i = 0; i < wanted.length; i++) wanted[i] = values.get(i).toLowerCase(Locale.ROOT);
+        return value -> {
+            String text = value.toLowerCase(Locale.ROOT);
+            for (String w : wanted) {
+                if (test.test(text, w)) return true;
+            }
+            return false;
+        };
+    }
+
+
+    private interface Comparison {
+        boolean test(int comparison);
+    }
+
+
+    private static Predicate<String> compared(String bound, Comparison test) {
+        ReplicaIndex.Key key = new ReplicaIndex.Key(bound);
+        return value -> test.test(new ReplicaIndex.Key(value).compareTo(key));
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.sdcote.sdp;
+
+import coyote.commons.log.Log;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps access tokens in a local file encrypted with AES-256/GCM.
+ *
+ * <p>The key is derived from a password (normally the {@code vault.password}
+ * system property which also opens the secrets vault) with PBKDF2, so the
+ * file is of no use without it. The key is derived once per store and
+ * reused for each read and write.</p>
+ *
+ * <p>Several processes may share the file: reads take a shared lock and
+ * writes an exclusive lock on a companion {@code .lock} file, and each write
+ * replaces the file atomically so readers never see a partial file. A write
+ * merges the token into what is in the file at that moment, keeping the
+ * tokens other processes saved for other clients.</p>
+ *
+ * <p>A file which cannot be read or decrypted, for example because the
+ * password changed, is treated as empty and is replaced on the next write.</p>
+ */
+public class EncryptedFileTokenStore implements TokenStore {
+
+    /** The default name of the token file, kept next to {@code sdp.vault}. */
+    public static final String DEFAULT_FILENAME = "sdp.tokens";
+
+    private static final byte[] MAGIC = {'S', 'D', 'P', 'T', 1};
+    private static final int SALT_LENGTH = 16;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int KEY_ITERATIONS = 100_000;
+    private static final String ACCESS_TOKEN = ".access_token";
+    private static final String EXPIRES = ".expires";
+    private static final String REFRESH_TOKEN = ".refresh_token";
+    private static final String ORIGIN = ".origin";
+
+    /** File locks are held by the process, so threads using the same file must also exclude each other. */
+    private static final Map<Path, Object> MONITORS = new ConcurrentHashMap<>();
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Path file;
+    private final Path lockFile;
+    private final char[] password;
+    private final Object monitor;
+
+    private byte[] salt = null;
+    private SecretKey key = null;
+
+
+    /**
+     * @param file     the file in which to keep the tokens
+     * @param password the password from which the encryption key is derived
+     * @throws IllegalArgumentException if no password is given
+     */
+    public EncryptedFileTokenStore(Path file, String password) {
+        if (password == null || password.isEmpty()) {
+            throw new IllegalArgumentException("A password is required to encrypt the token store");
+        }
+        this.file = file.toAbsolutePath().normalize();
+        this.lockFile = this.file.resolveSibling(this.file.getFileName() + ".lock");
+        this.password = password.toCharArray();
+        this.monitor = MONITORS.computeIfAbsent(this.file, k -> new Object());
+    }
+
+
+    /**
+     * @return the file in which the tokens are kept
+     */
+    public Path getFile() {
+        return file;
+    }
+
+
+    @Override
+    public StoredToken load(String clientId) {
+        synchronized (monitor) {
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock(0, Long.MAX_VALUE, true)) {
+                Properties tokens = read();
+                String accessToken = tokens.getProperty(clientId + ACCESS_TOKEN);
+                String expires = tokens.getProperty(clientId + EXPIRES);
+                if (accessToken == null && tokens.getProperty(clientId + REFRESH_TOKEN) == null) return null;
+                return new StoredToken(accessToken, expires != null ? Instant.ofEpochMilli(Long.parseLong(expires)) : null, tokens.getProperty(clientId + REFRESH_TOKEN), tokens.getProperty(clientId + ORIGIN));
+            } catch (IOException | NumberFormatException e) {
+                Log.warn("Could not read the token store " + file + ": " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+
+    @Override
+    public void save(String clientId, StoredToken token) {
+        synchronized (monitor) {
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                Properties tokens = read();
+                put(tokens, clientId + ACCESS_TOKEN, token.getAccessToken());
+                put(tokens, clientId + EXPIRES, token.getExpirationTime() != null ? Long.toString(token.getExpirationTime().toEpochMilli()) : null);
+                put(tokens, clientId + REFRESH_TOKEN, token.getRefreshToken());
+                put(tokens, clientId + ORIGIN, token.getOrigin());
+                write(tokens);
+            } catch (IOException | GeneralSecurityException e) {
+                Log.warn("Could not write the token store " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+
+    private static void put(Properties properties, String name, String value) {
+        if (value != null) properties.setProperty(name, value);
+        else properties.remove(name);
+    }
+
+
+    /**
+     * Read and decrypt the file. Must be called while holding the file lock.
+     *
+     * @return the tokens in the file, empty if there is no file or it could not be decrypted
+     */
+    private Properties read() throws IOException {
+        Properties retval = new Properties();
+        if (!Files.exists(file)) return retval;
+
+        byte[] data = Files.readAllBytes(file);
+        if (data.length < MAGIC.length + SALT_LENGTH + IV_LENGTH || !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)) {
+            Log.warn("Ignoring the token store " + file + ", it is not in the expected format");
+            return retval;
+        }
+        try {
+            byte[] fileSalt = Arrays.copyOfRange(data, MAGIC.length, MAGIC.length + SALT_LENGTH);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, keyFor(fileSalt), new GCMParameterSpec(TAG_BITS, data, MAGIC.length + SALT_LENGTH, IV_LENGTH));
+            cipher.updateAAD(MAGIC);
+            int offset = MAGIC.length + SALT_LENGTH + IV_LENGTH;
+            byte[] plain = cipher.doFinal(data, offset, data.length - offset);
+            retval.load(new StringReader(new String(plain, StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            Log.warn("Ignoring the token store " + file + ", it could not be decrypted. Did the `vault.password` change?");
+        }
+        return retval;
+    }
+
+
+    /**
+     * Encrypt the tokens and atomically replace the file. Must be called while holding the exclusive file lock.
+     */
+    private void write(Properties tokens) throws IOException, GeneralSecurityException {
+        StringWriter text = new StringWriter();
+        tokens.store(text, null);
+
+        if (salt == null) {
+            byte[] newSalt = new byte[SALT_LENGTH];
+            RANDOM.nextBytes(newSalt);
+            keyFor(newSalt);
+        }
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(MAGIC);
+        byte[] encrypted = cipher.doFinal(text.toString().getBytes(StandardCharsets.UTF_8));
+
+        ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length + SALT_LENGTH + IV_LENGTH + encrypted.length);
+        buffer.put(MAGIC).put(salt).put(iv).put(encrypted).flip();
+
+        // temporary files are only readable by their owner
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+
+    /**
+     * Derive the key for the given salt, reusing the last key if the salt has not changed.
+     */
+    private SecretKey keyFor(byte[] fileSalt) throws GeneralSecurityException {
+        if (key == null || !Arrays.equals(salt, fileSalt)) {
+            PBEKeySpec spec = new PBEKeySpec(password, fileSalt, KEY_ITERATIONS, 256);
+            try {
+                byte[] encoded = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+                key = new SecretKeySpec(encoded, "AES");
+                salt = fileSalt.clone();
+            } finally {
+                spec.clearPassword();
+            }
+        }
+        return key;
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.sdcote.sdp;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latencies and counts of the calls made to one endpoint with one HTTP
+ * method.
+ *
+ * @see MetricsRegistry
+ */
+public class EndpointMetrics implements EndpointMetricsMXBean {
+    private final String endpoint;
+    private final String method;
+    private final Map<MetricsRegistry.Phase, LatencyHistogram> latencies = new EnumMap<>(MetricsRegistry.Phase.class);
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder records = new LongAdder();
+    private volatile long since = System.nanoTime();
+
+
+    EndpointMetrics(String endpoint, String method) {
+        this.endpoint = endpoint;
+        this.method = method;
+        for (MetricsRegistry.Phase phase : MetricsRegistry.Phase.values()) latencies.put(phase, new LatencyHistogram());
+    }
+
+
+    /**
+     * @param phase the phase of the calls
+     * @return the histogram of the time spent in that phase
+     */
+    public LatencyHistogram getLatency(MetricsRegistry.Phase phase) {
+        return latencies.get(phase);
+    }
+
+
+    /**
+     * @param status the HTTP status, 0 for attempts which received no response
+     * @return the number of responses with that status
+     */
+    public long getStatusCount(int status) {
+        LongAdder count = statuses.get(status);
+        return count != null ? count.sum() : 0;
+    }
+
+
+    void recordStatus(int status) {
+        statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+    }
+
+
+    void recordCall(int retryCount, long responseBytes, int recordCount) {
+        calls.increment();
+        retries.add(retryCount);
+        bytes.add(responseBytes);
+        records.add(recordCount);
+    }
+
+
+    @Override
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+
+    @Override
+    public long getResponseBytes() {
+        return bytes.sum();
+    }
+
+
+    @Override
+    public long getRecords() {
+        return records.sum();
+    }
+
+
+    @Override
+    public double getRecordsPerSecond() {
+        double seconds = (double) (System.nanoTime() - since) / TimeUnit.SECONDS.toNanos(1);
+        return seconds > 0 ? getRecords() / seconds : 0;
+    }
+
+
+    @Override
+    public Map<String, Long> getStatusCounts() {
+        Map<String, Long> retval = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry : statuses.entrySet()) retval.put(entry.getKey().toString(), entry.getValue().sum());
+        return retval;
+    }
+
+
+    @Override
+    public LatencyHistogram.Summary getThrottleLatency() {
+        return latencies.get(MetricsRegistry.Phase.THROTTLE).getSummary();
+    }
+
+
+    @Override
+    public LatencyHistogram.Summary getTokenLatency() {
+        return latencies.get(MetricsRegistry.Phase.TOKEN).getSummary();
+    }
+
+
+    @Override
+    public LatencyHistogram.Summary getHttpLatency() {
+        return latencies.get(MetricsRegistry.Phase.HTTP).getSummary();
+    }
+
+
+    @Override
+    public LatencyHistogram.Summary getParseLatency() {
+        return latencies.get(MetricsRegistry.Phase.PARSE).getSummary();
+    }
+
+
+    @Override
+    public LatencyHistogram.Summary getExtractLatency() {
+        return latencies.get(MetricsRegistry.Phase.EXTRACT).getSummary();
+    }
+
+
+    @Override
+    public LatencyHistogram.Summary getTotalLatency() {
+        return latencies.get(MetricsRegistry.Phase.TOTAL).getSummary();
+    }
+
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies.values()) histogram.reset();
+        statuses.clear();
+        calls.reset();
+        retries.reset();
+        bytes.reset();
+        records.reset();
+        since = System.nanoTime();
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("%s %s: %d calls, %d retries, %d records, http %s", method, endpoint, getCalls(), getRetries(), getRecords(), getHttpLatency());
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.sdcote.sdp;
+
+import java.util.Map;
+
+/**
+ * The metrics of one endpoint and HTTP method, as presented through JMX.
+ *
+ * <p>Latencies are in milliseconds. Each is reported with its count, mean,
+ * 50th, 90th, 99th and 99.9th percentiles and maximum.</p>
+ *
+ * @see MetricsRegistry#registerMBeans()
+ */
+public interface EndpointMetricsMXBean {
+
+    /**
+     * @return the endpoint, with identifiers replaced by {@code {id}}
+     */
+    String getEndpoint();
+
+    /**
+     * @return the HTTP method
+     */
+    String getMethod();
+
+    /**
+     * @return the number of calls completed
+     */
+    long getCalls();
+
+    /**
+     * @return the number of times calls were sent again after a failure
+     */
+    long getRetries();
+
+    /**
+     * @return the number of response body bytes received
+     */
+    long getResponseBytes();
+
+    /**
+     * @return the number of records received
+     */
+    long getRecords();
+
+    /**
+     * @return the number of records received per second since the metrics were created or reset
+     */
+    double getRecordsPerSecond();
+
+    /**
+     * @return the number of responses with each HTTP status, "0" counting attempts which received no response
+     */
+    Map<String, Long> getStatusCounts();
+
+    /**
+     * @return the time calls waited for the rate limiter
+     */
+    LatencyHistogram.Summary getThrottleLatency();
+
+    /**
+     * @return the time calls waited for an access token
+     */
+    LatencyHistogram.Summary getTokenLatency();
+
+    /**
+     * @return the time from sending each attempt until its entire response was received
+     */
+    LatencyHistogram.Summary getHttpLatency();
+
+    /**
+     * @return the time spent parsing responses
+     */
+    LatencyHistogram.Summary getParseLatency();
+
+    /**
+     * @return the time readers spent extracting records from responses
+     */
+    LatencyHistogram.Summary getExtractLatency();
+
+    /**
+     * @return the time whole calls took once the access token was available, including waiting and retries
+     */
+    LatencyHistogram.Summary getTotalLatency();
+
+    /**
+     * Discard all the metrics of this endpoint.
+     */
+    void reset();
+
+}
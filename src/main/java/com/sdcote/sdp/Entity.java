@@ -0,0 +1,189 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+import coyote.commons.dataframe.marshal.JSONMarshaler;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A typed view of an entity held in a {@code DataFrame}.
+ *
+ * <p>The fields of each entity type are described by an
+ * {@link EntitySchema}. A field is decoded from the frame the first time it
+ * is read and kept in its slot, so reading it again costs an array access
+ * rather than a search of the frame by name. Nested entities, such as the
+ * user who last updated a workstation, are returned as the same view each
+ * time.</p>
+ *
+ * <p>Setting a field through the view clears all the decoded values so they
+ * are read again from the frame. Changes made directly to the frame returned
+ * by {@link #getDataFrame()} are not seen by fields which have already been
+ * read until {@link #clearCache()} is called.</p>
+ *
+ * <p>Views are not synchronized. Two threads reading the same view may both
+ * decode a field, but they will see equal values.</p>
+ */
+public abstract class Entity {
+    private static final Object UNDECODED = new Object();
+
+    private final EntitySchema schema;
+    private final DataFrame dataFrame;
+    private final Object[] values;
+
+
+    /**
+     * @param schema the fields of this type of entity
+     * @param frame  the entity's data, null for a new, empty entity
+     */
+    protected Entity(EntitySchema schema, DataFrame frame) {
+        this.schema = schema;
+        this.dataFrame = frame != null ? frame : new DataFrame();
+        this.values = new Object[schema.size()];
+        Arrays.fill(values, UNDECODED);
+    }
+
+
+    /**
+     * Parse the JSON of a single entity.
+     *
+     * @param json the JSON text of the entity
+     * @return the first object in the text, or null if there is none or it could not be parsed
+     */
+    protected static DataFrame parse(String json) {
+        if (json == null) return null;
+        try {
+            List<DataFrame> frames = JSONMarshaler.marshal(json);
+            return frames.isEmpty() ? null : frames.get(0);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * @param field a text field of this entity
+     * @return the value of the field, null if it is not set
+     */
+    protected final String getString(EntitySchema.Field field) {
+        return (String) get(field);
+    }
+
+
+    /**
+     * @param field a boolean field of this entity
+     * @return the value of the field, false if it is not set or is not a boolean
+     */
+    protected final boolean getBoolean(EntitySchema.Field field) {
+        return (Boolean) get(field);
+    }
+
+
+    /**
+     * @param field an entity field of this entity
+     * @param <E>   the type of the nested entity
+     * @return the view of the nested entity, the same one each time, or null if it is not set
+     */
+    @SuppressWarnings("unchecked")
+    protected final <E extends Entity> E getEntity(EntitySchema.Field field) {
+        return (E) get(field);
+    }
+
+
+    private Object get(EntitySchema.Field field) {
+        int slot = field.getSlot();
+        Object retval = values[slot];
+        if (retval == UNDECODED) {
+            if (field.getSchema() != schema) {
+                throw new IllegalArgumentException(field + " is not a field of the " + schema.getName() + " schema");
+            }
+            retval = decode(field);
+            values[slot] = retval;
+        }
+        return retval;
+    }
+
+
+    private Object decode(EntitySchema.Field field) {
+        DataFrame frame = field.getParent() != null ? (DataFrame) get(field.getParent()) : dataFrame;
+        switch (field.getKind()) {
+            case STRING:
+                return frame != null ? frame.getAsString(field.getName()) : null;
+            case BOOLEAN:
+                try {
+                    return frame != null && frame.getAsBoolean(field.getName());
+                } catch (Exception e) {
+                    return false;
+                }
+            case OBJECT: {
+                Object obj = frame != null ? frame.getObject(field.getName()) : null;
+                return obj instanceof DataFrame ? obj : null;
+            }
+            default: {
+                Object obj = frame != null ? frame.getObject(field.getName()) : null;
+                return obj instanceof DataFrame ? field.newView((DataFrame) obj) : null;
+            }
+        }
+    }
+
+
+    /**
+     * Set a field at the top of this entity.
+     *
+     * @param field the field to set
+     * @param value the new value
+     */
+    protected final void set(EntitySchema.Field field, Object value) {
+        if (field.getParent() != null) {
+            throw new IllegalArgumentException("Only top-level fields can be set, not " + field);
+        }
+        dataFrame.put(field.getName(), value);
+        clearCache();
+    }
+
+
+    /**
+     * Set or remove a nested entity.
+     *
+     * @param field  the entity field to set
+     * @param entity the nested entity, null to remove the field
+     */
+    protected final void setEntity(EntitySchema.Field field, Entity entity) {
+        if (entity != null) {
+            set(field, entity.getDataFrame());
+        } else {
+            dataFrame.remove(field.getName());
+            clearCache();
+        }
+    }
+
+
+    /**
+     * Forget all decoded values so they are read again from the frame.
+     *
+     * <p>Only needed after the frame has been changed directly.</p>
+     */
+    public void clearCache() {
+        Arrays.fill(values, UNDECODED);
+    }
+
+
+    /**
+     * @return the fields of this type of entity
+     */
+    public EntitySchema getSchema() {
+        return schema;
+    }
+
+
+    public DataFrame getDataFrame() {
+        return dataFrame;
+    }
+
+
+    @Override
+    public String toString() {
+        return JSONMarshaler.marshal(dataFrame);
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Describes the fields of a ServiceDesk Plus entity and gives each one a
+ * fixed slot.
+ *
+ * <p>Each {@link Entity} type declares its schema once, as static fields,
+ * and its getters read through the slots rather than looking fields up by
+ * name. A field may be nested inside an object field, such as the
+ * {@code service_tag} of a workstation's {@code computer_system}, in which
+ * case the object is resolved once and shared by all the fields inside
+ * it.</p>
+ * <pre>
+ * static final EntitySchema SCHEMA = new EntitySchema("workstation");
+ * static final EntitySchema.Field NAME = SCHEMA.string("name");
+ * static final EntitySchema.Field COMPUTER_SYSTEM = SCHEMA.object("computer_system");
+ * static final EntitySchema.Field SERVICE_TAG = SCHEMA.string(COMPUTER_SYSTEM, "service_tag");
+ * </pre>
+ *
+ * <p>Fields must all be declared before the first entity of the type is
+ * created, which is the case when they are static fields of the entity
+ * class declared after the schema.</p>
+ */
+public final class EntitySchema {
+    private final String name;
+    private final List<Field> fields = new ArrayList<>();
+    private FieldProjection projection = null;
+
+
+    /**
+     * @param name the name of the entity type, as used in the API
+     */
+    public EntitySchema(String name) {
+        this.name = name;
+    }
+
+
+    /**
+     * @param name the name of a text field
+     * @return the field
+     */
+    public Field string(String name) {
+        return add(null, name, Kind.STRING, null);
+    }
+
+
+    /**
+     * @param parent the object field containing the text field
+     * @param name   the name of the text field within the object
+     * @return the field
+     */
+    public Field string(Field parent, String name) {
+        return add(parent, name, Kind.STRING, null);
+    }
+
+
+    /**
+     * @param name the name of a boolean field, read as false when missing or not a boolean
+     * @return the field
+     */
+    public Field bool(String name) {
+        return add(null, name, Kind.BOOLEAN, null);
+    }
+
+
+    /**
+     * @param name the name of a field holding an object whose fields are read by other fields in the schema
+     * @return the field
+     */
+    public Field object(String name) {
+        return add(null, name, Kind.OBJECT, null);
+    }
+
+
+    /**
+     * @param name    the name of a field holding another entity
+     * @param factory creates the view of the nested entity from its frame
+     * @param <E>     the type of the nested entity
+     * @return the field
+     */
+    public <E extends Entity> Field entity(String name, Function<DataFrame, E> factory) {
+        return add(null, name, Kind.ENTITY, factory);
+    }
+
+
+    private synchronized Field add(Field parent, String name, Kind kind, Function<DataFrame, ? extends Entity> factory) {
+        if (parent != null && (parent.schema != this || parent.kind != Kind.OBJECT)) {
+            throw new IllegalArgumentException("The parent of " + name + " is not an object field of the " + this.name + " schema");
+        }
+        Field retval = new Field(this, fields.size(), parent, name, kind, factory);
+        fields.add(retval);
+        projection = null;
+        return retval;
+    }
+
+
+    /**
+     * @return the name of the entity type
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * @return the number of slots an entity of this type needs
+     */
+    public synchronized int size() {
+        return fields.size();
+    }
+
+
+    /**
+     * @return the fields in slot order
+     */
+    public synchronized List<Field> getFields() {
+        return Collections.unmodifiableList(new ArrayList<>(fields));
+    }
+
+
+    /**
+     * The fields read by the entity's getters, for requesting only those fields from the service.
+     *
+     * <p>Object fields contribute only the fields read inside them, so a
+     * workstation needs {@code state.name} rather than the whole state.
+     * Nested entities are kept whole.</p>
+     *
+     * @return a new projection of the paths of the fields in this schema
+     */
+    public synchronized FieldProjection getProjection() {
+        if (projection == null) {
+            FieldProjection retval = new FieldProjection();
+            for (Field field : fields) {
+                if (field.kind != Kind.OBJECT) retval.add(field.getPath());
+            }
+            projection = retval;
+        }
+        return new FieldProjection(projection.getPaths());
+    }
+
+
+    @Override
+    public String toString() {
+        return name + getFields();
+    }
+
+
+    /**
+     * How a field is decoded.
+     */
+    enum Kind {
+        STRING, BOOLEAN, OBJECT, ENTITY
+    }
+
+
+    /**
+     * A field of an entity and its slot.
+     */
+    public static final class Field {
+        private final EntitySchema schema;
+        private final int slot;
+        private final Field parent;
+        private final String name;
+        private final Kind kind;
+        private final Function<DataFrame, ? extends Entity> factory;
+
+        private Field(EntitySchema schema, int slot, Field parent, String name, Kind kind, Function<DataFrame, ? extends Entity> factory) {
+            this.schema = schema;
+            this.slot = slot;
+            this.parent = parent;
+            this.name = name;
+            this.kind = kind;
+            this.factory = factory;
+        }
+
+        /**
+         * @return the name of the field within its parent object
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the dotted path of the field from the top of the entity, e.g. {@code computer_system.service_tag}
+         */
+        public String getPath() {
+            return parent != null ? parent.getPath() + "." + name : name;
+        }
+
+        /**
+         * @return the object field containing this field, null if it is at the top of the entity
+         */
+        public Field getParent() {
+            return parent;
+        }
+
+        int getSlot() {
+            return slot;
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        EntitySchema getSchema() {
+            return schema;
+        }
+
+        Entity newView(DataFrame frame) {
+            return factory.apply(frame);
+        }
+
+        @Override
+        public String toString() {
+            return getPath();
+        }
+    }
+
+}
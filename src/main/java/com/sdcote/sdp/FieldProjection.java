@@ -0,0 +1,166 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataField;
+import coyote.commons.dataframe.DataFrame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The set of fields a caller actually uses from the records of a listing.
+ *
+ * <p>Fields are given as dotted paths such as {@code product_type.name}. The
+ * service only accepts top-level field names in {@code fields_required}, so
+ * {@link #getFieldsRequired()} reduces the paths to the fields they start
+ * with; {@link #prune(DataFrame)} then removes whatever the service returned
+ * inside those fields that is not on a path, so {@code product_type.id} is
+ * dropped before the record is flattened or processed.</p>
+ * <pre>
+ * FieldProjection projection = new FieldProjection().add("name").add("state.name");
+ * listInfo.setFieldsRequired(projection.getFieldsRequired()); // ["name","state"]
+ * </pre>
+ *
+ * @see EntitySchema#getProjection()
+ */
+public class FieldProjection {
+    private final Set<String> paths = new LinkedHashSet<>();
+    private final Node root = new Node();
+
+
+    public FieldProjection() {
+    }
+
+
+    /**
+     * @param paths the dotted paths of the fields to keep
+     */
+    public FieldProjection(Collection<String> paths) {
+        for (String path : paths) add(path);
+    }
+
+
+    /**
+     * @param list a comma-separated list of dotted paths
+     * @return the projection of the listed paths
+     */
+    public static FieldProjection parse(String list) {
+        FieldProjection retval = new FieldProjection();
+        if (list != null) {
+            for (String path : list.split(",")) retval.add(path);
+        }
+        return retval;
+    }
+
+
+    /**
+     * @param path the dotted path of a field to keep, blank paths are ignored
+     * @return a reference to this object for call chaining.
+     */
+    public FieldProjection add(String path) {
+        if (path == null || path.trim().isEmpty()) return this;
+        String trimmed = path.trim();
+        if (!paths.add(trimmed)) return this;
+
+        Node node = root;
+        for (String name : trimmed.split("\\.")) {
+            node = node.children.computeIfAbsent(name, n -> new Node());
+        }
+        node.whole = true;
+        return this;
+    }
+
+
+    /**
+     * @return true if no fields have been added, meaning all fields are wanted
+     */
+    public boolean isEmpty() {
+        return paths.isEmpty();
+    }
+
+
+    /**
+     * @return the dotted paths, in the order they were added
+     */
+    public Set<String> getPaths() {
+        return Collections.unmodifiableSet(paths);
+    }
+
+
+    /**
+     * @return the top-level field names to send as {@code fields_required}
+     */
+    public String[] getFieldsRequired() {
+        return root.children.keySet().toArray(new String[0]);
+    }
+
+
+    /**
+     * @return true if any path selects only part of a nested object, so records are worth pruning
+     */
+    public boolean isNested() {
+        for (Node child : root.children.values()) {
+            if (!child.whole) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Remove the fields of a record which are not on any of the paths.
+     *
+     * <p>A path ending at an object keeps all of that object. Arrays of
+     * objects are pruned element by element. Nothing is removed if the
+     * projection is empty.</p>
+     *
+     * @param frame the record to prune in place
+     * @return the same record, for convenience
+     */
+    public DataFrame prune(DataFrame frame) {
+        if (frame != null && !isEmpty()) prune(frame, root);
+        return frame;
+    }
+
+
+    private static void prune(DataFrame frame, Node node) {
+        List<String> unwanted = new ArrayList<>();
+        for (DataField field : frame.getFields()) {
+            Node child = field.getName() != null ? node.children.get(field.getName()) : null;
+            if (child == null) {
+                if (field.getName() != null) unwanted.add(field.getName());
+            } else if (!child.whole && field.getObjectValue() instanceof DataFrame) {
+                DataFrame value = (DataFrame) field.getObjectValue();
+                if (value.isArray()) {
+                    for (DataField element : value.getFields()) {
+                        if (element.getObjectValue() instanceof DataFrame) prune((DataFrame) element.getObjectValue(), child);
+                    }
+                } else {
+                    prune(value, child);
+                }
+            }
+        }
+        for (String name : unwanted) frame.remove(name);
+    }
+
+
+    @Override
+    public String toString() {
+        return String.join(",", paths);
+    }
+
+
+    /**
+     * A field on one or more paths.
+     */
+    private static class Node {
+        private final Map<String, Node> children = new LinkedHashMap<>();
+        /** All of the field is kept, not only the children on a path. */
+        private boolean whole = false;
+    }
+
+}
@@ -0,0 +1,253 @@
+package com.sdcote.sdp;
+
+import coyote.commons.log.Log;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds long-lived {@code HttpClient} instances, one per service URL.
+ *
+ * <p>Creating a new client for every call means every request pays for a new
+ * TCP connection and TLS handshake. The JDK client keeps connections alive
+ * and multiplexes HTTP/2 streams over a single connection, but only if the
+ * same client instance is reused. This class keeps one client for each
+ * service URL (e.g., the API endpoint and the OAuth token service) so those
+ * connections can be shared across all calls.</p>
+ *
+ * <p>Each client prefers HTTP/2 (falling back to HTTP/1.1 if the server does
+ * not support it) and runs its asynchronous work on a bounded executor made
+ * of daemon threads, so idle pools never keep the JVM alive.</p>
+ *
+ * <p>The settings must be changed before the first client is created for a
+ * URL; existing clients are not rebuilt unless {@link #reset()} is called.</p>
+ */
+public class HttpClientPool {
+
+    /** How long to wait for a connection to be established. */
+    private static Duration connectTimeout = Duration.ofSeconds(10);
+
+    /** The maximum number of threads each client may use for its asynchronous work. */
+    private static int maxThreads = 4;
+
+    /** The preferred HTTP version. */
+    private static HttpClient.Version version = HttpClient.Version.HTTP_2;
+
+    /** Open a connection to the server when the client is first created. */
+    private static boolean warmup = true;
+
+    /** The system property holding the number of seconds the JDK keeps idle HTTP/1.1 connections open. */
+    private static final String KEEPALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+
+    private static final Map<String, PooledClient> CLIENTS = new ConcurrentHashMap<>();
+
+
+    private HttpClientPool() {
+        // static access only
+    }
+
+
+    /**
+     * Retrieve the shared client for the given service URL, creating it if necessary.
+     *
+     * @param serviceUrl the root URL of the service (e.g., {@code SDP.getServiceUrl()})
+     * @return the client to use for all requests to that service.
+     */
+    public static HttpClient getClient(String serviceUrl) {
+        return CLIENTS.computeIfAbsent(serviceUrl, HttpClientPool::createClient).client;
+    }
+
+
+    /**
+     * Create a new pooled client, optionally warming up a connection to the service.
+     */
+    private static PooledClient createClient(String serviceUrl) {
+        ExecutorService executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new DaemonThreadFactory(serviceUrl));
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(executor)
+                .build();
+
+        Log.debug(String.format("Created HTTP client for %s (%s, %d threads)", serviceUrl, version, maxThreads));
+
+        if (warmup) warmup(client, serviceUrl);
+
+        return new PooledClient(client, executor);
+    }
+
+
+    /**
+     * Send a lightweight request to the service so the connection (and TLS
+     * session) is established before the first real call needs it.
+     *
+     * <p>The response is ignored; any status, even an error, means the
+     * connection is open.</p>
+     */
+    private static void warmup(HttpClient client, String serviceUrl) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(serviceUrl))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .timeout(connectTimeout)
+                    .build();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (error != null) Log.debug("Connection warmup to " + serviceUrl + " failed: " + error.getMessage());
+                        else Log.debug("Connection warmup to " + serviceUrl + " complete: " + response.statusCode());
+                    });
+        } catch (IllegalArgumentException e) {
+            Log.debug("Could not warm up connection to " + serviceUrl + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Discard all the pooled clients and shut down their executors.
+     *
+     * <p>The next call to {@link #getClient(String)} creates new clients with
+     * the current settings.</p>
+     */
+    public static void reset() {
+        for (String key : CLIENTS.keySet()) {
+            PooledClient pooled = CLIENTS.remove(key);
+            if (pooled != null) pooled.executor.shutdown();
+        }
+    }
+
+
+    /**
+     * @return the connection timeout for new clients
+     */
+    public static Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+
+    /**
+     * @param timeout how long new clients wait for a connection to be established.
+     */
+    public static void setConnectTimeout(Duration timeout) {
+        if (timeout != null) connectTimeout = timeout;
+    }
+
+
+    /**
+     * @return the maximum number of threads for each new client.
+     */
+    public static int getMaxThreads() {
+        return maxThreads;
+    }
+
+
+    /**
+     * @param threads the maximum number of threads each new client uses for asynchronous work.
+     */
+    public static void setMaxThreads(int threads) {
+        if (threads > 0) maxThreads = threads;
+    }
+
+
+    /**
+     * @return the preferred HTTP version of new clients
+     */
+    public static HttpClient.Version getVersion() {
+        return version;
+    }
+
+
+    /**
+     * @param httpVersion the preferred HTTP version of new clients
+     */
+    public static void setVersion(HttpClient.Version httpVersion) {
+        if (httpVersion != null) version = httpVersion;
+    }
+
+
+    /**
+     * @return true if new clients open a connection as soon as they are created.
+     */
+    public static boolean isWarmup() {
+        return warmup;
+    }
+
+
+    /**
+     * @param flag true to have new clients open a connection as soon as they are created.
+     */
+    public static void setWarmup(boolean flag) {
+        warmup = flag;
+    }
+
+
+    /**
+     * Set how long idle HTTP/1.1 connections are kept open, for every
+     * {@code HttpClient} in the JVM (the JDK default is 20 minutes).
+     *
+     * <p>This sets the {@code jdk.httpclient.keepalive.timeout} system
+     * property, which the JDK reads only once, when its HTTP client is first
+     * loaded. It must therefore be called before any {@code HttpClient} is
+     * created in the process, by this pool or anything else; later calls have
+     * no effect. Nothing is changed unless this is called.</p>
+     *
+     * @param timeout how long idle connections are kept open, at least one second
+     */
+    public static void setKeepAliveTimeout(Duration timeout) {
+        if (timeout != null) System.setProperty(KEEPALIVE_PROPERTY, Long.toString(Math.max(1, timeout.getSeconds())));
+    }
+
+
+    /**
+     * A client and the executor it runs on, so the executor can be shut down with the client.
+     */
+    private static class PooledClient {
+        final HttpClient client;
+        final ExecutorService executor;
+
+        PooledClient(HttpClient client, ExecutorService executor) {
+            this.client = client;
+            this.executor = executor;
+        }
+    }
+
+
+    /**
+     * Creates named daemon threads so idle clients never prevent the JVM from exiting.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String prefix;
+
+        DaemonThreadFactory(String serviceUrl) {
+            String host;
+            try {
+                host = URI.create(serviceUrl).getHost();
+            } catch (IllegalArgumentException e) {
+                host = null;
+            }
+            prefix = "sdp-http-" + (host != null ? host : "client") + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.sdcote.sdp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations in nanoseconds so their percentiles can be reported.
+ *
+ * <p>Values are counted in log-linear buckets, in the manner of an HDR
+ * histogram: each power of two is split into 32 equal buckets, so any
+ * reported percentile is within about 3% of the true value while the
+ * histogram stays a fixed size no matter how many values are recorded.
+ * Values from 1 ns to over an hour are kept; longer values are counted in
+ * the last bucket. Recording is lock-free and may be done from any
+ * thread.</p>
+ */
+public class LatencyHistogram {
+
+    /** The number of bits of each value kept exactly; values below 2^SUB_BITS have a bucket each. */
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT / 2;
+
+    /** The largest value kept precisely, about 73 minutes. */
+    private static final long MAX_TRACKED = (1L << 42) - 1;
+
+    private static final int BUCKETS = index(MAX_TRACKED) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * @param nanos the duration to record, negative values are ignored
+     */
+    public void record(long nanos) {
+        if (nanos < 0) return;
+        counts.incrementAndGet(index(Math.min(nanos, MAX_TRACKED)));
+        count.increment();
+        sum.add(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+
+    /**
+     * @return the total of all the values recorded, in nanoseconds
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+
+    /**
+     * @return the largest value recorded, in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+
+    /**
+     * Determine the value below which the given fraction of the recorded values fall.
+     *
+     * <p>Values recorded while this is running may or may not be included.</p>
+     *
+     * @param quantile the fraction of values, from 0 to 1 (e.g. 0.99 for the 99th percentile)
+     * @return the value in nanoseconds, 0 if nothing has been recorded
+     */
+    public long getValueAtQuantile(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(1.0, Math.max(0.0, quantile)) * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return i == BUCKETS - 1 ? getMax() : Math.min(highestValue(i), getMax());
+        }
+        return getMax();
+    }
+
+
+    /**
+     * @return a summary of the recorded values in milliseconds
+     */
+    public Summary getSummary() {
+        return new Summary(this);
+    }
+
+
+    /**
+     * Discard all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+
+    /**
+     * @return the bucket in which the value is counted
+     */
+    static int index(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        int sub = (int) (value >>> shift); // from HALF_COUNT to SUB_COUNT - 1
+        return SUB_COUNT + (shift - 1) * HALF_COUNT + (sub - HALF_COUNT);
+    }
+
+
+    /**
+     * @return the largest value counted in the bucket
+     */
+    static long highestValue(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = (index - SUB_COUNT) / HALF_COUNT + 1;
+        long sub = (index - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+
+    /**
+     * The count, mean, percentiles and maximum of the recorded values in
+     * milliseconds, as presented through JMX.
+     */
+    public static class Summary {
+        private final long count;
+        private final double mean;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double p999;
+        private final double max;
+
+        Summary(LatencyHistogram histogram) {
+            count = histogram.getCount();
+            mean = count > 0 ? millis(histogram.getSum()) / count : 0;
+            p50 = millis(histogram.getValueAtQuantile(0.5));
+            p90 = millis(histogram.getValueAtQuantile(0.9));
+            p99 = millis(histogram.getValueAtQuantile(0.99));
+            p999 = millis(histogram.getValueAtQuantile(0.999));
+            max = millis(histogram.getMax());
+        }
+
+        private static double millis(long nanos) {
+            return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return mean;
+        }
+
+        public double getP50Millis() {
+            return p50;
+        }
+
+        public double getP90Millis() {
+            return p90;
+        }
+
+        public double getP99Millis() {
+            return p99;
+        }
+
+        public double getP999Millis() {
+            return p999;
+        }
+
+        public double getMaxMillis() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms", count, mean, p50, p90, p99, max);
+        }
+    }
+
+}
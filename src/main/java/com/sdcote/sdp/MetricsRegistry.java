@@ -0,0 +1,351 @@
+package com.sdcote.sdp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import coyote.commons.log.Log;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Collects the latencies and counts of the calls made to each endpoint of
+ * the ServiceDesk API.
+ *
+ * <p>Each call is broken into phases, each timed in nanoseconds and kept in
+ * a {@link LatencyHistogram} per endpoint and HTTP method: waiting for the
+ * rate limiter, waiting for an access token, the HTTP exchange, parsing the
+ * response and (for readers) extracting the records. Retries, response
+ * statuses, bytes and records are counted. This shows whether time is spent
+ * in the service or in this client.</p>
+ *
+ * <p>Endpoints are identified by their path with numeric identifiers
+ * replaced, as with circuit breakers. The metrics can be viewed through JMX
+ * once {@link #registerMBeans()} has been called, and in the Prometheus text
+ * format from {@link #writePrometheus(Writer)} or a local HTTP endpoint
+ * started with {@link #startServer(int)}.</p>
+ *
+ * @see SDP#getMetrics()
+ */
+public class MetricsRegistry {
+
+    /** The JMX domain under which the endpoint metrics are registered. */
+    public static final String JMX_DOMAIN = "com.sdcote.sdp";
+
+    /** The path at which the HTTP endpoint serves the metrics. */
+    public static final String METRICS_PATH = "/metrics";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    private volatile boolean jmxEnabled = false;
+    private HttpServer server = null;
+
+
+    /**
+     * Retrieve the metrics of an endpoint, creating them if necessary.
+     *
+     * @param endpoint the endpoint being called
+     * @param method   the HTTP method of the calls
+     * @return the metrics of the endpoint and method
+     */
+    public EndpointMetrics getEndpoint(String endpoint, String method) {
+        String path = CircuitBreakerRegistry.key(endpoint);
+        String verb = method != null ? method.toUpperCase(Locale.ROOT) : "GET";
+        return endpoints.computeIfAbsent(verb + " " + path, k -> {
+            EndpointMetrics metrics = new EndpointMetrics(path, verb);
+            if (jmxEnabled) register(metrics);
+            return metrics;
+        });
+    }
+
+
+    /**
+     * @return the metrics of all the endpoints called so far, ordered by endpoint and method
+     */
+    public List<EndpointMetrics> getEndpoints() {
+        List<EndpointMetrics> retval = new ArrayList<>(endpoints.values());
+        retval.sort(Comparator.comparing(EndpointMetrics::getEndpoint).thenComparing(EndpointMetrics::getMethod));
+        return retval;
+    }
+
+
+    /**
+     * Record the time spent in a phase of a call.
+     *
+     * @param endpoint the endpoint called
+     * @param method   the HTTP method of the call
+     * @param phase    the phase of the call
+     * @param nanos    the time spent in the phase in nanoseconds
+     */
+    public void record(String endpoint, String method, Phase phase, long nanos) {
+        getEndpoint(endpoint, method).getLatency(phase).record(nanos);
+    }
+
+
+    /**
+     * Record one attempt to send a call.
+     *
+     * @param endpoint the endpoint called
+     * @param method   the HTTP method of the call
+     * @param status   the HTTP status of the response, 0 if there was no response
+     * @param nanos    the time from sending the request until the response was received, ignored if there was no response
+     */
+    void recordAttempt(String endpoint, String method, int status, long nanos) {
+        EndpointMetrics metrics = getEndpoint(endpoint, method);
+        metrics.recordStatus(status);
+        if (status > 0) metrics.getLatency(Phase.HTTP).record(nanos);
+    }
+
+
+    /**
+     * Record a completed call from the timings and counts in its response.
+     *
+     * @param endpoint the endpoint called
+     * @param method   the HTTP method of the call
+     * @param response the response of the call
+     */
+    void recordCall(String endpoint, String method, ApiResponse response) {
+        EndpointMetrics metrics = getEndpoint(endpoint, method);
+        metrics.getLatency(Phase.THROTTLE).record(response.getThrottleNanos());
+        metrics.getLatency(Phase.TOKEN).record(response.getTokenNanos());
+        if (response.getParseNanos() > 0) metrics.getLatency(Phase.PARSE).record(response.getParseNanos());
+        metrics.getLatency(Phase.TOTAL).record(response.getTransactionNanos());
+        metrics.recordCall(response.getRetryCount(), response.getResponseBytes(), response.getRecordCount());
+    }
+
+
+    /**
+     * Discard the metrics of all endpoints.
+     */
+    public void reset() {
+        for (EndpointMetrics metrics : endpoints.values()) metrics.reset();
+    }
+
+
+    /**
+     * Make the metrics of each endpoint available through the platform MBean
+     * server, as {@code com.sdcote.sdp:type=Endpoint,method=...,endpoint=...}.
+     *
+     * @return a reference to this object for call chaining.
+     */
+    public MetricsRegistry registerMBeans() {
+        jmxEnabled = true;
+        for (EndpointMetrics metrics : endpoints.values()) register(metrics);
+        return this;
+    }
+
+
+    /**
+     * Remove the metrics of all endpoints from the platform MBean server.
+     */
+    public void unregisterMBeans() {
+        jmxEnabled = false;
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        for (EndpointMetrics metrics : endpoints.values()) {
+            try {
+                ObjectName name = objectName(metrics);
+                if (mbeans.isRegistered(name)) mbeans.unregisterMBean(name);
+            } catch (JMException e) {
+                Log.warn("Could not unregister the metrics of " + metrics.getEndpoint() + ": " + e.getMessage());
+            }
+        }
+    }
+
+
+    private static void register(EndpointMetrics metrics) {
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = objectName(metrics);
+            if (mbeans.isRegistered(name)) mbeans.unregisterMBean(name); // replace those of an earlier registry
+            mbeans.registerMBean(metrics, name);
+        } catch (JMException e) {
+            Log.warn("Could not register the metrics of " + metrics.getEndpoint() + " with JMX: " + e.getMessage());
+        }
+    }
+
+
+    static ObjectName objectName(EndpointMetrics metrics) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Endpoint,method=" + metrics.getMethod() + ",endpoint=" + ObjectName.quote(metrics.getEndpoint()));
+    }
+
+
+    /**
+     * Write the metrics in the Prometheus text exposition format.
+     *
+     * @param out where to write the metrics
+     * @throws IOException if the metrics could not be written
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        List<EndpointMetrics> all = getEndpoints();
+
+        out.write("# HELP sdp_api_latency_seconds Time spent in each phase of ServiceDesk API calls.\n");
+        out.write("# TYPE sdp_api_latency_seconds summary\n");
+        for (EndpointMetrics metrics : all) {
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = metrics.getLatency(phase);
+                if (histogram.getCount() == 0) continue;
+                String labels = labels(metrics) + ",phase=\"" + phase.getLabel() + "\"";
+                for (double quantile : QUANTILES) {
+                    out.write("sdp_api_latency_seconds{" + labels + ",quantile=\"" + quantile + "\"} " + seconds(histogram.getValueAtQuantile(quantile)) + "\n");
+                }
+                out.write("sdp_api_latency_seconds_sum{" + labels + "} " + seconds(histogram.getSum()) + "\n");
+                out.write("sdp_api_latency_seconds_count{" + labels + "} " + histogram.getCount() + "\n");
+            }
+        }
+
+        counter(out, all, "sdp_api_calls_total", "ServiceDesk API calls completed.", EndpointMetrics::getCalls);
+        counter(out, all, "sdp_api_retries_total", "ServiceDesk API calls sent again after a failure.", EndpointMetrics::getRetries);
+        counter(out, all, "sdp_api_response_bytes_total", "Response body bytes received from the ServiceDesk API.", EndpointMetrics::getResponseBytes);
+        counter(out, all, "sdp_api_records_total", "Records received from the ServiceDesk API.", EndpointMetrics::getRecords);
+
+        out.write("# HELP sdp_api_responses_total ServiceDesk API responses by HTTP status, 0 meaning no response.\n");
+        out.write("# TYPE sdp_api_responses_total counter\n");
+        for (EndpointMetrics metrics : all) {
+            for (Map.Entry<String, Long> status : metrics.getStatusCounts().entrySet()) {
+                out.write("sdp_api_responses_total{" + labels(metrics) + ",status=\"" + status.getKey() + "\"} " + status.getValue() + "\n");
+            }
+        }
+        out.flush();
+    }
+
+
+    /**
+     * @return the metrics in the Prometheus text exposition format
+     */
+    public String toPrometheus() {
+        StringWriter retval = new StringWriter();
+        try {
+            writePrometheus(retval);
+        } catch (IOException e) {
+            // not thrown by a StringWriter
+        }
+        return retval.toString();
+    }
+
+
+    private static void counter(Writer out, List<EndpointMetrics> all, String name, String help, ToLongFunction<EndpointMetrics> count) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " counter\n");
+        for (EndpointMetrics metrics : all) {
+            out.write(name + "{" + labels(metrics) + "} " + count.applyAsLong(metrics) + "\n");
+        }
+    }
+
+
+    private static String labels(EndpointMetrics metrics) {
+        return "endpoint=\"" + escape(metrics.getEndpoint()) + "\",method=\"" + escape(metrics.getMethod()) + "\"";
+    }
+
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+
+    private static double seconds(long nanos) {
+        return (double) nanos / TimeUnit.SECONDS.toNanos(1);
+    }
+
+
+    /**
+     * Serve the metrics in the Prometheus text format at
+     * {@code http://localhost:<port>/metrics}.
+     *
+     * <p>The server only listens on the loopback interface and does not keep
+     * the process running.</p>
+     *
+     * @param port the port to listen on, 0 for any free port
+     * @return the port the server is listening on
+     * @throws IOException if the server could not be started
+     */
+    public synchronized int startServer(int port) throws IOException {
+        if (server != null) return server.getAddress().getPort();
+
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext(METRICS_PATH, this::handleScrape);
+
+        // the dispatcher thread inherits the daemon status of the thread which starts the server
+        Thread starter = new Thread(httpServer::start, "SDP-Metrics-Start");
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server = httpServer;
+        Log.info("Serving metrics at http://localhost:" + server.getAddress().getPort() + METRICS_PATH);
+        return server.getAddress().getPort();
+    }
+
+
+    /**
+     * Stop serving the metrics over HTTP.
+     */
+    public synchronized void stopServer() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+
+    private void handleScrape(HttpExchange exchange) throws IOException {
+        byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+
+    /**
+     * The phases of an API call which are timed.
+     */
+    public enum Phase {
+        /** Waiting for the rate limiter to allow the call, over all attempts. */
+        THROTTLE("throttle"),
+        /** Waiting for an access token. */
+        TOKEN("token"),
+        /** Sending an attempt and receiving its entire response. */
+        HTTP("http"),
+        /** Parsing the response into records. */
+        PARSE("parse"),
+        /** A reader extracting the records of a response for its job. */
+        EXTRACT("extract"),
+        /** The whole call once the access token is available, including waiting and retries. */
+        TOTAL("total");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return the name of the phase in exported metrics
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+}
@@ -1,35 +1,89 @@
 package com.sdcote.sdp;
 
+import com.sdcote.sdp.jfr.TokenAcquisitionEvent;
+import com.sdcote.sdp.jfr.TokenRefreshEvent;
 import coyote.commons.log.Log;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
+ * Keeps an access token for each registered client, refreshing it with the
+ * client's refresh token when it is about to expire.
  *
+ * <p>By default a token is refreshed by the first call which finds it inside
+ * the expiry window, and that call waits for the token service. With
+ * {@link #startBackgroundRefresh()} each token is instead refreshed by a
+ * background thread at a random point in the {@link #setRefreshAhead(long)
+ * refresh-ahead period} before the expiry window, so calls are answered from
+ * memory and the refreshes of many clients are spread out.</p>
+ *
+ * <p>Zoho allows only a few access tokens to be generated from a refresh
+ * token in a short period (10 in 10 minutes), so refreshes are limited per
+ * client. When a refresh is refused by that limit or fails, the current
+ * token is served for as long as it is still valid.</p>
+ *
+ * <p>With a {@link #setTokenStore(TokenStore) token store}, tokens and
+ * rotated refresh tokens are saved after each refresh and loaded when a
+ * client is registered, so a new process starts with the token an earlier
+ * one retrieved. Before refreshing, the store is checked for a newer token
+ * saved by another process.</p>
  */
 public class OAuthAccessTokenTracker {
 
+    /** The most refreshes Zoho allows for a single refresh token within {@link #DEFAULT_REFRESH_PERIOD_MILLIS}. */
+    public static final int DEFAULT_REFRESH_LIMIT = 10;
+
+    /** The period over which refreshes are limited. */
+    public static final long DEFAULT_REFRESH_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /** The default number of seconds before the expiry window a background refresh may occur. */
+    public static final long DEFAULT_REFRESH_AHEAD_SECONDS = 300;
+
+    /** How long to wait before trying again after a failed refresh while the current token is still valid. */
+    private static final long FAILED_REFRESH_DELAY_SECONDS = 30;
+
     private final String tokenProviderUrl;
 
     /** The number of seconds before the access token expiration we want the token refresh to occur.*/
     private final long expiryWindowSeconds;
-    private final HttpClient httpClient;
 
     // Thread-safe map to store client token data
     private final Map<String, ClientTokenData> clientDataMap = new ConcurrentHashMap<>();
 
+    private volatile int refreshLimit = DEFAULT_REFRESH_LIMIT;
+    private volatile long refreshPeriodMillis = DEFAULT_REFRESH_PERIOD_MILLIS;
+    private volatile long refreshAheadSeconds = DEFAULT_REFRESH_AHEAD_SECONDS;
+
+    /** Runs the background refreshes, null when they are not enabled. */
+    private volatile ScheduledExecutorService scheduler = null;
+
+    /** Keeps tokens between runs, null when they are not kept. */
+    private volatile TokenStore tokenStore = null;
+
     /**
      * @param tokenProviderUrl    The URL of the OAuth token endpoint.
      * @param expiryWindowSeconds The buffer time in seconds to refresh the token before it actually expires.
@@ -37,7 +91,6 @@ public class OAuthAccessTokenTracker {
     public OAuthAccessTokenTracker(String tokenProviderUrl, long expiryWindowSeconds) {
         this.tokenProviderUrl = tokenProviderUrl;
         this.expiryWindowSeconds = expiryWindowSeconds;
-        this.httpClient = HttpClient.newHttpClient();
     }
 
     /**
@@ -47,9 +100,126 @@ public class OAuthAccessTokenTracker {
      */
     public void registerClient(ClientCredentials credentials) {
         ClientTokenData data = new ClientTokenData();
+        data.clientId = credentials.getIdentifier();
         data.clientSecret = credentials.getSecret();
         data.refreshToken = credentials.getRefreshToken();
-        clientDataMap.put(credentials.getIdentifier(), data);
+        data.origin = fingerprint(credentials);
+        TokenStore store = tokenStore;
+        if (store != null) {
+            synchronized (data) {
+                adopt(data, store.load(data.clientId));
+            }
+        }
+        ClientTokenData previous = clientDataMap.put(credentials.getIdentifier(), data);
+        if (previous != null) {
+            synchronized (previous) {
+                if (previous.scheduledRefresh != null) previous.scheduledRefresh.cancel(false);
+            }
+        }
+        if (scheduler != null) {
+            synchronized (data) {
+                scheduleRefresh(data);
+            }
+        }
+    }
+
+
+    /**
+     * Keep tokens in the given store so they survive the process.
+     *
+     * <p>Clients registered from now on start with the token in the store,
+     * if it was retrieved with the same credentials.</p>
+     *
+     * @param store the store to use, null to not keep tokens
+     * @return a reference to this object for call chaining.
+     */
+    public OAuthAccessTokenTracker setTokenStore(TokenStore store) {
+        this.tokenStore = store;
+        return this;
+    }
+
+
+    /**
+     * @return the store in which tokens are kept, null if they are not kept
+     */
+    public TokenStore getTokenStore() {
+        return tokenStore;
+    }
+
+
+    /**
+     * Limit how often the token of a single client may be refreshed.
+     *
+     * @param refreshes the most refreshes allowed within the period
+     * @param millis    the length of the period in milliseconds
+     * @return a reference to this object for call chaining.
+     */
+    public OAuthAccessTokenTracker setRefreshLimit(int refreshes, long millis) {
+        this.refreshLimit = Math.max(1, refreshes);
+        this.refreshPeriodMillis = Math.max(0, millis);
+        return this;
+    }
+
+
+    /**
+     * @param seconds the number of seconds before the expiry window over which background refreshes are spread
+     * @return a reference to this object for call chaining.
+     */
+    public OAuthAccessTokenTracker setRefreshAhead(long seconds) {
+        this.refreshAheadSeconds = Math.max(0, seconds);
+        return this;
+    }
+
+
+    /**
+     * Refresh the tokens of all registered clients in the background before
+     * they enter the expiry window.
+     *
+     * <p>Clients registered without an access token have one retrieved
+     * right away. Calling this when background refresh is already running
+     * has no effect.</p>
+     *
+     * @return a reference to this object for call chaining.
+     */
+    public synchronized OAuthAccessTokenTracker startBackgroundRefresh() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "SDP-TokenRefresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (ClientTokenData data : clientDataMap.values()) {
+                synchronized (data) {
+                    scheduleRefresh(data);
+                }
+            }
+        }
+        return this;
+    }
+
+
+    /**
+     * Stop refreshing tokens in the background; tokens are again refreshed by
+     * the calls which find them about to expire.
+     */
+    public synchronized void stopBackgroundRefresh() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            for (ClientTokenData data : clientDataMap.values()) {
+                synchronized (data) {
+                    data.scheduledRefresh = null;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return true if tokens are being refreshed in the background
+     */
+    public boolean isRefreshingInBackground() {
+        return scheduler != null;
     }
 
 
@@ -63,6 +233,50 @@ public class OAuthAccessTokenTracker {
      * @throws IllegalArgumentException If the client is not registered.
      */
     public String getAccessToken(ClientCredentials credentials) throws IOException, InterruptedException {
+        try {
+            return getAccessTokenAsync(credentials).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException("Token retrieval failed", cause);
+        }
+    }
+
+
+    /**
+     * Retrieves a valid access token without blocking the calling thread.
+     *
+     * <p>If the token needs to be refreshed, only one refresh request is sent
+     * for each client; all callers arriving while it is in flight share its
+     * result.</p>
+     *
+     * @param credentials The object containing client credentials
+     * @return A future which completes with the valid access token.
+     */
+    public CompletableFuture<String> getAccessTokenAsync(ClientCredentials credentials) {
+        TokenAcquisitionEvent event = new TokenAcquisitionEvent();
+        event.begin();
+        CompletableFuture<String> retval = acquire(credentials);
+        if (event.isEnabled()) {
+            boolean cached = retval.isDone();
+            retval.whenComplete((token, error) -> {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.setClient(credentials.getIdentifier());
+                    event.setCached(cached);
+                    event.commit();
+                }
+            });
+        }
+        return retval;
+    }
+
+
+    /**
+     * Retrieve the access token from memory, or start or join a refresh of it.
+     */
+    private CompletableFuture<String> acquire(ClientCredentials credentials) {
         ClientTokenData data = clientDataMap.get(credentials.getIdentifier());
         if (data == null) {
             registerClient(credentials);
@@ -70,39 +284,211 @@ public class OAuthAccessTokenTracker {
         }
 
         synchronized (data) {
-            if (shouldRefreshToken(data)) {
-                refreshAccessToken(credentials.getIdentifier(), data);
+            if (!shouldRefreshToken(data)) {
+                return CompletableFuture.completedFuture(data.accessToken);
+            }
+            // another process may have refreshed the token already
+            TokenStore store = tokenStore;
+            if (store != null && data.pendingRefresh == null && adopt(data, store.load(data.clientId)) && !shouldRefreshToken(data)) {
+                Log.debug("Using the access token saved by another process for client " + data.clientId);
+                return CompletableFuture.completedFuture(data.accessToken);
+            }
+            return startRefresh(data);
+        }
+    }
+
+
+    /**
+     * Take the token from the store if it was retrieved with the client's
+     * credentials and expires later than the current one. Must be called
+     * while holding the lock on the data.
+     *
+     * @param data   the token data of the client
+     * @param stored the token from the store, may be null
+     * @return true if the stored token was taken
+     */
+    private static boolean adopt(ClientTokenData data, TokenStore.StoredToken stored) {
+        if (stored == null || !data.origin.equals(stored.getOrigin())) {
+            return false;
+        }
+        if (stored.getRefreshToken() != null) {
+            data.refreshToken = stored.getRefreshToken();
+        }
+        if (stored.getAccessToken() == null || stored.getExpirationTime() == null) {
+            return false;
+        }
+        if (data.expirationTime != null && !stored.getExpirationTime().isAfter(data.expirationTime)) {
+            return false;
+        }
+        data.accessToken = stored.getAccessToken();
+        data.expirationTime = stored.getExpirationTime();
+        data.retryAt = null;
+        return true;
+    }
+
+
+    /**
+     * @return a digest of the credentials the client was registered with, so stored tokens are not used after they change
+     */
+    private static String fingerprint(ClientCredentials credentials) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(credentials.getIdentifier()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(credentials.getRefreshToken()).getBytes(StandardCharsets.UTF_8));
+            StringBuilder retval = new StringBuilder();
+            for (byte b : digest.digest()) retval.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return retval.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+
+    /**
+     * Start a refresh of the client's token unless one is already in flight.
+     *
+     * <p>If the refresh limit has been reached, the current token is returned
+     * while it is still valid; otherwise the refresh is sent as soon as the
+     * limit allows. Must be called while holding the lock on the data.</p>
+     *
+     * @param data the token data of the client
+     * @return a future which completes with the access token
+     */
+    private CompletableFuture<String> startRefresh(ClientTokenData data) {
+        if (data.pendingRefresh != null) {
+            return data.pendingRefresh;
+        }
+
+        long now = System.currentTimeMillis();
+        while (!data.refreshTimes.isEmpty() && now - data.refreshTimes.peekFirst() >= refreshPeriodMillis) {
+            data.refreshTimes.pollFirst();
+        }
+        long wait = data.refreshTimes.size() < refreshLimit ? 0 : data.refreshTimes.peekFirst() + refreshPeriodMillis - now;
+
+        final CompletableFuture<String> refresh;
+        if (wait <= 0) {
+            data.refreshTimes.addLast(now);
+            refresh = refreshAccessToken(data.clientId, data);
+        } else if (isValid(data)) {
+            Log.warn(String.format("Token refresh limit of %d per %d ms reached for client %s, using the current token", refreshLimit, refreshPeriodMillis, data.clientId));
+            data.retryAt = Instant.ofEpochMilli(now + wait);
+            if (scheduler != null) scheduleRefresh(data);
+            return CompletableFuture.completedFuture(data.accessToken);
+        } else {
+            Log.warn(String.format("Token refresh limit of %d per %d ms reached for client %s, waiting %d ms", refreshLimit, refreshPeriodMillis, data.clientId, wait));
+            data.refreshTimes.addLast(now + wait);
+            refresh = CompletableFuture.runAsync(() -> {
+            }, CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS)).thenCompose(ignored -> refreshAccessToken(data.clientId, data));
+        }
+
+        data.pendingRefresh = refresh;
+        refresh.whenComplete((token, error) -> {
+            synchronized (data) {
+                if (data.pendingRefresh == refresh) data.pendingRefresh = null;
+                if (scheduler != null) scheduleRefresh(data);
             }
-            return data.accessToken;
+        });
+        return refresh;
+    }
+
+
+    /**
+     * Schedule the next background refresh of the client's token, replacing
+     * any refresh already scheduled. Must be called while holding the lock on
+     * the data.
+     *
+     * <p>A valid token is refreshed at a random point within the
+     * refresh-ahead period before its expiry window. After a failed or
+     * refused refresh, the next attempt waits until retrying is allowed.</p>
+     */
+    private void scheduleRefresh(ClientTokenData data) {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null || data.pendingRefresh != null) return;
+        if (data.scheduledRefresh != null) data.scheduledRefresh.cancel(false);
+
+        long now = System.currentTimeMillis();
+        long delay = 0;
+        if (data.accessToken != null && data.expirationTime != null) {
+            long latest = data.expirationTime.toEpochMilli() - TimeUnit.SECONDS.toMillis(expiryWindowSeconds) - now;
+            long earliest = latest - TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+            if (latest > 0) delay = ThreadLocalRandom.current().nextLong(Math.max(0, earliest), latest + 1);
+        }
+        if (data.retryAt != null) delay = Math.max(delay, data.retryAt.toEpochMilli() - now);
+
+        try {
+            data.scheduledRefresh = executor.schedule(() -> {
+                synchronized (data) {
+                    data.scheduledRefresh = null;
+                    if (clientDataMap.get(data.clientId) != data || data.refreshToken == null) return;
+                    if (isRefreshDue(data)) startRefresh(data);
+                    else scheduleRefresh(data);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            Log.debug(String.format("Token refresh for client %s scheduled in %d ms", data.clientId, delay));
+        } catch (RejectedExecutionException e) {
+            // background refresh was stopped
+        }
+    }
+
+
+    /**
+     * @return true if a background refresh of the client's token should be sent now
+     */
+    private boolean isRefreshDue(ClientTokenData data) {
+        if (data.retryAt != null && Instant.now().isBefore(data.retryAt)) {
+            return false;
         }
+        if (data.accessToken == null || data.expirationTime == null) {
+            return true;
+        }
+        return Instant.now().plusSeconds(expiryWindowSeconds + refreshAheadSeconds).isAfter(data.expirationTime);
     }
 
 
     /**
      * Check to see if the token is expired or about to expire
-     * @param data
-     * @return
+     *
+     * <p>After a failed or refused refresh, a token which is still valid is
+     * used until retrying is allowed.</p>
+     *
+     * @param data the token data of the client
+     * @return true if the token should be refreshed before it is used
      */
     private boolean shouldRefreshToken(ClientTokenData data) {
         if (data.accessToken == null || data.expirationTime == null) {
             return true;
         }
+        if (data.retryAt != null && Instant.now().isBefore(data.retryAt) && isValid(data)) {
+            return false;
+        }
         // Check if current time + window is after the expiration time
         return Instant.now().plusSeconds(expiryWindowSeconds).isAfter(data.expirationTime);
     }
 
 
+    /**
+     * @return true if the client has a token which has not yet expired
+     */
+    private boolean isValid(ClientTokenData data) {
+        return data.accessToken != null && data.expirationTime != null && Instant.now().isBefore(data.expirationTime);
+    }
+
+
     /**
      * Perform a refresh of the access token.
      *
+     * <p>Network failures are logged and the current (possibly null) access
+     * token is returned, just as if the token service had returned an error.
+     * The current token is then kept until retrying is allowed.</p>
+     *
      * @param clientId THe identifier of the client to refresh
      * @param data the data containing the refresh token and client secret
-     * @throws IOException if network operations fail
-     * @throws InterruptedException if a timeout occurs.
+     * @return a future which completes with the access token after the refresh
      */
-    private void refreshAccessToken(String clientId, ClientTokenData data) throws IOException, InterruptedException {
+    private CompletableFuture<String> refreshAccessToken(String clientId, ClientTokenData data) {
         if (data.refreshToken == null) {
-            throw new IllegalStateException("No refresh token available for client: " + clientId);
+            return CompletableFuture.failedFuture(new IllegalStateException("No refresh token available for client: " + clientId));
         }
         String url = tokenProviderUrl+"/token";
 
@@ -120,43 +506,64 @@ public class OAuthAccessTokenTracker {
                 .collect(Collectors.joining("&"));
 
         // Build the Request
-        try  {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .header("Content-Type", "application/x-www-form-urlencoded")
-                    .POST(HttpRequest.BodyPublishers.ofString(formBody))
-                    .build();
-
-            // Send the request and receive the response
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() == 200) {
-                Log.debug("Token refreshed successfully:");
-                Log.debug(response.body());
-
-                data.accessToken = extractJsonValue(response.body(), "access_token");
-                String newRefreshToken = extractJsonValue(response.body(), "refresh_token");
-
-                if (newRefreshToken != null && !newRefreshToken.isEmpty()) {
-                    data.refreshToken = newRefreshToken;
-                }
-
-                String expiresInStr = extractJsonValue(response.body(), "expires_in");
-                long expiresIn = (expiresInStr != null) ? Long.parseLong(expiresInStr) : 3600;
-
-                data.expirationTime = Instant.now().plusSeconds(expiresIn);
-
-            } else {
-                Log.error("Error: Received HTTP " + response.statusCode());
-                Log.error("Body: " + response.body());
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(formBody))
+                .build();
+
+        // Send the request and handle the response when it arrives
+        TokenRefreshEvent event = new TokenRefreshEvent();
+        event.begin();
+        return HttpClientPool.getClient(tokenProviderUrl).sendAsync(request, HttpResponse.BodyHandlers.ofString()).handle((response, error) -> {
+            event.end();
+            if (event.shouldCommit()) {
+                event.setCall(request.uri().getPath(), request.method());
+                event.setClient(clientId);
+                event.setStatus(response != null ? response.statusCode() : 0);
+                event.setBytes(response != null && response.body() != null ? response.body().length() : 0);
+                event.commit();
             }
-        } catch (IOException | InterruptedException e) {
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
+            TokenStore.StoredToken refreshed = null;
+            String retval;
+            synchronized (data) {
+                String accessToken = response != null && response.statusCode() == 200 ? extractJsonValue(response.body(), "access_token") : null;
+                if (error != null) {
+                    Log.error("Request failed: " + (error instanceof CompletionException ? error.getCause() : error).getMessage());
+                } else if (accessToken != null) {
+                    Log.debug("Token refreshed successfully:");
+                    Log.debug(response.body());
+
+                    data.accessToken = accessToken;
+                    data.retryAt = null;
+                    String newRefreshToken = extractJsonValue(response.body(), "refresh_token");
+
+                    if (newRefreshToken != null && !newRefreshToken.isEmpty()) {
+                        data.refreshToken = newRefreshToken;
+                    }
+
+                    String expiresInStr = extractJsonValue(response.body(), "expires_in");
+                    long expiresIn = (expiresInStr != null) ? Long.parseLong(expiresInStr) : 3600;
+
+                    data.expirationTime = Instant.now().plusSeconds(expiresIn);
+                    refreshed = new TokenStore.StoredToken(data.accessToken, data.expirationTime, data.refreshToken, data.origin);
+
+                } else {
+                    // Zoho reports some errors, such as too many refreshes, with HTTP 200
+                    Log.error("Error: Received HTTP " + response.statusCode());
+                    Log.error("Body: " + response.body());
+                }
+                if (accessToken == null) {
+                    data.retryAt = Instant.now().plusSeconds(FAILED_REFRESH_DELAY_SECONDS);
+                }
+                retval = data.accessToken;
             }
-            Log.error("Request failed: " + e.getMessage());
-        }
 
+            // saved before the token is handed out so a short-lived process cannot exit first
+            TokenStore store = tokenStore;
+            if (refreshed != null && store != null) store.save(data.clientId, refreshed);
+            return retval;
+        });
     }
 
 
@@ -185,9 +592,18 @@ public class OAuthAccessTokenTracker {
      * Inner class to hold state
      */
     private static class ClientTokenData {
+        String clientId;
         String clientSecret;
         String refreshToken;
+        /** A digest of the credentials the client was registered with. */
+        String origin;
         String accessToken;
         Instant expirationTime;
+        CompletableFuture<String> pendingRefresh;
+        /** When the refreshes within the limiting period were sent, oldest first. */
+        final Deque<Long> refreshTimes = new ArrayDeque<>();
+        /** When a refresh may next be tried after one failed or was refused, null if it may be tried now. */
+        Instant retryAt;
+        ScheduledFuture<?> scheduledRefresh;
     }
 }
\ No newline at end of file
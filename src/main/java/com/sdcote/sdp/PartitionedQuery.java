@@ -0,0 +1,617 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+import coyote.commons.log.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads all the records of a listing by splitting the query into disjoint
+ * slices which are read concurrently.
+ *
+ * <p>A listing read page by page is a single cursor, so more threads or a
+ * larger rate budget do not make it any faster. This divides the records
+ * matching the criteria into slices, either ranges of a numeric field such
+ * as {@code id} or {@code created_time}, or the values of a field such as
+ * {@code site.name}, and has a pool of workers read the slices at the same
+ * time. Within a slice, records are read in {@code id} order, each page
+ * asking for the records after the last {@code id} read, so pages cost the
+ * same however large the slice is.</p>
+ *
+ * <p>If the range of the field is not given, it is found with two calls
+ * before reading starts. Ranges are split evenly, but records are rarely
+ * spread evenly, so whenever a worker is idle and a range slice still has
+ * more pages to read, the rest of that slice is split in two and the idle
+ * worker takes the upper half.</p>
+ *
+ * <p>Records are returned by {@link #next()} as they arrive, or, when
+ * ordered, slice by slice in the order of the ranges or values. Unordered
+ * reads hold at most a few pages per worker before the workers wait for the
+ * records to be taken; ordered reads hold whatever has arrived ahead of the
+ * slice being returned.</p>
+ * <pre>
+ * try (PartitionedQuery query = new PartitionedQuery(credentials, "/requests", "requests")
+ *         .byRange("created_time", from, to).setSlices(16).setConcurrency(4)) {
+ *     for (DataFrame record = query.next(); record != null; record = query.next()) {
+ *         ...
+ *     }
+ *     if (query.getFailure() != null) ...
+ * }</pre>
+ */
+public class PartitionedQuery implements AutoCloseable {
+
+    /** The default number of slices the query is split into before reading starts. */
+    public static final int DEFAULT_SLICES = 8;
+
+    /** The default number of slices read at the same time. */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /** The unique field each slice is read in order of. */
+    public static final String KEY_FIELD = "id";
+
+    private static final AtomicInteger QUERY_COUNT = new AtomicInteger();
+
+    private final ClientCredentials credentials;
+    private final String endpoint;
+    private final String resultField;
+    private SearchCriteria criteria = null;
+    private String[] fieldsRequired = null;
+    private int rowCount = SDP.MAX_ROWS_PER_PAGE;
+    private int initialSlices = DEFAULT_SLICES;
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private boolean ordered = false;
+    private String field = KEY_FIELD;
+    private Long rangeFrom = null;
+    private Long rangeTo = null;
+    private List<String> values = null;
+    private long minSliceWidth = 1;
+
+    private final Object lock = new Object();
+    private final Deque<Slice> pending = new ArrayDeque<>();
+    private final List<Slice> slices = new ArrayList<>();
+    private int active = 0;
+    private int buffered = 0;
+    private boolean started = false;
+    private boolean closed = false;
+    private String failure = null;
+    private long records = 0;
+    private int calls = 0;
+    private int splits = 0;
+    private ExecutorService workers = null;
+
+
+    /**
+     * @param credentials the client credentials to use for the calls
+     * @param endpoint    the endpoint of the listing, e.g. /assets
+     * @param resultField the name of the field holding the records in the responses, e.g. assets
+     */
+    public PartitionedQuery(ClientCredentials credentials, String endpoint, String resultField) {
+        this.credentials = credentials;
+        this.endpoint = endpoint;
+        this.resultField = resultField;
+    }
+
+
+    /**
+     * @param criteria the criteria all the records must meet, null for all records
+     * @return a reference to this object for call chaining.
+     */
+    public PartitionedQuery setCriteria(SearchCriteria criteria) {
+        this.criteria = criteria;
+        return this;
+    }
+
+
+    /**
+     * @param fields the top-level fields to retrieve, null for all; the key and partition fields are added
+     * @return a reference to this object for call chaining.
+     */
+    public PartitionedQuery setFieldsRequired(String[] fields) {
+        this.fieldsRequired = fields;
+        return this;
+    }
+
+
+    /**
+     * @param rows the number of records to ask for in each call
+     * @return a reference to this object for call chaining.
+     */
+    public PartitionedQuery setRowCount(int rows) {
+        this.rowCount = Math.max(1, Math.min(SDP.MAX_ROWS_PER_PAGE, rows));
+        return this;
+    }
+
+
+    /**
+     * Slice the query by ranges of a numeric field.
+     *
+     * @param field the field, e.g. id, or created_time whose epoch milliseconds are used
+     * @param from  the lowest value to read, null to find it
+     * @param to    the value just past the highest to read, null to find it
+     * @return a reference to this object for call chaining.
+     */
+    public PartitionedQuery byRange(String field, Long from, Long to) {
+        this.field = field;
+        this.rangeFrom = from;
+        this.rangeTo = to;
+        this.values = null;
+        return this;
+    }
+
+
+    /**
+     * Slice the query by the values of a field, one slice per value.
+     *
+     * <p>Records whose field has none of the values are not read.</p>
+     *
+     * @param field  the field, e.g. site.name
+     * @param values the values of the field to read
+     * @return a reference to this object for call chaining.
+     */
+    public PartitionedQuery byValues(String field, Collection<String> values) {
+        this.field = field;
+        this.values = new ArrayList<>(values);
+        this.rangeFrom = null;
+        this.rangeTo = null;
+        return this;
+    }
+
+
+    /**
+     * @param count the number of slices a range is split into before reading starts
+     * @return a reference to this object for call chaining.
+     */
+    public PartitionedQuery setSlices(int count) {
+        this.initialSlices = Math.max(1, count);
+        return this;
+    }
+
+
+    /**
+     * @param workers the number of slices read at the same time
+     * @return a reference to this object for call chaining.
+     */
+    public PartitionedQuery setConcurrency(int workers) {
+        this.concurrency = Math.max(1, workers);
+        return this;
+    }
+
+
+    /**
+     * @param ordered true to return records slice by slice in the order of the ranges or values, false to return them as they arrive
+     * @return a reference to this object for call chaining.
+     */
+    public PartitionedQuery setOrdered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+
+    /**
+     * @param width the narrowest range which may be split further
+     * @return a reference to this object for call chaining.
+     */
+    public PartitionedQuery setMinSliceWidth(long width) {
+        this.minSliceWidth = Math.max(1, width);
+        return this;
+    }
+
+
+    /**
+     * Work out the slices and start reading them.
+     *
+     * <p>Called by the first {@link #next()} if not called before.</p>
+     */
+    public void start() {
+        synchronized (lock) {
+            if (started) return;
+            started = true;
+        }
+
+        List<Slice> initial = values != null ? valueSlices() : rangeSlices();
+        int id = QUERY_COUNT.incrementAndGet();
+        AtomicInteger threadCount = new AtomicInteger();
+        synchronized (lock) {
+            slices.addAll(initial);
+            pending.addAll(initial);
+            if (initial.isEmpty() || closed || failure != null) {
+                lock.notifyAll();
+                return;
+            }
+            Log.debug(String.format("Reading %s in %d slices of %s with %d workers", endpoint, initial.size(), field, concurrency));
+            workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+                Thread thread = new Thread(runnable, "SDP-Partition-" + id + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (int i = 0; i < concurrency; i++) workers.execute(this::work);
+            workers.shutdown();
+        }
+    }
+
+
+    private List<Slice> valueSlices() {
+        List<Slice> retval = new ArrayList<>();
+        for (String value : values) retval.add(new Slice(value));
+        return retval;
+    }
+
+
+    private List<Slice> rangeSlices() {
+        List<Slice> retval = new ArrayList<>();
+        Long from = rangeFrom != null ? rangeFrom : bound(ListInfo.ASCENDING);
+        Long to = rangeTo;
+        if (to == null) {
+            Long highest = bound(ListInfo.DECENDING);
+            to = highest != null ? highest + 1 : null;
+        }
+        if (from == null || to == null || from >= to) return retval; // nothing to read, or the bounds could not be found
+
+        long width = Math.max(minSliceWidth, (to - from + initialSlices - 1) / initialSlices);
+        for (long start = from; start < to; start += width) {
+            retval.add(new Slice(start, Math.min(to, start + width)));
+            if (start + width < start) break; // overflow
+        }
+        return retval;
+    }
+
+
+    /**
+     * @return the lowest or highest value of the field in the records matching the criteria, null if there are none or the call failed
+     */
+    private Long bound(String order) {
+        ListInfo listInfo = new ListInfo().setRowCount(1).setStartIndex(1).setSortField(field).setSortOrder(order);
+        if (criteria != null) listInfo.setSearchCriteria(criteria);
+        ApiResponse response = call(listInfo);
+        if (response == null) return null;
+        return response.getResultSize() > 0 ? toLong(valueOf(response.getFrame(0), field)) : null;
+    }
+
+
+    /**
+     * Take the next record.
+     *
+     * <p>Blocks until a record has arrived or all the slices have been read.</p>
+     *
+     * @return the next record, or null if there are no more or reading failed
+     */
+    public DataFrame next() {
+        start();
+        synchronized (lock) {
+            while (true) {
+                if (failure != null || closed) return null;
+                Iterator<Slice> iterator = slices.iterator();
+                while (iterator.hasNext()) {
+                    Slice slice = iterator.next();
+                    if (!slice.buffer.isEmpty()) {
+                        buffered--;
+                        lock.notifyAll();
+                        return slice.buffer.poll();
+                    }
+                    if (slice.done) {
+                        iterator.remove();
+                    } else if (ordered) {
+                        break; // the records of later slices wait for this one
+                    }
+                }
+                if (slices.isEmpty()) return null;
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    return null;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Take slices and read them until there are none left.
+     */
+    private void work() {
+        while (true) {
+            Slice slice;
+            synchronized (lock) {
+                // a slice being read may yet be split, so wait for it to finish
+                while (pending.isEmpty() && active > 0 && !closed && failure == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pending.isEmpty() || closed || failure != null) {
+                    lock.notifyAll();
+                    return;
+                }
+                slice = pending.poll();
+                active++;
+            }
+
+            try {
+                read(slice);
+            } catch (RuntimeException e) {
+                fail("Reading " + slice + " failed: " + e.getMessage());
+            } finally {
+                synchronized (lock) {
+                    active--;
+                    slice.done = true;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Read the pages of a slice until it is exhausted, splitting it when a worker is idle.
+     */
+    private void read(Slice slice) {
+        while (true) {
+            SearchCriteria sliceCriteria;
+            synchronized (lock) {
+                if (closed || failure != null) return;
+                sliceCriteria = slice.criteria(field, criteria);
+            }
+            ListInfo listInfo = new ListInfo()
+                    .setRowCount(rowCount)
+                    .setStartIndex(1)
+                    .setSortField(KEY_FIELD)
+                    .setSortOrder(ListInfo.ASCENDING)
+                    .setSearchCriteria(sliceCriteria);
+            if (fieldsRequired != null && fieldsRequired.length > 0) listInfo.setFieldsRequired(requiredFields());
+
+            ApiResponse response = call(listInfo);
+            if (response == null) return; // already failed
+
+            List<DataFrame> results = response.getResults();
+            boolean more = !results.isEmpty() && SDP.hasMoreRows(response, rowCount);
+            String last = more ? results.get(results.size() - 1).getAsString(KEY_FIELD) : null;
+            if (more && last == null) {
+                fail("A record of " + slice + " has no " + KEY_FIELD + ", the rest of the slice cannot be read");
+                return;
+            }
+
+            synchronized (lock) {
+                while (!ordered && buffered >= capacity() && !closed && failure == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (closed || failure != null) return;
+                slice.buffer.addAll(results);
+                buffered += results.size();
+                records += results.size();
+                lock.notifyAll();
+                if (!more) return;
+
+                slice.advance(last, KEY_FIELD.equals(field));
+                split(slice);
+            }
+        }
+    }
+
+
+    /**
+     * Give the upper half of the rest of a range slice to an idle worker.
+     *
+     * <p>Both halves keep the slice's position, since every record at or
+     * before it has already been read, whichever half it falls in.</p>
+     */
+    private void split(Slice slice) {
+        if (slice.value != null || !pending.isEmpty() || active + pending.size() >= concurrency) return;
+        if (slice.to - slice.from < 2 * minSliceWidth) return;
+
+        long middle = slice.from + (slice.to - slice.from) / 2;
+        Slice upper = new Slice(middle, slice.to);
+        upper.afterKey = slice.afterKey;
+        slice.to = middle;
+        slices.add(slices.indexOf(slice) + 1, upper);
+        pending.add(upper);
+        splits++;
+        Log.debug(String.format("Split %s, %s is read by another worker", slice, upper));
+        lock.notifyAll();
+    }
+
+
+    private ApiResponse call(ListInfo listInfo) {
+        ApiResponse response;
+        try {
+            response = SDP.callApiAsync(credentials, endpoint, listInfo, resultField).join();
+        } catch (CompletionException e) {
+            fail("The call to " + endpoint + " failed: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+            return null;
+        }
+        synchronized (lock) {
+            calls++;
+        }
+        if (response == null) {
+            fail("No access token could be retrieved for " + endpoint);
+            return null;
+        }
+        if (!response.isSuccessful()) {
+            fail("The call to " + endpoint + " failed with HTTP " + response.getHttpStatusCode());
+            return null;
+        }
+        return response;
+    }
+
+
+    private void fail(String message) {
+        synchronized (lock) {
+            if (failure == null) {
+                failure = message;
+                Log.error(message);
+            }
+            lock.notifyAll();
+        }
+    }
+
+
+    private String[] requiredFields() {
+        List<String> retval = new ArrayList<>(Arrays.asList(fieldsRequired));
+        String partition = field.contains(".") ? field.substring(0, field.indexOf('.')) : field;
+        if (!retval.contains(KEY_FIELD)) retval.add(KEY_FIELD);
+        if (!retval.contains(partition)) retval.add(partition);
+        return retval.toArray(new String[0]);
+    }
+
+
+    private int capacity() {
+        return rowCount * concurrency * 2;
+    }
+
+
+    /**
+     * @return the value of a field of a record, the epoch milliseconds of a date-time field
+     */
+    private static String valueOf(DataFrame record, String name) {
+        Object value = record.getObject(name);
+        if (value instanceof DataFrame) return ((DataFrame) value).getAsString("value");
+        return value != null ? value.toString() : null;
+    }
+
+
+    private static Long toLong(String value) {
+        try {
+            return value != null ? Long.parseLong(value.trim()) : null;
+        } catch (NumberFormatException e) {
+            Log.error("Cannot partition by a field whose value is not a whole number: " + value);
+            return null;
+        }
+    }
+
+
+    /**
+     * Stop reading. Records which have not been taken are discarded.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+
+
+    /**
+     * @return a description of why reading failed, null if it has not
+     */
+    public String getFailure() {
+        synchronized (lock) {
+            return failure;
+        }
+    }
+
+
+    /**
+     * @return the number of records read so far
+     */
+    public long getRecordCount() {
+        synchronized (lock) {
+            return records;
+        }
+    }
+
+
+    /**
+     * @return the number of calls made so far, including those finding the range
+     */
+    public int getCallCount() {
+        synchronized (lock) {
+            return calls;
+        }
+    }
+
+
+    /**
+     * @return the number of times a slice has been split while being read
+     */
+    public int getSplitCount() {
+        synchronized (lock) {
+            return splits;
+        }
+    }
+
+
+    /**
+     * A range or value of the partition field, and how far it has been read.
+     */
+    private static final class Slice {
+        private final String value;
+        private long from;
+        private long to;
+        private String afterKey = null;
+        private boolean done = false;
+        private final Deque<DataFrame> buffer = new ArrayDeque<>();
+
+
+        private Slice(String value) {
+            this.value = value;
+        }
+
+
+        private Slice(long from, long to) {
+            this.value = null;
+            this.from = from;
+            this.to = to;
+        }
+
+
+        /**
+         * @param partition the field the query is partitioned by
+         * @param criteria  the criteria all records must meet
+         * @return the criteria selecting the records of this slice not yet read
+         */
+        private SearchCriteria criteria(String partition, SearchCriteria criteria) {
+            SearchCriteria retval;
+            if (value != null) {
+                retval = SearchCriteria.and(new SearchCriteria(partition, SearchCondition.IS.getValue(), value), criteria);
+            } else {
+                retval = SearchCriteria.range(partition, Long.toString(from), Long.toString(to), criteria);
+            }
+            return afterKey != null ? SearchCriteria.after(KEY_FIELD, afterKey, retval) : retval;
+        }
+
+
+        /**
+         * Record the key of the last record read.
+         *
+         * @param key     the key of the last record read
+         * @param byKey   true if the slice is a range of the key, so its lower bound can move up past the key
+         */
+        private void advance(String key, boolean byKey) {
+            afterKey = key;
+            if (byKey && value == null) {
+                try {
+                    from = Math.max(from, Math.min(to, Long.parseLong(key) + 1));
+                } catch (NumberFormatException e) {
+                    // keep the range as it is, the key still excludes what has been read
+                }
+            }
+        }
+
+
+        @Override
+        public String toString() {
+            return value != null ? "slice '" + value + "'" : "slice [" + from + ", " + to + ")";
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.sdcote.sdp;
+
+import java.net.http.HttpHeaders;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Controls how often calls may be made to the ServiceDesk API.
+ *
+ * <p>Callers acquire a permit immediately before sending a request and
+ * report the outcome of the request afterward so the limiter can slow down
+ * when the service signals it is being called too often (e.g., HTTP 429 or
+ * rate limit response headers).</p>
+ *
+ * @see TokenBucketRateLimiter
+ * @see RateLimiterRegistry
+ */
+public interface RateLimiter {
+
+    /**
+     * Block the current thread until a permit is available.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void acquire() throws InterruptedException;
+
+
+    /**
+     * Acquire a permit only if one is available right now.
+     *
+     * @return true if a permit was acquired, false if the caller would have to wait.
+     */
+    boolean tryAcquire();
+
+
+    /**
+     * Acquire a permit without blocking the calling thread.
+     *
+     * @return a future which completes when the permit has been granted.
+     */
+    CompletableFuture<Void> acquireAsync();
+
+
+    /**
+     * Report the outcome of a call made with a permit from this limiter.
+     *
+     * @param status  the HTTP status code of the response, 0 if no response was received.
+     * @param headers the response headers, may be null if no response was received.
+     */
+    void onResponse(int status, HttpHeaders headers);
+
+}
@@ -0,0 +1,178 @@
+package com.sdcote.sdp;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Holds the rate limiters which govern calls to the ServiceDesk API.
+ *
+ * <p>Each client credential has its own budget, split into separate budgets
+ * for reading (GET) and writing (PUT, POST, DELETE), so one busy client or
+ * a bulk update cannot starve other callers.</p>
+ *
+ * <p>By default each budget allows 10 calls per minute with no burst. The
+ * defaults can be changed with the following system properties:<ul>
+ * <li>{@code sdp.ratelimit.read.perminute} - sustained reads per minute</li>
+ * <li>{@code sdp.ratelimit.read.burst} - reads which may be made back-to-back</li>
+ * <li>{@code sdp.ratelimit.write.perminute} - sustained writes per minute</li>
+ * <li>{@code sdp.ratelimit.write.burst} - writes which may be made back-to-back</li>
+ * </ul>
+ * <p>or by calling {@link #setDefaultLimits(Operation, double, int)}. A
+ * different limiter implementation can be supplied with
+ * {@link #setFactory(BiFunction)} or {@link #setLimiter(String, Operation, RateLimiter)}.</p>
+ */
+public class RateLimiterRegistry {
+
+    /** The default number of calls per minute for each budget. */
+    public static final double DEFAULT_CALLS_PER_MINUTE = 10;
+
+    /** The default burst for each budget. */
+    public static final int DEFAULT_BURST = 1;
+
+    private static final String PROPERTY_PREFIX = "sdp.ratelimit.";
+
+    /** The key used for callers which do not supply a credential. */
+    private static final String SHARED_KEY = "";
+
+    private final Map<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+    private final double[] callsPerMinute = new double[Operation.values().length];
+    private final int[] burst = new int[Operation.values().length];
+    private volatile BiFunction<String, Operation, RateLimiter> factory = null;
+
+
+    /**
+     * Create a registry using the default limits (or those set in the system properties).
+     */
+    public RateLimiterRegistry() {
+        for (Operation operation : Operation.values()) {
+            String prefix = PROPERTY_PREFIX + operation.name().toLowerCase(Locale.ROOT) + ".";
+            callsPerMinute[operation.ordinal()] = getDoubleProperty(prefix + "perminute", DEFAULT_CALLS_PER_MINUTE);
+            burst[operation.ordinal()] = (int) getDoubleProperty(prefix + "burst", DEFAULT_BURST);
+        }
+    }
+
+
+    private static double getDoubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        if (value != null) {
+            try {
+                double retval = Double.parseDouble(value.trim());
+                if (retval > 0) return retval;
+            } catch (NumberFormatException e) {
+                // use the default
+            }
+        }
+        return defaultValue;
+    }
+
+
+    /**
+     * Retrieve the limiter for the given credential and class of operation, creating it if necessary.
+     *
+     * @param credentialId the identifier of the client credential, null for the budget shared by all callers
+     * @param operation    whether the call reads or writes data
+     * @return the limiter governing that budget
+     */
+    public RateLimiter getLimiter(String credentialId, Operation operation) {
+        final String id = credentialId != null ? credentialId : SHARED_KEY;
+        return limiters.computeIfAbsent(key(id, operation), k -> createLimiter(id, operation));
+    }
+
+
+    /**
+     * Retrieve the limiter for the given credentials and HTTP method.
+     *
+     * @param credentials the client credentials making the call
+     * @param method      the HTTP method of the call
+     * @return the limiter governing that budget
+     */
+    public RateLimiter getLimiter(ClientCredentials credentials, String method) {
+        return getLimiter(credentials != null ? credentials.getIdentifier() : null, Operation.of(method));
+    }
+
+
+    /**
+     * Use a specific limiter for the given credential and class of operation.
+     *
+     * @param credentialId the identifier of the client credential
+     * @param operation    whether the call reads or writes data
+     * @param limiter      the limiter to use, null to revert to the default
+     */
+    public void setLimiter(String credentialId, Operation operation, RateLimiter limiter) {
+        String key = key(credentialId != null ? credentialId : SHARED_KEY, operation);
+        if (limiter != null) limiters.put(key, limiter);
+        else limiters.remove(key);
+    }
+
+
+    /**
+     * Change the limits of budgets created from now on.
+     *
+     * <p>Existing limiters are not affected; call {@link #clear()} to have them recreated.</p>
+     *
+     * @param operation      the class of operation
+     * @param perMinute      the sustained number of calls per minute
+     * @param burstSize      the number of calls which may be made back-to-back
+     */
+    public void setDefaultLimits(Operation operation, double perMinute, int burstSize) {
+        if (perMinute <= 0) throw new IllegalArgumentException("Rate must be greater than zero");
+        callsPerMinute[operation.ordinal()] = perMinute;
+        burst[operation.ordinal()] = Math.max(1, burstSize);
+    }
+
+
+    /**
+     * Supply the function which creates new limiters.
+     *
+     * @param limiterFactory function which takes a credential identifier and class of operation and returns a limiter, null to use token buckets with the default limits.
+     */
+    public void setFactory(BiFunction<String, Operation, RateLimiter> limiterFactory) {
+        factory = limiterFactory;
+    }
+
+
+    /**
+     * Remove all the limiters so they are recreated with the current settings.
+     */
+    public void clear() {
+        limiters.clear();
+    }
+
+
+    private RateLimiter createLimiter(String credentialId, Operation operation) {
+        BiFunction<String, Operation, RateLimiter> limiterFactory = factory;
+        if (limiterFactory != null) {
+            RateLimiter retval = limiterFactory.apply(credentialId, operation);
+            if (retval != null) return retval;
+        }
+        return new TokenBucketRateLimiter(callsPerMinute[operation.ordinal()], burst[operation.ordinal()]);
+    }
+
+
+    private static String key(String credentialId, Operation operation) {
+        return operation.name() + ":" + credentialId;
+    }
+
+
+    /**
+     * The classes of operations which have separate budgets.
+     */
+    public enum Operation {
+        READ,
+        WRITE;
+
+        /**
+         * @param method the HTTP method of the call
+         * @return READ for GET (and HEAD) calls, WRITE for everything else
+         */
+        public static Operation of(String method) {
+            if (method == null || "GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method)) {
+                return READ;
+            }
+            return WRITE;
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.sdcote.sdp;
+
+import coyote.commons.DataFrameUtil;
+import coyote.commons.dataframe.DataField;
+import coyote.commons.dataframe.DataFrame;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Flattens records into single-level frames with dotted field names, the
+ * same way as {@code DataFrameUtil.flatten}, but without working out the
+ * names again for every record.
+ *
+ * <p>Records from an endpoint almost always have the same shape. While
+ * learning, the flattener compiles the shape of each record it cannot
+ * already handle into a plan: the field names expected at each level and
+ * the dotted name, interned, each value is written under. A record which
+ * matches a plan is flattened by walking it alongside the plan, writing its
+ * values under the precomputed names. A nested object which is null in a
+ * record is written as a null value, as the generic path does, so missing
+ * users or departments do not need plans of their own.</p>
+ *
+ * <p>Records which match no plan, or contain arrays or unnamed fields, are
+ * flattened by {@code DataFrameUtil.flatten}. Once learning stops, typically
+ * after the first page, no more plans are compiled.</p>
+ *
+ * <p>Instances are not thread-safe; each reader uses its own.</p>
+ */
+public class RecordFlattener {
+
+    /** The default number of shapes which are compiled into plans. */
+    public static final int DEFAULT_MAX_PLANS = 8;
+
+    private final List<Plan> plans = new ArrayList<>();
+    private final int maxPlans;
+    private boolean learning = true;
+    private long plannedCount = 0;
+    private long genericCount = 0;
+
+
+    public RecordFlattener() {
+        this(DEFAULT_MAX_PLANS);
+    }
+
+
+    /**
+     * @param maxPlans the number of shapes which may be compiled into plans
+     */
+    public RecordFlattener(int maxPlans) {
+        this.maxPlans = Math.max(0, maxPlans);
+    }
+
+
+    /**
+     * Flatten a record.
+     *
+     * @param record the record to flatten
+     * @return a new frame holding the values of the record under dotted names
+     */
+    public DataFrame flatten(DataFrame record) {
+        if (record != null) {
+            for (int i = 0; i < plans.size(); i++) {
+                DataFrame retval = plans.get(i).apply(record);
+                if (retval != null) {
+                    plannedCount++;
+                    return retval;
+                }
+            }
+
+            if (learning && plans.size() < maxPlans) {
+                Plan plan = Plan.compile(record);
+                if (plan != null) {
+                    DataFrame retval = plan.apply(record);
+                    if (retval != null) {
+                        // the newest plan is the most general, so it is tried first
+                        plans.add(0, plan);
+                        plannedCount++;
+                        return retval;
+                    }
+                }
+            }
+        }
+        genericCount++;
+        return DataFrameUtil.flatten(record);
+    }
+
+
+    /**
+     * @param learning true to compile the shapes of records no plan matches, false to use the generic path for them
+     * @return a reference to this object for call chaining.
+     */
+    public RecordFlattener setLearning(boolean learning) {
+        this.learning = learning;
+        return this;
+    }
+
+
+    public boolean isLearning() {
+        return learning;
+    }
+
+
+    /**
+     * @return the number of shapes compiled into plans
+     */
+    public int getPlanCount() {
+        return plans.size();
+    }
+
+
+    /**
+     * @return the number of records flattened with a plan
+     */
+    public long getPlannedCount() {
+        return plannedCount;
+    }
+
+
+    /**
+     * @return the number of records flattened by the generic path
+     */
+    public long getGenericCount() {
+        return genericCount;
+    }
+
+
+    /**
+     * The compiled shape of a record.
+     */
+    static final class Plan {
+        private final Node root;
+
+
+        private Plan(Node root) {
+            this.root = root;
+        }
+
+
+        /**
+         * @param record the record whose shape is to be compiled
+         * @return the plan for records of that shape, null if the shape cannot be planned
+         */
+        static Plan compile(DataFrame record) {
+            Node root = compile(record, null, new HashSet<>());
+            return root != null ? new Plan(root) : null;
+        }
+
+
+        private static Node compile(DataFrame frame, String prefix, Set<String> keys) {
+            List<DataField> fields = frame.getFields();
+            int size = fields.size();
+            String[] names = new String[size];
+            String[] dotted = new String[size];
+            Node[] children = new Node[size];
+            for (int i = 0; i < size; i++) {
+                DataField field = fields.get(i);
+                String name = field.getName();
+                if (name == null || field.isArray()) return null;
+                String key = (prefix != null ? prefix + "." + name : name).intern();
+                if (!keys.add(key)) return null; // would collide with another field once flattened
+
+                names[i] = name;
+                dotted[i] = key;
+                if (field.isFrame()) {
+                    DataFrame nested = (DataFrame) field.getObjectValue();
+                    if (nested == null || nested.isArray()) return null;
+                    children[i] = compile(nested, key, keys);
+                    if (children[i] == null) return null;
+                }
+            }
+            return new Node(names, dotted, children);
+        }
+
+
+        /**
+         * @param record the record to flatten
+         * @return the flattened record, null if it does not have the shape of this plan
+         */
+        DataFrame apply(DataFrame record) {
+            DataFrame retval = new DataFrame();
+            return apply(record, root, retval) ? retval : null;
+        }
+
+
+        private static boolean apply(DataFrame frame, Node node, DataFrame target) {
+            List<DataField> fields = frame.getFields();
+            if (fields.size() != node.names.length) return false;
+            for (int i = 0; i < node.names.length; i++) {
+                DataField field = fields.get(i);
+                if (!node.names[i].equals(field.getName())) return false;
+
+                Node child = node.children[i];
+                if (field.isFrame()) {
+                    if (child == null || field.isArray()) return false;
+                    DataFrame nested = (DataFrame) field.getObjectValue();
+                    if (nested.isArray() || !apply(nested, child, target)) return false;
+                } else {
+                    if (child != null && field.getObjectValue() != null) return false;
+                    target.add(node.keys[i], field.getObjectValue());
+                }
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * The fields expected at one level of a record.
+     */
+    private static final class Node {
+        private final String[] names;
+        private final String[] keys;
+        private final Node[] children;
+
+
+        private Node(String[] names, String[] keys, Node[] children) {
+            this.names = names;
+            this.keys = keys;
+            this.children = children;
+        }
+    }
+
+}
@@ -0,0 +1,337 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataField;
+import coyote.commons.dataframe.DataFrame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * The ids of the records in a {@link ReplicaStore} by the values of one
+ * field, so records can be found without decoding every one of them.
+ *
+ * <p>A hash index finds the records with a value; a sorted index also finds
+ * those with values in a range, comparing plain decimal numbers as numbers. Values are
+ * compared without regard to case, as the service does. A field is named by
+ * its dotted path, e.g. {@code user.email_id}; a record has one value for
+ * each element of an array on the path, and date-time fields are indexed by
+ * their {@code value}.</p>
+ *
+ * <p>The index keeps the values of each record as well, so a new version of
+ * a record replaces its old values without the old version being read. It
+ * is written to its own file with the position in the segments it is up to
+ * date with; the store replays the entries after that position when it is
+ * opened. The store's lock guards the index.</p>
+ */
+class ReplicaIndex {
+
+    private static final int MAGIC = 0x53445049; // SDPI
+    private static final byte VERSION = 1;
+
+    private final String field;
+    private final boolean sorted;
+    private final Map<Key, Set<String>> entries;
+    private final Map<String, Key[]> keysById = new HashMap<>();
+    private int segment = 0;
+    private long offset = 0;
+
+
+    /**
+     * @param field  the dotted path of the field
+     * @param sorted true to keep the values in order so ranges can be found
+     */
+    ReplicaIndex(String field, boolean sorted) {
+        this.field = field;
+        this.sorted = sorted;
+        this.entries = sorted ? new TreeMap<>() : new HashMap<>();
+    }
+
+
+    String getField() {
+        return field;
+    }
+
+
+    boolean isSorted() {
+        return sorted;
+    }
+
+
+    /**
+     * @return the number of distinct values in the index
+     */
+    int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Replace the values of a record.
+     *
+     * @param id     the id of the record
+     * @param record the new version of the record, null if it was removed
+     */
+    void update(String id, DataFrame record) {
+        Key[] old = keysById.remove(id);
+        if (old != null) {
+            for (Key key : old) {
+                Set<String> ids = entries.get(key);
+                if (ids != null && ids.remove(id) && ids.isEmpty()) entries.remove(key);
+            }
+        }
+        if (record == null) return;
+
+        List<String> values = valuesOf(record, field);
+        if (values.isEmpty()) return;
+        Key[] keys = new Key[values.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Key(values.get(i));
+            entries.computeIfAbsent(keys[i], k -> new LinkedHashSet<>(1)).add(id);
+        }
+        keysById.put(id, keys);
+    }
+
+
+    /**
+     * @param value the value to look for
+     * @return the ids of the records with the value
+     */
+    Set<String> get(String value) {
+        Set<String> ids = entries.get(new Key(value));
+        return ids != null ? new LinkedHashSet<>(ids) : Collections.emptySet();
+    }
+
+
+    /**
+     * @param from the lowest value, null for no lower bound
+     * @param to   the value just past the range, null for no upper bound
+     * @return the ids of the records with {@code from <= value < to}, in the order of their values
+     * @throws IllegalStateException if the index is not sorted
+     */
+    Set<String> range(String from, String to) {
+        return range(from, true, to, false);
+    }
+
+
+    /**
+     * @param from          the lower bound, null for none
+     * @param fromInclusive true if values equal to the lower bound are in the range
+     * @param to            the upper bound, null for none
+     * @param toInclusive   true if values equal to the upper bound are in the range
+     * @return the ids of the records with values in the range, in the order of their values
+     * @throws IllegalStateException if the index is not sorted
+     */
+    Set<String> range(String from, boolean fromInclusive, String to, boolean toInclusive) {
+        if (!sorted) throw new IllegalStateException("The index of " + field + " is not sorted");
+        NavigableMap<Key, Set<String>> map = (NavigableMap<Key, Set<String>>) entries;
+        if (from != null && to != null) {
+            Key low = new Key(from), high = new Key(to);
+            int order = low.compareTo(high);
+            boolean empty = order > 0 || (order == 0 && !(fromInclusive && toInclusive));
+            map = empty ? Collections.emptyNavigableMap() : map.subMap(low, fromInclusive, high, toInclusive);
+        } else if (from != null) {
+            map = map.tailMap(new Key(from), fromInclusive);
+        } else if (to != null) {
+            map = map.headMap(new Key(to), toInclusive);
+        }
+        Set<String> retval = new LinkedHashSet<>();
+        for (Set<String> ids : map.values()) retval.addAll(ids);
+        return retval;
+    }
+
+
+    /**
+     * @return the ids of the records which share a value with another record, by that value
+     */
+    Map<String, Set<String>> duplicates() {
+        Map<String, Set<String>> retval = new LinkedHashMap<>();
+        for (Map.Entry<Key, Set<String>> entry : entries.entrySet()) {
+            if (entry.getValue().size() > 1) retval.put(entry.getKey().value, new LinkedHashSet<>(entry.getValue()));
+        }
+        return retval;
+    }
+
+
+    /**
+     * @return the number of the segment the index is up to date with, 0 if it was written before there were any
+     */
+    int getSegment() {
+        return segment;
+    }
+
+
+    /**
+     * @return the offset in that segment the index is up to date with
+     */
+    long getOffset() {
+        return offset;
+    }
+
+
+    /**
+     * Atomically replace the file of the index.
+     *
+     * @param file    the file of the index
+     * @param segment the number of the last segment
+     * @param offset  the end of the last segment
+     */
+    void write(Path file, int segment, long offset) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeUTF(field);
+                out.writeBoolean(sorted);
+                out.writeInt(segment);
+                out.writeLong(offset);
+                out.writeInt(keysById.size());
+                for (Map.Entry<String, Key[]> entry : keysById.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    for (Key key : entry.getValue()) out.writeUTF(key.value);
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        this.segment = segment;
+        this.offset = offset;
+    }
+
+
+    /**
+     * @param file the file of an index
+     * @return the index, up to date with the position it was written at
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    static ReplicaIndex read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) throw new IOException(file + " is not a replica index");
+            ReplicaIndex retval = new ReplicaIndex(in.readUTF(), in.readBoolean());
+            retval.segment = in.readInt();
+            retval.offset = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                Key[] keys = new Key[in.readInt()];
+                for (int j = 0; j < keys.length; j++) {
+                    keys[j] = new Key(in.readUTF());
+                    retval.entries.computeIfAbsent(keys[j], k -> new LinkedHashSet<>(1)).add(id);
+                }
+                retval.keysById.put(id, keys);
+            }
+            return retval;
+        }
+    }
+
+
+    /**
+     * Find the values of a field in a record.
+     *
+     * @param record the record
+     * @param path   the dotted path of the field
+     * @return the values on the path, one for each element of any array on it; empty if there are none
+     */
+    static List<String> valuesOf(DataFrame record, String path) {
+        return valuesOf(record, path.split("\\."));
+    }
+
+
+    /**
+     * @param record the record
+     * @param path   the names of the fields on the path
+     * @return the values on the path, one for each element of any array on it; empty if there are none
+     */
+    static List<String> valuesOf(DataFrame record, String[] path) {
+        List<String> retval = new ArrayList<>(1);
+        collect(record, path, 0, retval);
+        return retval;
+    }
+
+
+    private static void collect(Object value, String[] names, int depth, List<String> values) {
+        if (value instanceof DataFrame && ((DataFrame) value).isArray()) {
+            for (DataField element : ((DataFrame) value).getFields()) collect(element.getObjectValue(), names, depth, values);
+        } else if (depth < names.length) {
+            if (value instanceof DataFrame) collect(((DataFrame) value).getObject(names[depth]), names, depth + 1, values);
+        } else if (value instanceof DataFrame) {
+            Object field = ((DataFrame) value).getObject("value"); // date-time fields
+            if (field != null && !(field instanceof DataFrame)) values.add(field.toString());
+        } else if (value != null) {
+            values.add(value.toString());
+        }
+    }
+
+
+    /**
+     * A value as it is compared: numbers by their value, anything else by its text ignoring case.
+     *
+     * <p>Only plain decimal numbers, such as ids and epoch times, are numbers.
+     * A value with a leading zero or an exponent, such as the serial number
+     * "0123" or "3E45678", is text, so it is not equal to another spelling
+     * of the same number.</p>
+     */
+    static final class Key implements Comparable<Key> {
+        private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?");
+
+        private final String value;
+        private final String text;
+        private final BigDecimal number;
+
+        Key(String value) {
+            this.value = value;
+            this.text = value.trim().toLowerCase(Locale.ROOT);
+            this.number = parse(text);
+        }
+
+        private static BigDecimal parse(String text) {
+            if (text.isEmpty() || !NUMBER.matcher(text).matches()) return null;
+            return new BigDecimal(text).stripTrailingZeros();
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            if (number != null && other.number != null) return number.compareTo(other.number);
+            if (number != null) return -1; // numbers before text
+            if (other.number != null) return 1;
+            return text.compareTo(other.text);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && compareTo((Key) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return number != null ? number.hashCode() : text.hashCode();
+        }
+    }
+
+}
@@ -0,0 +1,1172 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataField;
+import coyote.commons.dataframe.DataFrame;
+import coyote.commons.dataframe.marshal.JSONMarshaler;
+import coyote.commons.log.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * A local copy of the records of an endpoint, kept in a directory so
+ * reports can query it without calling the service.
+ *
+ * <p>Records are appended to segment files and never changed in place; a
+ * new version of a record, or its removal, is appended and the id index,
+ * kept in memory and rebuilt from the segments when the store is opened,
+ * points at the latest version. Segments are memory-mapped for reading.
+ * Each entry carries a checksum, so an entry torn by a crash at the end of
+ * the last segment is cut off when the store is next opened.</p>
+ *
+ * <p>Secondary indexes find records by the value of a field without
+ * decoding every record: hash indexes by value and sorted indexes by range
+ * as well, e.g. every asset of a user or with a serial number shared by
+ * another asset. They are created with {@link #createIndex(String, boolean)},
+ * kept up to date as records are put and removed, and written next to the
+ * segments; one which was not written after the last changes catches up
+ * from the segments when the store is opened.</p>
+ *
+ * <p>Superseded versions take up space until {@link #compact()} copies the
+ * live records into new segments and deletes the old ones, which a sync
+ * does by itself when more than half the space is superseded.</p>
+ *
+ * <p>The store is filled by syncs: a full sync puts every record of the
+ * endpoint and removes those it did not see, a delta sync puts only the
+ * records changed since the highest {@code last_updated_time} in the store.
+ * The time of the last sync tells how fresh the store is; see
+ * {@link SDP#getReplica(ClientCredentials, String, String, ReplicaStore, Duration)}.</p>
+ * <pre>
+ * try (ReplicaStore replica = ReplicaStore.open(Paths.get("replica", "assets"))) {
+ *     if (SDP.getReplica(credentials, "/assets", "assets", replica, Duration.ofHours(12)) != null) {
+ *         List&lt;DataFrame&gt; retired = replica.find(asset -&gt; ...);
+ *     }
+ * }</pre>
+ *
+ * <p>Only one store object, in one process, may have a directory open at a
+ * time; this is held by a lock on a {@code replica.lock} file.</p>
+ */
+public class ReplicaStore implements Closeable {
+
+    /** The default size at which a new segment is started. */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /** The field whose highest value is kept as the watermark for delta syncs. */
+    public static final String WATERMARK_FIELD = "last_updated_time";
+
+    private static final byte[] MAGIC = {'S', 'D', 'P', 'R', 1};
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String STATE_FILE = "replica.properties";
+    private static final String LOCK_FILE = "replica.lock";
+    private static final String INDEX_PREFIX = "index-";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String LAST_SYNC = "last_sync";
+    private static final String LAST_FULL_SYNC = "last_full_sync";
+    private static final String WATERMARK = "watermark";
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 0;
+    private static final int ENTRY_HEADER = 8; // length and checksum
+    private static final int ENTRY_FIXED = 1 + 8 + 2; // type, time written and id length
+
+    private final Path directory;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<String, Location> index = new HashMap<>();
+    private final Map<String, ReplicaIndex> indexes = new TreeMap<>();
+    private FileChannel lockChannel = null;
+    private FileLock fileLock = null;
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private long liveBytes = 0;
+    private long totalBytes = 0;
+    private Instant lastSync = null;
+    private Instant lastFullSync = null;
+    private long watermark = Long.MIN_VALUE;
+    private boolean closed = false;
+
+
+    private ReplicaStore(Path directory) {
+        this.directory = directory.toAbsolutePath().normalize();
+    }
+
+
+    /**
+     * Open a store, creating it if the directory holds none.
+     *
+     * @param directory the directory holding the store
+     * @return the open store
+     * @throws IOException if the directory or its segments cannot be read, or the store is already open
+     */
+    public static ReplicaStore open(Path directory) throws IOException {
+        ReplicaStore retval = new ReplicaStore(directory);
+        Files.createDirectories(retval.directory);
+        retval.lock();
+        try {
+            retval.load();
+        } catch (IOException | RuntimeException e) {
+            retval.unlock();
+            throw e;
+        }
+        return retval;
+    }
+
+
+    private void lock() throws IOException {
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException("The replica " + directory + " is already open");
+        }
+    }
+
+
+    private void unlock() throws IOException {
+        for (Segment segment : segments.values()) segment.channel.close();
+        if (fileLock != null) fileLock.release();
+        lockChannel.close();
+    }
+
+
+    /**
+     * @param bytes the size at which a new segment is started
+     * @return a reference to this object for call chaining.
+     */
+    public ReplicaStore setSegmentSize(long bytes) {
+        this.segmentSize = Math.min(Integer.MAX_VALUE, Math.max(4096, bytes));
+        return this;
+    }
+
+
+    /**
+     * Read the state file and rebuild the index from the segments.
+     */
+    private void load() throws IOException {
+        Path state = directory.resolve(STATE_FILE);
+        if (Files.exists(state)) {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(state, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            lastSync = toInstant(properties.getProperty(LAST_SYNC));
+            lastFullSync = toInstant(properties.getProperty(LAST_FULL_SYNC));
+            String value = properties.getProperty(WATERMARK);
+            if (value != null) watermark = Long.parseLong(value);
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(number, new Segment(number, file));
+                } catch (NumberFormatException e) {
+                    Log.warn("Ignoring " + file + " in the replica, it is not a segment");
+                }
+            }
+        }
+        for (Segment segment : segments.values()) {
+            scan(segment, segment == segments.lastEntry().getValue());
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, INDEX_PREFIX + "*" + INDEX_SUFFIX)) {
+            for (Path file : files) {
+                try {
+                    ReplicaIndex secondary = ReplicaIndex.read(file);
+                    indexes.put(secondary.getField(), secondary);
+                    if (!replay(secondary)) {
+                        Log.info(String.format("Rebuilding the index of %s in replica %s, it is older than the segments", secondary.getField(), directory));
+                        secondary = new ReplicaIndex(secondary.getField(), secondary.isSorted());
+                        build(secondary);
+                        indexes.put(secondary.getField(), secondary);
+                    }
+                } catch (IOException e) {
+                    Log.warn("Ignoring " + file + " in the replica, it could not be read: " + e.getMessage());
+                }
+            }
+        }
+        Log.debug(String.format("Opened replica %s with %d records in %d segments and %d indexes", directory, index.size(), segments.size(), indexes.size()));
+    }
+
+
+    /**
+     * Bring a secondary index up to date with the entries written after it.
+     *
+     * @return false if the segments it was up to date with have been compacted away
+     */
+    private boolean replay(ReplicaIndex secondary) {
+        int from = secondary.getSegment();
+        if (from != 0 && !segments.containsKey(from)) return false;
+        if (from != 0 && secondary.getOffset() > segments.get(from).size) return false;
+        for (Segment segment : segments.tailMap(from, true).values()) {
+            long offset = segment.number == from ? secondary.getOffset() : MAGIC.length;
+            while (offset < segment.size) {
+                int length = ByteBuffer.wrap(segment.read(offset, 4)).getInt();
+                byte[] body = segment.read(offset + ENTRY_HEADER, length);
+                secondary.update(idOf(body), body[0] == PUT ? payloadOf(body) : null);
+                offset += ENTRY_HEADER + length;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Add every record to a new secondary index. Must be called while holding the write lock.
+     */
+    private void build(ReplicaIndex secondary) {
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            secondary.update(entry.getKey(), decode(entry.getValue()));
+        }
+    }
+
+
+    /**
+     * Add the entries of a segment to the index.
+     *
+     * @param last true for the segment written last, whose torn tail is cut off
+     */
+    private void scan(Segment segment, boolean last) throws IOException {
+        long size = segment.channel.size();
+        if (size < MAGIC.length || !Arrays.equals(segment.read(0, MAGIC.length), MAGIC)) {
+            throw new IOException(segment.file + " is not a replica segment");
+        }
+        long offset = MAGIC.length;
+        while (offset + ENTRY_HEADER <= size) {
+            ByteBuffer header = ByteBuffer.wrap(segment.read(offset, ENTRY_HEADER));
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < ENTRY_FIXED || offset + ENTRY_HEADER + length > size) break;
+            byte[] body = segment.read(offset + ENTRY_HEADER, length);
+            if (checksum != checksum(body)) break;
+
+            ByteBuffer entry = ByteBuffer.wrap(body);
+            byte type = entry.get();
+            long written = entry.getLong();
+            byte[] id = new byte[entry.getShort() & 0xFFFF];
+            entry.get(id);
+            apply(new String(id, StandardCharsets.UTF_8), type == PUT ? new Location(segment, offset, ENTRY_HEADER + length, written) : null);
+            totalBytes += ENTRY_HEADER + length;
+            offset += ENTRY_HEADER + length;
+        }
+
+        if (offset < size) {
+            if (!last) throw new IOException(String.format("%s is damaged at offset %d", segment.file, offset));
+            Log.warn(String.format("Cutting off %d bytes of an incomplete entry at the end of %s", size - offset, segment.file));
+            segment.channel.truncate(offset);
+            segment.map = null;
+        }
+        segment.size = offset;
+    }
+
+
+    /**
+     * Point the index at the latest version of a record.
+     *
+     * @param location where the record is, null if it was removed
+     */
+    private void apply(String id, Location location) {
+        Location previous = location != null ? index.put(id, location) : index.remove(id);
+        if (previous != null) liveBytes -= previous.length;
+        if (location != null) liveBytes += location.length;
+    }
+
+
+    /**
+     * @param id the id of a record
+     * @return the latest version of the record, null if it is not in the store
+     */
+    public DataFrame get(String id) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            Location location = index.get(id);
+            return location != null ? decode(location) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @param id the id of a record
+     * @return the time the latest version of the record was stored, null if it is not in the store
+     */
+    public Instant getStoredTime(String id) {
+        lock.readLock().lock();
+        try {
+            Location location = index.get(id);
+            return location != null ? Instant.ofEpochMilli(location.written) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @param id the id of a record
+     * @return true if the store holds the record
+     */
+    public boolean contains(String id) {
+        lock.readLock().lock();
+        try {
+            return index.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return the number of records in the store
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return the ids of the records in the store
+     */
+    public Set<String> getIds() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(index.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Pass every record in the store to a consumer.
+     *
+     * <p>Records are decoded one at a time, in the order they were stored.
+     * The store cannot be changed while the consumer runs.</p>
+     *
+     * @param consumer the consumer of the records
+     */
+    public void forEach(Consumer<DataFrame> consumer) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            List<Location> locations = new ArrayList<>(index.values());
+            locations.sort((a, b) -> a.segment.number != b.segment.number ? Integer.compare(a.segment.number, b.segment.number) : Long.compare(a.offset, b.offset));
+            for (Location location : locations) consumer.accept(decode(location));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @param filter selects the records wanted
+     * @return the records in the store selected by the filter
+     */
+    public List<DataFrame> find(Predicate<DataFrame> filter) {
+        List<DataFrame> retval = new ArrayList<>();
+        forEach(record -> {
+            if (filter.test(record)) retval.add(record);
+        });
+        return retval;
+    }
+
+
+    /**
+     * Store a new version of a record.
+     *
+     * @param record the record, which must have an id
+     * @throws IOException if the record could not be written
+     */
+    public void put(DataFrame record) throws IOException {
+        String id = record.getAsString("id");
+        if (id == null) throw new IllegalArgumentException("A record without an id cannot be replicated");
+        byte[] payload = JSONMarshaler.marshal(record).getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            apply(id, append(PUT, id, payload));
+            for (ReplicaIndex secondary : indexes.values()) secondary.update(id, record);
+            long updated = updatedTime(record);
+            if (updated > watermark) watermark = updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Remove a record.
+     *
+     * @param id the id of the record
+     * @return true if the store held the record
+     * @throws IOException if the removal could not be written
+     */
+    public boolean remove(String id) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (!index.containsKey(id)) return false;
+            append(REMOVE, id, new byte[0]);
+            apply(id, null);
+            for (ReplicaIndex secondary : indexes.values()) secondary.update(id, null);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Append an entry to the last segment, starting a new segment if it is full.
+     * Must be called while holding the write lock.
+     *
+     * @return the location of the entry
+     */
+    private Location append(byte type, String id, byte[] payload) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > 0xFFFF) throw new IllegalArgumentException("The id is too long to be replicated: " + id);
+        long written = System.currentTimeMillis();
+        ByteBuffer body = ByteBuffer.allocate(ENTRY_FIXED + idBytes.length + payload.length);
+        body.put(type).putLong(written).putShort((short) idBytes.length).put(idBytes).put(payload);
+        byte[] bytes = body.array();
+
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER + bytes.length);
+        entry.putInt(bytes.length).putInt(checksum(bytes)).put(bytes).flip();
+
+        Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (segment == null || (segment.size > MAGIC.length && segment.size + entry.remaining() > segmentSize)) {
+            segment = createSegment(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+        }
+        long offset = segment.size;
+        segment.write(entry, offset);
+        totalBytes += ENTRY_HEADER + bytes.length;
+        return new Location(segment, offset, ENTRY_HEADER + bytes.length, written);
+    }
+
+
+    private Segment createSegment(int number) throws IOException {
+        Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        Segment retval = new Segment(number, file);
+        retval.write(ByteBuffer.wrap(MAGIC), 0);
+        segments.put(number, retval);
+        return retval;
+    }
+
+
+    private DataFrame decode(Location location) {
+        return payloadOf(location.segment.read(location.offset + ENTRY_HEADER, location.length - ENTRY_HEADER));
+    }
+
+
+    /**
+     * @param body the body of an entry, after its length and checksum
+     * @return the id of the record of the entry
+     */
+    private static String idOf(byte[] body) {
+        int idLength = ((body[9] & 0xFF) << 8) | (body[10] & 0xFF);
+        return new String(body, ENTRY_FIXED, idLength, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * @param body the body of an entry which puts a record
+     * @return the record
+     */
+    private static DataFrame payloadOf(byte[] body) {
+        int start = ENTRY_FIXED + (((body[9] & 0xFF) << 8) | (body[10] & 0xFF));
+        List<DataFrame> frames = JSONMarshaler.marshal(new String(body, start, body.length - start, StandardCharsets.UTF_8));
+        return frames.isEmpty() ? null : frames.get(0);
+    }
+
+
+    /**
+     * Index the records by the values of a field, or change how they are
+     * indexed, so they can be found with {@link #findBy(String, String)}
+     * and, for a sorted index, {@link #findRange(String, String, String)}.
+     *
+     * <p>The index is built from every record in the store and written
+     * at once; after that it is kept up to date by the store.</p>
+     *
+     * @param field  the dotted path of the field, e.g. serial_number or user.email_id
+     * @param sorted true to keep the values in order so ranges can be found, false for a hash index
+     * @return true if the index was created, false if there already was one of the same kind
+     * @throws IOException if the index could not be written
+     */
+    public boolean createIndex(String field, boolean sorted) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            ReplicaIndex existing = indexes.get(field);
+            if (existing != null && existing.isSorted() == sorted) return false;
+            ReplicaIndex secondary = new ReplicaIndex(field, sorted);
+            build(secondary);
+            indexes.put(field, secondary);
+            writeIndex(secondary);
+            Log.debug(String.format("Indexed %d values of %s in replica %s", secondary.size(), field, directory));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @param field the dotted path of an indexed field
+     * @return true if there was an index of the field
+     * @throws IOException if the file of the index could not be deleted
+     */
+    public boolean dropIndex(String field) throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (indexes.remove(field) == null) return false;
+            Files.deleteIfExists(indexFile(field));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return the indexed fields, each with true if its index is sorted
+     */
+    public Map<String, Boolean> getIndexes() {
+        lock.readLock().lock();
+        try {
+            Map<String, Boolean> retval = new TreeMap<>();
+            for (ReplicaIndex secondary : indexes.values()) retval.put(secondary.getField(), secondary.isSorted());
+            return retval;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Find the records which meet search criteria, as the service would select them.
+     *
+     * <p>The criteria are compiled with {@link CriteriaCompiler}. If every
+     * child of the criteria is combined with "and", so its own condition
+     * must hold, and an index of its field can answer that condition, only
+     * the records the index gives are tested: "is" through any index, and
+     * comparisons and "between" through a sorted one. Otherwise every record
+     * is tested.</p>
+     *
+     * @param criteria the criteria to meet
+     * @return the records which meet the criteria
+     * @throws IllegalArgumentException if a condition is not known or is missing its values
+     */
+    public List<DataFrame> find(SearchCriteria criteria) {
+        Predicate<DataFrame> filter = CriteriaCompiler.compile(criteria);
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            Set<String> ids = candidates(criteria);
+            if (ids != null) {
+                List<DataFrame> retval = new ArrayList<>();
+                for (DataFrame record : records(ids)) {
+                    if (filter.test(record)) retval.add(record);
+                }
+                return retval;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return find(filter);
+    }
+
+
+    /**
+     * Find the records an index gives for the leading condition of the criteria.
+     *
+     * @return the ids of the records which may meet the criteria, null if no index can narrow them down
+     */
+    Set<String> candidates(SearchCriteria criteria) {
+        lock.readLock().lock();
+        try {
+            DataFrame frame = criteria.getDataFrame();
+            String field = frame.getAsString("field");
+            ReplicaIndex secondary = field != null && !frame.isArray() ? indexes.get(field) : null;
+            if (secondary == null) return null;
+            Object children = frame.getObject("children");
+            if (children instanceof DataFrame) {
+                for (DataField child : ((DataFrame) children).getFields()) {
+                    if (child.isFrame() && "or".equalsIgnoreCase(CriteriaCompiler.operatorOf((DataFrame) child.getObjectValue()))) return null;
+                }
+            }
+
+            List<String> values = CriteriaCompiler.valuesOf(frame);
+            String condition = CriteriaCompiler.conditionOf(frame);
+            if (values.isEmpty()) return null;
+            if (SearchCondition.IS.getValue().equals(condition)) {
+                Set<String> retval = new LinkedHashSet<>();
+                for (String value : values) retval.addAll(secondary.get(value));
+                return retval;
+            }
+            if (!secondary.isSorted()) return null;
+            if (SearchCondition.GREATER_THAN.getValue().equals(condition)) return secondary.range(values.get(0), false, null, false);
+            if (SearchCondition.GREATER_OR_EQUAL.getValue().equals(condition)) return secondary.range(values.get(0), true, null, false);
+            if (SearchCondition.LESSER_THAN.getValue().equals(condition)) return secondary.range(null, false, values.get(0), false);
+            if (SearchCondition.LESSER_OR_EQUAL.getValue().equals(condition)) return secondary.range(null, false, values.get(0), true);
+            if (SearchCondition.BETWEEN.getValue().equals(condition) && values.size() > 1) return secondary.range(values.get(0), true, values.get(1), true);
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Find the records with a value, ignoring case.
+     *
+     * <p>An index of the field is used if there is one, otherwise every
+     * record is read.</p>
+     *
+     * @param field the dotted path of the field, e.g. user.email_id
+     * @param value the value to look for
+     * @return the records with the value
+     */
+    public List<DataFrame> findBy(String field, String value) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            ReplicaIndex secondary = indexes.get(field);
+            if (secondary != null) return records(secondary.get(value));
+        } finally {
+            lock.readLock().unlock();
+        }
+        ReplicaIndex.Key key = new ReplicaIndex.Key(value);
+        return find(record -> {
+            for (String found : ReplicaIndex.valuesOf(record, field)) {
+                if (key.equals(new ReplicaIndex.Key(found))) return true;
+            }
+            return false;
+        });
+    }
+
+
+    /**
+     * Find the records with values in a range, comparing numbers as numbers
+     * and anything else as text ignoring case.
+     *
+     * <p>A sorted index of the field is used if there is one, in which case
+     * the records are in the order of their values, otherwise every record
+     * is read.</p>
+     *
+     * @param field the dotted path of the field, e.g. last_updated_time
+     * @param from  the lowest value, null for no lower bound
+     * @param to    the value just past the range, null for no upper bound
+     * @return the records with {@code from <= value < to}
+     */
+    public List<DataFrame> findRange(String field, String from, String to) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            ReplicaIndex secondary = indexes.get(field);
+            if (secondary != null && secondary.isSorted()) return records(secondary.range(from, to));
+        } finally {
+            lock.readLock().unlock();
+        }
+        ReplicaIndex.Key low = from != null ? new ReplicaIndex.Key(from) : null;
+        ReplicaIndex.Key high = to != null ? new ReplicaIndex.Key(to) : null;
+        return find(record -> {
+            for (String found : ReplicaIndex.valuesOf(record, field)) {
+                ReplicaIndex.Key key = new ReplicaIndex.Key(found);
+                if ((low == null || key.compareTo(low) >= 0) && (high == null || key.compareTo(high) < 0)) return true;
+            }
+            return false;
+        });
+    }
+
+
+    /**
+     * Find the records which share a value of an indexed field with another record, e.g. duplicate serial numbers.
+     *
+     * @param field the dotted path of an indexed field
+     * @return the records sharing each value which more than one record has
+     * @throws IllegalArgumentException if the field is not indexed
+     */
+    public Map<String, List<DataFrame>> findDuplicates(String field) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            ReplicaIndex secondary = indexes.get(field);
+            if (secondary == null) throw new IllegalArgumentException(field + " is not indexed in replica " + directory);
+            Map<String, List<DataFrame>> retval = new LinkedHashMap<>();
+            for (Map.Entry<String, Set<String>> entry : secondary.duplicates().entrySet()) {
+                retval.put(entry.getKey(), records(entry.getValue()));
+            }
+            return retval;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Decode records by id. Must be called while holding a lock.
+     */
+    private List<DataFrame> records(Collection<String> ids) {
+        List<DataFrame> retval = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Location location = index.get(id);
+            if (location != null) retval.add(decode(location));
+        }
+        return retval;
+    }
+
+
+    private Path indexFile(String field) {
+        return directory.resolve(INDEX_PREFIX + field.replaceAll("[^A-Za-z0-9._-]", "_") + INDEX_SUFFIX);
+    }
+
+
+    /**
+     * Write the secondary indexes which have changed since they were last written. Must be called while holding the write lock.
+     */
+    private void writeIndexes() throws IOException {
+        Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        for (ReplicaIndex secondary : indexes.values()) {
+            if (last != null && (secondary.getSegment() != last.number || secondary.getOffset() != last.size)) writeIndex(secondary);
+        }
+    }
+
+
+    /**
+     * Write a secondary index as up to date with the end of the segments. Must be called while holding the write lock.
+     */
+    private void writeIndex(ReplicaIndex secondary) throws IOException {
+        Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (last != null) last.force();
+        secondary.write(indexFile(secondary.getField()), last != null ? last.number : 0, last != null ? last.size : 0);
+    }
+
+
+    /**
+     * @return the epoch milliseconds of the record's last_updated_time, Long.MIN_VALUE if it has none
+     */
+    private static long updatedTime(DataFrame record) {
+        Object value = record.getObject(WATERMARK_FIELD);
+        if (value instanceof DataFrame) value = ((DataFrame) value).getObject("value");
+        try {
+            return value != null ? Long.parseLong(value.toString().trim()) : Long.MIN_VALUE;
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+
+    /**
+     * Start filling the store from the service.
+     *
+     * @param full true if every record of the endpoint will be put, so records which are not can be removed
+     * @return the sync, which must be committed for the store to count as fresh
+     */
+    public Sync beginSync(boolean full) {
+        return new Sync(full);
+    }
+
+
+    /**
+     * @return the time the last sync was committed, null if there has been none
+     */
+    public Instant getLastSync() {
+        lock.readLock().lock();
+        try {
+            return lastSync;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return the time the last full sync was committed, null if there has been none
+     */
+    public Instant getLastFullSync() {
+        lock.readLock().lock();
+        try {
+            return lastFullSync;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return the highest last_updated_time stored, the point a delta sync continues from; null if there is none
+     */
+    public String getWatermark() {
+        lock.readLock().lock();
+        try {
+            return watermark != Long.MIN_VALUE ? Long.toString(watermark) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @param maxAge how old the last sync may be
+     * @return true if the last sync was committed no longer ago than the given age
+     */
+    public boolean isFresh(Duration maxAge) {
+        Instant synced = getLastSync();
+        return synced != null && !synced.plus(maxAge).isBefore(Instant.now());
+    }
+
+
+    /**
+     * @return the bytes taken by the latest versions of the records
+     */
+    public long getLiveBytes() {
+        lock.readLock().lock();
+        try {
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return the bytes taken by all the entries in the segments, including superseded versions
+     */
+    public long getTotalBytes() {
+        lock.readLock().lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Copy the latest version of each record into new segments and delete
+     * the old segments, reclaiming the space of superseded versions and
+     * removals.
+     *
+     * @throws IOException if the records could not be copied
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            long before = totalBytes;
+            List<Segment> old = new ArrayList<>(segments.values());
+            List<Map.Entry<String, Location>> live = new ArrayList<>(index.entrySet());
+            live.sort((a, b) -> a.getValue().segment.number != b.getValue().segment.number ? Integer.compare(a.getValue().segment.number, b.getValue().segment.number) : Long.compare(a.getValue().offset, b.getValue().offset));
+
+            // the copies go into new segments numbered after the old ones, so a crash leaves at worst duplicates
+            Segment segment = createSegment(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+            Map<String, Location> moved = new HashMap<>();
+            for (Map.Entry<String, Location> entry : live) {
+                Location from = entry.getValue();
+                if (segment.size > MAGIC.length && segment.size + from.length > segmentSize) {
+                    segment = createSegment(segments.lastKey() + 1);
+                }
+                long offset = segment.size;
+                segment.write(ByteBuffer.wrap(from.segment.read(from.offset, from.length)), offset);
+                moved.put(entry.getKey(), new Location(segment, offset, from.length, from.written));
+            }
+            for (Segment created : segments.values()) {
+                if (!old.contains(created)) created.force();
+            }
+
+            // oldest first, so a crash part way never leaves a removal deleted while the version it removed survives
+            index.putAll(moved);
+            for (Segment compacted : old) {
+                segments.remove(compacted.number);
+                compacted.delete();
+            }
+            totalBytes = liveBytes;
+            for (ReplicaIndex secondary : indexes.values()) writeIndex(secondary);
+            Log.info(String.format("Compacted replica %s from %d to %d bytes", directory, before, totalBytes));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Force the segments and the state file to disk.
+     */
+    public void flush() throws IOException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            for (Segment segment : segments.values()) segment.force();
+            writeState();
+            writeIndexes();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Atomically replace the state file. Must be called while holding the write lock.
+     */
+    private void writeState() throws IOException {
+        Properties properties = new Properties();
+        if (lastSync != null) properties.setProperty(LAST_SYNC, Long.toString(lastSync.toEpochMilli()));
+        if (lastFullSync != null) properties.setProperty(LAST_FULL_SYNC, Long.toString(lastFullSync.toEpochMilli()));
+        if (watermark != Long.MIN_VALUE) properties.setProperty(WATERMARK, Long.toString(watermark));
+        Path file = directory.resolve(STATE_FILE);
+        Path temp = Files.createTempFile(directory, STATE_FILE, ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                properties.store(writer, "ServiceDesk Plus replica");
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+
+    private static Instant toInstant(String millis) {
+        return millis != null ? Instant.ofEpochMilli(Long.parseLong(millis)) : null;
+    }
+
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("The replica " + directory + " is closed");
+    }
+
+
+    /**
+     * @return the directory holding the store
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Write everything to disk and close the segments.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) return;
+            try {
+                flush();
+            } finally {
+                unlock();
+                closed = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return directory + " (" + size() + " records)";
+    }
+
+
+    /**
+     * Records being put into the store by one read of the endpoint.
+     */
+    public final class Sync {
+        private final boolean full;
+        private final Set<String> seen = new HashSet<>();
+        private int count = 0;
+
+        private Sync(boolean full) {
+            this.full = full;
+        }
+
+        /**
+         * @param record a record read from the service, which must have an id
+         * @throws IOException if the record could not be written
+         */
+        public void put(DataFrame record) throws IOException {
+            ReplicaStore.this.put(record);
+            if (full) seen.add(record.getAsString("id"));
+            count++;
+        }
+
+        /**
+         * @return the number of records put
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Record that the read succeeded, so the store is as fresh as the read.
+         *
+         * <p>A full sync removes the records it did not see. The store is
+         * compacted if more than half its space is superseded.</p>
+         *
+         * @throws IOException if the store could not be updated
+         */
+        public void commit() throws IOException {
+            int removed = 0;
+            if (full) {
+                for (String id : getIds()) {
+                    if (!seen.contains(id) && remove(id)) removed++;
+                }
+            }
+            lock.writeLock().lock();
+            try {
+                checkOpen();
+                lastSync = Instant.now();
+                if (full) lastFullSync = lastSync;
+                for (Segment segment : segments.values()) segment.force();
+                writeState();
+                writeIndexes();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Log.info(String.format("%s sync of replica %s stored %d records and removed %d", full ? "Full" : "Delta", directory, count, removed));
+            if (getTotalBytes() > 2 * getLiveBytes()) compact();
+        }
+    }
+
+
+    /**
+     * Where the latest version of a record is.
+     */
+    private static final class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        private final long written;
+
+        private Location(Segment segment, long offset, int length, long written) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.written = written;
+        }
+    }
+
+
+    /**
+     * A segment file, written through its channel and read through a mapping of it.
+     */
+    private static final class Segment {
+        private final int number;
+        private final Path file;
+        private final FileChannel channel;
+        private volatile MappedByteBuffer map = null;
+        private long size;
+
+        private Segment(int number, Path file) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        private void write(ByteBuffer buffer, long position) throws IOException {
+            long at = position;
+            while (buffer.hasRemaining()) at += channel.write(buffer, at);
+            size = Math.max(size, at);
+        }
+
+        /**
+         * Read bytes through the mapping, mapping the segment again if it has grown past it.
+         */
+        private byte[] read(long position, int length) {
+            MappedByteBuffer mapped = map;
+            if (mapped == null || position + length > mapped.capacity()) {
+                synchronized (this) {
+                    mapped = map;
+                    if (mapped == null || position + length > mapped.capacity()) {
+                        try {
+                            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                        } catch (IOException e) {
+                            throw new IllegalStateException("Could not map " + file + ": " + e.getMessage(), e);
+                        }
+                        map = mapped;
+                    }
+                }
+            }
+            byte[] retval = new byte[length];
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) position);
+            view.get(retval);
+            return retval;
+        }
+
+        private void force() throws IOException {
+            if (channel.isOpen()) channel.force(false);
+        }
+
+        private void delete() {
+            try {
+                map = null;
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // a mapping may still hold the file open on some platforms
+                Log.warn("Could not delete the compacted segment " + file + ": " + e.getMessage());
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+
+/**
+ * Models a Request (ticket) in ServiceDesk Plus.
+ */
+public class Request extends Entity {
+    /** The fields of a request. */
+    public static final EntitySchema SCHEMA = new EntitySchema("request");
+    private static final EntitySchema.Field ID = SCHEMA.string("id");
+    private static final EntitySchema.Field DISPLAY_ID = SCHEMA.string("display_id");
+    private static final EntitySchema.Field SUBJECT = SCHEMA.string("subject");
+    private static final EntitySchema.Field DESCRIPTION = SCHEMA.string("description");
+    private static final EntitySchema.Field IS_OVERDUE = SCHEMA.bool("is_overdue");
+    private static final EntitySchema.Field STATUS = SCHEMA.object("status");
+    private static final EntitySchema.Field STATUS_NAME = SCHEMA.string(STATUS, "name");
+    private static final EntitySchema.Field PRIORITY = SCHEMA.object("priority");
+    private static final EntitySchema.Field PRIORITY_NAME = SCHEMA.string(PRIORITY, "name");
+    private static final EntitySchema.Field GROUP = SCHEMA.object("group");
+    private static final EntitySchema.Field GROUP_NAME = SCHEMA.string(GROUP, "name");
+    private static final EntitySchema.Field CREATED_TIME = SCHEMA.object("created_time");
+    private static final EntitySchema.Field CREATED_TIME_VALUE = SCHEMA.string(CREATED_TIME, "value");
+    private static final EntitySchema.Field REQUESTER = SCHEMA.entity("requester", User::new);
+    private static final EntitySchema.Field TECHNICIAN = SCHEMA.entity("technician", User::new);
+    private static final EntitySchema.Field SITE = SCHEMA.entity("site", Site::new);
+
+    public Request() {
+        super(SCHEMA, null);
+    }
+
+    public Request(DataFrame frame) {
+        super(SCHEMA, frame);
+    }
+
+    public Request(String json) {
+        super(SCHEMA, parse(json));
+    }
+
+    public String getId() {
+        return getString(ID);
+    }
+
+    public void setId(String id) {
+        set(ID, id);
+    }
+
+    /**
+     * @return the number of the request as shown to users
+     */
+    public String getDisplayId() {
+        return getString(DISPLAY_ID);
+    }
+
+    public String getSubject() {
+        return getString(SUBJECT);
+    }
+
+    public void setSubject(String subject) {
+        set(SUBJECT, subject);
+    }
+
+    public String getDescription() {
+        return getString(DESCRIPTION);
+    }
+
+    public void setDescription(String description) {
+        set(DESCRIPTION, description);
+    }
+
+    public boolean isOverdue() {
+        return getBoolean(IS_OVERDUE);
+    }
+
+    public String getStatusName() {
+        return getString(STATUS_NAME);
+    }
+
+    public String getPriorityName() {
+        return getString(PRIORITY_NAME);
+    }
+
+    public String getGroupName() {
+        return getString(GROUP_NAME);
+    }
+
+    /**
+     * @return when the request was created, in milliseconds since the epoch as text, or null if not known
+     */
+    public String getCreatedTime() {
+        return getString(CREATED_TIME_VALUE);
+    }
+
+    /**
+     * @return the user who raised the request, the same view each time, or null if not set
+     */
+    public User getRequester() {
+        return getEntity(REQUESTER);
+    }
+
+    public void setRequester(User requester) {
+        setEntity(REQUESTER, requester);
+    }
+
+    /**
+     * @return the technician the request is assigned to, the same view each time, or null if not assigned
+     */
+    public User getTechnician() {
+        return getEntity(TECHNICIAN);
+    }
+
+    public void setTechnician(User technician) {
+        setEntity(TECHNICIAN, technician);
+    }
+
+    /**
+     * @return the site of the request, the same view each time, or null if not set
+     */
+    public Site getSite() {
+        return getEntity(SITE);
+    }
+
+    public void setSite(Site site) {
+        setEntity(SITE, site);
+    }
+}
@@ -0,0 +1,418 @@
+package com.sdcote.sdp;
+
+import coyote.commons.log.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the bodies of successful GET responses so identical calls do not
+ * have to be sent to the service again.
+ *
+ * <p>Entries are kept in memory in least-recently-used order up to a maximum
+ * number of entries. An entry is fresh for the time-to-live given when the
+ * cache is created; after that it is stale. Stale entries which carry an
+ * {@code ETag} or {@code Last-Modified} validator are revalidated with a
+ * conditional request; a {@code 304 Not Modified} response means the cached
+ * body is used again without transferring it. Stale entries without
+ * validators are discarded.</p>
+ *
+ * <p>Optionally, entries can also be written to a directory so they survive
+ * from one run to the next. Entries are read from the directory when they
+ * are not in memory.</p>
+ *
+ * <p>Entries are keyed by the client credential and the normalized request
+ * URI, so different clients never see each others' data.</p>
+ *
+ * @see SDP#setResponseCache(ResponseCache)
+ */
+public class ResponseCache {
+    private static final int DISK_FORMAT_VERSION = 1;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<String, Entry> entries;
+    private Path directory = null;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+
+    /**
+     * Create a memory-only cache.
+     *
+     * @param maxEntries the maximum number of responses to keep in memory
+     * @param ttl        how long a response is considered fresh
+     */
+    public ResponseCache(int maxEntries, Duration ttl) {
+        if (maxEntries < 1) throw new IllegalArgumentException("Cache must hold at least one entry");
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResponseCache.Entry> eldest) {
+                if (size() > ResponseCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    /**
+     * Also keep entries in the given directory so they are available to later runs.
+     *
+     * @param dir the directory to hold the cached responses, null to keep entries in memory only
+     * @return a reference to this object for call chaining.
+     * @throws IOException if the directory could not be created
+     */
+    public ResponseCache setDirectory(Path dir) throws IOException {
+        if (dir != null) Files.createDirectories(dir);
+        this.directory = dir;
+        return this;
+    }
+
+
+    /**
+     * @return the directory holding the on-disk entries, null if entries are only kept in memory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Generate the key for a request.
+     *
+     * @param credentials the client credentials making the request
+     * @param uri         the URI of the request
+     * @return the key to use for caching the response
+     */
+    public static String key(ClientCredentials credentials, URI uri) {
+        URI normal = uri.normalize();
+        StringBuilder b = new StringBuilder();
+        b.append(credentials != null ? credentials.getIdentifier() : "");
+        b.append(' ');
+        if (normal.getScheme() != null) b.append(normal.getScheme().toLowerCase(Locale.ROOT)).append("://");
+        if (normal.getRawAuthority() != null) b.append(normal.getRawAuthority().toLowerCase(Locale.ROOT));
+        if (normal.getRawPath() != null) b.append(normal.getRawPath());
+        if (normal.getRawQuery() != null) b.append('?').append(normal.getRawQuery());
+        return b.toString();
+    }
+
+
+    /**
+     * Retrieve the cached entry for the key, whether it is fresh or stale.
+     *
+     * <p>Stale entries without validators are discarded and counted as a miss.</p>
+     *
+     * @param key the key of the request
+     * @return the entry, null if there is nothing usable in the cache
+     */
+    public Entry get(String key) {
+        Entry retval;
+        synchronized (entries) {
+            retval = entries.get(key);
+        }
+        if (retval == null && directory != null) {
+            retval = readEntry(key);
+            if (retval != null) {
+                synchronized (entries) {
+                    entries.put(key, retval);
+                }
+            }
+        }
+        if (retval != null && !isFresh(retval) && !retval.hasValidators()) {
+            remove(key);
+            retval = null;
+        }
+        return retval;
+    }
+
+
+    /**
+     * Place a response in the cache.
+     *
+     * @param key   the key of the request
+     * @param entry the response to cache
+     */
+    public void put(String key, Entry entry) {
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+        if (directory != null) writeEntry(key, entry);
+    }
+
+
+    /**
+     * Remove a response from the cache.
+     *
+     * @param key the key of the request
+     */
+    public void remove(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+        if (directory != null) {
+            try {
+                Files.deleteIfExists(file(key));
+            } catch (IOException e) {
+                Log.debug("Could not remove cached response: " + e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Remove all the responses from memory (entries on disk are kept).
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+
+    /**
+     * @param entry the cached response
+     * @return true if the entry is still within its time-to-live
+     */
+    public boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.getStoredAt() < ttlMillis;
+    }
+
+
+    /**
+     * @return the number of responses currently held in memory
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+
+    void recordRevalidation() {
+        revalidations.incrementAndGet();
+    }
+
+
+    /**
+     * @return a snapshot of the cache statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(hits.get(), misses.get(), revalidations.get(), evictions.get());
+    }
+
+
+    private Path file(String key) {
+        return directory.resolve(digest(key) + ".cache");
+    }
+
+
+    private static String digest(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder b = new StringBuilder(hash.length * 2);
+            for (byte octet : hash) {
+                b.append(Character.forDigit((octet >> 4) & 0xF, 16)).append(Character.forDigit(octet & 0xF, 16));
+            }
+            return b.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+
+    private Entry readEntry(String key) {
+        Path path = file(key);
+        if (!Files.isRegularFile(path)) return null;
+        try (InputStream in = Files.newInputStream(path); DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != DISK_FORMAT_VERSION) return null;
+            long storedAt = data.readLong();
+            int status = data.readInt();
+            String etag = data.readUTF();
+            String lastModified = data.readUTF();
+            String storedKey = data.readUTF();
+            byte[] body = new byte[data.readInt()];
+            data.readFully(body);
+            if (!key.equals(storedKey)) return null;
+            return new Entry(new String(body, StandardCharsets.UTF_8), status, etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified, storedAt);
+        } catch (IOException e) {
+            Log.debug("Could not read cached response " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+
+    private void writeEntry(String key, Entry entry) {
+        Path path = file(key);
+        try {
+            Path temp = Files.createTempFile(directory, "sdp", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp); DataOutputStream data = new DataOutputStream(out)) {
+                byte[] body = entry.getBody().getBytes(StandardCharsets.UTF_8);
+                data.writeInt(DISK_FORMAT_VERSION);
+                data.writeLong(entry.getStoredAt());
+                data.writeInt(entry.getStatus());
+                data.writeUTF(entry.getEtag() != null ? entry.getEtag() : "");
+                data.writeUTF(entry.getLastModified() != null ? entry.getLastModified() : "");
+                data.writeUTF(key);
+                data.writeInt(body.length);
+                data.write(body);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.warn("Could not write cached response " + path + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * A cached response body and the validators needed to revalidate it.
+     */
+    public static class Entry {
+        private final String body;
+        private final int status;
+        private final String etag;
+        private final String lastModified;
+        private final long storedAt;
+
+        /**
+         * @param body         the body of the response
+         * @param status       the HTTP status code of the response
+         * @param etag         the ETag header of the response, may be null
+         * @param lastModified the Last-Modified header of the response, may be null
+         * @param storedAt     the time (epoch millis) the response was received or last revalidated
+         */
+        public Entry(String body, int status, String etag, String lastModified, long storedAt) {
+            this.body = body;
+            this.status = status;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getStoredAt() {
+            return storedAt;
+        }
+
+        /**
+         * @return true if the response can be revalidated with a conditional request
+         */
+        public boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+
+        /**
+         * @return a copy of this entry which is fresh as of now
+         */
+        public Entry revalidated() {
+            return new Entry(body, status, etag, lastModified, System.currentTimeMillis());
+        }
+    }
+
+
+    /**
+     * A snapshot of how well the cache is performing.
+     */
+    public static class Statistics {
+        private final long hits;
+        private final long misses;
+        private final long revalidations;
+        private final long evictions;
+
+        Statistics(long hits, long misses, long revalidations, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.revalidations = revalidations;
+            this.evictions = evictions;
+        }
+
+        /**
+         * @return the number of calls answered from the cache without contacting the service
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return the number of calls which had to retrieve the full response from the service
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return the number of calls where the service confirmed the cached response was still current
+         */
+        public long getRevalidations() {
+            return revalidations;
+        }
+
+        /**
+         * @return the number of entries removed from memory to make room for others
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return the fraction of calls which did not need to transfer a response body
+         */
+        public double getHitRatio() {
+            long total = hits + misses + revalidations;
+            return total > 0 ? (double) (hits + revalidations) / total : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d revalidations=%d evictions=%d", hits, misses, revalidations, evictions);
+        }
+    }
+
+}
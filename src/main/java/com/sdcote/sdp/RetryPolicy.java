@@ -0,0 +1,155 @@
+package com.sdcote.sdp;
+
+import java.net.http.HttpHeaders;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a failed API call is sent again and how long to wait first.
+ *
+ * <p>Calls which received no response, or a response with one of the
+ * retryable statuses (408, 429, 500, 502, 503 and 504 by default), are
+ * retried up to the maximum number of attempts. Only GET and HEAD calls are
+ * retried unless retrying writes is enabled, since a PUT or POST which timed
+ * out may already have been applied.</p>
+ *
+ * <p>The delay doubles with each attempt up to a maximum, and a random part
+ * of it is dropped so clients which failed together do not retry together.
+ * If the service sent {@code Retry-After}, the delay is at least that long;
+ * if it asks for a longer wait than the maximum delay, the call is not
+ * retried.</p>
+ *
+ * @see SDP#setRetryPolicy(RetryPolicy)
+ */
+public class RetryPolicy {
+
+    /** The default number of times a call is sent, including the first. */
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+
+    /** The default delay before the first retry. */
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 1000;
+
+    /** The default longest delay before any retry. */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 60_000;
+
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private boolean retryWrites = false;
+    private final Set<Integer> retryableStatuses = new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+
+
+    /**
+     * @return a policy which never retries
+     */
+    public static RetryPolicy none() {
+        return new RetryPolicy().setMaxAttempts(1);
+    }
+
+
+    /**
+     * @param attempts the number of times a call is sent, including the first
+     * @return a reference to this object for call chaining.
+     */
+    public RetryPolicy setMaxAttempts(int attempts) {
+        this.maxAttempts = Math.max(1, attempts);
+        return this;
+    }
+
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+
+    /**
+     * @param millis the delay before the first retry, doubled for each retry after that
+     * @return a reference to this object for call chaining.
+     */
+    public RetryPolicy setBaseDelay(long millis) {
+        this.baseDelayMillis = Math.max(0, millis);
+        return this;
+    }
+
+
+    /**
+     * @param millis the longest delay before any retry
+     * @return a reference to this object for call chaining.
+     */
+    public RetryPolicy setMaxDelay(long millis) {
+        this.maxDelayMillis = Math.max(0, millis);
+        return this;
+    }
+
+
+    /**
+     * @param retry true to also retry PUT, POST and DELETE calls
+     * @return a reference to this object for call chaining.
+     */
+    public RetryPolicy setRetryWrites(boolean retry) {
+        this.retryWrites = retry;
+        return this;
+    }
+
+
+    public boolean isRetryingWrites() {
+        return retryWrites;
+    }
+
+
+    /**
+     * @param status an HTTP status which is to be retried in addition to the defaults
+     * @return a reference to this object for call chaining.
+     */
+    public RetryPolicy addRetryableStatus(int status) {
+        retryableStatuses.add(status);
+        return this;
+    }
+
+
+    /**
+     * @param method the HTTP method of the call
+     * @param status the HTTP status of the response, 0 if there was no response
+     * @return true if a call which failed this way may succeed if sent again
+     */
+    public boolean isRetryable(String method, int status) {
+        if (!retryWrites && RateLimiterRegistry.Operation.of(method) == RateLimiterRegistry.Operation.WRITE) {
+            return false;
+        }
+        return status == 0 || retryableStatuses.contains(status);
+    }
+
+
+    /**
+     * Decide whether to send a call again.
+     *
+     * @param method  the HTTP method of the call
+     * @param status  the HTTP status of the response, 0 if there was no response
+     * @param attempt the number of times the call has been sent
+     * @return true if the call should be sent again
+     */
+    public boolean shouldRetry(String method, int status, int attempt) {
+        return attempt < maxAttempts && isRetryable(method, status);
+    }
+
+
+    /**
+     * Determine how long to wait before sending the call again.
+     *
+     * @param attempt the number of times the call has been sent
+     * @param headers the headers of the failed response, null if there was no response
+     * @return the number of milliseconds to wait, or -1 if the service asked for a longer wait than the maximum delay
+     */
+    public long delayMillis(int attempt, HttpHeaders headers) {
+        long retryAfter = TimeUnit.NANOSECONDS.toMillis(TokenBucketRateLimiter.retryAfterNanos(headers));
+        if (retryAfter > maxDelayMillis) return -1;
+
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        long jittered = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling - ceiling / 2 + 1);
+        return Math.max(jittered, retryAfter);
+    }
+
+}
@@ -1,23 +1,43 @@
 package com.sdcote.sdp;
 
+import com.sdcote.sdp.jfr.ExtractEvent;
+import com.sdcote.sdp.jfr.HttpExchangeEvent;
+import com.sdcote.sdp.jfr.MarshalEvent;
+import com.sdcote.sdp.jfr.ThrottleEvent;
 import coyote.commons.StringUtil;
 import coyote.commons.UriUtil;
 import coyote.commons.dataframe.DataField;
 import coyote.commons.dataframe.DataFrame;
+import coyote.commons.dataframe.DataFrameException;
 import coyote.commons.dataframe.marshal.JSONMarshaler;
 import coyote.commons.log.Log;
 import coyote.commons.vault.Vault;
 import coyote.commons.vault.VaultBuilder;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Static helper methods for working with ServiceDesk Plus.
@@ -30,17 +50,42 @@ public class SDP {
     private static final String RESPONSE_STATUS_FIELD = "response_status";
     private static final String LISTINFO_FIELD = "list_info";
 
+    /** The most rows the service returns in a single page. */
+    static final int MAX_ROWS_PER_PAGE = 100;
+
+    /** The longest request URI to generate; many servers and proxies refuse URIs longer than 8 KB. */
+    static final int MAX_URI_LENGTH = 7168;
+
+    /** Allowance for the encoded separators and wrapper added with each child criterion. */
+    private static final int CRITERIA_OVERHEAD = 16;
+
     /** The number of seconds before the access token expiration we want the token refresh to occur.*/
     private static final long TOKEN_EXPIRY_WINDOW = 60L;
 
+    /** The system property naming the file in which to keep access tokens between runs, encrypted with the vault password. */
+    public static final String TOKEN_STORE_PROPERTY = "sdp.token.store";
+
     private static String OAUTH_URL = "https://accounts.zoho.com/oauth/v2";
     private static String SERVICE_URL = "https://sdpondemand.manageengine.com/api/v3";
-    private static OAuthAccessTokenTracker refreshTokenTracker = new OAuthAccessTokenTracker(OAUTH_URL, TOKEN_EXPIRY_WINDOW);
+    private static OAuthAccessTokenTracker refreshTokenTracker = new OAuthAccessTokenTracker(OAUTH_URL, TOKEN_EXPIRY_WINDOW).setTokenStore(defaultTokenStore());
+
+    /** The rate limiters governing how often each client may call the API. */
+    private static RateLimiterRegistry rateLimiters = new RateLimiterRegistry();
+
+    /** The cache of GET responses, null when caching is disabled. */
+    private static volatile ResponseCache responseCache = null;
+
+    /** Decides which failed calls are sent again. */
+    private static volatile RetryPolicy retryPolicy = new RetryPolicy();
 
-    // Throttling attributes
-    private static final int MAX_CALLS_PER_MINUTE = 10;
-    private static final long INTERVAL_MS = 60000L / MAX_CALLS_PER_MINUTE;
-    private static long lastCallTime = 0;
+    /** The circuit breakers which fail calls fast while an endpoint is failing. */
+    private static volatile CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry();
+
+    /** The system property giving the local port on which to serve metrics in the Prometheus text format. */
+    public static final String METRICS_PORT_PROPERTY = "sdp.metrics.port";
+
+    /** The latencies and counts of the calls made, null when they are not collected. */
+    private static volatile MetricsRegistry metrics = defaultMetrics();
 
 
     /**
@@ -65,24 +110,155 @@ public class SDP {
 
 
     /**
-     * Blocks the current thread to ensure a strict, even interval between API calls.
-     * Must be called immediately before executing the HTTP request.
+     * @return the token store named by the {@code sdp.token.store} system property, null if it is not set
      */
-    public static synchronized void throttle()  {
-        long now = System.currentTimeMillis();
-        long timeSinceLastCall = now - lastCallTime;
+    private static TokenStore defaultTokenStore() {
+        String filename = System.getProperty(TOKEN_STORE_PROPERTY);
+        if (StringUtil.isBlank(filename)) return null;
+        String password = System.getProperty("vault.password");
+        if (StringUtil.isBlank(password)) {
+            Log.warn("Access tokens will not be kept in " + filename + ", the `vault.password` system property is not set");
+            return null;
+        }
+        return new EncryptedFileTokenStore(Paths.get(filename), password);
+    }
+
 
-        if (timeSinceLastCall < INTERVAL_MS) {
-            long sleepTime = INTERVAL_MS - timeSinceLastCall;
+    /**
+     * @return a registry published through JMX and, if the {@code sdp.metrics.port} system property is set, over HTTP
+     */
+    private static MetricsRegistry defaultMetrics() {
+        MetricsRegistry retval = new MetricsRegistry().registerMBeans();
+        String port = System.getProperty(METRICS_PORT_PROPERTY);
+        if (StringUtil.isNotBlank(port)) {
             try {
-                Thread.sleep(sleepTime);
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Throttle interupted",e);
+                retval.startServer(Integer.parseInt(port.trim()));
+            } catch (NumberFormatException | IOException e) {
+                Log.error("Could not serve metrics on port " + port + ": " + e.getMessage());
             }
         }
+        return retval;
+    }
 
-        // Record the time after the sleep completes
-        lastCallTime = System.currentTimeMillis();
+
+    /**
+     * Blocks the current thread until the shared API budget allows another call.
+     * Must be called immediately before executing the HTTP request.
+     *
+     * <p>Calls made through {@code callApi} are governed by the budget of their
+     * credential instead; this is for callers making their own requests.</p>
+     *
+     * @see #getRateLimiters()
+     */
+    public static void throttle() {
+        try {
+            rateLimiters.getLimiter((String) null, RateLimiterRegistry.Operation.READ).acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Throttle interupted", e);
+        }
+    }
+
+
+    /**
+     * Wait for the shared API budget to allow another call without blocking
+     * the calling thread.
+     *
+     * @return a future which completes when the next API call may be made.
+     */
+    public static CompletableFuture<Void> throttleAsync() {
+        return rateLimiters.getLimiter((String) null, RateLimiterRegistry.Operation.READ).acquireAsync();
+    }
+
+
+    /**
+     * @return the registry of rate limiters governing how often each client may call the API.
+     */
+    public static RateLimiterRegistry getRateLimiters() {
+        return rateLimiters;
+    }
+
+
+    /**
+     * Replace the registry of rate limiters.
+     *
+     * @param registry the registry to use, null restores a registry with the default limits.
+     */
+    public static void setRateLimiters(RateLimiterRegistry registry) {
+        rateLimiters = registry != null ? registry : new RateLimiterRegistry();
+    }
+
+
+    /**
+     * @return the cache of GET responses, null if responses are not cached (the default).
+     */
+    public static ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+
+    /**
+     * Cache the responses of GET calls so identical calls are answered
+     * without contacting the service while the cached response is fresh.
+     *
+     * @param cache the cache to use, null to disable caching.
+     */
+    public static void setResponseCache(ResponseCache cache) {
+        responseCache = cache;
+    }
+
+
+    /**
+     * @return the policy deciding which failed calls are sent again.
+     */
+    public static RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+
+    /**
+     * Replace the policy deciding which failed calls are sent again.
+     *
+     * @param policy the policy to use, null to never retry.
+     */
+    public static void setRetryPolicy(RetryPolicy policy) {
+        retryPolicy = policy != null ? policy : RetryPolicy.none();
+    }
+
+
+    /**
+     * @return the registry of circuit breakers protecting each endpoint.
+     */
+    public static CircuitBreakerRegistry getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+
+    /**
+     * Replace the registry of circuit breakers.
+     *
+     * @param registry the registry to use, null restores a registry with the default settings.
+     */
+    public static void setCircuitBreakers(CircuitBreakerRegistry registry) {
+        circuitBreakers = registry != null ? registry : new CircuitBreakerRegistry();
+    }
+
+
+    /**
+     * @return the latencies and counts of the calls made, null if they are not collected.
+     */
+    public static MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Replace the registry collecting the latencies and counts of the calls made.
+     *
+     * @param registry the registry to use, null to stop collecting metrics.
+     */
+    public static void setMetrics(MetricsRegistry registry) {
+        metrics = registry;
     }
 
 
@@ -104,7 +280,46 @@ public class SDP {
      */
     public static void setTokenUrl(String tokenUrl) {
         OAUTH_URL = tokenUrl;
-        refreshTokenTracker = new OAuthAccessTokenTracker(OAUTH_URL, TOKEN_EXPIRY_WINDOW);
+        OAuthAccessTokenTracker previous = refreshTokenTracker;
+        refreshTokenTracker = new OAuthAccessTokenTracker(OAUTH_URL, TOKEN_EXPIRY_WINDOW).setTokenStore(previous.getTokenStore());
+        if (previous.isRefreshingInBackground()) {
+            previous.stopBackgroundRefresh();
+            refreshTokenTracker.startBackgroundRefresh();
+        }
+    }
+
+
+    /**
+     * Refresh the access token of each client in the background before it
+     * expires, so API calls never wait on the token service.
+     *
+     * <p>This is off by default, in which case the first call to find its
+     * token about to expire waits while it is refreshed. Long-running jobs
+     * should turn it on.</p>
+     *
+     * @param enabled true to refresh tokens in the background, false to refresh them when they are needed
+     */
+    public static void setBackgroundTokenRefresh(boolean enabled) {
+        if (enabled) refreshTokenTracker.startBackgroundRefresh();
+        else refreshTokenTracker.stopBackgroundRefresh();
+    }
+
+
+    /**
+     * Keep access tokens between runs so each new process does not have to
+     * retrieve one before its first call.
+     *
+     * <p>Setting the {@code sdp.token.store} system property to a file name
+     * does this for the file, encrypted with the vault password. To do the
+     * same in code:</p>
+     * <pre>
+     * SDP.setTokenStore(new EncryptedFileTokenStore(Paths.get(EncryptedFileTokenStore.DEFAULT_FILENAME), System.getProperty("vault.password")));
+     * </pre>
+     *
+     * @param store the store to use, null to not keep tokens (the default)
+     */
+    public static void setTokenStore(TokenStore store) {
+        refreshTokenTracker.setTokenStore(store);
     }
 
 
@@ -140,7 +355,7 @@ public class SDP {
     public static String getAccessToken(ClientCredentials clientCredentials) {
         String retval = null;
         try {
-            retval = refreshTokenTracker.getAccessToken(clientCredentials);
+            retval = refreshTokenTracker.getAccessToken(member(clientCredentials));
         } catch (Exception e) {
             Log.error("Failed to retrieve access token", e);
         }
@@ -148,6 +363,30 @@ public class SDP {
     }
 
 
+    /**
+     * Request an OAuth access token for the given client without blocking the
+     * calling thread.
+     *
+     * @param clientCredentials The credentials representing the client (client ID, secret and refresh token)
+     * @return a future which completes with an OAuth access token for making
+     * requests to the API, or null if one could not be retrieved.
+     */
+    public static CompletableFuture<String> getAccessTokenAsync(ClientCredentials clientCredentials) {
+        return refreshTokenTracker.getAccessTokenAsync(member(clientCredentials)).exceptionally(e -> {
+            Log.error("Failed to retrieve access token", e instanceof CompletionException ? e.getCause() : e);
+            return null;
+        });
+    }
+
+
+    /**
+     * @return the client of a pool to use next, or the given credentials if they are not a pool
+     */
+    private static ClientCredentials member(ClientCredentials credentials) {
+        return credentials instanceof CredentialPool ? ((CredentialPool) credentials).select() : credentials;
+    }
+
+
     /**
      * Helper method to recursively deep copy a Map<String, Object>.
      */
@@ -183,6 +422,9 @@ public class SDP {
     /**
      * Call the ServiceDesk API.
      *
+     * <p>This blocks until the call completes. It is a thin wrapper around
+     * {@link #callApiAsync(ClientCredentials, String, String, ListInfo, String, String)}.</p>
+     *
      * @param credentials the client credentials to use for the API call.
      * @param endpoint    the endpoint to call.
      * @param method      the HTTP method to use (e.g., "GET", "PUT", "POST").
@@ -192,171 +434,934 @@ public class SDP {
      * @return the API response.
      */
     public static ApiResponse callApi(ClientCredentials credentials, String endpoint, String method, ListInfo listInfo, String body, String resultField) {
-        ApiResponse apiResponse = null;
+        return callApiAsync(credentials, endpoint, method, listInfo, body, resultField).join();
+    }
 
-        // Get the access token for our web service calls.
-        String accessToken = SDP.getAccessToken(credentials);
-        Log.debug(String.format("AssetModule token: %s", accessToken));
 
-        if (StringUtil.isNotBlank(accessToken)) {
-            HttpClient client = HttpClient.newBuilder()
-                    .connectTimeout(Duration.ofSeconds(10))
-                    .build();
+    public static CompletableFuture<ApiResponse> callApiAsync(ClientCredentials credentials, String endpoint, ListInfo listInfo, String resultField) {
+        return callApiAsync(credentials, endpoint, "GET", listInfo, null, resultField);
+    }
 
-            HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
-                    .header("Authorization", "Zoho-oauthtoken " + accessToken)
-                    .header("Accept", "application/vnd.manageengine.sdp.v3+json");
 
-            if ("PUT".equalsIgnoreCase(method)) {
-                requestBuilder.uri(URI.create(SDP.getServiceUrl() + endpoint));
-                if (body != null) {
-                    requestBuilder.PUT(HttpRequest.BodyPublishers.ofString(body));
-                } else {
-                    requestBuilder.PUT(HttpRequest.BodyPublishers.noBody());
-                }
-            } else if ("POST".equalsIgnoreCase(method)) {
-                requestBuilder.uri(URI.create(SDP.getServiceUrl() + endpoint));
-                if (body != null) {
-                    requestBuilder.POST(HttpRequest.BodyPublishers.ofString(body));
-                } else {
-                    requestBuilder.POST(HttpRequest.BodyPublishers.noBody());
-                }
-            } else {
-                requestBuilder.uri(generateUri(endpoint, listInfo));
-                requestBuilder.GET();
-            }
+    /**
+     * Call the ServiceDesk API without blocking the calling thread.
+     *
+     * <p>Token acquisition, throttling and the HTTP exchange are all performed
+     * asynchronously, so many calls can be in flight without a thread waiting
+     * on each one.</p>
+     *
+     * <p>The returned future does not complete exceptionally for HTTP or
+     * network errors; they are logged and reflected in the returned response
+     * just as with the synchronous call. The future completes with null if an
+     * access token could not be retrieved.</p>
+     *
+     * @param credentials the client credentials to use for the API call.
+     * @param endpoint    the endpoint to call.
+     * @param method      the HTTP method to use (e.g., "GET", "PUT", "POST").
+     * @param listInfo    the list information for the request (optional).
+     * @param body        the request body (optional).
+     * @param resultField the field in the response containing the results.
+     * @return a future which completes with the API response.
+     */
+    public static CompletableFuture<ApiResponse> callApiAsync(ClientCredentials credentials, String endpoint, String method, ListInfo listInfo, String body, String resultField) {
+        ResponseCache cache = responseCache;
+        if (cache != null && "GET".equalsIgnoreCase(method)) {
+            return callApiCachedAsync(cache, credentials, endpoint, listInfo, resultField);
+        }
+        return exchange(credentials, endpoint, method, listInfo, body, null,
+                apiResponse -> HttpResponse.BodyHandlers.ofString(),
+                (apiResponse, httpResponse) -> processResponse(apiResponse, httpResponse, body, resultField));
+    }
 
-            HttpRequest request = requestBuilder.build();
-            apiResponse = new ApiResponse(request);
 
-            try {
-                SDP.throttle();
-                apiResponse.transactionStart();
-                apiResponse.requestStart();
-                HttpResponse<String> httpResponse = client.send(request, HttpResponse.BodyHandlers.ofString());
-                apiResponse.requestEnd();
-
-                final int status = httpResponse.statusCode();
-                apiResponse.setStatusCode(status);
-
-                // Debug messages
-                if (Log.isLogging(Log.DEBUG_EVENTS)) {
-                    Log.debug(String.format("Request:%n            %s%n   Body: %s%nResponse:%n    %s", request.toString(), body, status));
-                    if ((status >= 200) && (status < 300)) {
-                        Log.debug(String.format("Success - %s", status));
-                    } else if ((status >= 300) && (status < 400)) {
-                        Log.debug(String.format("Unexpected Response - %s", status));
-                    } else if ((status >= 400) && (status < 500)) {
-                        Log.debug(String.format("Access error - %s", status));
-                    } else if (status >= 500) {
-                        Log.debug(String.format("Server error - %s", status));
-                    }
-                }
+    /**
+     * Call the ServiceDesk API, passing each record to the consumer as soon as
+     * it has been received.
+     *
+     * <p>This blocks until the call completes. It is a thin wrapper around
+     * {@link #callApiStreamingAsync(ClientCredentials, String, ListInfo, String, Consumer)}.</p>
+     *
+     * @param credentials the client credentials to use for the API call.
+     * @param endpoint    the endpoint to call.
+     * @param listInfo    the list information for the request (optional).
+     * @param resultField the field in the response containing the results.
+     * @param consumer    called with each record as it arrives, null to add the records to the response.
+     * @return the API response.
+     */
+    public static ApiResponse callApiStreaming(ClientCredentials credentials, String endpoint, ListInfo listInfo, String resultField, Consumer<DataFrame> consumer) {
+        return callApiStreamingAsync(credentials, endpoint, listInfo, resultField, consumer).join();
+    }
 
-                // Status of a 301 or a 302, look for a Location: header in the response and use that URL
-                if (status >= 300 && status < 400) {
-                    if (httpResponse.headers().firstValue("Location").isPresent()) {
-                        apiResponse.setLink(httpResponse.headers().firstValue("Location").get());
-                    }
-                }
 
-                if (Log.isLogging(Log.DEBUG_EVENTS) && status >= 400) {
-                    Log.debug(String.format("Error Body: %s", httpResponse.body()));
-                }
+    /**
+     * Call the ServiceDesk API, parsing the response as it arrives and passing
+     * each record to the consumer as soon as it is complete.
+     *
+     * <p>The response body is never held in memory in its entirety; only the
+     * text of the record currently being received is kept before it is
+     * marshaled. This reduces the memory needed for large pages and makes the
+     * first record available before the last byte of the response has
+     * arrived. The response status and list information are still available
+     * from the returned response.</p>
+     *
+     * <p>The consumer is called on the HTTP client's threads, one record at a
+     * time. If no consumer is given, the records are added to the returned
+     * response as with {@code callApi}, which still avoids holding the body and
+     * the entire marshaled tree in memory.</p>
+     *
+     * <p>Each attempt is parsed afresh. A call which fails after records have
+     * been passed to the consumer is not retried, as they cannot be taken
+     * back; without a consumer, the records of an attempt are only added to
+     * the response once it has succeeded.</p>
+     *
+     * @param credentials the client credentials to use for the API call.
+     * @param endpoint    the endpoint to call.
+     * @param listInfo    the list information for the request (optional).
+     * @param resultField the field in the response containing the results.
+     * @param consumer    called with each record as it arrives, null to add the records to the response.
+     * @return a future which completes with the API response once the entire response has been received.
+     */
+    public static CompletableFuture<ApiResponse> callApiStreamingAsync(ClientCredentials credentials, String endpoint, ListInfo listInfo, String resultField, Consumer<DataFrame> consumer) {
+        // the parser and records of the latest attempt
+        final StreamingResponseParser[] parser = new StreamingResponseParser[1];
+        final List<DataFrame> received = new ArrayList<>();
+        final MarshalEvent[] marshalEvent = new MarshalEvent[1];
+        return exchange(credentials, endpoint, "GET", listInfo, null, null,
+                apiResponse -> {
+                    received.clear();
+                    Consumer<DataFrame> target = (consumer == null) ? received::add : record -> {
+                        apiResponse.recordStreamed();
+                        consumer.accept(record);
+                    };
+                    parser[0] = new StreamingResponseParser(resultField, target);
+                    return responseInfo -> {
+                        if (responseInfo.statusCode() == 200 || responseInfo.statusCode() == 201) {
+                            apiResponse.parseStart();
+                            marshalEvent[0] = new MarshalEvent();
+                            marshalEvent[0].begin();
+                            return HttpResponse.BodySubscribers.mapping(parser[0].bodySubscriber(), p -> (String) null);
+                        }
+                        return HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+                    };
+                },
+                (apiResponse, httpResponse) -> {
+                    for (DataFrame record : received) apiResponse.add(record);
+                    processStreamedResponse(apiResponse, httpResponse, parser[0], marshalEvent[0], resultField);
+                });
+    }
 
-                if (status == 200 || status == 201) {
-                    String responseBody = httpResponse.body();
 
-                    Log.debug(String.format("Marshaling response body of '%s%s", responseBody.substring(0, Math.min(responseBody.length(), 500)), responseBody.length() <= 500 ? "'" : " ...'"));
+    /**
+     * Answer a GET call from the response cache if possible, otherwise call
+     * the service (conditionally, if the cached response can be revalidated)
+     * and cache the response.
+     *
+     * <p>Fresh cache hits do not need an access token or a permit from the
+     * rate limiter.</p>
+     */
+    private static CompletableFuture<ApiResponse> callApiCachedAsync(ResponseCache cache, ClientCredentials credentials, String endpoint, ListInfo listInfo, String resultField) {
+        URI uri = generateUri(endpoint, listInfo);
+        String key = ResponseCache.key(credentials, uri);
+        ResponseCache.Entry cached = cache.get(key);
+
+        if (cached != null && cache.isFresh(cached)) {
+            cache.recordHit();
+            ApiResponse apiResponse = new ApiResponse(HttpRequest.newBuilder(uri).GET().build());
+            apiResponse.transactionStart();
+            apiResponse.setStatusCode(cached.getStatus());
+            apiResponse.setCacheStatus(ApiResponse.CacheStatus.HIT);
+            processBody(apiResponse, cached.getBody(), resultField);
+            apiResponse.setCacheStatistics(cache.getStatistics());
+            apiResponse.transactionEnd();
+            return CompletableFuture.completedFuture(apiResponse);
+        }
+
+        Map<String, String> conditions = new HashMap<>();
+        if (cached != null) {
+            if (cached.getEtag() != null) conditions.put("If-None-Match", cached.getEtag());
+            if (cached.getLastModified() != null) conditions.put("If-Modified-Since", cached.getLastModified());
+        }
 
-                    // Parse the body into frames
-                    List<DataFrame> frames = null;
-                    apiResponse.parseStart();
-                    try {
-                        frames = JSONMarshaler.marshal(responseBody);
-                    } catch (Exception e) {
-                        Log.fatal("Marshaling error.", e);
-                    } finally {
-                        apiResponse.parseEnd();
+        return exchange(credentials, endpoint, "GET", listInfo, null, conditions,
+                apiResponse -> HttpResponse.BodyHandlers.ofString(),
+                (apiResponse, httpResponse) -> {
+                    if (httpResponse.statusCode() == 304 && cached != null) {
+                        cache.recordRevalidation();
+                        cache.put(key, cached.revalidated());
+                        apiResponse.setStatusCode(cached.getStatus());
+                        apiResponse.setCacheStatus(ApiResponse.CacheStatus.REVALIDATED);
+                        processBody(apiResponse, cached.getBody(), resultField);
+                    } else {
+                        cache.recordMiss();
+                        apiResponse.setCacheStatus(ApiResponse.CacheStatus.MISS);
+                        processResponse(apiResponse, httpResponse, null, resultField);
+                        if (httpResponse.statusCode() == 200) {
+                            cache.put(key, new ResponseCache.Entry(httpResponse.body(), 200,
+                                    httpResponse.headers().firstValue("ETag").orElse(null),
+                                    httpResponse.headers().firstValue("Last-Modified").orElse(null),
+                                    System.currentTimeMillis()));
+                        }
                     }
+                    apiResponse.setCacheStatistics(cache.getStatistics());
+                });
+    }
+
+
+    /**
+     * Perform an API call: wait for the rate limiter, retrieve the access
+     * token, send the request and process the response.
+     *
+     * <p>Failed calls are sent again as the retry policy allows, and calls to
+     * an endpoint whose circuit breaker is open fail immediately with an
+     * empty response.</p>
+     *
+     * <p>Calls made with a {@link CredentialPool} are made with one of its
+     * clients, chosen when the call starts, and their outcome is reported
+     * back to the pool.</p>
+     *
+     * @param credentials    the client credentials to use for the API call.
+     * @param endpoint       the endpoint to call.
+     * @param method         the HTTP method to use (e.g., "GET", "PUT", "POST").
+     * @param listInfo       the list information for the request (optional).
+     * @param body           the request body (optional).
+     * @param headers        additional request headers (optional).
+     * @param handlerFactory creates the handler for the response body of each attempt of the given API response
+     * @param processor      populates the API response from the HTTP response
+     * @return a future which completes with the API response, or null if there was no access token.
+     */
+    private static <T> CompletableFuture<ApiResponse> exchange(ClientCredentials credentials, String endpoint, String method, ListInfo listInfo, String body, Map<String, String> headers, Function<ApiResponse, HttpResponse.BodyHandler<T>> handlerFactory, BiConsumer<ApiResponse, HttpResponse<T>> processor) {
+        if (credentials instanceof CredentialPool) {
+            CredentialPool pool = (CredentialPool) credentials;
+            CredentialPool.Member member = pool.acquire();
+            return exchange(member.getCredentials(), endpoint, method, listInfo, body, headers, handlerFactory, processor)
+                    .whenComplete((response, error) -> pool.release(member, response, error));
+        }
+
+        CircuitBreaker breaker = circuitBreakers.getBreaker(endpoint);
+        if (!breaker.allowRequest()) {
+            Log.error(String.format("Circuit for %s is open, failing call without contacting the service", breaker.getName()));
+            ApiResponse rejected = new ApiResponse(null);
+            rejected.setCircuitOpen(true);
+            return CompletableFuture.completedFuture(rejected);
+        }
+
+        ApiResponse apiResponse = new ApiResponse(null);
+        apiResponse.transactionStart();
+        Exchange<T> exchange = new Exchange<>(credentials, endpoint, method, listInfo, body, headers, apiResponse, handlerFactory, processor, rateLimiters.getLimiter(credentials, method), breaker, retryPolicy, metrics);
+        return exchange.send();
+    }
+
+
+    /**
+     * The attempts to send a single API call.
+     */
+    private static class Exchange<T> {
+        private final HttpClient client = HttpClientPool.getClient(SDP.getServiceUrl());
+        private final ClientCredentials credentials;
+        private final String method;
+        private final ListInfo listInfo;
+        private final String body;
+        private final Map<String, String> headers;
+        private final ApiResponse apiResponse;
+        private final Function<ApiResponse, HttpResponse.BodyHandler<T>> handlerFactory;
+        private final BiConsumer<ApiResponse, HttpResponse<T>> processor;
+        private final RateLimiter limiter;
+        private final CircuitBreaker breaker;
+        private final RetryPolicy policy;
+        private final String endpoint;
+        private final MetricsRegistry metrics;
+        private int attempt = 0;
+        private HttpExchangeEvent httpEvent = null;
+        private long bytesBefore = 0;
+        private int recordsBefore = 0;
+        private long tokenStart = 0;
+        private boolean noToken = false;
+
+        Exchange(ClientCredentials credentials, String endpoint, String method, ListInfo listInfo, String body, Map<String, String> headers, ApiResponse apiResponse, Function<ApiResponse, HttpResponse.BodyHandler<T>> handlerFactory, BiConsumer<ApiResponse, HttpResponse<T>> processor, RateLimiter limiter, CircuitBreaker breaker, RetryPolicy policy, MetricsRegistry metrics) {
+            this.credentials = credentials;
+            this.endpoint = endpoint;
+            this.method = method;
+            this.listInfo = listInfo;
+            this.body = body;
+            this.headers = headers;
+            this.apiResponse = apiResponse;
+            this.handlerFactory = handlerFactory;
+            this.processor = processor;
+            this.limiter = limiter;
+            this.breaker = breaker;
+            this.policy = policy;
+            this.metrics = metrics;
+        }
+
+        /**
+         * @return a new handler for the body of an attempt, which also times the arrival of the headers and counts the bytes of the body
+         */
+        private HttpResponse.BodyHandler<T> handler() {
+            HttpResponse.BodyHandler<T> handler = handlerFactory.apply(apiResponse);
+            return responseInfo -> {
+                apiResponse.responseReceived(responseInfo.headers());
+                return new CountingBodySubscriber<>(handler.apply(responseInfo), apiResponse::addResponseBytes);
+            };
+        }
 
-                    // Because it is possible for responses to have multiple set of data,
-                    // make sure just to retrieve the first full frame of data
-                    if (frames != null && !frames.isEmpty()) {
-                        if (frames.size() > 1) {
-                            Log.error("The response contained more than one object - only using first response object");
+        /**
+         * Wait for the rate limiter, retrieve the access token, send the
+         * request and either process the response or, if it failed and may be
+         * retried, wait and send it again.
+         *
+         * <p>The access token is retrieved for each attempt once the rate
+         * limiter lets it through, so an attempt which waited or a retry never
+         * sends a token which expired in the meantime.</p>
+         *
+         * <p>An attempt which passed records on before it failed is not
+         * retried, as the records would be passed on again.</p>
+         */
+        CompletableFuture<ApiResponse> send() {
+            attempt++;
+            recordsBefore = apiResponse.getRecordCount();
+            HttpResponse.BodyHandler<T> handler = handler();
+            long throttleStart = System.nanoTime();
+            ThrottleEvent throttleEvent = new ThrottleEvent();
+            throttleEvent.begin();
+            return limiter.acquireAsync()
+                    .thenCompose(ignore -> {
+                        apiResponse.addThrottleWait(System.nanoTime() - throttleStart);
+                        throttleEvent.end();
+                        if (throttleEvent.shouldCommit()) {
+                            throttleEvent.setCall(endpoint, method);
+                            throttleEvent.setAttempt(attempt);
+                            throttleEvent.commit();
                         }
-                        final DataFrame responseFrame = frames.get(0);
-
-                        apiResponse.setResponseFrame((DataFrame) responseFrame.getObject(RESPONSE_STATUS_FIELD));
-                        apiResponse.setListInfoFrame((DataFrame) responseFrame.getObject(LISTINFO_FIELD));
-
-                        if (StringUtil.isNotBlank(resultField)) {
-                            final DataFrame results = (DataFrame) responseFrame.getObject(resultField);
-                            if (results != null) {
-                                // Multiple results come as an array, single results are their own frame
-                                if (results.isArray()) {
-                                    for (final DataField field : results.getFields()) {
-                                        if (field.isFrame()) {
-                                            apiResponse.add((DataFrame) field.getObjectValue());
-                                        } else {
-                                            Log.warn(String.format("Malformed response: array of records contained a %s field: %s ", field.getTypeName(), field));
-                                        }
-                                    }
-                                } else {
-                                    // This is a single result, add it to the return value
-                                    apiResponse.add(results);
-                                }
-                            } else {
-                                Log.debug("RESPONSE: NO RESPONSE DATA RETURNED for field: " + resultField);
+                        tokenStart = System.nanoTime();
+                        return SDP.getAccessTokenAsync(credentials);
+                    })
+                    .thenCompose(accessToken -> {
+                        apiResponse.addTokenWait(System.nanoTime() - tokenStart);
+                        Log.debug(String.format("AssetModule token: %s", accessToken));
+                        if (StringUtil.isBlank(accessToken)) {
+                            noToken = true;
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        HttpRequest request = buildRequest(accessToken, endpoint, method, listInfo, body, headers);
+                        apiResponse.setRequest(request);
+                        httpEvent = new HttpExchangeEvent();
+                        httpEvent.begin();
+                        apiResponse.requestStart();
+                        return client.sendAsync(request, handler);
+                    })
+                    .handle((httpResponse, error) -> {
+                        if (noToken) return noAccessToken();
+                        int status = (error != null) ? 0 : httpResponse.statusCode();
+                        HttpHeaders headers = (error != null) ? null : httpResponse.headers();
+                        if (error == null) apiResponse.requestEnd();
+                        commitHttpEvent(status);
+                        limiter.onResponse(status, headers);
+                        breaker.record(status);
+                        if (metrics != null) metrics.recordAttempt(endpoint, method, status, apiResponse.getRequestNanos());
+
+                        boolean delivered = apiResponse.getRecordCount() > recordsBefore;
+                        if (delivered && policy.shouldRetry(method, status, attempt)) {
+                            Log.error(String.format("Call to %s failed after %d records were passed on, not retrying", endpoint, apiResponse.getRecordCount() - recordsBefore));
+                        } else if (policy.shouldRetry(method, status, attempt)) {
+                            long delay = policy.delayMillis(attempt, headers);
+                            if (delay >= 0 && breaker.allowRequest()) {
+                                Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+                                Log.warn(String.format("Call to %s failed (%s), retrying in %d ms (attempt %d of %d)", endpoint, cause != null ? cause.toString() : "HTTP " + status, delay, attempt + 1, policy.getMaxAttempts()));
+                                apiResponse.recordRetry(delay);
+                                return CompletableFuture.runAsync(() -> {
+                                }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)).thenCompose(ignore -> send());
                             }
                         }
-                    } else {
-                        Log.debug("There were no valid frames in the response body");
-                    }
 
+                        finish(httpResponse, error);
+                        return CompletableFuture.completedFuture(apiResponse);
+                    })
+                    .thenCompose(Function.identity());
+        }
+
+        /**
+         * End the call as no access token could be retrieved; the first
+         * attempt completes with null, a retry with the failure of its
+         * earlier attempts.
+         */
+        private CompletableFuture<ApiResponse> noAccessToken() {
+            Log.fatal("Could not retrieve access token.");
+            if (attempt == 1) return CompletableFuture.completedFuture(null);
+            finish(null, new IllegalStateException("Could not retrieve access token for attempt " + attempt));
+            return CompletableFuture.completedFuture(apiResponse);
+        }
+
+        private void commitHttpEvent(int status) {
+            if (httpEvent == null) return; // the rate limiter failed
+            httpEvent.end();
+            if (httpEvent.shouldCommit()) {
+                httpEvent.setCall(endpoint, method);
+                httpEvent.setAttempt(attempt);
+                httpEvent.setStatus(status);
+                httpEvent.setBytes(apiResponse.getResponseBytes() - bytesBefore);
+                httpEvent.setRecords(apiResponse.getRecordCount());
+                httpEvent.commit();
+            }
+            bytesBefore = apiResponse.getResponseBytes();
+            httpEvent = null;
+        }
+
+        private void finish(HttpResponse<T> httpResponse, Throwable error) {
+            try {
+                if (error != null) {
+                    Log.fatal("Web service call failed.", error instanceof CompletionException ? error.getCause() : error);
                 } else {
-                    Log.fatal("Call to Asset service resulted in an HTTP response code: " + status);
-                    if (Log.isLogging(Log.DEBUG_EVENTS)) Log.fatal("Failed response body: \n" + httpResponse.body());
+                    processor.accept(apiResponse, httpResponse);
                 }
-
             } catch (Exception e) {
                 Log.fatal("Web service call failed.", e);
             } finally {
                 apiResponse.transactionEnd();
+                if (metrics != null) metrics.recordCall(endpoint, method, apiResponse);
+            }
+        }
+    }
+
+
+    /**
+     * Build the HTTP request for an API call.
+     *
+     * @param accessToken the OAuth access token to authenticate the request
+     * @param endpoint    the endpoint to call.
+     * @param method      the HTTP method to use (e.g., "GET", "PUT", "POST").
+     * @param listInfo    the list information for the request (optional).
+     * @param body        the request body (optional).
+     * @param headers     additional request headers (optional).
+     * @return the request ready to send
+     */
+    private static HttpRequest buildRequest(String accessToken, String endpoint, String method, ListInfo listInfo, String body, Map<String, String> headers) {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .header("Authorization", "Zoho-oauthtoken " + accessToken)
+                .header("Accept", "application/vnd.manageengine.sdp.v3+json");
+
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                requestBuilder.header(header.getKey(), header.getValue());
+            }
+        }
+
+        if ("PUT".equalsIgnoreCase(method)) {
+            requestBuilder.uri(URI.create(SDP.getServiceUrl() + endpoint));
+            if (body != null) {
+                requestBuilder.PUT(HttpRequest.BodyPublishers.ofString(body));
+            } else {
+                requestBuilder.PUT(HttpRequest.BodyPublishers.noBody());
+            }
+        } else if ("POST".equalsIgnoreCase(method)) {
+            requestBuilder.uri(URI.create(SDP.getServiceUrl() + endpoint));
+            if (body != null) {
+                requestBuilder.POST(HttpRequest.BodyPublishers.ofString(body));
+            } else {
+                requestBuilder.POST(HttpRequest.BodyPublishers.noBody());
             }
         } else {
-            Log.fatal("Could not retrieve access token.");
+            requestBuilder.uri(generateUri(endpoint, listInfo));
+            requestBuilder.GET();
         }
 
-        return apiResponse;
+        return requestBuilder.build();
     }
 
 
+    /**
+     * Populate the API response from the HTTP response.
+     *
+     * @param apiResponse  the API response to populate
+     * @param httpResponse the HTTP response received from the service
+     * @param body         the body of the request (for debugging)
+     * @param resultField  the field in the response containing the results.
+     */
+    private static void processResponse(ApiResponse apiResponse, HttpResponse<String> httpResponse, String body, String resultField) {
+        final int status = inspectStatus(apiResponse, httpResponse, body);
+
+        if (status == 200 || status == 201) {
+            processBody(apiResponse, httpResponse.body(), resultField);
+        } else {
+            Log.fatal("Call to Asset service resulted in an HTTP response code: " + status);
+            if (Log.isLogging(Log.DEBUG_EVENTS)) Log.fatal("Failed response body: \n" + httpResponse.body());
+        }
+    }
+
+
+    /**
+     * Marshal the body of a successful response and add its results to the API response.
+     *
+     * @param apiResponse  the API response to populate
+     * @param responseBody the body of the HTTP response
+     * @param resultField  the field in the response containing the results.
+     */
+    static void processBody(ApiResponse apiResponse, String responseBody, String resultField) {
+        Log.debug(String.format("Marshaling response body of '%s%s", responseBody.substring(0, Math.min(responseBody.length(), 500)), responseBody.length() <= 500 ? "'" : " ...'"));
+
+        // Parse the body into frames
+        List<DataFrame> frames = null;
+        MarshalEvent marshalEvent = new MarshalEvent();
+        marshalEvent.begin();
+        apiResponse.parseStart();
+        try {
+            frames = JSONMarshaler.marshal(responseBody);
+        } catch (Exception e) {
+            Log.fatal("Marshaling error.", e);
+        } finally {
+            apiResponse.parseEnd();
+            marshalEvent.end();
+            if (marshalEvent.shouldCommit()) {
+                marshalEvent.setCall(endpointOf(apiResponse), apiResponse.getRequest() != null ? apiResponse.getRequest().method() : null);
+                marshalEvent.setStatus(apiResponse.getHttpStatusCode());
+                marshalEvent.setBytes(responseBody.length());
+                marshalEvent.commit();
+            }
+        }
+
+        // Because it is possible for responses to have multiple set of data,
+        // make sure just to retrieve the first full frame of data
+        ExtractEvent extractEvent = new ExtractEvent();
+        extractEvent.begin();
+        if (frames != null && !frames.isEmpty()) {
+            if (frames.size() > 1) {
+                Log.error("The response contained more than one object - only using first response object");
+            }
+            final DataFrame responseFrame = frames.get(0);
+
+            apiResponse.setResponseFrame((DataFrame) responseFrame.getObject(RESPONSE_STATUS_FIELD));
+            apiResponse.setListInfoFrame((DataFrame) responseFrame.getObject(LISTINFO_FIELD));
+
+            if (StringUtil.isNotBlank(resultField)) {
+                final DataFrame results = (DataFrame) responseFrame.getObject(resultField);
+                if (results != null) {
+                    // Multiple results come as an array, single results are their own frame
+                    if (results.isArray()) {
+                        for (final DataField field : results.getFields()) {
+                            if (field.isFrame()) {
+                                apiResponse.add((DataFrame) field.getObjectValue());
+                            } else {
+                                Log.warn(String.format("Malformed response: array of records contained a %s field: %s ", field.getTypeName(), field));
+                            }
+                        }
+                    } else {
+                        // This is a single result, add it to the return value
+                        apiResponse.add(results);
+                    }
+                } else {
+                    Log.debug("RESPONSE: NO RESPONSE DATA RETURNED for field: " + resultField);
+                }
+            }
+        } else {
+            Log.debug("There were no valid frames in the response body");
+        }
+        extractEvent.end();
+        if (extractEvent.shouldCommit()) {
+            extractEvent.setCall(endpointOf(apiResponse), apiResponse.getRequest() != null ? apiResponse.getRequest().method() : null);
+            extractEvent.setStatus(apiResponse.getHttpStatusCode());
+            extractEvent.setRecords(apiResponse.getRecordCount());
+            extractEvent.commit();
+        }
+    }
+
+
+    /**
+     * @return the endpoint of the request, relative to the service URL, null if there was no request
+     */
+    private static String endpointOf(ApiResponse apiResponse) {
+        if (apiResponse.getRequest() == null) return null;
+        String path = apiResponse.getRequest().uri().getPath();
+        String root = URI.create(SERVICE_URL).getPath();
+        return (root != null && !root.isEmpty() && path.startsWith(root)) ? path.substring(root.length()) : path;
+    }
+
+
+    /**
+     * Populate the API response from an HTTP response whose body was parsed as it arrived.
+     *
+     * @param apiResponse  the API response to populate
+     * @param httpResponse the HTTP response received from the service, the body is only present if the call failed
+     * @param parser       the parser which received the body
+     * @param event        the event timing the parsing, null if the body was not parsed
+     * @param resultField  the field in the response containing the results.
+     */
+    private static void processStreamedResponse(ApiResponse apiResponse, HttpResponse<String> httpResponse, StreamingResponseParser parser, MarshalEvent event, String resultField) {
+        final int status = inspectStatus(apiResponse, httpResponse, null);
+
+        if (status == 200 || status == 201) {
+            apiResponse.parseEnd();
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.setCall(endpointOf(apiResponse), "GET");
+                    event.setStatus(status);
+                    event.setBytes(apiResponse.getResponseBytes());
+                    event.setRecords(parser.getRecordCount());
+                    event.commit();
+                }
+            }
+            apiResponse.setResponseFrame(parser.getResponseStatus());
+            apiResponse.setListInfoFrame(parser.getListInfo());
+            if (parser.getRecordCount() == 0) {
+                Log.debug("RESPONSE: NO RESPONSE DATA RETURNED for field: " + resultField);
+            }
+            if (parser.getConsumerError() != null) {
+                Log.error("Not all records were processed: " + parser.getConsumerError().getMessage());
+            }
+        } else {
+            Log.fatal("Call to Asset service resulted in an HTTP response code: " + status);
+            if (Log.isLogging(Log.DEBUG_EVENTS)) Log.fatal("Failed response body: \n" + httpResponse.body());
+        }
+    }
+
+
+    /**
+     * Record the status of the HTTP response in the API response and log it.
+     *
+     * @param apiResponse  the API response to populate
+     * @param httpResponse the HTTP response received from the service
+     * @param body         the body of the request (for debugging)
+     * @return the HTTP status code of the response
+     */
+    private static int inspectStatus(ApiResponse apiResponse, HttpResponse<String> httpResponse, String body) {
+        final int status = httpResponse.statusCode();
+        apiResponse.setStatusCode(status);
+
+        // Debug messages
+        if (Log.isLogging(Log.DEBUG_EVENTS)) {
+            Log.debug(String.format("Request:%n            %s%n   Body: %s%nResponse:%n    %s", apiResponse.getRequest().toString(), body, status));
+            if ((status >= 200) && (status < 300)) {
+                Log.debug(String.format("Success - %s", status));
+            } else if ((status >= 300) && (status < 400)) {
+                Log.debug(String.format("Unexpected Response - %s", status));
+            } else if ((status >= 400) && (status < 500)) {
+                Log.debug(String.format("Access error - %s", status));
+            } else if (status >= 500) {
+                Log.debug(String.format("Server error - %s", status));
+            }
+        }
+
+        // Status of a 301 or a 302, look for a Location: header in the response and use that URL
+        if (status >= 300 && status < 400) {
+            if (httpResponse.headers().firstValue("Location").isPresent()) {
+                apiResponse.setLink(httpResponse.headers().firstValue("Location").get());
+            }
+        }
+
+        if (Log.isLogging(Log.DEBUG_EVENTS) && status >= 400) {
+            Log.debug(String.format("Error Body: %s", httpResponse.body()));
+        }
+
+        return status;
+    }
+
 
     /**
      * Retrieve a workstation by its name.
      *
+     * <p>Only the fields read by the getters of {@link Workstation} are
+     * requested, so the frame of the workstation returned holds no other
+     * fields.</p>
+     *
      * @param credentials the client credentials to use for the API call.
      * @param name        the name of the workstation to retrieve.
      * @return the Workstation object if found, null otherwise.
      */
     public static Workstation getWorkstationByName(ClientCredentials credentials, String name) {
-        Workstation retval = null;
+        return getWorkstationByNameAsync(credentials, name).join();
+    }
+
+
+    /**
+     * Retrieve a workstation by its name without blocking the calling thread.
+     *
+     * @param credentials the client credentials to use for the API call.
+     * @param name        the name of the workstation to retrieve.
+     * @return a future which completes with the Workstation object if found, null otherwise.
+     */
+    public static CompletableFuture<Workstation> getWorkstationByNameAsync(ClientCredentials credentials, String name) {
         SearchCriteria criteria = new SearchCriteria("name", "is", name);
         ListInfo listInfo = new ListInfo();
         listInfo.setSearchCriteria(criteria);
+        listInfo.setFieldsRequired(Workstation.SCHEMA.getProjection().getFieldsRequired());
+
+        return callApiAsync(credentials, "/workstations", listInfo, "workstations").thenApply(response -> {
+            Workstation retval = null;
+            if (response != null && response.isSuccessful() && response.getResultSize() > 0) {
+                retval = new Workstation(response.getFrame(0));
+            }
+            return retval;
+        });
+    }
+
+
+    /**
+     * Retrieve many workstations by name with as few calls as possible.
+     *
+     * <p>Names are combined into OR-ed search criteria, as many at a time as
+     * fit in a request URI and a single page of results, and each query is
+     * paged through until all its matches have been retrieved. Names are
+     * compared without regard to case, as the service does; if more than one
+     * workstation has the same name, the first one returned is used. As with
+     * {@link #getWorkstationByName(ClientCredentials, String)}, only the
+     * fields read by the getters of {@link Workstation} are requested.</p>
+     *
+     * @param credentials the client credentials to use for the API calls.
+     * @param names       the names of the workstations to retrieve.
+     * @return the workstations found, keyed by the name as given, and the names which were not found.
+     */
+    public static WorkstationLookup getWorkstationsByNames(ClientCredentials credentials, Collection<String> names) {
+        return getWorkstationsByNamesAsync(credentials, names).join();
+    }
 
-        ApiResponse response = callApi(credentials, "/workstations", listInfo, "workstations");
 
-        if (response != null && response.isSuccessful() && response.getResultSize() > 0) {
-            retval = new Workstation(response.getFrame(0));
+    /**
+     * Retrieve many workstations by name without blocking the calling thread.
+     *
+     * @param credentials the client credentials to use for the API calls.
+     * @param names       the names of the workstations to retrieve.
+     * @return a future which completes with the workstations found and the names which were not found.
+     * @see #getWorkstationsByNames(ClientCredentials, Collection)
+     */
+    public static CompletableFuture<WorkstationLookup> getWorkstationsByNamesAsync(ClientCredentials credentials, Collection<String> names) {
+        // the names as given, keyed by how the service compares them
+        final Map<String, String> requested = new LinkedHashMap<>();
+        for (String name : names) {
+            if (StringUtil.isNotBlank(name)) requested.putIfAbsent(name.trim().toLowerCase(Locale.ROOT), name.trim());
         }
 
+        final List<DataFrame> results = Collections.synchronizedList(new ArrayList<>());
+        final Map<String, String> failures = new ConcurrentHashMap<>();
+        final List<CompletableFuture<Integer>> queries = new ArrayList<>();
+        for (List<String> chunk : chunkNames(requested.values())) {
+            queries.add(lookupWorkstations(credentials, chunk, nameCriteria(chunk), 1, results, failures));
+        }
+
+        return CompletableFuture.allOf(queries.toArray(new CompletableFuture[0])).thenApply(v -> {
+            WorkstationLookup retval = new WorkstationLookup();
+            for (CompletableFuture<Integer> query : queries) {
+                retval.addCalls(query.join());
+            }
+            synchronized (results) {
+                for (DataFrame frame : results) {
+                    Workstation workstation = new Workstation(frame);
+                    String name = workstation.getName() != null ? requested.get(workstation.getName().toLowerCase(Locale.ROOT)) : null;
+                    if (name != null && retval.get(name) == null) retval.addFound(name, workstation);
+                }
+            }
+            for (String name : requested.values()) {
+                if (retval.get(name) != null) continue;
+                String failure = failures.get(name);
+                if (failure != null) {
+                    retval.addFailed(name, failure);
+                } else {
+                    retval.addNotFound(name);
+                }
+            }
+            return retval;
+        });
+    }
+
+
+    /**
+     * Retrieve a page of workstations matching the criteria and any pages following it.
+     *
+     * <p>If a page cannot be retrieved, the names of the query are recorded
+     * in the failures with the reason; those found on earlier pages are still
+     * reported as found.</p>
+     *
+     * @return a future which completes with the number of calls made
+     */
+    private static CompletableFuture<Integer> lookupWorkstations(ClientCredentials credentials, List<String> names, SearchCriteria criteria, int startIndex, List<DataFrame> results, Map<String, String> failures) {
+        ListInfo listInfo = workstationPage(startIndex).setSearchCriteria(criteria);
+
+        return callApiAsync(credentials, "/workstations", listInfo, "workstations").thenCompose(response -> {
+            if (response == null || !response.isSuccessful()) {
+                String reason = failureReason(response);
+                Log.error("Workstation lookup failed (" + reason + "), the names in the query will be reported as failed");
+                for (String name : names) failures.put(name, reason);
+                return CompletableFuture.completedFuture(1);
+            }
+            results.addAll(response.getResults());
+            if (hasMoreRows(response)) {
+                return lookupWorkstations(credentials, names, criteria, startIndex + MAX_ROWS_PER_PAGE, results, failures).thenApply(calls -> calls + 1);
+            }
+            return CompletableFuture.completedFuture(1);
+        });
+    }
+
+
+    /**
+     * @param startIndex the row to start the page at, counting from 1
+     * @return the list information for a full page of workstations sorted by name, without search criteria
+     */
+    private static ListInfo workstationPage(int startIndex) {
+        return new ListInfo()
+                .setRowCount(MAX_ROWS_PER_PAGE)
+                .setStartIndex(startIndex)
+                .setSortField("name")
+                .setSortOrder(ListInfo.ASCENDING)
+                .setFieldsRequired(Workstation.SCHEMA.getProjection().getFieldsRequired());
+    }
+
+
+    /**
+     * @param response the response to a failed call, null if there was none
+     * @return a short description of why the call failed
+     */
+    static String failureReason(ApiResponse response) {
+        if (response == null) return "No response, the access token could not be retrieved";
+        if (response.isCircuitOpen()) return "Not sent, the circuit breaker for the endpoint is open";
+        if (response.getHttpStatusCode() == 0) return "No response";
+        return "HTTP " + response.getHttpStatusCode();
+    }
+
+
+    /**
+     * @return true if the service reported more rows following those in the response.
+     */
+    private static boolean hasMoreRows(ApiResponse response) {
+        return hasMoreRows(response, MAX_ROWS_PER_PAGE);
+    }
+
+
+    /**
+     * @param response the response to a page of a listing
+     * @param rowCount the number of rows asked for
+     * @return true if the service reported more rows following those in the response, or returned a full page
+     */
+    static boolean hasMoreRows(ApiResponse response, int rowCount) {
+        DataFrame listInfo = response.getListInfoFrame();
+        if (listInfo != null && listInfo.contains("has_more_rows")) {
+            try {
+                return listInfo.getAsBoolean("has_more_rows");
+            } catch (DataFrameException e) {
+                // fall through to checking for a full page
+            }
+        }
+        return response.getResultSize() >= rowCount;
+    }
+
+
+    /**
+     * Split names into groups small enough to be looked up in one call.
+     *
+     * <p>Each group holds no more names than fit on a page of results and
+     * produces a request URI no longer than {@link #MAX_URI_LENGTH}.</p>
+     *
+     * @param names the names to look up
+     * @return the groups of names
+     */
+    static List<List<String>> chunkNames(Collection<String> names) {
+        int baseLength = generateUri("/workstations", workstationPage(1)).toString().length();
+
+        List<List<String>> retval = new ArrayList<>();
+        List<String> chunk = new ArrayList<>();
+        int length = baseLength;
+        for (String name : names) {
+            SearchCriteria criteria = new SearchCriteria("name", SearchCondition.IS.getValue(), name).setLogicalOperator("or");
+            int size = UriUtil.encodeString(criteria.toString()).length() + CRITERIA_OVERHEAD;
+            if (!chunk.isEmpty() && (chunk.size() >= MAX_ROWS_PER_PAGE || length + size > MAX_URI_LENGTH)) {
+                retval.add(chunk);
+                chunk = new ArrayList<>();
+                length = baseLength;
+            }
+            chunk.add(name);
+            length += size;
+        }
+        if (!chunk.isEmpty()) retval.add(chunk);
         return retval;
     }
 
 
+    /**
+     * Build criteria matching any of the given names.
+     */
+    private static SearchCriteria nameCriteria(List<String> names) {
+        SearchCriteria retval = new SearchCriteria("name", SearchCondition.IS.getValue(), names.get(0));
+        for (int i = 1; i < names.size(); i++) {
+            SearchCriteria child = new SearchCriteria("name", SearchCondition.IS.getValue(), names.get(i));
+            child.setLogicalOperator("or");
+            retval.addChild(child);
+        }
+        return retval;
+    }
+
+
+    /**
+     * Get a replica of an endpoint, no older than the given age.
+     *
+     * <p>If the last sync of the replica was longer ago than the given age,
+     * the replica is synced first: with only the records changed since its
+     * watermark if it has one, otherwise with every record of the endpoint.
+     * Records removed from the service are only removed from the replica by
+     * a full sync; see {@link #syncReplica(ClientCredentials, String, String, ReplicaStore, boolean)}.</p>
+     *
+     * @param credentials the client credentials to use for the API calls.
+     * @param endpoint    the endpoint the replica holds the records of, e.g. /assets
+     * @param resultField the field in the responses containing the records, e.g. assets
+     * @param replica     the replica of the endpoint
+     * @param maxAge      how long ago the replica may have been synced
+     * @return the replica, or null if it was too old and could not be synced
+     */
+    public static ReplicaStore getReplica(ClientCredentials credentials, String endpoint, String resultField, ReplicaStore replica, Duration maxAge) {
+        if (replica.isFresh(maxAge)) return replica;
+        return syncReplica(credentials, endpoint, resultField, replica, false) ? replica : null;
+    }
+
+
+    /**
+     * Bring a replica up to date with the service.
+     *
+     * <p>The records are read by key, sorted by id, a page at a time and
+     * without the response cache. A delta sync asks only for the records
+     * whose last_updated_time is at or after the watermark of the replica;
+     * a replica without a watermark gets a full sync, which also removes
+     * the records the service no longer returns. The sync is only committed
+     * if every page was read.</p>
+     *
+     * @param credentials the client credentials to use for the API calls.
+     * @param endpoint    the endpoint the replica holds the records of, e.g. /assets
+     * @param resultField the field in the responses containing the records, e.g. assets
+     * @param replica     the replica of the endpoint
+     * @param full        true to read every record, false to read only those changed since the watermark
+     * @return true if the sync was committed
+     */
+    public static boolean syncReplica(ClientCredentials credentials, String endpoint, String resultField, ReplicaStore replica, boolean full) {
+        String watermark = full ? null : replica.getWatermark();
+        SearchCriteria criteria = watermark != null ? new SearchCriteria(ReplicaStore.WATERMARK_FIELD, SearchCondition.GREATER_OR_EQUAL.getValue(), watermark) : null;
+        ReplicaStore.Sync sync = replica.beginSync(watermark == null);
+        String lastId = null;
+        try {
+            while (true) {
+                ListInfo listInfo = new ListInfo()
+                        .setRowCount(MAX_ROWS_PER_PAGE)
+                        .setSortField("id")
+                        .setSortOrder(ListInfo.ASCENDING);
+                SearchCriteria page = lastId != null ? SearchCriteria.after("id", lastId, criteria) : criteria;
+                if (page != null) listInfo.setSearchCriteria(page);
+
+                ApiResponse response = callApiStreaming(credentials, endpoint, listInfo, resultField, null);
+                if (response == null || !response.isSuccessful()) {
+                    Log.error(String.format("Could not read %s, the replica %s was not synced", endpoint, replica.getDirectory()));
+                    return false;
+                }
+                for (DataFrame record : response.getResults()) sync.put(record);
+                if (response.getResultSize() == 0 || !hasMoreRows(response)) break;
+                lastId = response.getFrame(response.getResultSize() - 1).getAsString("id");
+                if (lastId == null) {
+                    Log.error(String.format("A record of %s has no id, the replica %s was not synced", endpoint, replica.getDirectory()));
+                    return false;
+                }
+            }
+            sync.commit();
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.error(String.format("Could not write the replica %s: %s", replica.getDirectory(), e.getMessage()));
+            return false;
+        }
+    }
+
+
     /**
      * Update the state of a workstation.
      *
@@ -366,26 +1371,55 @@ public class SDP {
      * @return the updated workstation if successful, null otherwise.
      */
     public static Workstation updateWorkstationState(Workstation workstation, String stateName, ClientCredentials credentials) {
-        Workstation retval = null;
-        if (workstation != null && workstation.getId() != null && StringUtil.isNotBlank(stateName)) {
-            DataFrame state = new DataFrame();
-            state.add("name", stateName);
-            DataFrame wsUpdate = new DataFrame();
-            wsUpdate.add("state", state);
-            DataFrame payload = new DataFrame();
-            payload.add("workstation", wsUpdate);
-
-            String body = "input_data=" + UriUtil.encodeString(JSONMarshaler.marshal(payload));
-            ApiResponse response = callApi(credentials, "/workstation/" + workstation.getId(), "PUT", null, body, "workstation");
+        return updateWorkstationStateAsync(workstation, stateName, credentials).join();
+    }
+
 
+    /**
+     * Update the state of a workstation without blocking the calling thread.
+     *
+     * @param workstation the workstation to update.
+     * @param stateName   the name of the state to set (e.g., "Expired").
+     * @param credentials the client credentials to use for the API call.
+     * @return a future which completes with the updated workstation if successful, null otherwise.
+     */
+    public static CompletableFuture<Workstation> updateWorkstationStateAsync(Workstation workstation, String stateName, ClientCredentials credentials) {
+        if (workstation == null || workstation.getId() == null || StringUtil.isBlank(stateName)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return putWorkstationState(workstation.getId(), stateName, credentials).thenApply(response -> {
+            Workstation retval = null;
             if (response != null && response.isSuccessful() && response.getResultSize() > 0) {
                 retval = new Workstation(response.getFrame(0));
             }
-        }
-        return retval;
+            return retval;
+        });
+    }
+
+
+    /**
+     * Send the call which sets the state of a workstation.
+     *
+     * @param id          the identifier of the workstation to update.
+     * @param stateName   the name of the state to set.
+     * @param credentials the client credentials to use for the API call.
+     * @return a future which completes with the response, null if no access token could be retrieved.
+     */
+    static CompletableFuture<ApiResponse> putWorkstationState(String id, String stateName, ClientCredentials credentials) {
+        DataFrame state = new DataFrame();
+        state.add("name", stateName);
+        DataFrame wsUpdate = new DataFrame();
+        wsUpdate.add("state", state);
+        DataFrame payload = new DataFrame();
+        payload.add("workstation", wsUpdate);
+
+        String body = "input_data=" + UriUtil.encodeString(JSONMarshaler.marshal(payload));
+        return callApiAsync(credentials, "/workstation/" + id, "PUT", null, body, "workstation");
     }
 
 
+
     /**
      * Generate a URI from the service url, the endpoint and the provided list information.
      *
@@ -393,7 +1427,7 @@ public class SDP {
      * @param listInfo The list information for the request.
      * @return a URI suitable for the HttpRequest.
      */
-    private static URI generateUri(String endpoint, ListInfo listInfo) {
+    static URI generateUri(String endpoint, ListInfo listInfo) {
         StringBuilder b = new StringBuilder();
         b.append(SDP.getServiceUrl());
         b.append(endpoint);
@@ -12,7 +12,8 @@ public enum SearchCondition {
     LESSER_THAN("lesser than"),
     LESSER_OR_EQUAL("lesser or equal"),
     BETWEEN("between"),
-    NOT_BETWEEN("not between");
+    NOT_BETWEEN("not between"),
+    IS_EMPTY("is_empty");
 
     private final String value;
 
@@ -1,10 +1,12 @@
 package com.sdcote.sdp;
 
+import coyote.commons.dataframe.DataField;
 import coyote.commons.dataframe.DataFrame;
 import coyote.commons.dataframe.marshal.JSONMarshaler;
 import coyote.commons.dataframe.marshal.MarshalException;
 
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  *
@@ -14,7 +16,7 @@ public class SearchCriteria {
     private static final String FIELD_TAG = "field";
     private static final String CONDITION_TAG = "condition";
     private static final String VALUE_TAG = "value";
-    private static final String OPERATOR_TAG = "operator";
+    private static final String OPERATOR_TAG = "logical_operator";
     private static final String CHILDREN_TAG = "children";
     private DataFrame dataFrame = new DataFrame();
 
@@ -97,8 +99,83 @@ public class SearchCriteria {
         }
     }
 
+    /**
+     * Criteria selecting the records which follow a key, for paging by key
+     * rather than by row offset.
+     *
+     * @param field    the unique field the records are sorted by, e.g. id
+     * @param key      the value of that field in the last record read
+     * @param criteria the criteria the records must also meet, may be null
+     * @return new criteria selecting the records after the key which meet the criteria
+     * @see #and(SearchCriteria, SearchCriteria)
+     */
+    public static SearchCriteria after(String field, String key, SearchCriteria criteria) {
+        return and(new SearchCriteria(field, SearchCondition.GREATER_THAN.getValue(), key), criteria);
+    }
+
+    /**
+     * Criteria selecting the records in a range of values of a field.
+     *
+     * @param field    the field, e.g. id or created_time
+     * @param from     the lowest value in the range
+     * @param to       the value just past the range
+     * @param criteria the criteria the records must also meet, may be null
+     * @return new criteria selecting the records with {@code from <= field < to} which meet the criteria
+     */
+    public static SearchCriteria range(String field, String from, String to, SearchCriteria criteria) {
+        SearchCriteria retval = new SearchCriteria(field, SearchCondition.GREATER_OR_EQUAL.getValue(), from);
+        SearchCriteria upper = new SearchCriteria(field, SearchCondition.LESSER_THAN.getValue(), to);
+        upper.setLogicalOperator("and");
+        retval.addChild(upper);
+        return and(retval, criteria);
+    }
+
+    /**
+     * Add other criteria to a condition so both must be met.
+     *
+     * <p>The other criteria are copied and grouped as a single child, so
+     * the result is {@code condition AND (criteria)} however the other
+     * criteria combine their conditions. A list of criteria becomes its
+     * first entry with the rest as children, which the service evaluates
+     * the same way.</p>
+     *
+     * @param condition the condition to add to, which is changed
+     * @param criteria  the criteria which must also be met, may be null
+     * @return the condition, for convenience
+     */
+    public static SearchCriteria and(SearchCriteria condition, SearchCriteria criteria) {
+        if (criteria != null) {
+            DataFrame copy = JSONMarshaler.marshal(criteria.toString()).get(0);
+            SearchCriteria group = null;
+            if (copy.isArray()) {
+                for (DataField entry : copy.getFields()) {
+                    if (!entry.isFrame()) continue;
+                    SearchCriteria element = new SearchCriteria((DataFrame) entry.getObjectValue());
+                    if (group == null) group = element;
+                    else group.addChild(element);
+                }
+            } else {
+                group = new SearchCriteria(copy);
+            }
+            if (group != null) {
+                group.setLogicalOperator("and");
+                condition.addChild(group);
+            }
+        }
+        return condition;
+    }
+
     public DataFrame getDataFrame() { return dataFrame; }
 
+    /**
+     * @return a predicate selecting the records which meet these criteria, as the service would
+     * @throws IllegalArgumentException if a condition is not known or is missing its values
+     * @see CriteriaCompiler
+     */
+    public Predicate<DataFrame> toPredicate() {
+        return CriteriaCompiler.compile(this);
+    }
+
     @Override
     public String toString() {
         return JSONMarshaler.marshal(dataFrame);
@@ -0,0 +1,61 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+
+/**
+ * Models a Site in ServiceDesk Plus.
+ */
+public class Site extends Entity {
+    /** The fields of a site. */
+    public static final EntitySchema SCHEMA = new EntitySchema("site");
+    private static final EntitySchema.Field ID = SCHEMA.string("id");
+    private static final EntitySchema.Field NAME = SCHEMA.string("name");
+    private static final EntitySchema.Field DESCRIPTION = SCHEMA.string("description");
+    private static final EntitySchema.Field DELETED = SCHEMA.bool("deleted");
+    private static final EntitySchema.Field REGION = SCHEMA.object("region");
+    private static final EntitySchema.Field REGION_NAME = SCHEMA.string(REGION, "name");
+
+    public Site() {
+        super(SCHEMA, null);
+    }
+
+    public Site(DataFrame frame) {
+        super(SCHEMA, frame);
+    }
+
+    public Site(String json) {
+        super(SCHEMA, parse(json));
+    }
+
+    public String getId() {
+        return getString(ID);
+    }
+
+    public void setId(String id) {
+        set(ID, id);
+    }
+
+    public String getName() {
+        return getString(NAME);
+    }
+
+    public void setName(String name) {
+        set(NAME, name);
+    }
+
+    public String getDescription() {
+        return getString(DESCRIPTION);
+    }
+
+    public void setDescription(String description) {
+        set(DESCRIPTION, description);
+    }
+
+    public boolean isDeleted() {
+        return getBoolean(DELETED);
+    }
+
+    public String getRegionName() {
+        return getString(REGION_NAME);
+    }
+}
@@ -0,0 +1,82 @@
+package com.sdcote.sdp;
+
+/**
+ * A request to move a workstation to a new state, identified either by its
+ * identifier or by its name.
+ *
+ * @see BulkUpdateEngine
+ */
+public class StateChange {
+    private final String id;
+    private final String name;
+    private final String targetState;
+
+
+    private StateChange(String id, String name, String targetState) {
+        if (targetState == null || targetState.trim().isEmpty()) throw new IllegalArgumentException("Target state is required");
+        this.id = id;
+        this.name = name;
+        this.targetState = targetState.trim();
+    }
+
+
+    /**
+     * @param id          the identifier of the workstation
+     * @param targetState the name of the state to set (e.g., "Expired")
+     * @return a change for the workstation with the given identifier
+     */
+    public static StateChange byId(String id, String targetState) {
+        if (id == null || id.trim().isEmpty()) throw new IllegalArgumentException("Workstation identifier is required");
+        return new StateChange(id.trim(), null, targetState);
+    }
+
+
+    /**
+     * @param name        the name of the workstation
+     * @param targetState the name of the state to set (e.g., "Expired")
+     * @return a change for the workstation with the given name, which is looked up before it is updated
+     */
+    public static StateChange byName(String name, String targetState) {
+        if (name == null || name.trim().isEmpty()) throw new IllegalArgumentException("Workstation name is required");
+        return new StateChange(null, name.trim(), targetState);
+    }
+
+
+    /**
+     * @return the identifier of the workstation, null if it is identified by name
+     */
+    public String getId() {
+        return id;
+    }
+
+
+    /**
+     * @return the name of the workstation, null if it is identified by its identifier
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * @return true if the workstation has to be looked up by name before it can be updated
+     */
+    public boolean isByName() {
+        return id == null;
+    }
+
+
+    /**
+     * @return the name of the state to set
+     */
+    public String getTargetState() {
+        return targetState;
+    }
+
+
+    @Override
+    public String toString() {
+        return (isByName() ? name : "id " + id) + " -> " + targetState;
+    }
+
+}
@@ -0,0 +1,405 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+import coyote.commons.dataframe.marshal.JSONMarshaler;
+import coyote.commons.log.Log;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Parses a ServiceDesk API response body incrementally, passing each record
+ * to a consumer as soon as it has been received.
+ *
+ * <p>Responses have the form:<pre>
+ * {
+ *   "assets": [ {...}, {...}, ... ],
+ *   "response_status": [ {...} ],
+ *   "list_info": { ... }
+ * }</pre>
+ * <p>Rather than reading the entire body into a string and marshaling the
+ * whole tree, this scans the characters as they arrive and only holds the
+ * text of the record currently being received. When a record in the result
+ * field is complete, only that record is marshaled into a DataFrame and
+ * handed to the consumer. The {@code response_status} and
+ * {@code list_info} values are captured the same way; all other top-level
+ * values are skipped.</p>
+ *
+ * <p>This is not a validating parser. It relies on the service returning
+ * well-formed JSON and only tracks enough of the structure to find the
+ * boundaries of the values it is interested in.</p>
+ */
+public class StreamingResponseParser {
+    private static final String RESPONSE_STATUS_FIELD = "response_status";
+    private static final String LISTINFO_FIELD = "list_info";
+
+    private final String resultField;
+    private final Consumer<DataFrame> consumer;
+
+    /** The number of open objects and arrays. */
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+
+    /** At the top level, the next string is the name of a field. */
+    private boolean expectKey = false;
+    private boolean collectingKey = false;
+    private final StringBuilder keyBuffer = new StringBuilder();
+    private String currentKey = null;
+    /** The value of the current top-level field has started. */
+    private boolean valueStarted = false;
+
+    /** The value of the current top-level field is the array of results. */
+    private boolean inResultArray = false;
+    /** The next value in the result array is a new element. */
+    private boolean expectElement = false;
+
+    /** The text of the value currently being captured, null when not capturing. */
+    private StringBuilder capture = null;
+    private int captureDepth = 0;
+    private String captureField = null;
+
+    private DataFrame responseStatus = null;
+    private DataFrame listInfo = null;
+    private int recordCount = 0;
+    private RuntimeException consumerError = null;
+
+
+    /**
+     * @param resultField the name of the field containing the results
+     * @param consumer    called with each record as soon as it is complete
+     */
+    public StreamingResponseParser(String resultField, Consumer<DataFrame> consumer) {
+        this.resultField = resultField;
+        this.consumer = consumer;
+    }
+
+
+    /**
+     * Parse the next portion of the response body.
+     *
+     * @param chars the characters received
+     */
+    public void parse(CharSequence chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            parse(chars.charAt(i));
+        }
+    }
+
+
+    private void parse(char c) {
+        if (inString) {
+            if (capture != null) capture.append(c);
+            if (escaped) {
+                escaped = false;
+                if (collectingKey) keyBuffer.append(c);
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '"') {
+                inString = false;
+                if (collectingKey) {
+                    collectingKey = false;
+                    currentKey = keyBuffer.toString();
+                }
+            } else if (collectingKey) {
+                keyBuffer.append(c);
+            }
+            return;
+        }
+
+        if (Character.isWhitespace(c)) {
+            if (capture != null) capture.append(c);
+            return;
+        }
+
+        if (depth == 1) {
+            if (c == ',') {
+                expectKey = true;
+                endTopLevelValue();
+                return;
+            } else if (c == ':') {
+                expectKey = false;
+                return;
+            } else if (expectKey && c == '"') {
+                inString = true;
+                collectingKey = true;
+                keyBuffer.setLength(0);
+                return;
+            } else if (!valueStarted && c != '}') {
+                startTopLevelValue(c);
+            }
+        } else if (depth == 2 && inResultArray && capture == null) {
+            if (c == ',') {
+                expectElement = true;
+            } else if (expectElement && c != ']') {
+                expectElement = false;
+                if (c == '{') {
+                    startCapture(2, null);
+                } else {
+                    Log.warn(String.format("Malformed response: array of records contained a non-object value starting with '%s'", c));
+                }
+            }
+        }
+
+        if (capture != null) capture.append(c);
+
+        switch (c) {
+            case '"':
+                inString = true;
+                break;
+            case '{':
+            case '[':
+                depth++;
+                if (depth == 1) expectKey = true;
+                if (depth == 2 && inResultArray) expectElement = true;
+                break;
+            case '}':
+            case ']':
+                depth--;
+                if (capture != null && depth == captureDepth) endCapture();
+                if (depth == 1) endResultArray();
+                break;
+            default:
+                break;
+        }
+    }
+
+
+    /**
+     * Decide what to do with the value of a top-level field.
+     */
+    private void startTopLevelValue(char c) {
+        valueStarted = true;
+        if (currentKey == null) return;
+
+        if (currentKey.equals(resultField)) {
+            if (c == '[') {
+                inResultArray = true;
+            } else if (c == '{') {
+                // single results are their own frame
+                startCapture(1, null);
+            }
+        } else if ((currentKey.equals(RESPONSE_STATUS_FIELD) || currentKey.equals(LISTINFO_FIELD)) && (c == '{' || c == '[')) {
+            startCapture(1, currentKey);
+        }
+    }
+
+
+    private void endTopLevelValue() {
+        valueStarted = false;
+        currentKey = null;
+        inResultArray = false;
+    }
+
+
+    private void endResultArray() {
+        if (inResultArray) {
+            inResultArray = false;
+            expectElement = false;
+        }
+    }
+
+
+    private void startCapture(int depth, String field) {
+        capture = new StringBuilder(256);
+        captureDepth = depth;
+        captureField = field;
+    }
+
+
+    /**
+     * A captured value is complete; marshal it and pass it to where it belongs.
+     */
+    private void endCapture() {
+        String text = capture.toString();
+        String field = captureField;
+        capture = null;
+        captureField = null;
+
+        if (field == null) {
+            List<DataFrame> frames = JSONMarshaler.marshal(text);
+            if (frames != null && !frames.isEmpty()) {
+                recordCount++;
+                deliver(frames.get(0));
+            }
+        } else {
+            // wrap the value so it is marshaled exactly as it would be in the full response
+            List<DataFrame> frames = JSONMarshaler.marshal("{\"" + field + "\":" + text + "}");
+            if (frames != null && !frames.isEmpty()) {
+                DataFrame value = (DataFrame) frames.get(0).getObject(field);
+                if (RESPONSE_STATUS_FIELD.equals(field)) responseStatus = value;
+                else listInfo = value;
+            }
+        }
+    }
+
+
+    private void deliver(DataFrame record) {
+        if (consumerError != null) return;
+        try {
+            consumer.accept(record);
+        } catch (RuntimeException e) {
+            // stop delivering, but keep reading so the connection is drained
+            consumerError = e;
+            Log.error("Record consumer failed, remaining records will be skipped", e);
+        }
+    }
+
+
+    /**
+     * @return the response status of the response, null if it has not (yet) been received
+     */
+    public DataFrame getResponseStatus() {
+        return responseStatus;
+    }
+
+
+    /**
+     * @return the list information of the response, null if it has not (yet) been received
+     */
+    public DataFrame getListInfo() {
+        return listInfo;
+    }
+
+
+    /**
+     * @return the number of records passed to the consumer so far
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+
+    /**
+     * @return the exception the consumer threw, null if it has not failed
+     */
+    public RuntimeException getConsumerError() {
+        return consumerError;
+    }
+
+
+    /**
+     * @return a body subscriber which decodes the response body as UTF-8 and feeds it to this parser.
+     */
+    public HttpResponse.BodySubscriber<StreamingResponseParser> bodySubscriber() {
+        return new ByteSubscriber(this);
+    }
+
+
+    /**
+     * Decodes the buffers of the response body as they arrive and passes the
+     * characters to the parser, carrying partial multibyte characters over to
+     * the next buffer.
+     *
+     * <p>If a record cannot be parsed, the subscription is cancelled and the
+     * body completes exceptionally rather than the failure being lost on the
+     * thread of the HTTP client.</p>
+     */
+    private static class ByteSubscriber implements HttpResponse.BodySubscriber<StreamingResponseParser> {
+        private final StreamingResponseParser parser;
+        private final CompletableFuture<StreamingResponseParser> result = new CompletableFuture<>();
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer chars = CharBuffer.allocate(8192);
+        private ByteBuffer leftover = null;
+        private Flow.Subscription subscription;
+
+        ByteSubscriber(StreamingResponseParser parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        public CompletionStage<StreamingResponseParser> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            if (result.isDone()) return;
+            try {
+                for (ByteBuffer buffer : buffers) {
+                    decode(join(buffer), false);
+                }
+            } catch (RuntimeException e) {
+                subscription.cancel();
+                fail(e);
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            fail(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (result.isDone()) return;
+            try {
+                decode(leftover != null ? leftover : ByteBuffer.allocate(0), true);
+                leftover = null;
+                decoder.flush(chars);
+                drain();
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+            result.complete(parser);
+        }
+
+        private void fail(Throwable throwable) {
+            Log.debug("Streaming response failed: " + throwable.getMessage());
+            result.completeExceptionally(throwable);
+        }
+
+        /**
+         * Prepend any bytes left over from the previous buffer.
+         */
+        private ByteBuffer join(ByteBuffer buffer) {
+            if (leftover == null || !leftover.hasRemaining()) return buffer;
+            ByteBuffer joined = ByteBuffer.allocate(leftover.remaining() + buffer.remaining());
+            joined.put(leftover).put(buffer).flip();
+            leftover = null;
+            return joined;
+        }
+
+        private void decode(ByteBuffer bytes, boolean endOfInput) {
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, endOfInput);
+                drain();
+            } while (result.isOverflow());
+
+            if (bytes.hasRemaining()) {
+                // an incomplete character at the end of the buffer
+                leftover = ByteBuffer.allocate(bytes.remaining());
+                leftover.put(bytes).flip();
+            }
+        }
+
+        private void drain() {
+            chars.flip();
+            parser.parse(chars);
+            chars.clear();
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+package com.sdcote.sdp;
+
+import coyote.commons.log.Log;
+
+import java.net.http.HttpHeaders;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket rate limiter.
+ *
+ * <p>Permits are added to the bucket at a steady rate up to the burst
+ * capacity. A caller takes a permit from the bucket if one is available;
+ * otherwise it reserves the next permit to be added and waits for it. Each
+ * reservation is made in the order callers arrive, so waiting callers are
+ * admitted first-in, first-out, and no lock is held while they wait.</p>
+ *
+ * <p>The bucket is implemented as a generic cell rate algorithm, which only
+ * needs to track a single timestamp rather than a count of stored permits.</p>
+ *
+ * <p>The limiter also adapts to feedback from the service. An HTTP 429
+ * response (or a rate limit header reporting no remaining calls) empties the
+ * bucket, pauses all callers until the time given in {@code Retry-After} (or
+ * the rate limit reset header) and halves the effective rate. Each
+ * successful response then restores a little of the configured rate until it
+ * is fully recovered.</p>
+ */
+public class TokenBucketRateLimiter implements RateLimiter {
+
+    /** The header containing the number of seconds (or the date) after which to retry. */
+    static final String RETRY_AFTER_HEADER = "Retry-After";
+    /** The header containing the number of calls remaining in the current window. */
+    static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+    /** The header containing when the current rate limit window resets. */
+    static final String RESET_HEADER = "X-RateLimit-Reset";
+
+    /** The pause applied after a 429 response which did not say how long to wait. */
+    private static final long DEFAULT_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /** The fraction of the configured rate restored with each successful response. */
+    private static final double RECOVERY_STEP = 0.05;
+
+    /** The lowest fraction of the configured rate feedback can reduce the limiter to. */
+    private static final double MINIMUM_FRACTION = 0.1;
+
+    private final double configuredRate;
+    private final int burst;
+
+    /** The current rate in permits per second, lowered by feedback from the service. */
+    private double rate;
+    /** The time (System.nanoTime) the next call would be made if all calls were evenly spaced. */
+    private long theoreticalArrivalNanos;
+
+
+    /**
+     * Create a limiter allowing the given number of calls per minute.
+     *
+     * @param callsPerMinute the sustained number of calls allowed each minute.
+     * @param burst          the number of calls which may be made back-to-back after a quiet period (minimum of 1).
+     */
+    public TokenBucketRateLimiter(double callsPerMinute, int burst) {
+        if (callsPerMinute <= 0) throw new IllegalArgumentException("Rate must be greater than zero");
+        this.configuredRate = callsPerMinute / 60.0;
+        this.rate = configuredRate;
+        this.burst = Math.max(1, burst);
+        this.theoreticalArrivalNanos = System.nanoTime();
+    }
+
+
+    /**
+     * @return the configured number of calls allowed per minute.
+     */
+    public double getCallsPerMinute() {
+        return configuredRate * 60.0;
+    }
+
+
+    /**
+     * @return the number of calls currently allowed per minute, which may be lower than the configured rate after the service signalled it was being called too often.
+     */
+    public synchronized double getEffectiveCallsPerMinute() {
+        return rate * 60.0;
+    }
+
+
+    /**
+     * @return the maximum number of calls which may be made back-to-back.
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+
+    @Override
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+
+    @Override
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        long arrival = Math.max(theoreticalArrivalNanos, now);
+        if (arrival - toleranceNanos() <= now) {
+            theoreticalArrivalNanos = arrival + intervalNanos();
+            return true;
+        }
+        return false;
+    }
+
+
+    @Override
+    public CompletableFuture<Void> acquireAsync() {
+        long waitNanos = reserve();
+        if (waitNanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+        }, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+    }
+
+
+    /**
+     * Reserve the next permit.
+     *
+     * <p>This tracks the theoretical arrival time of the next call as if all
+     * calls were evenly spaced. A call may go ahead as long as it is no more
+     * than the burst allowance ahead of that schedule; otherwise it waits
+     * until it is.</p>
+     *
+     * @return the number of nanoseconds the caller must wait before using its permit.
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        long arrival = Math.max(theoreticalArrivalNanos, now);
+        theoreticalArrivalNanos = arrival + intervalNanos();
+        return Math.max(0, arrival - toleranceNanos() - now);
+    }
+
+
+    /**
+     * @return the number of nanoseconds between permits at the current rate.
+     */
+    private long intervalNanos() {
+        return (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+
+    /**
+     * @return how far ahead of the even schedule a burst of calls may run.
+     */
+    private long toleranceNanos() {
+        return (burst - 1) * intervalNanos();
+    }
+
+
+    @Override
+    public void onResponse(int status, HttpHeaders headers) {
+        try {
+            if (status == 429) {
+                long pause = retryAfterNanos(headers);
+                penalize(pause > 0 ? pause : DEFAULT_PENALTY_NANOS);
+            } else if (headers != null && headers.firstValueAsLong(REMAINING_HEADER).orElse(1) <= 0) {
+                long pause = resetNanos(headers);
+                if (pause > 0) pause(pause);
+            } else if (status >= 200 && status < 300) {
+                recover();
+            }
+        } catch (NumberFormatException e) {
+            Log.debug("Could not parse rate limit headers: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Slow down after the service told us we are calling it too often.
+     */
+    private synchronized void penalize(long pauseNanos) {
+        rate = Math.max(configuredRate * MINIMUM_FRACTION, rate / 2.0);
+        Log.warn(String.format("API rate limit exceeded, pausing %d ms and reducing rate to %.2f calls per minute", TimeUnit.NANOSECONDS.toMillis(pauseNanos), rate * 60.0));
+        pause(pauseNanos);
+    }
+
+
+    /**
+     * Hold all callers until the given number of nanoseconds from now.
+     */
+    private synchronized void pause(long pauseNanos) {
+        theoreticalArrivalNanos = Math.max(theoreticalArrivalNanos, System.nanoTime() + pauseNanos + toleranceNanos());
+    }
+
+
+    /**
+     * Restore some of the configured rate after a successful call.
+     */
+    private synchronized void recover() {
+        if (rate < configuredRate) {
+            rate = Math.min(configuredRate, rate + configuredRate * RECOVERY_STEP);
+        }
+    }
+
+
+    /**
+     * Determine how long the service asked us to wait before retrying.
+     *
+     * @param headers the response headers, may be null
+     * @return the number of nanoseconds to wait, 0 if the service did not say
+     */
+    static long retryAfterNanos(HttpHeaders headers) {
+        if (headers == null) return 0;
+        Optional<String> value = headers.firstValue(RETRY_AFTER_HEADER);
+        if (value.isEmpty()) return 0;
+
+        String retryAfter = value.get().trim();
+        try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(retryAfter)));
+        } catch (NumberFormatException e) {
+            // not a number of seconds, try an HTTP date
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(retryAfter, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis()));
+        } catch (DateTimeParseException e) {
+            Log.debug("Could not parse " + RETRY_AFTER_HEADER + " header: " + retryAfter);
+        }
+        return 0;
+    }
+
+
+    /**
+     * Determine how long until the rate limit window resets.
+     *
+     * <p>The reset header is treated as epoch seconds if it is large enough to
+     * be a timestamp, otherwise as the number of seconds from now.</p>
+     */
+    private static long resetNanos(HttpHeaders headers) {
+        long reset = headers.firstValueAsLong(RESET_HEADER).orElse(0);
+        if (reset <= 0) return 0;
+        if (reset > 1_000_000_000L) {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, reset * 1000 - System.currentTimeMillis()));
+        }
+        return TimeUnit.SECONDS.toNanos(reset);
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.sdcote.sdp;
+
+import java.time.Instant;
+
+/**
+ * Keeps access tokens between runs so a new process can use a token
+ * retrieved by an earlier one instead of calling the token service.
+ *
+ * <p>Implementations must be safe to use from several threads and, if the
+ * storage is shared, from several processes.</p>
+ *
+ * @see EncryptedFileTokenStore
+ * @see OAuthAccessTokenTracker#setTokenStore(TokenStore)
+ */
+public interface TokenStore {
+
+    /**
+     * Retrieve the token last saved for a client.
+     *
+     * @param clientId the identifier of the client
+     * @return the stored token, or null if there is none or it could not be read
+     */
+    StoredToken load(String clientId);
+
+
+    /**
+     * Save the token of a client, replacing any token saved for it earlier.
+     *
+     * @param clientId the identifier of the client
+     * @param token    the token to save
+     */
+    void save(String clientId, StoredToken token);
+
+
+    /**
+     * An access token as it is kept in a store.
+     */
+    final class StoredToken {
+        private final String accessToken;
+        private final Instant expirationTime;
+        private final String refreshToken;
+        private final String origin;
+
+        /**
+         * @param accessToken    the access token
+         * @param expirationTime when the access token expires
+         * @param refreshToken   the refresh token to use next, which may have been rotated by the token service
+         * @param origin         a fingerprint of the credentials the token was retrieved with
+         */
+        public StoredToken(String accessToken, Instant expirationTime, String refreshToken, String origin) {
+            this.accessToken = accessToken;
+            this.expirationTime = expirationTime;
+            this.refreshToken = refreshToken;
+            this.origin = origin;
+        }
+
+        public String getAccessToken() {
+            return accessToken;
+        }
+
+        public Instant getExpirationTime() {
+            return expirationTime;
+        }
+
+        public String getRefreshToken() {
+            return refreshToken;
+        }
+
+        /**
+         * @return a fingerprint of the credentials the token was retrieved with, so a token is not used after the credentials change
+         */
+        public String getOrigin() {
+            return origin;
+        }
+    }
+
+}
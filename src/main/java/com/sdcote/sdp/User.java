@@ -1,121 +1,104 @@
 package com.sdcote.sdp;
 
 import coyote.commons.dataframe.DataFrame;
-import coyote.commons.dataframe.marshal.JSONMarshaler;
-import java.util.List;
 
 /**
  * Models a User in ServiceDesk Plus.
  */
-public class User {
-    private DataFrame dataFrame;
+public class User extends Entity {
+    /** The fields of a user. */
+    public static final EntitySchema SCHEMA = new EntitySchema("user");
+    private static final EntitySchema.Field ID = SCHEMA.string("id");
+    private static final EntitySchema.Field NAME = SCHEMA.string("name");
+    private static final EntitySchema.Field FIRST_NAME = SCHEMA.string("first_name");
+    private static final EntitySchema.Field LAST_NAME = SCHEMA.string("last_name");
+    private static final EntitySchema.Field EMAIL_ID = SCHEMA.string("email_id");
+    private static final EntitySchema.Field IS_TECHNICIAN = SCHEMA.bool("is_technician");
+    private static final EntitySchema.Field EMPLOYEE_ID = SCHEMA.string("employee_id");
+    private static final EntitySchema.Field JOB_TITLE = SCHEMA.string("job_title");
+    private static final EntitySchema.Field USER_SCOPE = SCHEMA.string("user_scope");
 
     public User() {
-        this.dataFrame = new DataFrame();
+        super(SCHEMA, null);
     }
 
     public User(DataFrame frame) {
-        this.dataFrame = frame != null ? frame : new DataFrame();
+        super(SCHEMA, frame);
     }
 
     public User(String json) {
-        if (json != null) {
-            try {
-                List<DataFrame> frames = JSONMarshaler.marshal(json);
-                if (!frames.isEmpty()) {
-                    this.dataFrame = frames.get(0);
-                }
-            } catch (Exception e) {
-                this.dataFrame = new DataFrame();
-            }
-        }
-        if (this.dataFrame == null) {
-            this.dataFrame = new DataFrame();
-        }
+        super(SCHEMA, parse(json));
     }
 
     public String getId() {
-        return dataFrame.getAsString("id");
+        return getString(ID);
     }
 
     public void setId(String id) {
-        dataFrame.put("id", id);
+        set(ID, id);
     }
 
     public String getName() {
-        return dataFrame.getAsString("name");
+        return getString(NAME);
     }
 
     public void setName(String name) {
-        dataFrame.put("name", name);
+        set(NAME, name);
     }
 
     public String getFirstName() {
-        return dataFrame.getAsString("first_name");
+        return getString(FIRST_NAME);
     }
 
     public void setFirstName(String firstName) {
-        dataFrame.put("first_name", firstName);
+        set(FIRST_NAME, firstName);
     }
 
     public String getLastName() {
-        return dataFrame.getAsString("last_name");
+        return getString(LAST_NAME);
     }
 
     public void setLastName(String lastName) {
-        dataFrame.put("last_name", lastName);
+        set(LAST_NAME, lastName);
     }
 
     public String getEmailId() {
-        return dataFrame.getAsString("email_id");
+        return getString(EMAIL_ID);
     }
 
     public void setEmailId(String emailId) {
-        dataFrame.put("email_id", emailId);
+        set(EMAIL_ID, emailId);
     }
 
     public boolean isTechnician() {
-        try {
-            return dataFrame.getAsBoolean("is_technician");
-        } catch (Exception e) {
-            return false;
-        }
+        return getBoolean(IS_TECHNICIAN);
     }
 
     public void setTechnician(boolean isTechnician) {
-        dataFrame.put("is_technician", isTechnician);
+        set(IS_TECHNICIAN, isTechnician);
     }
 
     public String getEmployeeId() {
-        return dataFrame.getAsString("employee_id");
+        return getString(EMPLOYEE_ID);
     }
 
     public void setEmployeeId(String employeeId) {
-        dataFrame.put("employee_id", employeeId);
+        set(EMPLOYEE_ID, employeeId);
     }
 
     public String getJobTitle() {
-        return dataFrame.getAsString("job_title");
+        return getString(JOB_TITLE);
     }
 
     public void setJobTitle(String jobTitle) {
-        dataFrame.put("job_title", jobTitle);
+        set(JOB_TITLE, jobTitle);
     }
 
     public String getUserScope() {
-        return dataFrame.getAsString("user_scope");
+        return getString(USER_SCOPE);
     }
 
     public void setUserScope(String userScope) {
-        dataFrame.put("user_scope", userScope);
-    }
-
-    public DataFrame getDataFrame() {
-        return dataFrame;
-    }
-
-    @Override
-    public String toString() {
-        return JSONMarshaler.marshal(dataFrame);
+        set(USER_SCOPE, userScope);
     }
 }
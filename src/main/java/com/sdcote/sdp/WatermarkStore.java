@@ -0,0 +1,166 @@
+package com.sdcote.sdp;
+
+import coyote.commons.log.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the high-water marks of incremental reads in a local file.
+ *
+ * <p>A watermark is the highest value of a field, such as the
+ * {@code last_updated_time} of the records, seen by the last successful
+ * read of a query. The next read only asks for records at or above it.
+ * Each query is kept under its own key, made from the endpoint, the field,
+ * the configured criteria and any other limit on the records read, so
+ * changing them starts a full read again.</p>
+ *
+ * <p>The file is shared the same way as the {@link EncryptedFileTokenStore}:
+ * reads take a shared lock and writes an exclusive lock on a companion
+ * {@code .lock} file, each write merges into what is in the file at that
+ * moment and replaces the file atomically. Watermarks are not secret, so
+ * the file is plain text.</p>
+ */
+public class WatermarkStore {
+
+    /** The default name of the watermark file. */
+    public static final String DEFAULT_FILENAME = "sdp.watermarks";
+
+    /** File locks are held by the process, so threads using the same file must also exclude each other. */
+    private static final Map<Path, Object> MONITORS = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final Path lockFile;
+    private final Object monitor;
+
+
+    /**
+     * @param file the file in which to keep the watermarks
+     */
+    public WatermarkStore(Path file) {
+        this.file = file.toAbsolutePath().normalize();
+        this.lockFile = this.file.resolveSibling(this.file.getFileName() + ".lock");
+        this.monitor = MONITORS.computeIfAbsent(this.file, k -> new Object());
+    }
+
+
+    /**
+     * @param endpoint the endpoint being read, e.g. /assets
+     * @param field    the field the watermark is taken from, e.g. last_updated_time
+     * @param criteria the criteria of the query, null for all records
+     * @return the key of the watermark of the query
+     */
+    public static String key(String endpoint, String field, SearchCriteria criteria) {
+        return endpoint + " " + field + (criteria != null ? " " + criteria : "");
+    }
+
+
+    /**
+     * @param endpoint the endpoint being read, e.g. /assets
+     * @param field    the field the watermark is taken from, e.g. last_updated_time
+     * @param criteria the criteria of the query, null for all records
+     * @param scope    how else the records read are limited, e.g. to some values of a field; null if they are not
+     * @return the key of the watermark of the query
+     */
+    public static String key(String endpoint, String field, SearchCriteria criteria, String scope) {
+        return key(endpoint, field, criteria) + (scope != null ? " " + scope : "");
+    }
+
+
+    /**
+     * @return the file in which the watermarks are kept
+     */
+    public Path getFile() {
+        return file;
+    }
+
+
+    /**
+     * @param key the key of the query
+     * @return the watermark of the query, null if it has not been read successfully before
+     */
+    public String load(String key) {
+        synchronized (monitor) {
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock(0, Long.MAX_VALUE, true)) {
+                return read().getProperty(key);
+            } catch (IOException e) {
+                Log.warn("Could not read the watermark store " + file + ": " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+
+    /**
+     * Record the watermark of a query.
+     *
+     * @param key       the key of the query
+     * @param watermark the highest value read, null to forget the watermark so the next read is a full read
+     * @return true if the watermark was written
+     */
+    public boolean save(String key, String watermark) {
+        synchronized (monitor) {
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                Properties watermarks = read();
+                if (watermark != null) watermarks.setProperty(key, watermark);
+                else watermarks.remove(key);
+                write(watermarks);
+                return true;
+            } catch (IOException e) {
+                Log.error("Could not write the watermark store " + file + ": " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+
+    /**
+     * Read the file. Must be called while holding the file lock.
+     *
+     * @return the watermarks in the file, empty if there is no file
+     */
+    private Properties read() throws IOException {
+        Properties retval = new Properties();
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                retval.load(reader);
+            }
+        }
+        return retval;
+    }
+
+
+    /**
+     * Atomically replace the file. Must be called while holding the exclusive file lock.
+     */
+    private void write(Properties watermarks) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                watermarks.store(writer, "Watermarks of incremental ServiceDesk Plus reads");
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+}
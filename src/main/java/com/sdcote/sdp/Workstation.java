@@ -1,153 +1,118 @@
 package com.sdcote.sdp;
 
 import coyote.commons.dataframe.DataFrame;
-import coyote.commons.dataframe.marshal.JSONMarshaler;
-import java.util.List;
 
 /**
  * Models a Workstation in ServiceDesk Plus.
  */
-public class Workstation {
-    private DataFrame dataFrame;
+public class Workstation extends Entity {
+    /** The fields of a workstation. */
+    public static final EntitySchema SCHEMA = new EntitySchema("workstation");
+    private static final EntitySchema.Field ID = SCHEMA.string("id");
+    private static final EntitySchema.Field NAME = SCHEMA.string("name");
+    private static final EntitySchema.Field BARCODE = SCHEMA.string("barcode");
+    private static final EntitySchema.Field LAST_LOGGED_USER = SCHEMA.string("last_logged_user");
+    private static final EntitySchema.Field IS_SERVER = SCHEMA.bool("is_server");
+    private static final EntitySchema.Field LAST_UPDATED_BY = SCHEMA.entity("last_updated_by", User::new);
+    private static final EntitySchema.Field CREATED_BY = SCHEMA.entity("created_by", User::new);
+    private static final EntitySchema.Field COMPUTER_SYSTEM = SCHEMA.object("computer_system");
+    private static final EntitySchema.Field SERVICE_TAG = SCHEMA.string(COMPUTER_SYSTEM, "service_tag");
+    private static final EntitySchema.Field MODEL = SCHEMA.string(COMPUTER_SYSTEM, "model");
+    private static final EntitySchema.Field ASSET_TAG = SCHEMA.string("asset_tag");
+    private static final EntitySchema.Field STATE = SCHEMA.object("state");
+    private static final EntitySchema.Field STATE_NAME = SCHEMA.string(STATE, "name");
 
     public Workstation() {
-        this.dataFrame = new DataFrame();
+        super(SCHEMA, null);
     }
 
     public Workstation(DataFrame frame) {
-        this.dataFrame = frame != null ? frame : new DataFrame();
+        super(SCHEMA, frame);
     }
 
     public Workstation(String json) {
-        if (json != null) {
-            try {
-                List<DataFrame> frames = JSONMarshaler.marshal(json);
-                if (!frames.isEmpty()) {
-                    this.dataFrame = frames.get(0);
-                }
-            } catch (Exception e) {
-                this.dataFrame = new DataFrame();
-            }
-        }
-        if (this.dataFrame == null) {
-            this.dataFrame = new DataFrame();
-        }
+        super(SCHEMA, parse(json));
     }
 
     public String getId() {
-        return dataFrame.getAsString("id");
+        return getString(ID);
     }
 
     public void setId(String id) {
-        dataFrame.put("id", id);
+        set(ID, id);
     }
 
     public String getName() {
-        return dataFrame.getAsString("name");
+        return getString(NAME);
     }
 
     public void setName(String name) {
-        dataFrame.put("name", name);
+        set(NAME, name);
     }
 
     public String getBarcode() {
-        return dataFrame.getAsString("barcode");
+        return getString(BARCODE);
     }
 
     public void setBarcode(String barcode) {
-        dataFrame.put("barcode", barcode);
+        set(BARCODE, barcode);
     }
 
     public String getLastLoggedUser() {
-        return dataFrame.getAsString("last_logged_user");
+        return getString(LAST_LOGGED_USER);
     }
 
     public void setLastLoggedUser(String user) {
-        dataFrame.put("last_logged_user", user);
+        set(LAST_LOGGED_USER, user);
     }
 
     public boolean isServer() {
-        try {
-            return dataFrame.getAsBoolean("is_server");
-        } catch (Exception e) {
-            return false;
-        }
+        return getBoolean(IS_SERVER);
     }
 
     public void setServer(boolean isServer) {
-        dataFrame.put("is_server", isServer);
+        set(IS_SERVER, isServer);
     }
 
+    /**
+     * @return the user who last updated the workstation, the same view each time, or null if not known
+     */
     public User getLastUpdatedBy() {
-        Object obj = dataFrame.getObject("last_updated_by");
-        if (obj instanceof DataFrame) {
-            return new User((DataFrame) obj);
-        }
-        return null;
+        return getEntity(LAST_UPDATED_BY);
     }
 
     public void setLastUpdatedBy(User user) {
-        if (user != null) {
-            dataFrame.put("last_updated_by", user.getDataFrame());
-        } else {
-            dataFrame.remove("last_updated_by");
-        }
+        setEntity(LAST_UPDATED_BY, user);
     }
 
+    /**
+     * @return the user who created the workstation, the same view each time, or null if not known
+     */
     public User getCreatedBy() {
-        Object obj = dataFrame.getObject("created_by");
-        if (obj instanceof DataFrame) {
-            return new User((DataFrame) obj);
-        }
-        return null;
+        return getEntity(CREATED_BY);
     }
 
     public void setCreatedBy(User user) {
-        if (user != null) {
-            dataFrame.put("created_by", user.getDataFrame());
-        } else {
-            dataFrame.remove("created_by");
-        }
+        setEntity(CREATED_BY, user);
     }
 
     public String getServiceTag() {
-        Object cs = dataFrame.getObject("computer_system");
-        if (cs instanceof DataFrame) {
-            return ((DataFrame) cs).getAsString("service_tag");
-        }
-        return null;
+        return getString(SERVICE_TAG);
     }
 
     public String getModel() {
-        Object cs = dataFrame.getObject("computer_system");
-        if (cs instanceof DataFrame) {
-            return ((DataFrame) cs).getAsString("model");
-        }
-        return null;
+        return getString(MODEL);
     }
 
     public String getAssetTag() {
-        return dataFrame.getAsString("asset_tag");
+        return getString(ASSET_TAG);
     }
 
     public void setAssetTag(String assetTag) {
-        dataFrame.put("asset_tag", assetTag);
-    }
-
-    public DataFrame getDataFrame() {
-        return dataFrame;
-    }
-
-    @Override
-    public String toString() {
-        return JSONMarshaler.marshal(dataFrame);
+        set(ASSET_TAG, assetTag);
     }
 
     public String getStateName() {
-        Object obj = dataFrame.getObject("state");
-        if (obj instanceof DataFrame) {
-            return ((DataFrame) obj).getAsString("name");
-        }
-        return null;
+        return getString(STATE_NAME);
     }
 }
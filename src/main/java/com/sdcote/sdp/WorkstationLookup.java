@@ -0,0 +1,90 @@
+package com.sdcote.sdp;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of looking up many workstations by name at once.
+ *
+ * @see SDP#getWorkstationsByNames(ClientCredentials, java.util.Collection)
+ */
+public class WorkstationLookup {
+    private final Map<String, Workstation> found = new LinkedHashMap<>();
+    private final Set<String> notFound = new LinkedHashSet<>();
+    private final Map<String, String> failed = new LinkedHashMap<>();
+    private int calls = 0;
+
+
+    void addFound(String name, Workstation workstation) {
+        found.put(name, workstation);
+    }
+
+
+    void addNotFound(String name) {
+        notFound.add(name);
+    }
+
+
+    void addFailed(String name, String reason) {
+        failed.put(name, reason);
+    }
+
+
+    void addCalls(int count) {
+        calls += count;
+    }
+
+
+    /**
+     * @return the workstations which were found, keyed by the name as it was requested.
+     */
+    public Map<String, Workstation> getFound() {
+        return Collections.unmodifiableMap(found);
+    }
+
+
+    /**
+     * @return the requested names for which the service reported no workstation.
+     */
+    public Set<String> getNotFound() {
+        return Collections.unmodifiableSet(notFound);
+    }
+
+
+    /**
+     * @return the requested names which could not be looked up because a query failed; whether they exist is not known.
+     */
+    public Set<String> getFailed() {
+        return Collections.unmodifiableSet(failed.keySet());
+    }
+
+
+    /**
+     * @param name the name of the workstation
+     * @return why the name could not be looked up, null if its lookup did not fail
+     */
+    public String getFailure(String name) {
+        return failed.get(name);
+    }
+
+
+    /**
+     * @param name the name of the workstation
+     * @return the workstation with that name, null if it was not found
+     */
+    public Workstation get(String name) {
+        return found.get(name);
+    }
+
+
+    /**
+     * @return the number of API calls made to perform the lookup
+     */
+    public int getCalls() {
+        return calls;
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.sdcote.sdp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * The fields common to all the events recorded for ServiceDesk API calls.
+ *
+ * <p>Events are created, begun and ended around each phase but only
+ * populated and committed when {@link #shouldCommit()} is true, so they cost
+ * next to nothing when no recording is running.</p>
+ */
+@Category({"ServiceDesk", "API"})
+public abstract class ApiEvent extends Event {
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Method")
+    String method;
+
+    @Label("Status")
+    int status;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Records")
+    int records;
+
+
+    /**
+     * @param endpoint the endpoint of the call (e.g. {@code /workstation/1234})
+     * @param method   the HTTP method of the call
+     */
+    public void setCall(String endpoint, String method) {
+        this.endpoint = endpoint;
+        this.method = method;
+    }
+
+
+    /**
+     * @param status the HTTP status of the response, 0 if there was no response
+     */
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+
+    /**
+     * @param bytes the size of the data handled in the phase
+     */
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+
+    /**
+     * @param records the number of records handled in the phase
+     */
+    public void setRecords(int records) {
+        this.records = records;
+    }
+
+}
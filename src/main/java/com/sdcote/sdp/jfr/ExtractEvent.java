@@ -0,0 +1,14 @@
+package com.sdcote.sdp.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Taking the records out of a parsed API response.
+ */
+@Name("com.sdcote.sdp.Extract")
+@Label("Result Extraction")
+@Description("Taking the records out of a parsed API response.")
+public class ExtractEvent extends ApiEvent {
+}
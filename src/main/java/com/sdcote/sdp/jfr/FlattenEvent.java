@@ -0,0 +1,27 @@
+package com.sdcote.sdp.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A reader flattening the records of a page into single-level frames.
+ */
+@Name("com.sdcote.sdp.Flatten")
+@Label("Flatten")
+@Description("A reader flattening the records of a page into single-level frames.")
+public class FlattenEvent extends ApiEvent {
+
+    @Label("Generic")
+    @Description("The number of records whose shape had no compiled plan")
+    int generic;
+
+
+    /**
+     * @param generic the number of records flattened by the generic path rather than a compiled plan
+     */
+    public void setGeneric(int generic) {
+        this.generic = generic;
+    }
+
+}
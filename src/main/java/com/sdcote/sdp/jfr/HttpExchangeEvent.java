@@ -0,0 +1,28 @@
+package com.sdcote.sdp.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Sending one attempt of an API call and receiving its response.
+ */
+@Name("com.sdcote.sdp.HttpExchange")
+@Label("HTTP Exchange")
+@Description("Sending one attempt of an API call and receiving its response.")
+@StackTrace(false)
+public class HttpExchangeEvent extends ApiEvent {
+
+    @Label("Attempt")
+    int attempt;
+
+
+    /**
+     * @param attempt the number of the attempt, starting at 1
+     */
+    public void setAttempt(int attempt) {
+        this.attempt = attempt;
+    }
+
+}
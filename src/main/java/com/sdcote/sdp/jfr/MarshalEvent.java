@@ -0,0 +1,14 @@
+package com.sdcote.sdp.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Parsing the JSON body of an API response into data frames.
+ */
+@Name("com.sdcote.sdp.Marshal")
+@Label("JSON Marshaling")
+@Description("Parsing the JSON body of an API response into data frames.")
+public class MarshalEvent extends ApiEvent {
+}
@@ -0,0 +1,38 @@
+package com.sdcote.sdp.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A reader loading the next page of records.
+ */
+@Name("com.sdcote.sdp.ReaderPage")
+@Label("Reader Page")
+@Description("A reader loading the next page of records.")
+public class ReaderPageEvent extends ApiEvent {
+
+    @Label("Start Index")
+    int startIndex;
+
+    @Label("Prefetched")
+    @Description("The page was requested ahead of time")
+    boolean prefetched;
+
+
+    /**
+     * @param startIndex the index of the first row of the page, counted from 1
+     */
+    public void setStartIndex(int startIndex) {
+        this.startIndex = startIndex;
+    }
+
+
+    /**
+     * @param prefetched true if the page was requested ahead of time
+     */
+    public void setPrefetched(boolean prefetched) {
+        this.prefetched = prefetched;
+    }
+
+}
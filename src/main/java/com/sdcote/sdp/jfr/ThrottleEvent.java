@@ -0,0 +1,28 @@
+package com.sdcote.sdp.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Waiting for the rate limiter to allow an API call.
+ */
+@Name("com.sdcote.sdp.Throttle")
+@Label("Throttle Wait")
+@Description("Waiting for the rate limiter to allow an API call.")
+@StackTrace(false)
+public class ThrottleEvent extends ApiEvent {
+
+    @Label("Attempt")
+    int attempt;
+
+
+    /**
+     * @param attempt the number of the attempt being sent, starting at 1
+     */
+    public void setAttempt(int attempt) {
+        this.attempt = attempt;
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.sdcote.sdp.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Retrieving the access token for an API call, from memory or by refreshing it.
+ */
+@Name("com.sdcote.sdp.TokenAcquisition")
+@Label("Token Acquisition")
+@Description("Retrieving the access token for an API call, from memory or by refreshing it.")
+@StackTrace(false)
+public class TokenAcquisitionEvent extends ApiEvent {
+
+    @Label("Client")
+    String client;
+
+    @Label("Cached")
+    @Description("The token was answered from memory without waiting for a refresh")
+    boolean cached;
+
+
+    /**
+     * @param client the identifier of the client
+     */
+    public void setClient(String client) {
+        this.client = client;
+    }
+
+
+    /**
+     * @param cached true if the token was answered from memory
+     */
+    public void setCached(boolean cached) {
+        this.cached = cached;
+    }
+
+}
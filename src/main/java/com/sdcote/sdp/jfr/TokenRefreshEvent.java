@@ -0,0 +1,28 @@
+package com.sdcote.sdp.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Refreshing an access token with the OAuth token service.
+ */
+@Name("com.sdcote.sdp.TokenRefresh")
+@Label("Token Refresh")
+@Description("Refreshing an access token with the OAuth token service.")
+@StackTrace(false)
+public class TokenRefreshEvent extends ApiEvent {
+
+    @Label("Client")
+    String client;
+
+
+    /**
+     * @param client the identifier of the client
+     */
+    public void setClient(String client) {
+        this.client = client;
+    }
+
+}
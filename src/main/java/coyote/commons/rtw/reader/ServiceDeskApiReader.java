@@ -1,7 +1,8 @@
 package coyote.commons.rtw.reader;
 
 import com.sdcote.sdp.*;
-import coyote.commons.DataFrameUtil;
+import com.sdcote.sdp.jfr.FlattenEvent;
+import com.sdcote.sdp.jfr.ReaderPageEvent;
 import coyote.commons.StringUtil;
 import coyote.commons.dataframe.DataField;
 import coyote.commons.dataframe.DataFrame;
@@ -13,8 +14,14 @@ import coyote.commons.rtw.context.TransformContext;
 import coyote.commons.template.Template;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Reads assets from ServiceDesk Plus.
@@ -27,14 +34,77 @@ import java.util.List;
  * <li>clientId - The OAuth client identifier to connect with the API.</li>
  * <li>clientSecret - The OAuth client secret to connect with the API.</li>
  * <li>clientToken - The OAuth refresh token to obtain access tokens for the client.</li>
+ * <li>credentials - several clients to spread the calls over, each with its own clientId, clientSecret and clientToken.</li>
  * <li>endpoint - The endpoint to add to the URL (e.g., /asset, /request, /cmdb, etc.)</li>
  * <li>resultField - The name of the results field (e.g., asset)</li>
  * <li>batch - how many records to read at a time.</li>
  * <li>flatten - determines if nested dataframes should be flattened to a single dataframe with dotted-name notation. (default=false)</li>
  * <li>limit - the maximum amount to read...useful during development.</li>
+ * <li>prefetch - the number of pages to retrieve in the background while the current page is processed. (default=0)</li>
+ * <li>stream - parse each response as it arrives instead of reading the entire body first. (default=false)</li>
+ * <li>seek - page by key, the unique numeric field to sort by or true for "id". (default=page by offset)</li>
+ * <li>delta - read only the records changed since the last successful run, by the given field or true for "last_updated_time". (default=read all records)</li>
+ * <li>deltaFile - the file the highest values read by delta runs are kept in. (default=sdp.watermarks)</li>
+ * <li>replica - the directory of a local replica to keep up to date with the records read. (default=no replica)</li>
+ * <li>replicaIndexes - the fields to index in the replica by value, as an array or comma-separated list. (default=no indexes)</li>
+ * <li>replicaSortedIndexes - as replicaIndexes, for fields also looked up by range. (default=no sorted indexes)</li>
+ * <li>partition - read the endpoint as several slices at once, by a numeric field or an object describing the slices. (default=read as one listing)</li>
+ * <li>fieldsRequired - the fields to retrieve, as dotted paths or "auto" for those of the endpoint's entity. (default=all fields)</li>
  * </ul>
  */
 public class ServiceDeskApiReader extends AbstractFrameReader {
+    /**
+     * The number of pages to read ahead.
+     */
+    private static final String PREFETCH_TAG = "prefetch";
+    /**
+     * Parse responses as they arrive.
+     */
+    private static final String STREAM_TAG = "stream";
+    /**
+     * The value of fieldsRequired which takes the fields from the typed entity of the endpoint.
+     */
+    private static final String AUTO = "auto";
+    /**
+     * Page by key.
+     */
+    private static final String SEEK_TAG = "seek";
+    /**
+     * The field paged by when seek is simply enabled.
+     */
+    private static final String DEFAULT_SEEK_FIELD = "id";
+    /**
+     * The clients to spread calls over.
+     */
+    private static final String CREDENTIALS_TAG = "credentials";
+    /**
+     * Read only the records changed since the last run.
+     */
+    private static final String DELTA_TAG = "delta";
+    /**
+     * The file holding the watermarks of delta reads.
+     */
+    private static final String DELTA_FILE_TAG = "deltaFile";
+    /**
+     * The field delta reads are based on when delta is simply enabled.
+     */
+    private static final String DEFAULT_DELTA_FIELD = "last_updated_time";
+    /**
+     * Read the endpoint as slices at the same time.
+     */
+    private static final String PARTITION_TAG = "partition";
+    /**
+     * The directory of the replica to keep up to date.
+     */
+    private static final String REPLICA_TAG = "replica";
+    /**
+     * The fields to index in the replica by value.
+     */
+    private static final String REPLICA_INDEXES_TAG = "replicaIndexes";
+    /**
+     * The fields to index in the replica by value and range.
+     */
+    private static final String REPLICA_SORTED_INDEXES_TAG = "replicaSortedIndexes";
     /**
      * The current batch of records received.
      */
@@ -43,6 +113,14 @@ public class ServiceDeskApiReader extends AbstractFrameReader {
      * The query parameters for the API call.
      */
     private final ListInfo listInfo = new ListInfo();
+    /**
+     * The fields to retrieve, empty for all of them.
+     */
+    private FieldProjection projection = new FieldProjection();
+    /**
+     * Flattens records using the shapes learned from the first page.
+     */
+    private final RecordFlattener flattener = new RecordFlattener();
     /**
      * The calculated size of the expected number of records to be returned with the present query.
      */
@@ -55,6 +133,58 @@ public class ServiceDeskApiReader extends AbstractFrameReader {
      * The client credentials used for authenticating with the API endpoint.
      */
     private ClientCredentials clientCredentials = null;
+    /**
+     * The pages which have been requested ahead of the page being read, in the order they will be read.
+     */
+    private final Deque<CompletableFuture<ApiResponse>> prefetchQueue = new ArrayDeque<>();
+    /**
+     * The row index of the next page to be requested when reading ahead.
+     */
+    private int prefetchRow = 0;
+    /**
+     * The field pages are sorted and sought by, null when paging by offset.
+     */
+    private String seekField = null;
+    /**
+     * The value of the seek field in the last record read, null before the first page.
+     */
+    private String lastKey = null;
+    /**
+     * The search criteria from the configuration, which every page must also meet.
+     */
+    private SearchCriteria searchCriteria = null;
+    /**
+     * The slices of the endpoint being read at the same time, null when reading it as one listing.
+     */
+    private PartitionedQuery partitionedQuery = null;
+    /**
+     * The record to be returned by the next read of a partitioned query, taken ahead to detect the last frame.
+     */
+    private DataFrame nextRecord = null;
+    /**
+     * The field whose highest value read is kept between runs, null when reading all records.
+     */
+    private String deltaField = null;
+    /**
+     * Where the highest value read is kept.
+     */
+    private WatermarkStore watermarks = null;
+    /**
+     * The key of this query in the watermark store.
+     */
+    private String watermarkKey = null;
+    /**
+     * The highest value of the delta field read so far.
+     */
+    private long highWater = Long.MIN_VALUE;
+    /**
+     * The replica the records read are put into, null when not keeping one.
+     */
+    private ReplicaStore replica = null;
+    /**
+     * The sync of the replica with the records read, null if there is none or it failed.
+     */
+    private ReplicaStore.Sync replicaSync = null;
 
 
     /**
@@ -75,10 +205,25 @@ public class ServiceDeskApiReader extends AbstractFrameReader {
     @Override
     public void open(TransformContext context) {
         super.open(context);
-        String id = Template.resolve(configuration.getString("clientid"), context.getSymbols());
-        String secret = Template.resolve(configuration.getString("clientsecret"), context.getSymbols());
-        String token = Template.resolve(configuration.getString("clienttoken"), context.getSymbols());
-        clientCredentials = new ClientCredentials(id, secret, token);
+        DataField credentials = configuration.getFieldIgnoreCase(CREDENTIALS_TAG);
+        if (credentials != null && credentials.isFrame()) {
+            CredentialPool pool = new CredentialPool(getEndPoint());
+            for (DataField field : ((DataFrame) credentials.getObjectValue()).getFields()) {
+                if (!field.isFrame()) {
+                    context.setError(getClass().getSimpleName() + ": Each of the '" + CREDENTIALS_TAG + "' must be an object with clientId, clientSecret and clientToken");
+                    return;
+                }
+                pool.add(credentials((DataFrame) field.getObjectValue(), context));
+            }
+            if (pool.size() == 0) {
+                context.setError(getClass().getSimpleName() + ": '" + CREDENTIALS_TAG + "' lists no clients");
+                return;
+            }
+            Log.debug(String.format("Spreading calls to %s over %d clients", getEndPoint(), pool.size()));
+            clientCredentials = pool;
+        } else {
+            clientCredentials = credentials(configuration, context);
+        }
 
         // Set our batch size (ListInfo.rowCount)
         if (configuration.containsIgnoreCase(ConfigTag.BATCH)) {
@@ -103,7 +248,7 @@ public class ServiceDeskApiReader extends AbstractFrameReader {
         if (configuration.containsIgnoreCase(SDP.SEARCH_CRITERIA_TAG)) {
             String json = configuration.getString(SDP.SEARCH_CRITERIA_TAG);
             try {
-                SearchCriteria searchCriteria = new SearchCriteria(Template.resolve(json, context.getSymbols()));
+                searchCriteria = new SearchCriteria(Template.resolve(json, context.getSymbols()));
                 listInfo.setSearchCriteria(searchCriteria);
             } catch (IllegalArgumentException e) {
                 context.setError(getClass().getSimpleName() + ": Invalid search criteria: " + e.getMessage());
@@ -111,16 +256,25 @@ public class ServiceDeskApiReader extends AbstractFrameReader {
             }
         }
 
-        if(configuration.containsIgnoreCase(SDP.FIELDS_REQUIRED_TAG)) {
+        if (configuration.containsIgnoreCase(SDP.FIELDS_REQUIRED_TAG)) {
             DataField field = configuration.getFieldIgnoreCase(SDP.FIELDS_REQUIRED_TAG);
-            if(field != null && field.isFrame()) {
-                List<String> requiredFields = new ArrayList<>();
-                for(DataField dataField: ((DataFrame)field.getObjectValue()).getFields()) {
-                    requiredFields.add(dataField.getStringValue());
+            if (field != null && field.isFrame()) {
+                for (DataField dataField : ((DataFrame) field.getObjectValue()).getFields()) {
+                    projection.add(dataField.getStringValue());
                 }
-                if( !requiredFields.isEmpty() ) {
-                    listInfo.setFieldsRequired(requiredFields.toArray(new String[0]));
+            } else if (field != null && field.getStringValue() != null && AUTO.equalsIgnoreCase(field.getStringValue().trim())) {
+                EntitySchema schema = schemaFor(getEndPoint());
+                if (schema == null) {
+                    context.setError(getClass().getSimpleName() + ": The fields of endpoint '" + getEndPoint() + "' are not known, list them in '" + SDP.FIELDS_REQUIRED_TAG + "'");
+                    return;
                 }
+                projection = schema.getProjection();
+            } else if (field != null) {
+                projection = FieldProjection.parse(field.getStringValue());
+            }
+            if (!projection.isEmpty()) {
+                listInfo.setFieldsRequired(projection.getFieldsRequired());
+                Log.debug(String.format("Retrieving only %s from %s", projection, getEndPoint()));
             }
         }
 
@@ -128,6 +282,207 @@ public class ServiceDeskApiReader extends AbstractFrameReader {
         listInfo.setSortField("name");
         listInfo.setSortOrder(ListInfo.ASCENDING);
 
+        // only a read of every record of the endpoint shows which records are gone
+        boolean fullRead = searchCriteria == null;
+
+        if (configuration.containsIgnoreCase(DELTA_TAG)) {
+            String value = configuration.getString(DELTA_TAG);
+            if (StringUtil.isNotBlank(value) && !"false".equalsIgnoreCase(value.trim())) {
+                deltaField = "true".equalsIgnoreCase(value.trim()) ? DEFAULT_DELTA_FIELD : value.trim();
+                String filename = configuration.containsIgnoreCase(DELTA_FILE_TAG) ? Template.resolve(configuration.getString(DELTA_FILE_TAG), context.getSymbols()) : WatermarkStore.DEFAULT_FILENAME;
+                watermarks = new WatermarkStore(Paths.get(filename));
+                // a read of some values or a range of the partition field has its own watermark
+                watermarkKey = WatermarkStore.key(getEndPoint(), deltaField, searchCriteria, partitionScope(configuration.getFieldIgnoreCase(PARTITION_TAG)));
+                String watermark = watermarks.load(watermarkKey);
+                if (watermark != null) {
+                    // at or above, since records changed in the same millisecond as the last one read may not have been read
+                    searchCriteria = SearchCriteria.and(new SearchCriteria(deltaField, SearchCondition.GREATER_OR_EQUAL.getValue(), watermark), searchCriteria);
+                    listInfo.setSearchCriteria(searchCriteria);
+                    fullRead = false;
+                    Log.info(String.format("Reading the records of %s with %s at or above %s", getEndPoint(), deltaField, watermark));
+                } else {
+                    Log.info(String.format("No watermark for %s in %s, reading all records", getEndPoint(), watermarks.getFile()));
+                }
+                listInfo.setSortField(deltaField);
+                if (!projection.isEmpty()) {
+                    // the field is needed to find the highest value read
+                    projection.add(deltaField);
+                    listInfo.setFieldsRequired(projection.getFieldsRequired());
+                }
+            }
+        }
+
+        if (configuration.containsIgnoreCase(SEEK_TAG)) {
+            String value = configuration.getString(SEEK_TAG);
+            if (StringUtil.isNotBlank(value) && !"false".equalsIgnoreCase(value.trim())) {
+                seekField = "true".equalsIgnoreCase(value.trim()) ? DEFAULT_SEEK_FIELD : value.trim();
+                listInfo.setSortField(seekField);
+                if (!projection.isEmpty()) {
+                    // the key of the last record is needed to ask for the next page
+                    projection.add(seekField);
+                    listInfo.setFieldsRequired(projection.getFieldsRequired());
+                }
+                if (getPrefetch() > 0) Log.warn(getClass().getSimpleName() + ": pages cannot be read ahead when seeking by " + seekField + ", prefetch is ignored");
+            }
+        }
+
+        if (configuration.containsIgnoreCase(PARTITION_TAG)) {
+            if (isSeeking()) {
+                context.setError(getClass().getSimpleName() + ": '" + PARTITION_TAG + "' cannot be used with '" + SEEK_TAG + "', slices are already read by key");
+                return;
+            }
+            partitionedQuery = createPartitionedQuery(configuration.getFieldIgnoreCase(PARTITION_TAG), context);
+            if (partitionedQuery != null && getPrefetch() > 0) Log.warn(getClass().getSimpleName() + ": pages are not read ahead when reading slices, prefetch is ignored");
+        }
+
+        if (configuration.containsIgnoreCase(REPLICA_TAG)) {
+            String directory = Template.resolve(configuration.getString(REPLICA_TAG), context.getSymbols());
+            if (!projection.isEmpty()) {
+                // even a delta sync would replace whole records with partial ones
+                context.setError(getClass().getSimpleName() + ": '" + REPLICA_TAG + "' cannot be used with '" + SDP.FIELDS_REQUIRED_TAG + "', the replica " + directory + " must hold whole records");
+                return;
+            }
+            if (partitionScope(configuration.getFieldIgnoreCase(PARTITION_TAG)) != null) {
+                // records outside the values or range read are not gone
+                fullRead = false;
+            }
+            try {
+                replica = ReplicaStore.open(Paths.get(directory));
+            } catch (IOException e) {
+                context.setError(getClass().getSimpleName() + ": Could not open the replica " + directory + ": " + e.getMessage());
+                return;
+            }
+            try {
+                for (String field : names(configuration.getFieldIgnoreCase(REPLICA_INDEXES_TAG))) replica.createIndex(field, false);
+                for (String field : names(configuration.getFieldIgnoreCase(REPLICA_SORTED_INDEXES_TAG))) replica.createIndex(field, true);
+            } catch (IOException e) {
+                context.setError(getClass().getSimpleName() + ": Could not index the replica " + directory + ": " + e.getMessage());
+                return;
+            }
+            replicaSync = replica.beginSync(fullRead && getReadLimit() <= 0);
+        }
+
+    }
+
+
+    /**
+     * @param field a configuration attribute holding an array or comma-separated list of names, may be null
+     * @return the names, empty if there are none
+     */
+    private static List<String> names(DataField field) {
+        List<String> retval = new ArrayList<>();
+        if (field != null && field.isFrame()) {
+            for (DataField element : ((DataFrame) field.getObjectValue()).getFields()) {
+                if (StringUtil.isNotBlank(element.getStringValue())) retval.add(element.getStringValue().trim());
+            }
+        } else if (field != null && StringUtil.isNotBlank(field.getStringValue())) {
+            for (String name : field.getStringValue().split(",")) {
+                if (StringUtil.isNotBlank(name)) retval.add(name.trim());
+            }
+        }
+        return retval;
+    }
+
+
+    /**
+     * @param frame   the configuration holding the client's clientId, clientSecret and clientToken
+     * @param context the transform context holding the symbols to resolve them with
+     * @return the credentials of the client
+     */
+    private static ClientCredentials credentials(DataFrame frame, TransformContext context) {
+        String id = null, secret = null, token = null;
+        for (DataField field : frame.getFields()) {
+            if ("clientid".equalsIgnoreCase(field.getName())) id = Template.resolve(field.getStringValue(), context.getSymbols());
+            else if ("clientsecret".equalsIgnoreCase(field.getName())) secret = Template.resolve(field.getStringValue(), context.getSymbols());
+            else if ("clienttoken".equalsIgnoreCase(field.getName())) token = Template.resolve(field.getStringValue(), context.getSymbols());
+        }
+        return new ClientCredentials(id, secret, token);
+    }
+
+
+    /**
+     * Create the query reading the slices described by the partition configuration.
+     *
+     * @param config  the partition configuration, a field name or an object
+     * @param context the transform context to place any configuration error in
+     * @return the query, null if the configuration is disabled or in error
+     */
+    private PartitionedQuery createPartitionedQuery(DataField config, TransformContext context) {
+        PartitionedQuery retval = new PartitionedQuery(clientCredentials, getEndPoint(), getResultsField())
+                .setCriteria(searchCriteria);
+        if (listInfo.getRowCount() > 0) retval.setRowCount(listInfo.getRowCount());
+        if (!projection.isEmpty()) retval.setFieldsRequired(projection.getFieldsRequired());
+
+        if (config == null || !config.isFrame()) {
+            String value = config != null ? config.getStringValue() : null;
+            if (StringUtil.isBlank(value) || "false".equalsIgnoreCase(value.trim())) return null;
+            String field = "true".equalsIgnoreCase(value.trim()) ? PartitionedQuery.KEY_FIELD : value.trim();
+            Log.debug(String.format("Reading %s in slices of %s", getEndPoint(), field));
+            return retval.byRange(field, null, null);
+        }
+
+        DataFrame partition = (DataFrame) config.getObjectValue();
+        String field = partition.getAsString("field");
+        if (StringUtil.isBlank(field)) field = PartitionedQuery.KEY_FIELD;
+        try {
+            if (partition.contains("values")) {
+                retval.byValues(field.trim(), partitionValues(partition));
+            } else {
+                retval.byRange(field.trim(), toLong(partition.getAsString("from")), toLong(partition.getAsString("to")));
+            }
+            if (partition.contains("slices")) retval.setSlices(partition.getAsInt("slices"));
+            if (partition.contains("concurrency")) retval.setConcurrency(partition.getAsInt("concurrency"));
+            if (partition.contains("ordered")) retval.setOrdered(partition.getAsBoolean("ordered"));
+        } catch (DataFrameException | NumberFormatException e) {
+            context.setError(getClass().getSimpleName() + ": Invalid '" + PARTITION_TAG + "' configuration: " + e.getMessage());
+            return null;
+        }
+        Log.debug(String.format("Reading %s in slices of %s", getEndPoint(), field));
+        return retval;
+    }
+
+
+    /**
+     * @param partition the partition configuration object
+     * @return the values to read one slice each of
+     */
+    private static List<String> partitionValues(DataFrame partition) {
+        List<String> retval = new ArrayList<>();
+        Object value = partition.getObject("values");
+        if (value instanceof DataFrame) {
+            for (DataField dataField : ((DataFrame) value).getFields()) retval.add(dataField.getStringValue());
+        } else if (value != null) {
+            for (String token : value.toString().split(",")) {
+                if (StringUtil.isNotBlank(token)) retval.add(token.trim());
+            }
+        }
+        return retval;
+    }
+
+
+    /**
+     * Describe how the partition configuration limits the records read.
+     *
+     * <p>Slices by value only read the records with those values, and a
+     * range given with from or to only the records within it. Ranges found
+     * by asking the service cover every record.</p>
+     *
+     * @param config the partition configuration, may be null
+     * @return the values or bounds the records read are limited to, null if every record is read
+     */
+    private static String partitionScope(DataField config) {
+        if (config == null || !config.isFrame()) return null;
+        DataFrame partition = (DataFrame) config.getObjectValue();
+        String field = StringUtil.isNotBlank(partition.getAsString("field")) ? partition.getAsString("field").trim() : PartitionedQuery.KEY_FIELD;
+        if (partition.contains("values")) return field + " in " + partitionValues(partition);
+        String from = partition.getAsString("from"), to = partition.getAsString("to");
+        if (StringUtil.isBlank(from) && StringUtil.isBlank(to)) return null;
+        return field + " from " + (StringUtil.isNotBlank(from) ? from.trim() : "") + " to " + (StringUtil.isNotBlank(to) ? to.trim() : "");
+    }
+
+
+    private static Long toLong(String value) {
+        return StringUtil.isNotBlank(value) ? Long.valueOf(value.trim()) : null;
     }
 
 
@@ -145,6 +500,8 @@ public class ServiceDeskApiReader extends AbstractFrameReader {
      */
     @Override
     public DataFrame read(TransactionContext context) {
+        if (partitionedQuery != null) return readPartitioned(context);
+
         // If we have no idea how many to expect OR are not at EOF
         if (resultSize < 0 || currentRow <= resultSize) {
 
@@ -187,52 +544,329 @@ public class ServiceDeskApiReader extends AbstractFrameReader {
     }
 
 
+    /**
+     * Return the next record of the slices being read at the same time.
+     *
+     * <p>The record after the one returned is taken first, so the last frame
+     * can be flagged; records arrive in no particular size of batch.</p>
+     */
+    private DataFrame readPartitioned(TransactionContext context) {
+        if (eof()) {
+            context.setLastFrame(true);
+            return null;
+        }
+        if (currentRow == 0 && nextRecord == null) nextRecord = partitionedQuery.next();
+
+        DataFrame retval = nextRecord;
+        if (retval == null) {
+            endPartitioned(context);
+            return null;
+        }
+        currentRow++;
+        nextRecord = (getReadLimit() > 0 && currentRow >= getReadLimit()) ? null : partitionedQuery.next();
+        if (nextRecord == null) {
+            endPartitioned(context);
+            context.setLastFrame(true);
+        }
+
+        if (deltaField != null) observe(retval);
+        if (replicaSync != null) replicate(retval);
+        if (projection.isNested()) projection.prune(retval);
+        if (isFlattening()) {
+            retval = flattener.flatten(retval);
+            // the shapes of the first page are those of the endpoint, anything else is unusual
+            if (currentRow >= listInfo.getRowCount()) flattener.setLearning(false);
+        }
+        return retval;
+    }
+
+
+    /**
+     * Stop reading slices, placing any failure in the context.
+     */
+    private void endPartitioned(TransactionContext context) {
+        resultSize = currentRow;
+        partitionedQuery.close();
+        String failure = partitionedQuery.getFailure();
+        if (failure != null) {
+            context.setError("The Reader could not query the instance: " + failure);
+            context.setState("Read Error");
+        }
+        Log.debug(String.format("Read %d records of %s in %d calls, %d slices split", currentRow, getEndPoint(), partitionedQuery.getCallCount(), partitionedQuery.getSplitCount()));
+    }
+
+
     /**
      * Retrieve the next batch of records into our buffer.
      */
     private void nextPage(TransactionContext context) {
-        listInfo.setStartIndex(currentRow);
-        Log.trace(String.format("loading page - %s", listInfo));
-
-        try {
-            // Get the next batch of records
-            ApiResponse response = SDP.callApi(clientCredentials, getEndPoint(), listInfo, getResultsField());
+        ReaderPageEvent event = new ReaderPageEvent();
+        event.begin();
+
+        if (isPrefetching()) {
+            nextPrefetchedPage(context, event);
+        } else {
+            if (isSeeking()) {
+                listInfo.setStartIndex(1);
+                if (lastKey != null) listInfo.setSearchCriteria(SearchCriteria.after(seekField, lastKey, searchCriteria));
+            } else {
+                listInfo.setStartIndex(currentRow + 1); // the service counts rows from 1
+            }
+            Log.trace(String.format("loading page - %s", listInfo));
 
-            // add them to the current page
-            for (final DataFrame frame : response.getResults()) {
-                if (isFlattening()) currentPage.add(DataFrameUtil.flatten(frame));
-                else currentPage.add(frame);
+            try {
+                // Get the next batch of records
+                ApiResponse response = requestPage(listInfo).join();
+                loadPage(response, event);
+            } catch (Exception e) {
+                context.setError("The Reader could not query the instance: " + e.getMessage());
+                context.setState("Read Error");
             }
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.setCall(getEndPoint(), "GET");
+            event.setStartIndex(currentRow + 1);
+            event.setPrefetched(isPrefetching());
+            event.setRecords(currentPage.size());
+            event.commit();
+        }
+    }
 
-            // Try to detect the result size. NOTE: This is not foolproof, we may
-            // have coincidentally hit a natural multiple of our page size (e.g.  the
-            // limit or batch size parameter)
-            Log.debug(String.format("ResultSize:%d - CurrentPageSize:%d - Batch:%d", resultSize, currentPage.size(), listInfo.getRowCount()));
-
-            // if we are paging through data
-            if (listInfo.getRowCount() > 0) {
-                // If we don't know how many records to expect and the next batch did
-                // not return the full batch size, assume we have reached the max
-                // result size.
-                if (resultSize < 0 && (currentPage.size() < listInfo.getRowCount())) {
-                    Log.debug("Batch read less than expected assuming result size to be " + (currentRow + currentPage.size()));
-                    resultSize = (currentRow + currentPage.size());
+
+    /**
+     * Take the next page from the read-ahead queue, then top up the queue so
+     * the following pages are retrieved while this one is being processed.
+     */
+    private void nextPrefetchedPage(TransactionContext context, ReaderPageEvent event) {
+        try {
+            fillPrefetchQueue();
+            CompletableFuture<ApiResponse> page = prefetchQueue.poll();
+            if (page != null) {
+                loadPage(page.join(), event);
+
+                // a short page means there is nothing left to read ahead
+                if (resultSize >= 0) {
+                    cancelPrefetch();
+                } else {
+                    fillPrefetchQueue();
                 }
+            }
+        } catch (Exception e) {
+            cancelPrefetch();
+            Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+            context.setError("The Reader could not query the instance: " + cause.getMessage());
+            context.setState("Read Error");
+        }
+    }
+
+
+    /**
+     * Request pages until the read-ahead queue holds the page being read plus
+     * the configured number of pages ahead of it.
+     */
+    private void fillPrefetchQueue() {
+        int depth = getPrefetch() + 1;
+        while (prefetchQueue.size() < depth && (getReadLimit() <= 0 || prefetchRow < getReadLimit())) {
+            ListInfo pageInfo = new ListInfo(listInfo.toString());
+            pageInfo.setStartIndex(prefetchRow + 1);
+            Log.trace(String.format("requesting page - %s", pageInfo));
+            prefetchQueue.add(requestPage(pageInfo));
+            prefetchRow += listInfo.getRowCount();
+        }
+    }
+
+
+    /**
+     * Request a page of records.
+     *
+     * @param pageInfo the list information describing the page
+     * @return a future which completes with the response containing the page of records
+     */
+    private CompletableFuture<ApiResponse> requestPage(ListInfo pageInfo) {
+        if (isStreaming()) {
+            return SDP.callApiStreamingAsync(clientCredentials, getEndPoint(), pageInfo, getResultsField(), null);
+        }
+        return SDP.callApiAsync(clientCredentials, getEndPoint(), pageInfo, getResultsField());
+    }
+
+
+    /**
+     * Discard any pages which have been requested but not yet read.
+     */
+    private void cancelPrefetch() {
+        for (CompletableFuture<ApiResponse> page : prefetchQueue) {
+            page.cancel(false);
+        }
+        prefetchQueue.clear();
+    }
+
+
+    /**
+     * Add the results of a response to the current page and try to detect the
+     * result size.
+     *
+     * @param response the response containing the next batch of records
+     * @param event    the event recording the loading of the page
+     */
+    private void loadPage(ApiResponse response, ReaderPageEvent event) {
+        if (response == null) return; // no access token, already logged
+        if (event.isEnabled()) {
+            event.setStatus(response.getHttpStatusCode());
+            event.setBytes(response.getResponseBytes());
+        }
+
+        // add them to the current page
+        long extractStart = System.nanoTime();
+        FlattenEvent flattenEvent = new FlattenEvent();
+        flattenEvent.begin();
+        boolean keyMissing = false;
+        if (isSeeking() && !response.getResults().isEmpty()) {
+            String key = response.getResults().get(response.getResults().size() - 1).getAsString(seekField);
+            if (key != null) {
+                lastKey = key;
             } else {
-                // Since we are trying to read everything at once, if we retrieved less
-                // than the limit, assume we have reached the max result size.
-                if (currentPage.size() < getBatch()) {
-                    Log.debug("Expecting result size to be " + (currentRow + currentPage.size()));
-                    resultSize = (currentRow + currentPage.size());
-                }
+                // asking for the rows after a missing key would start again from the first row
+                Log.error(String.format("The last record of the page has no '%s', reading stops after this page", seekField));
+                keyMissing = true;
+            }
+        }
 
+        boolean pruning = projection.isNested();
+        long generic = flattener.getGenericCount();
+        for (final DataFrame frame : response.getResults()) {
+            if (deltaField != null) observe(frame);
+            if (replicaSync != null) replicate(frame);
+            if (pruning) projection.prune(frame);
+            if (isFlattening()) currentPage.add(flattener.flatten(frame));
+            else currentPage.add(frame);
+        }
+        // the shapes of the first page are those of the endpoint, anything else is unusual
+        if (!response.getResults().isEmpty()) flattener.setLearning(false);
+        flattenEvent.end();
+        if (isFlattening() && flattenEvent.shouldCommit()) {
+            flattenEvent.setCall(getEndPoint(), "GET");
+            flattenEvent.setGeneric((int) (flattener.getGenericCount() - generic));
+            flattenEvent.setStatus(response.getHttpStatusCode());
+            flattenEvent.setRecords(response.getResults().size());
+            flattenEvent.commit();
+        }
+        MetricsRegistry metrics = SDP.getMetrics();
+        if (metrics != null) metrics.record(getEndPoint(), "GET", MetricsRegistry.Phase.EXTRACT, System.nanoTime() - extractStart);
+
+        if (keyMissing) {
+            resultSize = currentRow + currentPage.size();
+            return;
+        }
+
+        // Try to detect the result size. NOTE: This is not foolproof, we may
+        // have coincidentally hit a natural multiple of our page size (e.g.  the
+        // limit or batch size parameter)
+        Log.debug(String.format("ResultSize:%d - CurrentPageSize:%d - Batch:%d", resultSize, currentPage.size(), listInfo.getRowCount()));
+
+        // if we are paging through data
+        if (listInfo.getRowCount() > 0) {
+            // If we don't know how many records to expect and the next batch did
+            // not return the full batch size, assume we have reached the max
+            // result size.
+            if (resultSize < 0 && (currentPage.size() < listInfo.getRowCount())) {
+                Log.debug("Batch read less than expected assuming result size to be " + (currentRow + currentPage.size()));
+                resultSize = (currentRow + currentPage.size());
+            }
+        } else {
+            // Since we are trying to read everything at once, if we retrieved less
+            // than the limit, assume we have reached the max result size.
+            if (currentPage.size() < getBatch()) {
+                Log.debug("Expecting result size to be " + (currentRow + currentPage.size()));
+                resultSize = (currentRow + currentPage.size());
             }
 
-        } catch (Exception e) {
-            context.setError("The Reader could not query the instance: " + e.getMessage());
-            context.setState("Read Error");
         }
+    }
 
+
+    /**
+     * Note the value of the delta field in a record if it is the highest read so far.
+     */
+    private void observe(DataFrame frame) {
+        Object value = frame;
+        for (String name : deltaField.split("\\.")) {
+            value = value instanceof DataFrame ? ((DataFrame) value).getObject(name) : null;
+        }
+        if (value instanceof DataFrame) value = ((DataFrame) value).getObject("value"); // date-time fields
+        if (value == null) return;
+        try {
+            highWater = Math.max(highWater, Long.parseLong(value.toString().trim()));
+        } catch (NumberFormatException e) {
+            Log.debug(String.format("Ignoring the %s of a record, it is not a number: %s", deltaField, value));
+        }
+    }
+
+
+    /**
+     * Put a record read into the replica, before it is pruned or flattened.
+     */
+    private void replicate(DataFrame frame) {
+        try {
+            replicaSync.put(frame);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.error(String.format("Could not put a record of %s into the replica %s, it will not be synced: %s", getEndPoint(), replica.getDirectory(), e.getMessage()));
+            replicaSync = null;
+        }
+    }
+
+
+    /**
+     * Keep the highest value of the delta field read, if the job succeeded.
+     *
+     * <p>Records read in another order than by the delta field, when
+     * seeking or reading slices, only move the watermark if they were all
+     * read, since the highest value read says nothing about the records
+     * which were not.</p>
+     */
+    private void commitWatermark() {
+        if (highWater == Long.MIN_VALUE) return; // nothing read, the watermark stays where it is
+        if (getContext() != null && getContext().isInError()) {
+            Log.warn(String.format("The job did not succeed, the watermark of %s is not moved", getEndPoint()));
+            return;
+        }
+        boolean ordered = !isSeeking() && partitionedQuery == null;
+        if (!ordered && !isComplete()) {
+            Log.warn(String.format("Not all the records of %s were read, the watermark is not moved", getEndPoint()));
+            return;
+        }
+        if (watermarks.save(watermarkKey, Long.toString(highWater))) {
+            Log.info(String.format("Watermark of %s moved to %d", getEndPoint(), highWater));
+        }
+    }
+
+
+    /**
+     * @return true if every record asked for was read, rather than reading stopping at the limit
+     */
+    private boolean isComplete() {
+        return eof() && (getReadLimit() <= 0 || (resultSize >= 0 && resultSize < getReadLimit()));
+    }
+
+
+    /**
+     * Commit the sync of the replica if the job succeeded and read every record asked for, and close the replica.
+     */
+    private void closeReplica() throws IOException {
+        try {
+            if (replicaSync == null) {
+                Log.warn(String.format("The replica %s of %s was not synced", replica.getDirectory(), getEndPoint()));
+            } else if (getContext() != null && getContext().isInError()) {
+                Log.warn(String.format("The job did not succeed, the replica %s of %s was not synced", replica.getDirectory(), getEndPoint()));
+            } else if (!isComplete()) {
+                Log.warn(String.format("Not all the records of %s were read, the replica %s was not synced", getEndPoint(), replica.getDirectory()));
+            } else {
+                replicaSync.commit();
+            }
+        } finally {
+            replica.close();
+        }
     }
 
 
@@ -244,6 +878,34 @@ public class ServiceDeskApiReader extends AbstractFrameReader {
     }
 
 
+    /**
+     * @param endpoint the endpoint being read
+     * @return the schema of the typed entity listed by the endpoint, null if there is none
+     */
+    static EntitySchema schemaFor(String endpoint) {
+        String name = endpoint != null ? endpoint.trim().toLowerCase(Locale.ROOT) : "";
+        if (name.startsWith("/")) name = name.substring(1);
+        int end = name.indexOf('/') >= 0 ? name.indexOf('/') : name.indexOf('?');
+        if (end >= 0) name = name.substring(0, end);
+        switch (name) {
+            case "assets":
+                return Asset.SCHEMA;
+            case "workstations":
+                return Workstation.SCHEMA;
+            case "requests":
+                return Request.SCHEMA;
+            case "sites":
+                return Site.SCHEMA;
+            case "users":
+            case "requesters":
+            case "technicians":
+                return User.SCHEMA;
+            default:
+                return null;
+        }
+    }
+
+
     /**
      * @return the endpoint path to add to the request URI to make our call
      */
@@ -265,6 +927,44 @@ public class ServiceDeskApiReader extends AbstractFrameReader {
     }
 
 
+    /**
+     * @return true if responses are to be parsed as they arrive rather than after the entire body has been received.
+     */
+    private boolean isStreaming() {
+        if (configuration.containsIgnoreCase(STREAM_TAG)) {
+            return configuration.getBoolean(STREAM_TAG);
+        } else return false;
+    }
+
+
+    /**
+     * @return the number of pages to retrieve ahead of the page being read, 0 (default) to only retrieve pages as they are needed.
+     */
+    public int getPrefetch() {
+        try {
+            return configuration.containsIgnoreCase(PREFETCH_TAG) ? Math.max(0, configuration.getAsInt(PREFETCH_TAG)) : 0;
+        } catch (DataFrameException e) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * @return true if pages are requested by the key of the last record read rather than by row offset.
+     */
+    private boolean isSeeking() {
+        return seekField != null;
+    }
+
+
+    /**
+     * @return true if pages are to be read ahead; only possible when paging through data in batches.
+     */
+    private boolean isPrefetching() {
+        return getPrefetch() > 0 && listInfo.getRowCount() > 0 && !isSeeking();
+    }
+
+
     /**
      * @return the number of records to be retrieved at a time from the source.
      */
@@ -298,6 +998,10 @@ public class ServiceDeskApiReader extends AbstractFrameReader {
     @Override
     public void close() throws IOException {
         Log.debug("Closing -------------------------------------------");
+        cancelPrefetch();
+        if (partitionedQuery != null) partitionedQuery.close();
+        if (deltaField != null) commitWatermark();
+        if (replica != null) closeReplica();
         super.close();
     }
 
@@ -0,0 +1,60 @@
+package com.sdcote.sdp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 3, 60_000);
+        breaker.record(503);
+        breaker.record(0);
+        breaker.record(200); // a success resets the count
+        breaker.record(503);
+        breaker.record(503);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.record(500);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    void clientErrorsAreNotFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60_000);
+        breaker.record(404);
+        breaker.record(429);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void halfOpenTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 50);
+        breaker.record(503);
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(80);
+        assertTrue(breaker.allowRequest()); // the trial call
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest()); // only one trial at a time
+
+        breaker.record(503); // the trial failed
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(80);
+        assertTrue(breaker.allowRequest());
+        breaker.record(200);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    void endpointKeys() {
+        assertEquals("/workstation/{id}", CircuitBreakerRegistry.key("/workstation/119894000002100031"));
+        assertEquals("/assets", CircuitBreakerRegistry.key("/assets?input_data=x"));
+        assertEquals("/requests/{id}/notes", CircuitBreakerRegistry.key("/requests/42/notes"));
+    }
+}
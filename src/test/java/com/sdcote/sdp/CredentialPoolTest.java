@@ -0,0 +1,71 @@
+package com.sdcote.sdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CredentialPoolTest {
+
+    private static final ClientCredentials A = new ClientCredentials("1000.A", "secret", "refresh.a");
+    private static final ClientCredentials B = new ClientCredentials("1000.B", "secret", "refresh.b");
+
+
+    private static ApiResponse response(int status) {
+        ApiResponse retval = new ApiResponse(null);
+        retval.setStatusCode(status);
+        return retval;
+    }
+
+
+    @Test
+    void choosesLeastLoaded() {
+        CredentialPool pool = new CredentialPool("test").add(A).add(B);
+        CredentialPool.Member first = pool.acquire();
+        CredentialPool.Member second = pool.acquire();
+        assertNotSame(first, second);
+
+        pool.release(first, response(200), null);
+        assertSame(first, pool.acquire()); // the other is still busy
+    }
+
+
+    @Test
+    void takesFailingClientsOutOfRotation() {
+        CredentialPool pool = new CredentialPool("test").add(A).add(B).setThrottleCooldown(60_000);
+        CredentialPool.Member throttled = pool.acquire();
+        pool.release(throttled, response(429), null);
+        assertFalse(throttled.isAvailable());
+        assertEquals(1, throttled.getFailures());
+
+        for (int i = 0; i < 5; i++) {
+            CredentialPool.Member member = pool.acquire();
+            assertNotSame(throttled, member);
+            pool.release(member, response(200), null);
+        }
+
+        // with none available, the one back soonest is used
+        CredentialPool.Member other = pool.acquire();
+        pool.release(other, null, null);
+        assertSame(throttled, pool.acquire());
+    }
+
+
+    @Test
+    void transportErrorsDoNotCount() {
+        CredentialPool pool = new CredentialPool("test").add(A);
+        CredentialPool.Member member = pool.acquire();
+        pool.release(member, null, new IOException("connection reset"));
+        assertTrue(member.isAvailable());
+        assertEquals(0, member.getFailures());
+    }
+
+
+    @Test
+    void emptyPool() {
+        assertThrows(IllegalStateException.class, () -> new CredentialPool("empty").select());
+        assertThrows(IllegalArgumentException.class, () -> new CredentialPool("outer").add(new CredentialPool("inner")));
+    }
+
+}
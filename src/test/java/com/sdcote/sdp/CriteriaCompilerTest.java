@@ -0,0 +1,84 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+import coyote.commons.dataframe.marshal.JSONMarshaler;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CriteriaCompilerTest {
+
+    private static final DataFrame ASSET = JSONMarshaler.marshal("{\"id\":\"119894000000301021\",\"name\":\"AP-00021\","
+            + "\"state\":{\"name\":\"In Use\",\"id\":\"219\"},\"purchase_cost\":1249.99,"
+            + "\"last_updated_time\":{\"display_value\":\"Nov 14, 2023\",\"value\":\"1700000000000\"},"
+            + "\"network_adapters\":[{\"mac_address\":\"00:1A:2B:3C:4D:5E\"},{\"mac_address\":\"00:1A:2B:3C:4D:5F\"}]}").get(0);
+
+
+    private static boolean matches(String field, String condition, String value) {
+        return new SearchCriteria(field, condition, value).toPredicate().test(ASSET);
+    }
+
+
+    @Test
+    void evaluatesEachCondition() {
+        assertTrue(matches("name", "is", "ap-00021"));
+        assertFalse(matches("name", "is not", "AP-00021"));
+        assertTrue(matches("state.name", "contains", "USE"));
+        assertTrue(matches("state.name", "not contains", "Store"));
+        assertTrue(matches("name", "starts with", "AP-"));
+        assertTrue(matches("name", "ends with", "021"));
+        assertTrue(matches("purchase_cost", "greater than", "999"));   // as numbers, not as text
+        assertFalse(matches("purchase_cost", "lesser than", "1000"));
+        assertTrue(matches("last_updated_time", "greater or equal", "1700000000000"));
+        assertTrue(matches("last_updated_time", "lesser or equal", "1700000000000"));
+        assertFalse(matches("barcode", "is", "X")); // missing fields only meet negative conditions
+        assertTrue(matches("barcode", "is not", "X"));
+        assertTrue(matches("purchase_cost", "is", "1249.990"));
+        assertFalse(matches("name", "is", "AP-021"));
+        assertFalse(new SearchCriteria("{\"field\":\"state.id\",\"value\":\"0219\"}").toPredicate().test(ASSET)); // text, not the number 219
+
+        assertTrue(new SearchCriteria("{\"field\":\"barcode\",\"condition\":\"is_empty\"}").toPredicate().test(ASSET));
+        assertFalse(new SearchCriteria("{\"field\":\"name\",\"condition\":\"is_empty\"}").toPredicate().test(ASSET));
+
+        Predicate<DataFrame> between = new SearchCriteria("{\"field\":\"id\",\"condition\":\"between\",\"values\":[\"119894000000301000\",\"119894000000301021\"]}").toPredicate();
+        assertTrue(between.test(ASSET));
+        Predicate<DataFrame> notBetween = new SearchCriteria("{\"field\":\"id\",\"condition\":\"not between\",\"values\":[\"1\",\"2\"]}").toPredicate();
+        assertTrue(notBetween.test(ASSET));
+    }
+
+
+    @Test
+    void combinesChildrenInOrder() {
+        // (name is AP-00021 AND state is In Store) OR state is In Use
+        SearchCriteria criteria = new SearchCriteria("name", "is", "AP-00021");
+        criteria.addChild(new SearchCriteria("state.name", "is", "In Store").setLogicalOperator("AND"));
+        assertFalse(criteria.toPredicate().test(ASSET));
+        criteria.addChild(new SearchCriteria("state.name", "is", "In Use").setLogicalOperator("OR"));
+        assertTrue(criteria.toPredicate().test(ASSET));
+
+        // grouped criteria, as built by SearchCriteria.and
+        SearchCriteria grouped = SearchCriteria.and(new SearchCriteria("name", "starts with", "AP"), criteria);
+        assertTrue(grouped.toPredicate().test(ASSET));
+    }
+
+
+    @Test
+    void matchesArraysAndEntities() {
+        assertTrue(matches("network_adapters.mac_address", "is", "00:1a:2b:3c:4d:5f"));
+        assertFalse(matches("network_adapters.mac_address", "is not", "00:1A:2B:3C:4D:5E"));
+        assertTrue(matches("network_adapters.mac_address", "is not", "00:1A:2B:3C:4D:00"));
+
+        assertTrue(new SearchCriteria("{\"field\":\"state\",\"condition\":\"is\",\"value\":{\"id\":\"219\",\"name\":\"Other\"}}").toPredicate().test(ASSET));
+        assertFalse(new SearchCriteria("{\"field\":\"state\",\"condition\":\"is\",\"value\":{\"name\":\"In Store\"}}").toPredicate().test(ASSET));
+    }
+
+
+    @Test
+    void rejectsUnknownConditions() {
+        assertThrows(IllegalArgumentException.class, () -> new SearchCriteria("name", "sounds like", "AP").toPredicate());
+        assertThrows(IllegalArgumentException.class, () -> new SearchCriteria("{\"field\":\"id\",\"condition\":\"between\",\"value\":\"1\"}").toPredicate());
+    }
+
+}
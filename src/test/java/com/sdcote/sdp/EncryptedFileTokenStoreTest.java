@@ -0,0 +1,67 @@
+package com.sdcote.sdp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EncryptedFileTokenStoreTest {
+
+    @TempDir
+    Path dir;
+
+
+    @Test
+    void roundTrip() throws Exception {
+        Path file = dir.resolve(EncryptedFileTokenStore.DEFAULT_FILENAME);
+        Instant expires = Instant.now().plusSeconds(3600).truncatedTo(ChronoUnit.MILLIS);
+        new EncryptedFileTokenStore(file, "secret").save("1000.A", new TokenStore.StoredToken("1000.access", expires, "1000.refresh", "origin"));
+
+        TokenStore.StoredToken token = new EncryptedFileTokenStore(file, "secret").load("1000.A");
+        assertNotNull(token);
+        assertEquals("1000.access", token.getAccessToken());
+        assertEquals(expires, token.getExpirationTime());
+        assertEquals("1000.refresh", token.getRefreshToken());
+        assertEquals("origin", token.getOrigin());
+        assertNull(new EncryptedFileTokenStore(file, "secret").load("1000.B"));
+
+        String contents = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+        assertFalse(contents.contains("1000.access"));
+        assertFalse(contents.contains("1000.refresh"));
+    }
+
+
+    @Test
+    void keepsOtherClients() {
+        Path file = dir.resolve("shared.tokens");
+        Instant expires = Instant.now().plusSeconds(3600);
+        new EncryptedFileTokenStore(file, "secret").save("1000.A", new TokenStore.StoredToken("a", expires, "ra", "oa"));
+        new EncryptedFileTokenStore(file, "secret").save("1000.B", new TokenStore.StoredToken("b", expires, "rb", "ob"));
+
+        EncryptedFileTokenStore store = new EncryptedFileTokenStore(file, "secret");
+        assertEquals("a", store.load("1000.A").getAccessToken());
+        assertEquals("b", store.load("1000.B").getAccessToken());
+    }
+
+
+    @Test
+    void wrongPassword() {
+        Path file = dir.resolve("sdp.tokens");
+        new EncryptedFileTokenStore(file, "secret").save("1000.A", new TokenStore.StoredToken("a", Instant.now(), "ra", "oa"));
+
+        EncryptedFileTokenStore store = new EncryptedFileTokenStore(file, "other");
+        assertNull(store.load("1000.A"));
+
+        // the unreadable file is replaced on the next write
+        store.save("1000.B", new TokenStore.StoredToken("b", Instant.now(), "rb", "ob"));
+        assertEquals("b", new EncryptedFileTokenStore(file, "other").load("1000.B").getAccessToken());
+        assertThrows(IllegalArgumentException.class, () -> new EncryptedFileTokenStore(file, ""));
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityTest {
+
+    @Test
+    void nestedViewsAreShared() {
+        Workstation ws = new Workstation("{\"last_updated_by\":{\"name\":\"System\"},\"created_by\":{\"name\":\"Admin\"}}");
+
+        assertSame(ws.getLastUpdatedBy(), ws.getLastUpdatedBy());
+        assertSame(ws.getCreatedBy(), ws.getCreatedBy());
+        assertEquals("Admin", ws.getCreatedBy().getName());
+    }
+
+
+    @Test
+    void nestedViewWritesThrough() {
+        Workstation ws = new Workstation("{\"last_updated_by\":{\"name\":\"System\"}}");
+        ws.getLastUpdatedBy().setName("Robot");
+
+        DataFrame user = (DataFrame) ws.getDataFrame().getObject("last_updated_by");
+        assertEquals("Robot", user.getAsString("name"));
+    }
+
+
+    @Test
+    void settersClearDecodedValues() {
+        Workstation ws = new Workstation("{\"name\":\"OLD\"}");
+        assertEquals("OLD", ws.getName());
+        assertNull(ws.getLastUpdatedBy());
+
+        ws.setName("NEW");
+        User user = new User();
+        user.setName("System");
+        ws.setLastUpdatedBy(user);
+
+        assertEquals("NEW", ws.getName());
+        assertEquals("System", ws.getLastUpdatedBy().getName());
+
+        ws.setLastUpdatedBy(null);
+        assertNull(ws.getLastUpdatedBy());
+    }
+
+
+    @Test
+    void clearCacheSeesDirectChanges() {
+        Workstation ws = new Workstation("{\"state\":{\"name\":\"In Store\"}}");
+        assertEquals("In Store", ws.getStateName());
+
+        DataFrame state = new DataFrame();
+        state.put("name", "In Use");
+        ws.getDataFrame().put("state", state);
+        assertEquals("In Store", ws.getStateName());
+
+        ws.clearCache();
+        assertEquals("In Use", ws.getStateName());
+    }
+
+
+    @Test
+    void assetFields() {
+        Asset asset = new Asset("{\"id\":\"42\",\"name\":\"AP-1\",\"state\":{\"name\":\"In Use\"},\"product\":{\"name\":\"Cisco AIR\"},"
+                + "\"site\":{\"name\":\"Columbus Campus\",\"deleted\":false},\"user\":{\"name\":\"Jane Doe\"},\"is_loaned\":true}");
+
+        assertEquals("42", asset.getId());
+        assertEquals("AP-1", asset.getName());
+        assertEquals("In Use", asset.getStateName());
+        assertEquals("Cisco AIR", asset.getProductName());
+        assertNull(asset.getVendorName());
+        assertEquals("Columbus Campus", asset.getSite().getName());
+        assertFalse(asset.getSite().isDeleted());
+        assertSame(asset.getSite(), asset.getSite());
+        assertEquals("Jane Doe", asset.getUser().getName());
+        assertTrue(asset.isLoaned());
+    }
+
+
+    @Test
+    void requestFields() {
+        Request request = new Request("{\"id\":\"7\",\"subject\":\"Printer jammed\",\"status\":{\"name\":\"Open\"},"
+                + "\"requester\":{\"name\":\"Jane Doe\"},\"created_time\":{\"value\":\"1647783668000\"}}");
+
+        assertEquals("7", request.getId());
+        assertEquals("Printer jammed", request.getSubject());
+        assertEquals("Open", request.getStatusName());
+        assertNull(request.getPriorityName());
+        assertEquals("Jane Doe", request.getRequester().getName());
+        assertNull(request.getTechnician());
+        assertEquals("1647783668000", request.getCreatedTime());
+    }
+
+
+    @Test
+    void schemaDescribesFields() {
+        assertEquals("workstation", Workstation.SCHEMA.getName());
+        assertTrue(Workstation.SCHEMA.getFields().stream().anyMatch(f -> "computer_system.service_tag".equals(f.getPath())));
+        assertThrows(IllegalArgumentException.class, () -> new EntitySchema("x").string(Workstation.SCHEMA.getFields().get(0), "name"));
+    }
+}
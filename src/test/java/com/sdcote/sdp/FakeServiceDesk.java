@@ -0,0 +1,846 @@
+package com.sdcote.sdp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import coyote.commons.dataframe.DataField;
+import coyote.commons.dataframe.DataFrame;
+import coyote.commons.dataframe.marshal.JSONMarshaler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for the ServiceDesk Plus Cloud API and the Zoho
+ * OAuth token service.
+ *
+ * <p>This serves {@code /api/v3/assets}, {@code /api/v3/workstations} and
+ * {@code /api/v3/workstation/{id}} from synthetic datasets, along with the
+ * {@code /oauth/v2/token} endpoint which issues the access tokens the API
+ * endpoints require. Listings honor the {@code start_index},
+ * {@code row_count}, {@code sort_field}, {@code sort_order},
+ * {@code search_criteria} and {@code fields_required} of the
+ * {@code input_data} list information.</p>
+ *
+ * <p>Latency, rate limits (answered with HTTP 429 and {@code Retry-After}),
+ * injected failures and dropped connections can be configured so reader throughput, throttling
+ * and failure handling can be measured repeatably without network access:
+ * <pre>
+ * try (FakeServiceDesk server = new FakeServiceDesk().setWorkstations(500).start()) {
+ *     SDP.setServiceUrl(server.getServiceUrl());
+ *     SDP.setTokenUrl(server.getTokenUrl());
+ *     ...
+ * }</pre>
+ */
+public class FakeServiceDesk implements AutoCloseable {
+    static final String API_PATH = "/api/v3";
+    static final String OAUTH_PATH = "/oauth/v2";
+    static final String TOKEN_PATH = OAUTH_PATH + "/token";
+
+    private static final String[] STATES = {"In Use", "In Store", "In Repair", "Expired", "Disposed"};
+    private static final String[] SITES = {"Columbus Campus", "Dayton Office", "Remote"};
+    private static final long FIRST_ID = 119894000002100001L;
+
+    private final List<Map<String, Object>> assets = Collections.synchronizedList(new ArrayList<>());
+    private final List<Map<String, Object>> workstations = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> issuedTokens = ConcurrentHashMap.newKeySet();
+
+    private volatile long latencyMillis = 0;
+    private volatile long tokenLifetimeSeconds = 3600;
+    private volatile int rateLimit = 0;
+    private volatile long rateWindowMillis = 60_000;
+    private long windowStart = 0;
+    private int windowCalls = 0;
+
+    private final AtomicInteger failuresRemaining = new AtomicInteger();
+    private final AtomicInteger tokenFailuresRemaining = new AtomicInteger();
+    private final AtomicInteger dropsRemaining = new AtomicInteger();
+    private final Set<String> revokedTokens = ConcurrentHashMap.newKeySet();
+    private volatile int failureStatus = 500;
+
+    private final AtomicLong apiRequests = new AtomicLong();
+    private final AtomicLong tokenRequests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong tokenSequence = new AtomicLong();
+
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+
+
+    /**
+     * Replace the asset dataset with the given number of synthetic assets.
+     *
+     * @param count the number of assets to serve
+     * @return a reference to this object for call chaining.
+     */
+    public FakeServiceDesk setAssets(int count) {
+        synchronized (assets) {
+            assets.clear();
+            for (int i = 0; i < count; i++) assets.add(createAsset(i));
+        }
+        return this;
+    }
+
+
+    /**
+     * Replace the workstation dataset with the given number of synthetic workstations.
+     *
+     * @param count the number of workstations to serve
+     * @return a reference to this object for call chaining.
+     */
+    public FakeServiceDesk setWorkstations(int count) {
+        synchronized (workstations) {
+            workstations.clear();
+            for (int i = 0; i < count; i++) workstations.add(createWorkstation(i));
+        }
+        return this;
+    }
+
+
+    /**
+     * @param latency how long each API call takes before it is answered
+     * @return a reference to this object for call chaining.
+     */
+    public FakeServiceDesk setLatency(Duration latency) {
+        latencyMillis = latency.toMillis();
+        return this;
+    }
+
+
+    /**
+     * Limit the number of API calls accepted in each window; further calls are answered with HTTP 429.
+     *
+     * @param calls  the number of calls allowed in each window, 0 for no limit
+     * @param window the length of the window
+     * @return a reference to this object for call chaining.
+     */
+    public FakeServiceDesk setRateLimit(int calls, Duration window) {
+        synchronized (this) {
+            rateLimit = calls;
+            rateWindowMillis = window.toMillis();
+            windowStart = 0;
+            windowCalls = 0;
+        }
+        return this;
+    }
+
+
+    /**
+     * @param seconds the number of seconds issued access tokens are valid
+     * @return a reference to this object for call chaining.
+     */
+    public FakeServiceDesk setTokenLifetime(long seconds) {
+        tokenLifetimeSeconds = seconds;
+        return this;
+    }
+
+
+    /**
+     * Answer the next API calls with an error.
+     *
+     * @param count  the number of calls to fail
+     * @param status the HTTP status to return
+     * @return a reference to this object for call chaining.
+     */
+    public FakeServiceDesk failNext(int count, int status) {
+        failureStatus = status;
+        failuresRemaining.set(count);
+        return this;
+    }
+
+
+    /**
+     * Break off the next listings part way through their body, as a dropped connection does.
+     *
+     * @param count the number of listings to break off
+     * @return a reference to this object for call chaining.
+     */
+    public FakeServiceDesk dropNext(int count) {
+        dropsRemaining.set(count);
+        return this;
+    }
+
+
+    /**
+     * Refuse to issue access tokens for a refresh token, as the service does once a client is revoked.
+     *
+     * @param refreshToken the refresh token to refuse
+     * @return a reference to this object for call chaining.
+     */
+    public FakeServiceDesk revokeRefreshToken(String refreshToken) {
+        revokedTokens.add(refreshToken);
+        return this;
+    }
+
+
+    /**
+     * Answer the next token requests with HTTP 500.
+     *
+     * @param count the number of token requests to fail
+     * @return a reference to this object for call chaining.
+     */
+    public FakeServiceDesk failNextTokenRequests(int count) {
+        tokenFailuresRemaining.set(count);
+        return this;
+    }
+
+
+    /**
+     * Start serving on an ephemeral port of the loopback interface.
+     *
+     * @return a reference to this object for call chaining.
+     * @throws IOException if the server could not be started
+     */
+    public FakeServiceDesk start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(API_PATH, this::handleApi);
+        server.createContext(TOKEN_PATH, this::handleToken);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "FakeServiceDesk");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+        return this;
+    }
+
+
+    @Override
+    public void close() {
+        if (server != null) server.stop(0);
+        if (executor != null) executor.shutdownNow();
+        server = null;
+        executor = null;
+    }
+
+
+    /**
+     * @return the URL to pass to {@link SDP#setServiceUrl(String)}
+     */
+    public String getServiceUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + API_PATH;
+    }
+
+
+    /**
+     * @return the URL to pass to {@link SDP#setTokenUrl(String)}; the client appends {@code /token} to it
+     */
+    public String getTokenUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + OAUTH_PATH;
+    }
+
+
+    /**
+     * @return the number of calls made to the API endpoints, including those which were refused
+     */
+    public long getApiRequests() {
+        return apiRequests.get();
+    }
+
+
+    /**
+     * @return the number of calls made to the token endpoint
+     */
+    public long getTokenRequests() {
+        return tokenRequests.get();
+    }
+
+
+    /**
+     * @return the number of API calls answered with HTTP 429
+     */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+
+    /**
+     * @param id the identifier of the workstation
+     * @return the workstation record as currently held by the server, null if there is no such workstation
+     */
+    public Map<String, Object> getWorkstation(String id) {
+        return find(workstations, id);
+    }
+
+
+    private void handleToken(HttpExchange exchange) throws IOException {
+        tokenRequests.incrementAndGet();
+        String form = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        Map<String, String> params = parseForm(form);
+        if (!"POST".equals(exchange.getRequestMethod()) || !"refresh_token".equals(params.get("grant_type")) || params.get("refresh_token") == null) {
+            send(exchange, 400, "{\"error\":\"invalid_code\"}");
+            return;
+        }
+        if (revokedTokens.contains(params.get("refresh_token"))) {
+            send(exchange, 400, "{\"error\":\"invalid_code\"}");
+            return;
+        }
+        if (tokenFailuresRemaining.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            send(exchange, 500, "{\"error\":\"internal_error\"}");
+            return;
+        }
+        String token = "1000." + tokenSequence.incrementAndGet() + "." + Long.toHexString(System.nanoTime());
+        issuedTokens.add(token);
+        send(exchange, 200, String.format("{\"access_token\":\"%s\",\"api_domain\":\"https://www.zohoapis.com\",\"token_type\":\"Bearer\",\"expires_in\":%d}", token, tokenLifetimeSeconds));
+    }
+
+
+    private void handleApi(HttpExchange exchange) throws IOException {
+        if ("HEAD".equalsIgnoreCase(exchange.getRequestMethod())) {
+            // connection warmup, not an API call
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        apiRequests.incrementAndGet();
+        try {
+            if (latencyMillis > 0) TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !issuedTokens.contains(authorization.replaceFirst("^Zoho-oauthtoken\\s+", ""))) {
+            send(exchange, 401, failure(4001, "Invalid or expired access token"));
+            return;
+        }
+
+        long retryAfter = admit();
+        if (retryAfter > 0) {
+            throttled.incrementAndGet();
+            exchange.getResponseHeaders().add("Retry-After", Long.toString(retryAfter));
+            send(exchange, 429, failure(4015, "Rate limit exceeded"));
+            return;
+        }
+
+        if (failuresRemaining.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            send(exchange, failureStatus, failure(4000, "Injected failure"));
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath().substring(API_PATH.length());
+        String method = exchange.getRequestMethod();
+        if ("GET".equals(method) && "/assets".equals(path)) {
+            list(exchange, assets, "assets");
+        } else if ("GET".equals(method) && "/workstations".equals(path)) {
+            list(exchange, workstations, "workstations");
+        } else if (path.startsWith("/workstation/") && ("GET".equals(method) || "PUT".equals(method))) {
+            workstation(exchange, path.substring("/workstation/".length()));
+        } else {
+            send(exchange, 404, failure(4007, "Invalid URL"));
+        }
+    }
+
+
+    /**
+     * Count a call against the rate limit.
+     *
+     * @return 0 if the call is allowed, otherwise the number of seconds until the window resets
+     */
+    private synchronized long admit() {
+        if (rateLimit <= 0) return 0;
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= rateWindowMillis) {
+            windowStart = now;
+            windowCalls = 0;
+        }
+        if (windowCalls < rateLimit) {
+            windowCalls++;
+            return 0;
+        }
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(windowStart + rateWindowMillis - now + 999));
+    }
+
+
+    private void list(HttpExchange exchange, List<Map<String, Object>> dataset, String resultField) throws IOException {
+        DataFrame listInfo = null;
+        String inputData = queryParameter(exchange.getRequestURI().getRawQuery(), "input_data");
+        if (inputData != null) {
+            List<DataFrame> frames = JSONMarshaler.marshal(inputData);
+            if (frames != null && !frames.isEmpty()) listInfo = (DataFrame) frames.get(0).getObject("list_info");
+        }
+
+        int startIndex = Math.max(1, getInt(listInfo, "start_index", 1));
+        int rowCount = Math.min(100, Math.max(1, getInt(listInfo, "row_count", 10)));
+        String sortField = listInfo != null ? listInfo.getAsString("sort_field") : null;
+        String sortOrder = listInfo != null ? listInfo.getAsString("sort_order") : null;
+        DataFrame criteria = listInfo != null && listInfo.getObject("search_criteria") instanceof DataFrame ? (DataFrame) listInfo.getObject("search_criteria") : null;
+
+        List<Map<String, Object>> matches = new ArrayList<>();
+        synchronized (dataset) {
+            for (Map<String, Object> record : dataset) {
+                if (criteria == null || matches(record, criteria)) matches.add(record);
+            }
+        }
+        if (sortField != null) {
+            Comparator<Map<String, Object>> order = Comparator.comparing(record -> String.valueOf(resolve(record, sortField)), String.CASE_INSENSITIVE_ORDER);
+            matches.sort("desc".equalsIgnoreCase(sortOrder) ? order.reversed() : order);
+        }
+
+        int from = Math.min(matches.size(), startIndex - 1);
+        int to = Math.min(matches.size(), from + rowCount);
+        List<Map<String, Object>> page = project(matches.subList(from, to), fieldsRequired(listInfo));
+
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("has_more_rows", to < matches.size());
+        info.put("start_index", startIndex);
+        info.put("row_count", page.size());
+        if (sortField != null) info.put("sort_field", sortField);
+        if (sortOrder != null) info.put("sort_order", sortOrder);
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("response_status", Collections.singletonList(success()));
+        body.put("list_info", info);
+        body.put(resultField, page);
+        if (dropsRemaining.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            sendPart(exchange, toJson(body));
+        } else {
+            send(exchange, 200, toJson(body));
+        }
+    }
+
+
+    /**
+     * @return the top-level fields listed in {@code fields_required}, null if all fields are required
+     */
+    private static Set<String> fieldsRequired(DataFrame listInfo) {
+        Object value = listInfo != null ? listInfo.getObject("fields_required") : null;
+        if (value == null) return null;
+        Set<String> retval = new HashSet<>();
+        retval.add("id"); // always returned by the service
+        if (value instanceof DataFrame) {
+            for (DataField field : ((DataFrame) value).getFields()) retval.add(field.getStringValue());
+        } else {
+            retval.add(value.toString());
+        }
+        return retval;
+    }
+
+
+    private static List<Map<String, Object>> project(List<Map<String, Object>> records, Set<String> fields) {
+        if (fields == null) return records;
+        List<Map<String, Object>> retval = new ArrayList<>();
+        for (Map<String, Object> record : records) {
+            Map<String, Object> projected = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : record.entrySet()) {
+                if (fields.contains(entry.getKey())) projected.put(entry.getKey(), entry.getValue());
+            }
+            retval.add(projected);
+        }
+        return retval;
+    }
+
+
+    private void workstation(HttpExchange exchange, String id) throws IOException {
+        Map<String, Object> record = find(workstations, id);
+        if (record == null) {
+            send(exchange, 404, failure(4007, "Invalid input for id"));
+            return;
+        }
+
+        if ("PUT".equals(exchange.getRequestMethod())) {
+            String form = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String inputData = parseForm(form).get("input_data");
+            List<DataFrame> frames = inputData != null ? JSONMarshaler.marshal(inputData) : null;
+            Object update = frames != null && !frames.isEmpty() ? frames.get(0).getObject("workstation") : null;
+            if (!(update instanceof DataFrame)) {
+                send(exchange, 400, failure(4012, "Invalid input_data"));
+                return;
+            }
+            synchronized (record) {
+                for (DataField field : ((DataFrame) update).getFields()) {
+                    record.put(field.getName(), toValue(field.getObjectValue()));
+                }
+                record.put("last_updated_time", timestamp(System.currentTimeMillis()));
+            }
+        }
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("response_status", success());
+        synchronized (record) {
+            body.put("workstation", record);
+            send(exchange, 200, toJson(body));
+        }
+    }
+
+
+    /**
+     * Evaluate a search criteria tree against a record.
+     *
+     * <p>Each child is combined with the result so far using its logical
+     * operator, in order, which is how the service evaluates criteria.</p>
+     */
+    static boolean matches(Map<String, Object> record, DataFrame criteria) {
+        if (criteria.isArray()) {
+            boolean retval = true;
+            boolean first = true;
+            for (DataField field : criteria.getFields()) {
+                if (!field.isFrame()) continue;
+                DataFrame child = (DataFrame) field.getObjectValue();
+                boolean result = matches(record, child);
+                retval = first ? result : combine(retval, result, operator(child));
+                first = false;
+            }
+            return retval;
+        }
+
+        boolean retval = true;
+        if (criteria.getAsString("field") != null) {
+            retval = test(resolve(record, criteria.getAsString("field")), criteria.getAsString("condition"), values(criteria));
+        }
+        Object children = criteria.getObject("children");
+        if (children instanceof DataFrame) {
+            for (DataField field : ((DataFrame) children).getFields()) {
+                if (!field.isFrame()) continue;
+                DataFrame child = (DataFrame) field.getObjectValue();
+                retval = combine(retval, matches(record, child), operator(child));
+            }
+        }
+        return retval;
+    }
+
+
+    private static String operator(DataFrame criteria) {
+        return criteria.getAsString("logical_operator");
+    }
+
+
+    private static boolean combine(boolean left, boolean right, String operator) {
+        return "OR".equalsIgnoreCase(operator) ? left || right : left && right;
+    }
+
+
+    private static List<String> values(DataFrame criteria) {
+        List<String> retval = new ArrayList<>();
+        Object values = criteria.getObject("values");
+        if (values instanceof DataFrame) {
+            for (DataField field : ((DataFrame) values).getFields()) retval.add(field.getStringValue());
+        } else if (criteria.getAsString("value") != null) {
+            retval.add(criteria.getAsString("value"));
+        }
+        return retval;
+    }
+
+
+    private static boolean test(Object actual, String condition, List<String> values) {
+        String text = actual != null ? String.valueOf(actual).toLowerCase(Locale.ROOT) : null;
+        String cond = condition != null ? condition.toLowerCase(Locale.ROOT) : "is";
+        switch (cond) {
+            case "is":
+                return values.stream().anyMatch(v -> v.equalsIgnoreCase(String.valueOf(actual)));
+            case "is not":
+                return values.stream().noneMatch(v -> v.equalsIgnoreCase(String.valueOf(actual)));
+            case "contains":
+                return text != null && values.stream().anyMatch(v -> text.contains(v.toLowerCase(Locale.ROOT)));
+            case "not contains":
+                return text == null || values.stream().noneMatch(v -> text.contains(v.toLowerCase(Locale.ROOT)));
+            case "starts with":
+                return text != null && values.stream().anyMatch(v -> text.startsWith(v.toLowerCase(Locale.ROOT)));
+            case "ends with":
+                return text != null && values.stream().anyMatch(v -> text.endsWith(v.toLowerCase(Locale.ROOT)));
+            case "greater than":
+                return !values.isEmpty() && compare(actual, values.get(0)) > 0;
+            case "greater or equal":
+                return !values.isEmpty() && compare(actual, values.get(0)) >= 0;
+            case "lesser than":
+                return !values.isEmpty() && compare(actual, values.get(0)) < 0;
+            case "lesser or equal":
+                return !values.isEmpty() && compare(actual, values.get(0)) <= 0;
+            case "between":
+                return values.size() > 1 && compare(actual, values.get(0)) >= 0 && compare(actual, values.get(1)) <= 0;
+            case "not between":
+                return values.size() > 1 && (compare(actual, values.get(0)) < 0 || compare(actual, values.get(1)) > 0);
+            default:
+                return false;
+        }
+    }
+
+
+    /**
+     * Compare numerically when both sides are numbers, otherwise as text.
+     * Identifiers have more digits than a double holds, so numbers are compared exactly.
+     */
+    private static int compare(Object actual, String value) {
+        if (actual == null) return -1;
+        String text = String.valueOf(actual);
+        try {
+            return new BigDecimal(text).compareTo(new BigDecimal(value));
+        } catch (NumberFormatException e) {
+            return text.compareToIgnoreCase(value);
+        }
+    }
+
+
+    /**
+     * Resolve a dotted field name in a record. Date-time fields resolve to their epoch value.
+     */
+    @SuppressWarnings("unchecked")
+    static Object resolve(Map<String, Object> record, String name) {
+        Object retval = record;
+        for (String token : name.split("\\.")) {
+            if (!(retval instanceof Map)) return null;
+            retval = ((Map<String, Object>) retval).get(token);
+        }
+        if (retval instanceof Map && ((Map<String, Object>) retval).containsKey("value")) {
+            retval = ((Map<String, Object>) retval).get("value");
+        }
+        return retval;
+    }
+
+
+    private static Map<String, Object> find(List<Map<String, Object>> dataset, String id) {
+        synchronized (dataset) {
+            for (Map<String, Object> record : dataset) {
+                if (id.equals(record.get("id"))) return record;
+            }
+        }
+        return null;
+    }
+
+
+    private static int getInt(DataFrame frame, String name, int defaultValue) {
+        if (frame == null || !frame.contains(name)) return defaultValue;
+        try {
+            return frame.getAsInt(name);
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+
+
+    /**
+     * Convert a marshaled value into the plain maps and lists the datasets are made of.
+     */
+    private static Object toValue(Object value) {
+        if (value instanceof DataFrame) {
+            DataFrame frame = (DataFrame) value;
+            if (frame.isArray()) {
+                List<Object> retval = new ArrayList<>();
+                for (DataField field : frame.getFields()) retval.add(toValue(field.getObjectValue()));
+                return retval;
+            }
+            Map<String, Object> retval = new LinkedHashMap<>();
+            for (DataField field : frame.getFields()) retval.put(field.getName(), toValue(field.getObjectValue()));
+            return retval;
+        }
+        return value;
+    }
+
+
+    private static Map<String, Object> createAsset(int row) {
+        Map<String, Object> retval = createBase(row, "AST", "Access_Point", "Access Point");
+        retval.put("ip_address", String.format("10.14.%d.%d", row / 250 % 250, row % 250 + 1));
+        retval.put("product", named("Cisco AIR-AP2802I", 274011));
+        retval.put("vendor", named("Cisco", 16431));
+        retval.put("purchase_cost", 1249.99);
+        return retval;
+    }
+
+
+    private static Map<String, Object> createWorkstation(int row) {
+        Map<String, Object> retval = createBase(row, "WS", "Workstation", "Workstation");
+        retval.put("product", named("Lenovo ThinkPad T14 Gen 4", 274087));
+        retval.put("vendor", named("Lenovo", 16441));
+        Map<String, Object> os = new LinkedHashMap<>();
+        os.put("os", row % 7 == 0 ? "Windows 10 Enterprise" : "Windows 11 Enterprise");
+        os.put("version", row % 7 == 0 ? "10.0.19045" : "10.0.22631");
+        retval.put("operating_system", os);
+        Map<String, Object> system = new LinkedHashMap<>();
+        system.put("system_manufacturer", "LENOVO");
+        system.put("model", "21HD0045US");
+        system.put("service_tag", retval.get("serial_number"));
+        retval.put("computer_system", system);
+        retval.put("is_server", false);
+        retval.put("last_logged_user", String.format("user%04d", row));
+        return retval;
+    }
+
+
+    private static Map<String, Object> createBase(int row, String prefix, String typeName, String typeDisplayName) {
+        long id = FIRST_ID + row;
+        long updated = 1_700_000_000_000L + row * 60_000L;
+        Map<String, Object> retval = new LinkedHashMap<>();
+        retval.put("id", Long.toString(id));
+        retval.put("name", String.format("%s-%05d", prefix, row));
+        retval.put("asset_tag", String.format("%s-TAG-%05d", prefix, row));
+        retval.put("serial_number", String.format("SN%08d", row));
+        retval.put("state", named(STATES[row % STATES.length], 219 + row % STATES.length));
+        Map<String, Object> type = named(typeName, 16003);
+        type.put("display_name", typeDisplayName);
+        retval.put("product_type", type);
+        retval.put("site", named(SITES[row % SITES.length], 289001 + row % SITES.length));
+        Map<String, Object> user = named(String.format("User %04d", row), 1842000 + row);
+        user.put("email_id", String.format("user%04d@example.com", row));
+        retval.put("user", user);
+        retval.put("created_time", timestamp(updated - 86_400_000L));
+        retval.put("last_updated_time", timestamp(updated));
+        return retval;
+    }
+
+
+    private static Map<String, Object> named(String name, long id) {
+        Map<String, Object> retval = new LinkedHashMap<>();
+        retval.put("name", name);
+        retval.put("id", Long.toString(119894000000000000L + id));
+        return retval;
+    }
+
+
+    private static Map<String, Object> timestamp(long millis) {
+        Map<String, Object> retval = new LinkedHashMap<>();
+        retval.put("display_value", new java.util.Date(millis).toString());
+        retval.put("value", Long.toString(millis));
+        return retval;
+    }
+
+
+    private static Map<String, Object> success() {
+        Map<String, Object> retval = new LinkedHashMap<>();
+        retval.put("status_code", 2000);
+        retval.put("status", "success");
+        return retval;
+    }
+
+
+    private static String failure(int code, String message) {
+        return String.format("{\"response_status\":{\"status_code\":4000,\"messages\":[{\"status_code\":%d,\"message\":\"%s\",\"type\":\"failed\"}],\"status\":\"failed\"}}", code, message);
+    }
+
+
+    private static String queryParameter(String rawQuery, String name) {
+        if (rawQuery == null) return null;
+        return parseForm(rawQuery).get(name);
+    }
+
+
+    private static Map<String, String> parseForm(String form) {
+        Map<String, String> retval = new LinkedHashMap<>();
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                retval.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return retval;
+    }
+
+
+    /**
+     * Send the first half of a response body and drop the connection before the rest.
+     *
+     * @throws IOException always, so the server closes the connection
+     */
+    private static void sendPart(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes, 0, bytes.length / 2);
+        out.flush();
+        try {
+            TimeUnit.MILLISECONDS.sleep(100); // let the client parse what has arrived
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new IOException("Connection dropped");
+    }
+
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+
+    static String toJson(Object value) {
+        StringBuilder b = new StringBuilder();
+        appendJson(b, value);
+        return b.toString();
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static void appendJson(StringBuilder b, Object value) {
+        if (value == null) {
+            b.append("null");
+        } else if (value instanceof Map) {
+            b.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                if (!first) b.append(',');
+                first = false;
+                appendString(b, entry.getKey());
+                b.append(':');
+                appendJson(b, entry.getValue());
+            }
+            b.append('}');
+        } else if (value instanceof List) {
+            b.append('[');
+            boolean first = true;
+            for (Object element : (List<Object>) value) {
+                if (!first) b.append(',');
+                first = false;
+                appendJson(b, element);
+            }
+            b.append(']');
+        } else if (value instanceof Number || value instanceof Boolean) {
+            b.append(value);
+        } else {
+            appendString(b, value.toString());
+        }
+    }
+
+
+    private static void appendString(StringBuilder b, String text) {
+        b.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    b.append("\\\"");
+                    break;
+                case '\\':
+                    b.append("\\\\");
+                    break;
+                case '\n':
+                    b.append("\\n");
+                    break;
+                case '\r':
+                    b.append("\\r");
+                    break;
+                case '\t':
+                    b.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) b.append(String.format("\\u%04x", (int) c));
+                    else b.append(c);
+            }
+        }
+        b.append('"');
+    }
+
+}
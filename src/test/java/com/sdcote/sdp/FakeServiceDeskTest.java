@@ -0,0 +1,483 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Exercises the client against the in-process stand-in server.
+ */
+class FakeServiceDeskTest {
+
+    private static final ClientCredentials CLIENT = new ClientCredentials("1000.TEST", "secret", "1000.refresh");
+
+    private FakeServiceDesk server;
+    @TempDir
+    Path dir;
+    private String serviceUrl;
+    private MetricsRegistry previousMetrics;
+    private String tokenUrl;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new FakeServiceDesk().setAssets(250).setWorkstations(40).start();
+        serviceUrl = SDP.getServiceUrl();
+        tokenUrl = SDP.getTokenUrl();
+        SDP.setServiceUrl(server.getServiceUrl());
+        SDP.setTokenUrl(server.getTokenUrl());
+
+        RateLimiterRegistry limiters = new RateLimiterRegistry();
+        limiters.setDefaultLimits(RateLimiterRegistry.Operation.READ, 60_000, 100);
+        limiters.setDefaultLimits(RateLimiterRegistry.Operation.WRITE, 60_000, 100);
+        SDP.setRateLimiters(limiters);
+
+        // retry quickly, but do not wait out the server's rate limit window
+        SDP.setRetryPolicy(new RetryPolicy().setBaseDelay(10).setMaxDelay(1000));
+        SDP.setCircuitBreakers(null);
+        previousMetrics = SDP.getMetrics();
+        SDP.setMetrics(new MetricsRegistry());
+    }
+
+    @AfterEach
+    void stop() {
+        SDP.setServiceUrl(serviceUrl);
+        SDP.setTokenUrl(tokenUrl);
+        SDP.setRateLimiters(null);
+        SDP.setRetryPolicy(new RetryPolicy());
+        SDP.setCircuitBreakers(null);
+        SDP.setMetrics(previousMetrics);
+        server.close();
+    }
+
+    @Test
+    void pagesThroughAllRecords() {
+        Set<String> ids = new HashSet<>();
+        ListInfo listInfo = new ListInfo().setRowCount(100).setSortField("name").setSortOrder(ListInfo.ASCENDING);
+        for (int start = 1; ; start += 100) {
+            listInfo.setStartIndex(start);
+            ApiResponse response = SDP.callApi(CLIENT, "/assets", listInfo, "assets");
+            assertTrue(response.isSuccessful());
+            for (int i = 0; i < response.getResultSize(); i++) {
+                ids.add(response.getFrame(i).getAsString("id"));
+            }
+            if (response.getResultSize() < 100) break;
+        }
+        assertEquals(250, ids.size());
+        assertEquals(1, server.getTokenRequests()); // the token is reused
+    }
+
+    @Test
+    void seeksThroughAllRecords() {
+        SearchCriteria inUse = new SearchCriteria("state.name", "is", "In Use");
+        Set<String> ids = new HashSet<>();
+        ListInfo listInfo = new ListInfo().setRowCount(20).setStartIndex(1).setSortField("id").setSortOrder(ListInfo.ASCENDING).setSearchCriteria(inUse);
+        while (true) {
+            ApiResponse response = SDP.callApi(CLIENT, "/assets", listInfo, "assets");
+            assertTrue(response.isSuccessful());
+            for (int i = 0; i < response.getResultSize(); i++) {
+                DataFrame state = (DataFrame) response.getFrame(i).getObject("state");
+                assertEquals("In Use", state.getAsString("name"));
+                assertTrue(ids.add(response.getFrame(i).getAsString("id")));
+            }
+            if (response.getResultSize() < 20) break;
+            String last = response.getFrame(response.getResultSize() - 1).getAsString("id");
+            listInfo.setSearchCriteria(SearchCriteria.after("id", last, inUse));
+        }
+        assertEquals(50, ids.size()); // one in five of the 250 assets
+    }
+
+    @Test
+    void readsSlicesConcurrently() {
+        Set<String> ids = new HashSet<>();
+        try (PartitionedQuery query = new PartitionedQuery(CLIENT, "/assets", "assets").setRowCount(20).setSlices(2).setConcurrency(4)) {
+            for (DataFrame record = query.next(); record != null; record = query.next()) {
+                assertTrue(ids.add(record.getAsString("id")));
+            }
+            assertNull(query.getFailure());
+            assertEquals(250, query.getRecordCount());
+            assertTrue(query.getSplitCount() > 0); // two slices cannot keep four workers busy
+        }
+        assertEquals(250, ids.size());
+    }
+
+    @Test
+    void readsSlicesInOrder() {
+        List<Long> ids = new ArrayList<>();
+        try (PartitionedQuery query = new PartitionedQuery(CLIENT, "/assets", "assets").setRowCount(30).setSlices(5).setConcurrency(3).setOrdered(true)) {
+            for (DataFrame record = query.next(); record != null; record = query.next()) {
+                ids.add(Long.parseLong(record.getAsString("id")));
+            }
+        }
+        assertEquals(250, ids.size());
+        for (int i = 1; i < ids.size(); i++) assertTrue(ids.get(i - 1) < ids.get(i));
+    }
+
+    @Test
+    void readsSlicesByValue() {
+        SearchCriteria criteria = new SearchCriteria("name", "starts with", "AST");
+        try (PartitionedQuery query = new PartitionedQuery(CLIENT, "/assets", "assets").setCriteria(criteria).setRowCount(20)
+                .byValues("state.name", Arrays.asList("In Use", "No Such State"))) {
+            int count = 0;
+            for (DataFrame record = query.next(); record != null; record = query.next()) {
+                assertEquals("In Use", ((DataFrame) record.getObject("state")).getAsString("name"));
+                count++;
+            }
+            assertEquals(50, count);
+            assertEquals(4, query.getCallCount()); // three pages of In Use, one empty page
+        }
+    }
+
+    @Test
+    void spreadsCallsOverPool() {
+        CredentialPool pool = new CredentialPool("test")
+                .add(new ClientCredentials("1000.A", "secret", "1000.refresh.a"))
+                .add(new ClientCredentials("1000.B", "secret", "1000.refresh.b"))
+                .add(new ClientCredentials("1000.C", "secret", "1000.refresh.c"));
+        server.revokeRefreshToken("1000.refresh.c");
+
+        int failed = 0;
+        for (int i = 0; i < 21; i++) {
+            ApiResponse response = SDP.callApi(pool, "/assets", new ListInfo().setRowCount(1), "assets");
+            if (response == null || !response.isSuccessful()) failed++;
+        }
+
+        List<CredentialPool.Member> members = pool.getMembers();
+        assertEquals(1, failed); // only the first call made with the revoked client
+        assertEquals(1, members.get(2).getCalls());
+        assertFalse(members.get(2).isAvailable());
+        assertEquals(20, members.get(0).getCalls() + members.get(1).getCalls());
+        assertEquals(10, members.get(0).getCalls()); // taking turns
+        assertEquals(20, server.getApiRequests());
+    }
+
+    @Test
+    void readsRecordsChangedSinceWatermark() {
+        ListInfo listInfo = new ListInfo().setRowCount(100).setSortField("last_updated_time").setSortOrder(ListInfo.DECENDING);
+        ApiResponse latest = SDP.callApi(CLIENT, "/workstations", listInfo, "workstations");
+        DataFrame updated = (DataFrame) latest.getFrame(0).getObject("last_updated_time");
+        String watermark = updated.getAsString("value");
+
+        assertNotNull(SDP.updateWorkstationState(SDP.getWorkstationByName(CLIENT, "WS-00004"), "Expired", CLIENT));
+
+        SearchCriteria delta = new SearchCriteria("last_updated_time", "greater or equal", watermark);
+        ApiResponse response = SDP.callApi(CLIENT, "/workstations", new ListInfo().setRowCount(100).setSortField("last_updated_time").setSearchCriteria(delta), "workstations");
+        assertEquals(2, response.getResultSize()); // the record at the watermark and the one just changed
+        assertEquals("WS-00004", response.getFrame(1).getAsString("name"));
+    }
+
+    @Test
+    void syncsReplicaWithinFreshnessBound() throws IOException {
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            assertSame(replica, SDP.getReplica(CLIENT, "/workstations", "workstations", replica, Duration.ofHours(1)));
+            assertEquals(40, replica.size());
+            assertNotNull(replica.getWatermark());
+
+            long calls = server.getApiRequests();
+            assertSame(replica, SDP.getReplica(CLIENT, "/workstations", "workstations", replica, Duration.ofHours(1)));
+            assertEquals(calls, server.getApiRequests()); // fresh enough, no calls
+
+            Workstation workstation = SDP.getWorkstationByName(CLIENT, "WS-00004");
+            assertNotNull(SDP.updateWorkstationState(workstation, "Expired", CLIENT));
+            assertTrue(SDP.syncReplica(CLIENT, "/workstations", "workstations", replica, false));
+            assertEquals("Expired", new Workstation(replica.get(workstation.getId())).getStateName());
+
+            server.setWorkstations(30);
+            assertTrue(SDP.syncReplica(CLIENT, "/workstations", "workstations", replica, true));
+            assertEquals(30, replica.size());
+        }
+    }
+
+    @Test
+    void filtersWithSearchCriteria() {
+        SearchCriteria criteria = new SearchCriteria("state.name", "is", "Expired");
+        SearchCriteria name = new SearchCriteria("name", "starts with", "WS-0001");
+        name.setLogicalOperator("AND");
+        criteria.addChild(name);
+
+        ApiResponse response = SDP.callApi(CLIENT, "/workstations", new ListInfo().setRowCount(100).setSearchCriteria(criteria), "workstations");
+        assertTrue(response.isSuccessful());
+        // WS-00010 through WS-00019 whose row is 3 modulo 5
+        assertEquals(2, response.getResultSize());
+        assertEquals("WS-00013", response.getFrame(0).getAsString("name"));
+        assertEquals("WS-00018", response.getFrame(1).getAsString("name"));
+    }
+
+    @Test
+    void filtersLocallyAsServiceDoes() {
+        List<DataFrame> assets = new ArrayList<>();
+        ListInfo all = new ListInfo().setRowCount(100).setSortField("id");
+        for (int start = 1; ; start += 100) {
+            ApiResponse response = SDP.callApi(CLIENT, "/assets", all.setStartIndex(start), "assets");
+            assets.addAll(response.getResults());
+            if (response.getResultSize() < 100) break;
+        }
+        assertEquals(250, assets.size());
+
+        SearchCriteria inUse = new SearchCriteria("state.name", "is", "In Use");
+        SearchCriteria named = new SearchCriteria("name", "starts with", "AST-001");
+        named.addChild(new SearchCriteria("serial_number", "ends with", "7").setLogicalOperator("or"));
+        named.addChild(new SearchCriteria("state.name", "is not", "In Store").setLogicalOperator("and"));
+        SearchCriteria recent = new SearchCriteria("last_updated_time", "greater than", "1700006000000");
+        recent.addChild(new SearchCriteria("ip_address", "contains", ".0.1").setLogicalOperator("and"));
+        SearchCriteria range = new SearchCriteria("{\"field\":\"id\",\"condition\":\"between\",\"values\":[\""
+                + assets.get(10).getAsString("id") + "\",\"" + assets.get(40).getAsString("id") + "\"]}");
+
+        for (SearchCriteria criteria : Arrays.asList(inUse, named, recent, range, SearchCriteria.and(inUse, recent))) {
+            Set<String> remote = new HashSet<>();
+            ListInfo listInfo = new ListInfo().setRowCount(100).setSearchCriteria(criteria);
+            for (int start = 1; ; start += 100) {
+                ApiResponse response = SDP.callApi(CLIENT, "/assets", listInfo.setStartIndex(start), "assets");
+                for (DataFrame asset : response.getResults()) remote.add(asset.getAsString("id"));
+                if (response.getResultSize() < 100) break;
+            }
+            Set<String> local = new HashSet<>();
+            Predicate<DataFrame> filter = criteria.toPredicate();
+            for (DataFrame asset : assets) {
+                if (filter.test(asset)) local.add(asset.getAsString("id"));
+            }
+            assertFalse(remote.isEmpty(), criteria.toString());
+            assertEquals(remote, local, criteria.toString());
+        }
+    }
+
+    @Test
+    void requestsOnlyWorkstationFields() {
+        Workstation workstation = SDP.getWorkstationByName(CLIENT, "WS-00007");
+        assertNotNull(workstation);
+        assertEquals("SN00000007", workstation.getServiceTag());
+        assertNotNull(workstation.getStateName());
+        assertFalse(workstation.getDataFrame().contains("operating_system"));
+        assertFalse(workstation.getDataFrame().contains("product"));
+    }
+
+    @Test
+    void updatesWorkstation() {
+        Workstation workstation = SDP.getWorkstationByName(CLIENT, "WS-00007");
+        assertNotNull(workstation);
+
+        Workstation updated = SDP.updateWorkstationState(workstation, "Disposed", CLIENT);
+        assertNotNull(updated);
+        assertEquals(workstation.getId(), updated.getId());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> state = (Map<String, Object>) server.getWorkstation(workstation.getId()).get("state");
+        assertEquals("Disposed", state.get("name"));
+    }
+
+    @Test
+    void looksUpWorkstationsInBatches() {
+        server.setWorkstations(250);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 250; i += 2) {
+            names.add(String.format("WS-%05d", i));
+        }
+        names.add("ws-00001");
+        names.add("WS-00000"); // duplicates are only looked up once
+        names.add("MISSING-1");
+
+        WorkstationLookup lookup = SDP.getWorkstationsByNames(CLIENT, names);
+        assertEquals(126, lookup.getFound().size());
+        assertEquals("WS-00001", lookup.get("ws-00001").getName());
+        assertEquals(Set.of("MISSING-1"), lookup.getNotFound());
+        List<String> distinct = new ArrayList<>(names);
+        distinct.remove("WS-00000");
+        assertEquals(SDP.chunkNames(distinct).size(), lookup.getCalls());
+        assertEquals(lookup.getCalls(), server.getApiRequests());
+    }
+
+
+    @Test
+    void reportsFailedLookupsApartFromMissingNames() {
+        SDP.setRetryPolicy(RetryPolicy.none());
+        server.setWorkstations(10).failNext(1, 503);
+        WorkstationLookup lookup = SDP.getWorkstationsByNames(CLIENT, List.of("WS-00001", "MISSING-1"));
+        assertTrue(lookup.getFound().isEmpty());
+        assertTrue(lookup.getNotFound().isEmpty()); // unknown, not missing
+        assertEquals(Set.of("WS-00001", "MISSING-1"), lookup.getFailed());
+        assertEquals("HTTP 503", lookup.getFailure("MISSING-1"));
+
+        lookup = SDP.getWorkstationsByNames(CLIENT, List.of("WS-00001", "MISSING-1"));
+        assertEquals(Set.of("MISSING-1"), lookup.getNotFound());
+        assertTrue(lookup.getFailed().isEmpty());
+    }
+
+
+    @Test
+    void appliesBulkStateChanges() {
+        List<StateChange> changes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            changes.add(StateChange.byName(String.format("WS-%05d", i), "Expired"));
+        }
+        changes.add(StateChange.byName("MISSING-1", "Expired"));
+
+        BulkUpdateReport report = new BulkUpdateEngine(CLIENT).setConcurrency(4).setLookupBatchSize(8).run(changes);
+        assertEquals(21, report.getResults().size());
+        assertEquals(16, report.getCount(BulkUpdateReport.Outcome.UPDATED));
+        assertEquals(4, report.getCount(BulkUpdateReport.Outcome.UNCHANGED)); // every fifth workstation is already expired
+        assertEquals(1, report.getCount(BulkUpdateReport.Outcome.NOT_FOUND));
+        assertEquals("MISSING-1", report.getResults().get(20).getChange().getName());
+
+        String id = report.getResults().get(0).getWorkstationId();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> state = (Map<String, Object>) server.getWorkstation(id).get("state");
+        assertEquals("Expired", state.get("name"));
+    }
+
+    @Test
+    void retriesTransientUpdateFailures() {
+        String id = Long.toString(119894000002100001L + 30);
+        server.failNext(1, 503);
+        BulkUpdateReport report = new BulkUpdateEngine(CLIENT).setConcurrency(1).setRetryDelay(10).run(List.of(StateChange.byId(id, "Disposed"), StateChange.byId("1", "Disposed")));
+
+        BulkUpdateReport.Result retried = report.getResults().get(0);
+        assertEquals(BulkUpdateReport.Outcome.UPDATED, retried.getOutcome());
+        assertEquals(2, retried.getAttempts());
+
+        BulkUpdateReport.Result missing = report.getResults().get(1);
+        assertEquals(BulkUpdateReport.Outcome.FAILED, missing.getOutcome());
+        assertEquals(404, missing.getHttpStatus());
+        assertEquals(1, missing.getAttempts()); // not retried
+    }
+
+
+    @Test
+    void reportsFailedLookupAsFailedChange() {
+        SDP.setRetryPolicy(RetryPolicy.none());
+        server.failNext(1, 503);
+        BulkUpdateReport report = new BulkUpdateEngine(CLIENT).run(List.of(StateChange.byName("WS-00001", "Disposed")));
+
+        BulkUpdateReport.Result result = report.getResults().get(0);
+        assertEquals(BulkUpdateReport.Outcome.FAILED, result.getOutcome()); // not NOT_FOUND
+        assertTrue(result.getMessage().contains("HTTP 503"), result.getMessage());
+    }
+
+
+    @Test
+    void waitsAsLongAsServiceAsksBeforeRetryingUpdate() {
+        server.setRateLimit(1, Duration.ofMinutes(2));
+        assertTrue(SDP.callApi(CLIENT, "/assets", new ListInfo().setRowCount(1), "assets").isSuccessful());
+
+        String id = Long.toString(119894000002100001L + 30);
+        BulkUpdateReport report = new BulkUpdateEngine(CLIENT).setRetryDelay(10).run(List.of(StateChange.byId(id, "Disposed")));
+        BulkUpdateReport.Result result = report.getResults().get(0);
+        assertEquals(BulkUpdateReport.Outcome.FAILED, result.getOutcome());
+        assertEquals(429, result.getHttpStatus());
+        assertEquals(1, result.getAttempts()); // Retry-After is longer than the maximum delay
+    }
+
+    @Test
+    void rateLimitIsReported() {
+        server.setRateLimit(2, Duration.ofMinutes(1));
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(60_000, 100);
+        SDP.getRateLimiters().setLimiter(CLIENT.getIdentifier(), RateLimiterRegistry.Operation.READ, limiter);
+
+        ListInfo listInfo = new ListInfo().setRowCount(10);
+        assertTrue(SDP.callApi(CLIENT, "/assets", listInfo, "assets").isSuccessful());
+        assertTrue(SDP.callApi(CLIENT, "/assets", listInfo, "assets").isSuccessful());
+        ApiResponse refused = SDP.callApi(CLIENT, "/assets", listInfo, "assets");
+
+        assertEquals(429, refused.getHttpStatusCode());
+        assertEquals(1, server.getThrottled());
+        assertEquals(30_000, limiter.getEffectiveCallsPerMinute(), 0.001);
+    }
+
+    @Test
+    void retriesTransientFailures() {
+        server.failNext(2, 503);
+        ApiResponse response = SDP.callApi(CLIENT, "/assets", new ListInfo().setRowCount(10), "assets");
+        assertTrue(response.isSuccessful());
+        assertEquals(10, response.getResultSize());
+        assertEquals(2, response.getRetryCount());
+        assertTrue(response.getBackoffMillis() >= 10);
+    }
+
+    @Test
+    void restartsStreamedCallDroppedMidBody() {
+        ListInfo listInfo = new ListInfo().setRowCount(100);
+        server.dropNext(1);
+        ApiResponse response = SDP.callApiStreaming(CLIENT, "/assets", listInfo, "assets", null);
+        assertTrue(response.isSuccessful());
+        assertEquals(1, response.getRetryCount());
+        Set<String> ids = new HashSet<>();
+        for (DataFrame record : response.getResults()) ids.add(record.getAsString("id"));
+        assertEquals(100, response.getResultSize());
+        assertEquals(100, ids.size());
+
+        // records already passed to a consumer cannot be taken back, so the call is not retried
+        List<String> consumed = new ArrayList<>();
+        server.dropNext(1);
+        long requests = server.getApiRequests();
+        response = SDP.callApiStreaming(CLIENT, "/assets", listInfo, "assets", record -> consumed.add(record.getAsString("id")));
+        assertFalse(response.isSuccessful());
+        assertEquals(requests + 1, server.getApiRequests());
+        assertFalse(consumed.isEmpty());
+        assertEquals(consumed.size(), new HashSet<>(consumed).size());
+    }
+
+
+    @Test
+    void doesNotRetryWritesByDefault() {
+        Workstation workstation = SDP.getWorkstationByName(CLIENT, "WS-00007");
+        server.failNext(1, 503);
+        ApiResponse response = SDP.putWorkstationState(workstation.getId(), "Disposed", CLIENT).join();
+        assertTrue(response.isServerError());
+        assertEquals(0, response.getRetryCount());
+    }
+
+    @Test
+    void openCircuitFailsFast() {
+        SDP.setRetryPolicy(RetryPolicy.none());
+        SDP.getCircuitBreakers().setDefaults(2, 60_000);
+        server.failNext(10, 503);
+        ListInfo listInfo = new ListInfo().setRowCount(10);
+        assertTrue(SDP.callApi(CLIENT, "/assets", listInfo, "assets").isServerError());
+        assertTrue(SDP.callApi(CLIENT, "/assets", listInfo, "assets").isServerError());
+        long sent = server.getApiRequests();
+
+        ApiResponse rejected = SDP.callApi(CLIENT, "/assets", listInfo, "assets");
+        assertTrue(rejected.isCircuitOpen());
+        assertEquals(sent, server.getApiRequests());
+        assertEquals(CircuitBreaker.State.OPEN, SDP.getCircuitBreakers().getBreaker("/assets").getState());
+
+        // other endpoints are not affected
+        assertFalse(SDP.callApi(CLIENT, "/workstations", listInfo, "workstations").isCircuitOpen());
+    }
+
+
+    @Test
+    void collectsMetrics() {
+        server.failNext(1, 503);
+        ApiResponse response = SDP.callApi(CLIENT, "/assets", new ListInfo().setRowCount(25), "assets");
+        assertTrue(response.isSuccessful());
+        assertTrue(response.getRequestNanos() > 0);
+        assertTrue(response.getTransactionNanos() >= response.getRequestNanos());
+        assertTrue(response.getServerElapsed() >= 0);
+        assertTrue(response.getResponseBytes() > 0);
+
+        EndpointMetrics assets = SDP.getMetrics().getEndpoint("/assets", "GET");
+        assertEquals(1, assets.getCalls());
+        assertEquals(1, assets.getRetries());
+        assertEquals(25, assets.getRecords());
+        assertEquals(1, assets.getStatusCount(503));
+        assertEquals(1, assets.getStatusCount(200));
+        assertEquals(2, assets.getLatency(MetricsRegistry.Phase.HTTP).getCount());
+        assertEquals(1, assets.getLatency(MetricsRegistry.Phase.PARSE).getCount());
+        assertTrue(assets.getResponseBytes() >= response.getResponseBytes());
+        assertTrue(SDP.getMetrics().toPrometheus().contains("sdp_api_records_total{endpoint=\"/assets\",method=\"GET\"} 25"));
+    }
+
+}
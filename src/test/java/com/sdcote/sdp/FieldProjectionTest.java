@@ -0,0 +1,61 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FieldProjectionTest {
+
+    @Test
+    void requestsTopLevelFields() {
+        FieldProjection projection = FieldProjection.parse("name, product_type.name,state.name,,product_type.id");
+        assertArrayEquals(new String[]{"name", "product_type", "state"}, projection.getFieldsRequired());
+        assertTrue(projection.isNested());
+        assertEquals("name,product_type.name,state.name,product_type.id", projection.toString());
+
+        assertFalse(new FieldProjection().add("name").add("state").isNested());
+        assertTrue(new FieldProjection().isEmpty());
+    }
+
+
+    @Test
+    void wholeFieldWinsOverPath() {
+        FieldProjection projection = new FieldProjection().add("state.name").add("state");
+        assertArrayEquals(new String[]{"state"}, projection.getFieldsRequired());
+        assertFalse(projection.isNested());
+    }
+
+
+    @Test
+    void prunesUnwantedFields() {
+        DataFrame type = new DataFrame();
+        type.put("name", "Access_Point");
+        type.put("id", "119894000000016015");
+        DataFrame record = new DataFrame();
+        record.put("name", "AP-1");
+        record.put("barcode", "12345");
+        record.put("product_type", type);
+
+        FieldProjection.parse("name,product_type.name").prune(record);
+
+        assertEquals("AP-1", record.getAsString("name"));
+        assertFalse(record.contains("barcode"));
+        assertEquals("Access_Point", type.getAsString("name"));
+        assertFalse(type.contains("id"));
+    }
+
+
+    @Test
+    void schemaProjection() {
+        FieldProjection projection = Workstation.SCHEMA.getProjection();
+        assertTrue(projection.getPaths().contains("computer_system.service_tag"));
+        assertTrue(projection.getPaths().contains("state.name"));
+        assertTrue(projection.getPaths().contains("last_updated_by"));
+        assertFalse(projection.getPaths().contains("state"));
+
+        // a copy each time
+        projection.add("barcode_x");
+        assertFalse(Workstation.SCHEMA.getProjection().getPaths().contains("barcode_x"));
+    }
+}
@@ -0,0 +1,58 @@
+package com.sdcote.sdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsCoverEveryValue() {
+        long previous = -1;
+        for (int i = 0; i < 1000; i++) {
+            long highest = LatencyHistogram.highestValue(i);
+            assertEquals(i, LatencyHistogram.index(previous + 1), "lowest value of bucket " + i);
+            assertEquals(i, LatencyHistogram.index(highest), "highest value of bucket " + i);
+            assertTrue(highest > previous);
+            previous = highest;
+        }
+    }
+
+
+    @Test
+    void percentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long millis = 1; millis <= 1000; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(TimeUnit.SECONDS.toNanos(1), histogram.getMax());
+        assertEquals(500.5, (double) histogram.getSum() / histogram.getCount() / 1_000_000, 0.001);
+
+        assertEquals(500, TimeUnit.NANOSECONDS.toMillis(histogram.getValueAtQuantile(0.5)), 500 * 0.035);
+        assertEquals(990, TimeUnit.NANOSECONDS.toMillis(histogram.getValueAtQuantile(0.99)), 990 * 0.035);
+        assertEquals(histogram.getMax(), histogram.getValueAtQuantile(1.0));
+
+        LatencyHistogram.Summary summary = histogram.getSummary();
+        assertEquals(1000, summary.getCount());
+        assertEquals(1000.0, summary.getMaxMillis(), 0.001);
+        assertTrue(summary.getP50Millis() <= summary.getP90Millis() && summary.getP90Millis() <= summary.getP99Millis());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+    }
+
+
+    @Test
+    void clampsLongValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.DAYS.toNanos(1));
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(TimeUnit.DAYS.toNanos(1), histogram.getValueAtQuantile(0.5));
+    }
+
+}
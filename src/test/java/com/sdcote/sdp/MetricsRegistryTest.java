@@ -0,0 +1,85 @@
+package com.sdcote.sdp;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+    private static MetricsRegistry sample() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.recordAttempt("/workstation/119894000002100001", "put", 503, TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.recordAttempt("/workstation/119894000002100002", "PUT", 200, TimeUnit.MILLISECONDS.toNanos(40));
+        metrics.record("/assets", "GET", MetricsRegistry.Phase.PARSE, TimeUnit.MILLISECONDS.toNanos(5));
+        return metrics;
+    }
+
+
+    @Test
+    void groupsByEndpointAndMethod() {
+        MetricsRegistry metrics = sample();
+        assertEquals(2, metrics.getEndpoints().size());
+
+        EndpointMetrics workstation = metrics.getEndpoint("/workstation/42", "PUT");
+        assertEquals("/workstation/{id}", workstation.getEndpoint());
+        assertEquals(1, workstation.getStatusCount(503));
+        assertEquals(1, workstation.getStatusCount(200));
+        assertEquals(2, workstation.getLatency(MetricsRegistry.Phase.HTTP).getCount());
+    }
+
+
+    @Test
+    void prometheusText() {
+        String text = sample().toPrometheus();
+        assertTrue(text.contains("# TYPE sdp_api_latency_seconds summary"));
+        assertTrue(text.contains("sdp_api_latency_seconds_count{endpoint=\"/workstation/{id}\",method=\"PUT\",phase=\"http\"} 2"));
+        assertTrue(text.contains("sdp_api_latency_seconds{endpoint=\"/assets\",method=\"GET\",phase=\"parse\",quantile=\"0.5\"} 0.005"));
+        assertTrue(text.contains("sdp_api_responses_total{endpoint=\"/workstation/{id}\",method=\"PUT\",status=\"503\"} 1"));
+        assertFalse(text.contains("phase=\"token\""), "phases with no values are left out");
+    }
+
+
+    @Test
+    void publishedThroughJmx() throws Exception {
+        MetricsRegistry metrics = sample().registerMBeans();
+        try {
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = MetricsRegistry.objectName(metrics.getEndpoint("/workstation/1", "PUT"));
+            assertTrue(mbeans.isRegistered(name));
+            CompositeData http = (CompositeData) mbeans.getAttribute(name, "HttpLatency");
+            assertEquals(2L, http.get("count"));
+            assertEquals("/workstation/{id}", mbeans.getAttribute(name, "Endpoint"));
+
+            // endpoints seen after registering are published too
+            metrics.recordAttempt("/requests", "GET", 200, 1);
+            assertTrue(mbeans.isRegistered(MetricsRegistry.objectName(metrics.getEndpoint("/requests", "GET"))));
+        } finally {
+            metrics.unregisterMBeans();
+        }
+    }
+
+
+    @Test
+    void servesOverHttp() throws Exception {
+        MetricsRegistry metrics = sample();
+        int port = metrics.startServer(0);
+        try {
+            try (InputStream in = new URL("http://localhost:" + port + MetricsRegistry.METRICS_PATH).openStream()) {
+                String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+                assertEquals(metrics.toPrometheus(), text);
+            }
+        } finally {
+            metrics.stopServer();
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.sdcote.sdp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Exercises token refreshing against a {@link FakeServiceDesk}.
+ */
+class OAuthAccessTokenTrackerTest {
+
+    private static final ClientCredentials CLIENT = new ClientCredentials("1000.TEST", "secret", "1000.refresh");
+
+    private FakeServiceDesk server;
+
+    @TempDir
+    Path dir;
+
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new FakeServiceDesk().start();
+    }
+
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+
+    @Test
+    void refreshesInBackgroundBeforeExpiry() throws Exception {
+        server.setTokenLifetime(4);
+        OAuthAccessTokenTracker tracker = new OAuthAccessTokenTracker(server.getTokenUrl(), 1).setRefreshAhead(1);
+        try {
+            tracker.startBackgroundRefresh();
+            String first = tracker.getAccessToken(CLIENT);
+            assertNotNull(first);
+            assertEquals(1, server.getTokenRequests());
+
+            // the refresh happens 2 to 3 seconds in, before the token enters the expiry window
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.getTokenRequests() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            assertEquals(2, server.getTokenRequests());
+
+            Thread.sleep(100);
+            assertNotEquals(first, tracker.getAccessToken(CLIENT));
+            assertEquals(2, server.getTokenRequests());
+        } finally {
+            tracker.stopBackgroundRefresh();
+        }
+        assertFalse(tracker.isRefreshingInBackground());
+    }
+
+
+    @Test
+    void limitsRefreshes() throws Exception {
+        // every token is inside the expiry window, so every call wants a refresh
+        OAuthAccessTokenTracker tracker = new OAuthAccessTokenTracker(server.getTokenUrl(), 3600).setRefreshLimit(2, 60_000);
+        tracker.getAccessToken(CLIENT);
+        String second = tracker.getAccessToken(CLIENT);
+        assertEquals(2, server.getTokenRequests());
+
+        assertEquals(second, tracker.getAccessToken(CLIENT));
+        assertEquals(second, tracker.getAccessToken(CLIENT));
+        assertEquals(2, server.getTokenRequests());
+    }
+
+
+    @Test
+    void keepsValidTokenWhenRefreshFails() throws Exception {
+        OAuthAccessTokenTracker tracker = new OAuthAccessTokenTracker(server.getTokenUrl(), 3600);
+        String first = tracker.getAccessToken(CLIENT);
+
+        server.failNextTokenRequests(1);
+        assertEquals(first, tracker.getAccessToken(CLIENT));
+        assertEquals(2, server.getTokenRequests());
+
+        // no new attempt until the retry delay has passed
+        assertEquals(first, tracker.getAccessToken(CLIENT));
+        assertEquals(2, server.getTokenRequests());
+    }
+
+
+    @Test
+    void reusesStoredToken() throws Exception {
+        TokenStore store = new EncryptedFileTokenStore(dir.resolve("sdp.tokens"), "secret");
+        String token = new OAuthAccessTokenTracker(server.getTokenUrl(), 60).setTokenStore(store).getAccessToken(CLIENT);
+        assertEquals(1, server.getTokenRequests());
+
+        // a later run starts with the saved token
+        assertEquals(token, new OAuthAccessTokenTracker(server.getTokenUrl(), 60).setTokenStore(store).getAccessToken(CLIENT));
+        assertEquals(1, server.getTokenRequests());
+
+        // but not once the credentials have changed
+        ClientCredentials changed = new ClientCredentials(CLIENT.getIdentifier(), CLIENT.getSecret(), "1000.other");
+        assertNotEquals(token, new OAuthAccessTokenTracker(server.getTokenUrl(), 60).setTokenStore(store).getAccessToken(changed));
+        assertEquals(2, server.getTokenRequests());
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.sdcote.sdp;
+
+import coyote.commons.DataFrameUtil;
+import coyote.commons.dataframe.DataField;
+import coyote.commons.dataframe.DataFrame;
+import coyote.commons.dataframe.marshal.JSONMarshaler;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordFlattenerTest {
+
+    private static final String ASSET = "{\"id\":\"%d\",\"name\":\"AP-%d\",\"barcode\":null,"
+            + "\"state\":{\"name\":\"In Use\",\"id\":\"219\"},"
+            + "\"department\":{\"site\":{\"name\":\"Columbus Campus\"},\"name\":\"Network Operations\"},"
+            + "\"user\":%s,\"purchase_cost\":1249.99,\"is_loaned\":false}";
+
+
+    private static DataFrame asset(int id, String user) {
+        return JSONMarshaler.marshal(String.format(ASSET, id, id, user)).get(0);
+    }
+
+
+    private static void assertSameFrame(DataFrame expected, DataFrame actual) {
+        assertEquals(expected.getFields().size(), actual.getFields().size());
+        for (int i = 0; i < expected.getFields().size(); i++) {
+            DataField field = expected.getFields().get(i);
+            assertEquals(field.getName(), actual.getFields().get(i).getName());
+            assertEquals(field.getObjectValue(), actual.getFields().get(i).getObjectValue());
+        }
+    }
+
+
+    @Test
+    void matchesGenericFlatten() {
+        RecordFlattener flattener = new RecordFlattener();
+        for (int i = 0; i < 10; i++) {
+            DataFrame record = asset(i, "{\"name\":\"Jane Doe\",\"id\":\"" + i + "\"}");
+            assertSameFrame(DataFrameUtil.flatten(record), flattener.flatten(record));
+        }
+        assertEquals(1, flattener.getPlanCount());
+        assertEquals(10, flattener.getPlannedCount());
+        assertEquals(0, flattener.getGenericCount());
+        assertEquals("Columbus Campus", flattener.flatten(asset(1, "null")).getAsString("department.site.name"));
+    }
+
+
+    @Test
+    void missingObjectsUseTheSamePlan() {
+        RecordFlattener flattener = new RecordFlattener();
+        flattener.flatten(asset(1, "{\"name\":\"Jane Doe\"}"));
+
+        DataFrame record = asset(2, "null");
+        assertSameFrame(DataFrameUtil.flatten(record), flattener.flatten(record));
+        assertEquals(1, flattener.getPlanCount());
+        assertEquals(2, flattener.getPlannedCount());
+    }
+
+
+    @Test
+    void learnsNewShapesOnlyWhileLearning() {
+        RecordFlattener flattener = new RecordFlattener();
+        flattener.flatten(asset(1, "null"));
+        flattener.flatten(asset(2, "{\"name\":\"Jane Doe\"}"));
+        assertEquals(2, flattener.getPlanCount());
+
+        flattener.setLearning(false);
+        DataFrame record = JSONMarshaler.marshal("{\"id\":\"3\",\"state\":{\"name\":\"In Store\"}}").get(0);
+        assertSameFrame(DataFrameUtil.flatten(record), flattener.flatten(record));
+        assertEquals(2, flattener.getPlanCount());
+        assertEquals(1, flattener.getGenericCount());
+    }
+
+
+    @Test
+    void arraysUseGenericFlatten() {
+        RecordFlattener flattener = new RecordFlattener();
+        DataFrame record = JSONMarshaler.marshal("{\"id\":\"1\",\"tags\":[\"a\",\"b\"],\"state\":{\"name\":\"In Use\"}}").get(0);
+        assertSameFrame(DataFrameUtil.flatten(record), flattener.flatten(record));
+        assertEquals(0, flattener.getPlanCount());
+        assertEquals(1, flattener.getGenericCount());
+    }
+
+}
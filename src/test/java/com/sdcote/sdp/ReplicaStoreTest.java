@@ -0,0 +1,269 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+import coyote.commons.dataframe.marshal.JSONMarshaler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaStoreTest {
+
+    @TempDir
+    Path dir;
+
+
+    private static DataFrame asset(int id, String state, long updated) {
+        return JSONMarshaler.marshal(String.format("{\"id\":\"%d\",\"name\":\"AP-%d\",\"state\":{\"name\":\"%s\"},\"last_updated_time\":{\"display_value\":\"\",\"value\":\"%d\"}}", id, id, state, updated)).get(0);
+    }
+
+
+    private static DataFrame owned(int id, String serial, String email, long updated) {
+        return JSONMarshaler.marshal(String.format("{\"id\":\"%d\",\"serial_number\":\"%s\",\"user\":{\"email_id\":\"%s\"},\"last_updated_time\":{\"value\":\"%d\"}}", id, serial, email, updated)).get(0);
+    }
+
+
+    private static String state(DataFrame record) {
+        return ((DataFrame) record.getObject("state")).getAsString("name");
+    }
+
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
+
+
+    @Test
+    void keepsLatestVersionAcrossReopen() throws IOException {
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            replica.put(asset(1, "In Use", 100));
+            replica.put(asset(2, "In Use", 100));
+            replica.put(asset(1, "Expired", 200));
+            assertTrue(replica.remove("2"));
+            assertFalse(replica.remove("3"));
+            assertEquals("Expired", state(replica.get("1")));
+        }
+
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            assertEquals(1, replica.size());
+            assertEquals("Expired", state(replica.get("1")));
+            assertNull(replica.get("2"));
+            assertNull(replica.getLastSync()); // nothing was synced
+        }
+    }
+
+
+    @Test
+    void fullSyncRemovesRecordsNotSeen() throws IOException {
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            assertFalse(replica.isFresh(Duration.ofHours(1)));
+            ReplicaStore.Sync sync = replica.beginSync(true);
+            for (int i = 1; i <= 5; i++) sync.put(asset(i, "In Use", 100 + i));
+            sync.commit();
+            assertTrue(replica.isFresh(Duration.ofHours(1)));
+            assertEquals("105", replica.getWatermark());
+
+            sync = replica.beginSync(false);
+            sync.put(asset(6, "In Store", 300));
+            sync.commit();
+            assertEquals(6, replica.size());
+            assertEquals("300", replica.getWatermark());
+
+            sync = replica.beginSync(true);
+            sync.put(asset(2, "In Use", 102));
+            sync.put(asset(6, "In Store", 300));
+            sync.commit();
+            assertEquals(2, replica.size());
+            assertEquals(1, replica.find(record -> "In Store".equals(state(record))).size());
+        }
+
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            assertEquals(2, replica.size());
+            assertEquals("300", replica.getWatermark());
+            assertEquals(replica.getLastSync(), replica.getLastFullSync());
+        }
+    }
+
+
+    @Test
+    void compactionReclaimsSupersededVersions() throws IOException {
+        try (ReplicaStore replica = ReplicaStore.open(dir).setSegmentSize(4096)) {
+            for (int version = 0; version < 10; version++) {
+                for (int i = 0; i < 20; i++) replica.put(asset(i, "Version " + version, version));
+            }
+            for (int i = 10; i < 20; i++) replica.remove(Integer.toString(i));
+            assertTrue(segments().size() > 1);
+            long total = replica.getTotalBytes();
+
+            replica.compact();
+            assertEquals(replica.getLiveBytes(), replica.getTotalBytes());
+            assertTrue(replica.getTotalBytes() < total / 10);
+            assertEquals(10, replica.size());
+            assertEquals("Version 9", state(replica.get("3")));
+
+            replica.put(asset(3, "After", 10));
+        }
+
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            assertEquals(10, replica.size());
+            assertEquals("After", state(replica.get("3")));
+            assertNull(replica.get("15"));
+        }
+    }
+
+
+    @Test
+    void indexesFollowChanges() throws IOException {
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            replica.put(owned(1, "SN1", "jdoe@example.com", 900));
+            assertTrue(replica.createIndex("user.email_id", false));
+            assertFalse(replica.createIndex("user.email_id", false));
+            replica.createIndex("serial_number", false);
+            replica.createIndex("last_updated_time", true);
+
+            replica.put(owned(2, "SN2", "JDoe@example.com", 1000));
+            replica.put(owned(3, "SN2", "asmith@example.com", 80));
+            replica.put(owned(4, "SN4", "jdoe@example.com", 1100));
+            assertEquals(3, replica.findBy("user.email_id", "jdoe@example.com").size());
+
+            replica.put(owned(4, "SN4", "asmith@example.com", 1200)); // reassigned
+            replica.remove("1");
+            List<DataFrame> jdoe = replica.findBy("user.email_id", "jdoe@example.com");
+            assertEquals(1, jdoe.size());
+            assertEquals("2", jdoe.get(0).getAsString("id"));
+
+            Map<String, List<DataFrame>> duplicates = replica.findDuplicates("serial_number");
+            assertEquals(1, duplicates.size());
+            assertEquals(2, duplicates.get("SN2").size());
+
+            // numbers compare as numbers, so 80 comes before 1000
+            List<DataFrame> range = replica.findRange("last_updated_time", "80", "1200");
+            assertEquals(2, range.size());
+            assertEquals("3", range.get(0).getAsString("id"));
+            assertEquals("2", range.get(1).getAsString("id"));
+            assertEquals(1, replica.findRange("last_updated_time", "1100", null).size());
+
+            // the same answers without an index
+            replica.dropIndex("last_updated_time");
+            assertEquals(2, replica.findRange("last_updated_time", "80", "1200").size());
+            assertEquals(2, replica.findBy("serial_number", "sn2").size());
+        }
+    }
+
+
+    @Test
+    void keepsNumberLikeTextApart() throws IOException {
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            replica.createIndex("serial_number", true);
+            replica.put(owned(1, "0123", "a@example.com", 1));
+            replica.put(owned(2, "123", "b@example.com", 2));
+            replica.put(owned(3, "3E45678", "c@example.com", 3));
+            replica.put(owned(4, "3e45678", "d@example.com", 4));
+
+            Map<String, List<DataFrame>> duplicates = replica.findDuplicates("serial_number");
+            assertEquals(1, duplicates.size()); // only the two spellings of 3E45678, which differ by case
+            assertEquals(2, duplicates.values().iterator().next().size());
+            assertEquals("2", replica.findBy("serial_number", "123").get(0).getAsString("id"));
+            assertEquals("1", replica.findBy("serial_number", "0123").get(0).getAsString("id"));
+            assertEquals(1, replica.findRange("serial_number", "100", "200").size());
+        }
+    }
+
+
+    @Test
+    void findsByCriteriaThroughIndex() throws IOException {
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            for (int i = 0; i < 50; i++) replica.put(owned(i, "SN" + (i % 25), "user" + (i % 10) + "@example.com", 1000 + i));
+            replica.createIndex("user.email_id", false);
+            replica.createIndex("last_updated_time", true);
+
+            SearchCriteria offboarding = new SearchCriteria("user.email_id", "is", "USER3@example.com");
+            offboarding.addChild(new SearchCriteria("last_updated_time", "greater or equal", "1020").setLogicalOperator("and"));
+            assertEquals(5, replica.candidates(offboarding).size());
+            assertEquals(3, replica.find(offboarding).size()); // 1023, 1033 and 1043
+
+            SearchCriteria recent = new SearchCriteria("last_updated_time", "greater than", "1045");
+            assertEquals(4, replica.candidates(recent).size());
+            assertEquals(4, replica.find(recent).size());
+
+            // an OR-ed child can match records the leading condition does not
+            SearchCriteria either = new SearchCriteria("user.email_id", "is", "user3@example.com");
+            either.addChild(new SearchCriteria("serial_number", "is", "SN0").setLogicalOperator("or"));
+            assertNull(replica.candidates(either));
+            assertEquals(7, replica.find(either).size());
+
+            SearchCriteria unindexed = new SearchCriteria("serial_number", "starts with", "SN1");
+            assertNull(replica.candidates(unindexed));
+            assertEquals(22, replica.find(unindexed).size()); // SN1 and SN10 to SN19, twice each
+        }
+    }
+
+
+    @Test
+    void indexesCatchUpWhenOpened() throws IOException {
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            replica.createIndex("serial_number", false);
+            for (int i = 0; i < 10; i++) replica.put(owned(i, "SN" + i, "user" + i + "@example.com", i));
+        }
+        Path file = dir.resolve("index-serial_number.idx");
+        byte[] written = Files.readAllBytes(file);
+
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            assertEquals(Map.of("serial_number", false), replica.getIndexes());
+            assertEquals(1, replica.findBy("serial_number", "SN3").size());
+            replica.put(owned(3, "SN33", "user3@example.com", 3));
+            replica.put(owned(10, "SN3", "user10@example.com", 10));
+        }
+
+        Files.write(file, written); // as if the store stopped before writing the index
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            assertEquals("10", replica.findBy("serial_number", "SN3").get(0).getAsString("id"));
+            assertEquals(1, replica.findBy("serial_number", "SN33").size());
+            replica.compact();
+        }
+
+        Files.write(file, written); // older than the compacted segments
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            assertEquals("10", replica.findBy("serial_number", "SN3").get(0).getAsString("id"));
+            assertEquals(11, replica.size());
+        }
+    }
+
+
+    @Test
+    void cutsOffIncompleteEntry() throws IOException {
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            replica.put(asset(1, "In Use", 100));
+            replica.put(asset(2, "In Use", 100));
+        }
+        Path segment = segments().get(0);
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 5); // a crash part way through the second entry
+        }
+
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            assertEquals(1, replica.size());
+            assertNotNull(replica.get("1"));
+            replica.put(asset(3, "In Use", 100));
+        }
+        try (ReplicaStore replica = ReplicaStore.open(dir)) {
+            assertEquals(2, replica.size());
+            assertNotNull(replica.get("3"));
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.sdcote.sdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest {
+
+    private static final ClientCredentials CLIENT = new ClientCredentials("client", "secret", "token");
+
+    private static ResponseCache.Entry entry(String body, String etag, long storedAt) {
+        return new ResponseCache.Entry(body, 200, etag, null, storedAt);
+    }
+
+    @Test
+    void leastRecentlyUsedEviction() {
+        ResponseCache cache = new ResponseCache(2, Duration.ofMinutes(5));
+        long now = System.currentTimeMillis();
+        cache.put("a", entry("A", null, now));
+        cache.put("b", entry("B", null, now));
+        assertNotNull(cache.get("a")); // a is now the most recently used
+        cache.put("c", entry("C", null, now));
+
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a").getBody());
+        assertEquals("C", cache.get("c").getBody());
+        assertEquals(1, cache.getStatistics().getEvictions());
+    }
+
+    @Test
+    void staleEntries() {
+        ResponseCache cache = new ResponseCache(10, Duration.ofSeconds(30));
+        long old = System.currentTimeMillis() - 60_000;
+        cache.put("plain", entry("A", null, old));
+        cache.put("tagged", entry("B", "\"v1\"", old));
+
+        // stale without validators is discarded, with validators it is kept for revalidation
+        assertNull(cache.get("plain"));
+        ResponseCache.Entry tagged = cache.get("tagged");
+        assertNotNull(tagged);
+        assertFalse(cache.isFresh(tagged));
+        assertTrue(cache.isFresh(tagged.revalidated()));
+    }
+
+    @Test
+    void keysSeparateClientsAndNormalize() {
+        URI uri = URI.create("https://SDP.Example.com/api/v3/./workstations?input_data=%7B%7D");
+        String key = ResponseCache.key(CLIENT, uri);
+        assertEquals(key, ResponseCache.key(CLIENT, URI.create("https://sdp.example.com/api/v3/workstations?input_data=%7B%7D")));
+        assertNotEquals(key, ResponseCache.key(new ClientCredentials("other", null, null), uri));
+    }
+
+    @Test
+    void diskTier() throws IOException {
+        Path dir = Files.createTempDirectory("sdpcache");
+        long now = System.currentTimeMillis();
+        new ResponseCache(10, Duration.ofMinutes(5)).setDirectory(dir).put("key", new ResponseCache.Entry("{\"a\":1}", 200, "\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT", now));
+
+        ResponseCache reloaded = new ResponseCache(10, Duration.ofMinutes(5)).setDirectory(dir);
+        ResponseCache.Entry entry = reloaded.get("key");
+        assertNotNull(entry);
+        assertEquals("{\"a\":1}", entry.getBody());
+        assertEquals("\"v1\"", entry.getEtag());
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", entry.getLastModified());
+        assertEquals(now, entry.getStoredAt());
+    }
+}
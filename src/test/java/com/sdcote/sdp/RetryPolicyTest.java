@@ -0,0 +1,54 @@
+package com.sdcote.sdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpHeaders;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryPolicyTest {
+
+    private static HttpHeaders retryAfter(String value) {
+        return HttpHeaders.of(Map.of("Retry-After", List.of(value)), (name, val) -> true);
+    }
+
+    @Test
+    void retryableCalls() {
+        RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.shouldRetry("GET", 503, 1));
+        assertTrue(policy.shouldRetry("GET", 429, 1));
+        assertTrue(policy.shouldRetry("GET", 0, 1)); // no response
+        assertFalse(policy.shouldRetry("GET", 404, 1));
+        assertFalse(policy.shouldRetry("GET", 503, RetryPolicy.DEFAULT_MAX_ATTEMPTS));
+
+        // writes are only retried when asked to
+        assertFalse(policy.shouldRetry("PUT", 503, 1));
+        assertTrue(policy.setRetryWrites(true).shouldRetry("PUT", 503, 1));
+
+        assertFalse(RetryPolicy.none().shouldRetry("GET", 503, 1));
+    }
+
+    @Test
+    void exponentialBackoffWithJitter() {
+        RetryPolicy policy = new RetryPolicy().setBaseDelay(100).setMaxDelay(1000);
+        for (int i = 0; i < 50; i++) {
+            long first = policy.delayMillis(1, null);
+            assertTrue(first >= 50 && first <= 100, "first delay " + first);
+            long third = policy.delayMillis(3, null);
+            assertTrue(third >= 200 && third <= 400, "third delay " + third);
+            long capped = policy.delayMillis(10, null);
+            assertTrue(capped >= 500 && capped <= 1000, "capped delay " + capped);
+        }
+    }
+
+    @Test
+    void honorsRetryAfter() {
+        RetryPolicy policy = new RetryPolicy().setBaseDelay(100).setMaxDelay(10_000);
+        assertTrue(policy.delayMillis(1, retryAfter("5")) >= 5000);
+
+        // a longer wait than the maximum delay is not worth retrying
+        assertEquals(-1, policy.delayMillis(1, retryAfter("30")));
+    }
+}
@@ -7,6 +7,8 @@ import org.junit.jupiter.api.Test;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SearchCriteriaTest {
 
@@ -332,4 +334,42 @@ class SearchCriteriaTest {
         List<DataFrame> frames = JSONMarshaler.marshal(json);
         System.out.println(frames);
     }
-}
\ No newline at end of file
+
+    @Test
+    void afterGroupsOtherCriteria() {
+        SearchCriteria seek = SearchCriteria.after("id", "1001", null);
+        assertEquals("id", seek.getField());
+        assertEquals("greater than", seek.getCondition());
+        assertEquals("1001", seek.getValue());
+        assertFalse(seek.getDataFrame().contains("children"));
+
+        SearchCriteria list = new SearchCriteria("[{\"field\":\"state.name\",\"condition\":\"is\",\"value\":\"In Use\"},"
+                + "{\"field\":\"state.name\",\"condition\":\"is\",\"value\":\"In Store\",\"logical_operator\":\"OR\"}]");
+        seek = SearchCriteria.after("id", "1001", list);
+        DataFrame children = (DataFrame) seek.getDataFrame().getObject("children");
+        assertEquals(1, children.getFields().size());
+        SearchCriteria group = new SearchCriteria((DataFrame) children.getFields().get(0).getObjectValue());
+        assertEquals("In Use", group.getValue());
+        assertEquals("and", group.getLogicalOperator());
+        assertEquals(1, ((DataFrame) group.getDataFrame().getObject("children")).getFields().size());
+
+        // the original criteria are not changed
+        assertTrue(list.getDataFrame().isArray());
+    }
+
+    @Test
+    void rangeIncludesLowerBoundOnly() {
+        SearchCriteria range = SearchCriteria.range("id", "100", "200", new SearchCriteria("state.name", "is", "In Use"));
+        assertEquals("greater or equal", range.getCondition());
+        assertEquals("100", range.getValue());
+        DataFrame children = (DataFrame) range.getDataFrame().getObject("children");
+        assertEquals(2, children.getFields().size());
+        SearchCriteria upper = new SearchCriteria((DataFrame) children.getFields().get(0).getObjectValue());
+        assertEquals("lesser than", upper.getCondition());
+        assertEquals("200", upper.getValue());
+        assertEquals("and", upper.getLogicalOperator());
+        SearchCriteria state = new SearchCriteria((DataFrame) children.getFields().get(1).getObjectValue());
+        assertEquals("In Use", state.getValue());
+        assertEquals("and", state.getLogicalOperator());
+    }
+}
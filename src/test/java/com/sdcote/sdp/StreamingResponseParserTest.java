@@ -0,0 +1,88 @@
+package com.sdcote.sdp;
+
+import coyote.commons.dataframe.DataFrame;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingResponseParserTest {
+
+    private static final String RESPONSE = "{\"workstations\":[" +
+            "{\"name\":\"WS-1\",\"id\":\"1\",\"state\":{\"name\":\"In Use\"}}," +
+            "{\"name\":\"WS-{2}\",\"id\":\"2\",\"notes\":\"brackets ] and \\\"quotes\\\"\"}," +
+            "{\"name\":\"WS-3\",\"id\":\"3\",\"tags\":[\"a\",\"b\"]}" +
+            "],\"response_status\":[{\"status_code\":2000,\"status\":\"success\"}]," +
+            "\"list_info\":{\"has_more_rows\":false,\"row_count\":3}}";
+
+    @Test
+    void recordsInChunks() {
+        // feed the response a few characters at a time, as it would arrive over the network
+        for (int chunk : new int[]{1, 5, 64, RESPONSE.length()}) {
+            List<DataFrame> records = new ArrayList<>();
+            StreamingResponseParser parser = new StreamingResponseParser("workstations", records::add);
+            for (int i = 0; i < RESPONSE.length(); i += chunk) {
+                parser.parse(RESPONSE.substring(i, Math.min(RESPONSE.length(), i + chunk)));
+            }
+
+            assertEquals(3, records.size());
+            assertEquals(3, parser.getRecordCount());
+            assertEquals("WS-1", records.get(0).getAsString("name"));
+            assertEquals("WS-{2}", records.get(1).getAsString("name"));
+            assertEquals("3", records.get(2).getAsString("id"));
+            assertNotNull(parser.getResponseStatus());
+            assertNotNull(parser.getListInfo());
+            assertEquals("3", parser.getListInfo().getAsString("row_count"));
+        }
+    }
+
+    @Test
+    void singleResult() {
+        List<DataFrame> records = new ArrayList<>();
+        StreamingResponseParser parser = new StreamingResponseParser("workstation", records::add);
+        parser.parse("{\"workstation\":{\"name\":\"WS-1\",\"id\":\"1\"},\"response_status\":{\"status_code\":2000}}");
+
+        assertEquals(1, records.size());
+        assertEquals("WS-1", records.get(0).getAsString("name"));
+        assertNotNull(parser.getResponseStatus());
+        assertNull(parser.getListInfo());
+    }
+
+    @Test
+    void consumerFailure() {
+        StreamingResponseParser parser = new StreamingResponseParser("workstations", frame -> {
+            throw new IllegalStateException("full");
+        });
+        parser.parse(RESPONSE);
+        assertNotNull(parser.getConsumerError());
+        assertNotNull(parser.getListInfo());
+    }
+
+    @Test
+    void malformedRecordFailsBody() {
+        HttpResponse.BodySubscriber<StreamingResponseParser> subscriber = new StreamingResponseParser("workstations", frame -> {
+        }).bodySubscriber();
+        boolean[] cancelled = {false};
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+                cancelled[0] = true;
+            }
+        });
+        subscriber.onNext(List.of(ByteBuffer.wrap("{\"workstations\":[{\"id\": }]}".getBytes(StandardCharsets.UTF_8))));
+        assertTrue(cancelled[0]);
+        CompletableFuture<StreamingResponseParser> body = subscriber.getBody().toCompletableFuture();
+        assertTrue(body.isCompletedExceptionally());
+    }
+}
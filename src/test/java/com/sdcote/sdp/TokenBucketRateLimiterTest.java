@@ -0,0 +1,58 @@
+package com.sdcote.sdp;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpHeaders;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketRateLimiterTest {
+
+    @Test
+    void burstThenLimited() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(60, 3);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    void acquireWaitsForNextPermit() throws InterruptedException {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(600, 1); // one every 100ms
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMillis >= 250, "elapsed " + elapsedMillis);
+    }
+
+    @Test
+    void tooManyRequestsSlowsDown() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(600, 5);
+        HttpHeaders headers = HttpHeaders.of(Map.of("Retry-After", List.of("2")), (name, value) -> true);
+        limiter.onResponse(429, headers);
+
+        assertFalse(limiter.tryAcquire());
+        assertEquals(300, limiter.getEffectiveCallsPerMinute(), 0.001);
+
+        // successful responses restore the configured rate
+        for (int i = 0; i < 20; i++) {
+            limiter.onResponse(200, null);
+        }
+        assertEquals(600, limiter.getEffectiveCallsPerMinute(), 0.001);
+    }
+
+    @Test
+    void separateBudgets() {
+        RateLimiterRegistry registry = new RateLimiterRegistry();
+        RateLimiter read = registry.getLimiter("client", RateLimiterRegistry.Operation.READ);
+        assertSame(read, registry.getLimiter(new ClientCredentials("client", null, null), "GET"));
+        assertNotSame(read, registry.getLimiter("client", RateLimiterRegistry.Operation.WRITE));
+        assertNotSame(read, registry.getLimiter("other", RateLimiterRegistry.Operation.READ));
+        assertEquals(RateLimiterRegistry.Operation.WRITE, RateLimiterRegistry.Operation.of("PUT"));
+    }
+}
@@ -0,0 +1,47 @@
+package com.sdcote.sdp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WatermarkStoreTest {
+
+    @TempDir
+    Path dir;
+
+
+    @Test
+    void roundTrip() {
+        Path file = dir.resolve(WatermarkStore.DEFAULT_FILENAME);
+        String key = WatermarkStore.key("/assets", "last_updated_time", null);
+        assertNull(new WatermarkStore(file).load(key));
+
+        assertTrue(new WatermarkStore(file).save(key, "1700000000000"));
+        assertEquals("1700000000000", new WatermarkStore(file).load(key));
+
+        new WatermarkStore(file).save(key, null);
+        assertNull(new WatermarkStore(file).load(key));
+    }
+
+
+    @Test
+    void keepsOtherQueries() {
+        Path file = dir.resolve("shared.watermarks");
+        String all = WatermarkStore.key("/assets", "last_updated_time", null);
+        String inUse = WatermarkStore.key("/assets", "last_updated_time", new SearchCriteria("state.name", "is", "In Use"));
+        assertNotEquals(all, inUse);
+        assertEquals(all, WatermarkStore.key("/assets", "last_updated_time", null, null));
+        assertNotEquals(all, WatermarkStore.key("/assets", "last_updated_time", null, "site.name in [Remote]"));
+
+        new WatermarkStore(file).save(all, "1");
+        new WatermarkStore(file).save(inUse, "2");
+
+        WatermarkStore store = new WatermarkStore(file);
+        assertEquals("1", store.load(all));
+        assertEquals("2", store.load(inUse));
+    }
+
+}
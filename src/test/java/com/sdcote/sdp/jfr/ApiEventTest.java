@@ -0,0 +1,59 @@
+package com.sdcote.sdp.jfr;
+
+import com.sdcote.sdp.ClientCredentials;
+import com.sdcote.sdp.FakeServiceDesk;
+import com.sdcote.sdp.OAuthAccessTokenTracker;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApiEventTest {
+
+    @TempDir
+    Path dir;
+
+
+    private static List<RecordedEvent> events(List<RecordedEvent> all, String name) {
+        return all.stream().filter(e -> e.getEventType().getName().equals(name)).collect(Collectors.toList());
+    }
+
+
+    @Test
+    void recordsTokenEvents() throws Exception {
+        ClientCredentials client = new ClientCredentials("1000.TEST", "secret", "1000.refresh");
+        Path file = dir.resolve("tokens.jfr");
+        try (FakeServiceDesk server = new FakeServiceDesk().start(); Recording recording = new Recording()) {
+            recording.enable(TokenAcquisitionEvent.class).withoutThreshold();
+            recording.enable(TokenRefreshEvent.class).withoutThreshold();
+            recording.start();
+
+            OAuthAccessTokenTracker tracker = new OAuthAccessTokenTracker(server.getTokenUrl(), 60);
+            tracker.getAccessToken(client);
+            tracker.getAccessToken(client);
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> all = RecordingFile.readAllEvents(file);
+        List<RecordedEvent> refreshes = events(all, "com.sdcote.sdp.TokenRefresh");
+        assertEquals(1, refreshes.size());
+        assertEquals(200, refreshes.get(0).getInt("status"));
+        assertEquals("1000.TEST", refreshes.get(0).getString("client"));
+        assertTrue(refreshes.get(0).getLong("bytes") > 0);
+        assertTrue(refreshes.get(0).getString("endpoint").endsWith("/token"));
+
+        List<RecordedEvent> acquisitions = events(all, "com.sdcote.sdp.TokenAcquisition");
+        assertEquals(2, acquisitions.size());
+        assertEquals(1, acquisitions.stream().filter(e -> e.getBoolean("cached")).count());
+    }
+
+}